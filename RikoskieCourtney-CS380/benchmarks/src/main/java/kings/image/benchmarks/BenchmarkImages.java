@@ -0,0 +1,105 @@
+package kings.image.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Makes the test images for the benchmarks. The images are filled with random
+ * pixels from a fixed seed, so every run and every backend sees the same data.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-18-19
+ */
+final class BenchmarkImages {
+	/** The seed for the random pixels. */
+	private static final long SEED = 380;
+
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private BenchmarkImages() {
+	}
+
+	/**
+	 * Creates a square image of random pixels.
+	 * 
+	 * @param size
+	 *            The width and height of the image.
+	 * @param pixelType
+	 *            The name of a BufferedImage type, such as "TYPE_3BYTE_BGR".
+	 * @return The image.
+	 */
+	static BufferedImage createImage(int size, String pixelType) {
+		BufferedImage image = new BufferedImage(size, size, getType(pixelType));
+		int[] row = createPixels(size, size);
+
+		for (int y = 0; y < size; y += 1) {
+			image.setRGB(0, y, size, 1, row, y * size, size);
+		}
+
+		return image;
+	}
+
+	/**
+	 * Creates an array of random ARGB pixels.
+	 * 
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @return The pixels.
+	 */
+	static int[] createPixels(int width, int height) {
+		Random random = new Random(SEED);
+		int[] pixels = new int[width * height];
+
+		for (int index = 0; index < pixels.length; index += 1) {
+			pixels[index] = random.nextInt();
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Converts an image to TYPE_INT_ARGB the way the GUI does when it loads a
+	 * file of a type it cannot read straight from the raster.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @return The converted image.
+	 */
+	static BufferedImage toArgb(BufferedImage image) {
+		BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = argb.createGraphics();
+
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		return argb;
+	}
+
+	/**
+	 * Gets a BufferedImage type from its name.
+	 * 
+	 * @param pixelType
+	 *            The name of the type, such as "TYPE_INT_RGB".
+	 * @return The type.
+	 */
+	private static int getType(String pixelType) {
+		switch (pixelType) {
+		case "TYPE_INT_ARGB":
+			return BufferedImage.TYPE_INT_ARGB;
+		case "TYPE_INT_RGB":
+			return BufferedImage.TYPE_INT_RGB;
+		case "TYPE_3BYTE_BGR":
+			return BufferedImage.TYPE_3BYTE_BGR;
+		case "TYPE_4BYTE_ABGR":
+			return BufferedImage.TYPE_4BYTE_ABGR;
+		case "TYPE_BYTE_GRAY":
+			return BufferedImage.TYPE_BYTE_GRAY;
+		default:
+			throw new IllegalArgumentException("Unknown pixel type " + pixelType);
+		}
+	}
+}
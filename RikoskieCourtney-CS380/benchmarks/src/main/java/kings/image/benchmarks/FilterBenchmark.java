@@ -0,0 +1,155 @@
+package kings.image.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kings.image.ForkJoinImageProcessor;
+import kings.image.ImageProcessor;
+import kings.image.VectorSupport;
+
+/**
+ * Benchmarks the grayscale and sepia filters on the CPU backends. The
+ * BufferedImage benchmarks measure what the GUI does, including the result
+ * image it allocates; the array benchmarks measure the filter alone. The
+ * image is TYPE_INT_ARGB; ImageConversionBenchmark measures filtering the
+ * other types straight from their rasters.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-18-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class FilterBenchmark {
+	/** The width and height of the image. */
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+
+	/** The processor to run the filters on. */
+	@Param({ "serial", "forkjoin", "simd" })
+	public String backend;
+
+	/** The processor. */
+	private ImageProcessor processor;
+	/** The image. */
+	private BufferedImage image;
+	/** The pixels of the image. */
+	private int[] input;
+	/** The array the array benchmarks write into. */
+	private int[] output;
+
+	/**
+	 * Creates the processor and the image. The "simd" trials fail when the
+	 * Vector API is missing, instead of timing the serial fallback under the
+	 * SIMD name.
+	 */
+	@Setup
+	public void setUp() {
+		switch (backend) {
+		case "serial":
+			processor = new ImageProcessor();
+			break;
+		case "forkjoin":
+			processor = new ForkJoinImageProcessor();
+			break;
+		case "simd":
+			if (!VectorSupport.isAvailable()) {
+				throw new IllegalStateException("The Vector API is not available; build with -P simd and run with"
+						+ " --add-modules=jdk.incubator.vector,jdk.incubator.foreign");
+			}
+
+			processor = VectorSupport.createProcessor();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown backend " + backend);
+		}
+
+		image = BenchmarkImages.createImage(size, "TYPE_INT_ARGB");
+		input = processor.getPixelData(image);
+		output = new int[input.length];
+	}
+
+	/**
+	 * Stops the processor's worker threads.
+	 */
+	@TearDown
+	public void tearDown() {
+		if (processor instanceof ForkJoinImageProcessor) {
+			((ForkJoinImageProcessor) processor).shutdown();
+		}
+	}
+
+	/**
+	 * Grayscales the image into a new image.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result image.
+	 */
+	@Benchmark
+	public BufferedImage grayscale(PixelCounter counter) {
+		counter.pixels += input.length;
+
+		return processor.grayscale(image);
+	}
+
+	/**
+	 * Applies sepia to the image into a new image.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result image.
+	 */
+	@Benchmark
+	public BufferedImage sepia(PixelCounter counter) {
+		counter.pixels += input.length;
+
+		return processor.sepia(image);
+	}
+
+	/**
+	 * Grayscales the pixels into an existing array.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result pixels.
+	 */
+	@Benchmark
+	public int[] grayscaleArray(PixelCounter counter) {
+		counter.pixels += input.length;
+		processor.process("Grayscale", input, output);
+
+		return output;
+	}
+
+	/**
+	 * Applies sepia to the pixels into an existing array.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result pixels.
+	 */
+	@Benchmark
+	public int[] sepiaArray(PixelCounter counter) {
+		counter.pixels += input.length;
+		processor.process("Sepia", input, output);
+
+		return output;
+	}
+}
@@ -0,0 +1,129 @@
+package kings.image.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kings.image.ImageProcessor;
+import kings.image.RasterPixels;
+
+/**
+ * Benchmarks moving pixels in and out of images: reading the pixel array of
+ * an image, building a result image from a pixel array, converting an image
+ * of another type to TYPE_INT_ARGB as the GUI used to when it loaded one, and
+ * filtering an image of each type straight from its own raster.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-18-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class ImageConversionBenchmark {
+	/** The width and height of the image. */
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+
+	/** The type of the source image. */
+	@Param({ "TYPE_INT_ARGB", "TYPE_INT_RGB", "TYPE_3BYTE_BGR", "TYPE_4BYTE_ABGR", "TYPE_BYTE_GRAY" })
+	public String pixelType;
+
+	/** The processor that owns the conversions. */
+	private ImageProcessor processor;
+	/** The source image. */
+	private BufferedImage source;
+	/** The source image, converted to TYPE_INT_ARGB. */
+	private BufferedImage image;
+	/** The pixels of the image. */
+	private int[] pixels;
+	/** The image the result pixels are copied into. */
+	private BufferedImage result;
+	/** The image the source is filtered into. */
+	private BufferedImage destination;
+
+	/**
+	 * Creates the images.
+	 */
+	@Setup
+	public void setUp() {
+		processor = new ImageProcessor();
+		source = BenchmarkImages.createImage(size, pixelType);
+		image = BenchmarkImages.toArgb(source);
+		pixels = processor.getPixelData(image);
+		result = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		destination = RasterPixels.createDestination(source);
+	}
+
+	/**
+	 * Converts the source image to TYPE_INT_ARGB.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The converted image.
+	 */
+	@Benchmark
+	public BufferedImage toArgb(PixelCounter counter) {
+		counter.pixels += pixels.length;
+
+		return BenchmarkImages.toArgb(source);
+	}
+
+	/**
+	 * Reads the pixel array of the image.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The pixels.
+	 */
+	@Benchmark
+	public int[] getPixelData(PixelCounter counter) {
+		counter.pixels += pixels.length;
+
+		return processor.getPixelData(image);
+	}
+
+	/**
+	 * Copies a pixel array into the result image.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result image.
+	 */
+	@Benchmark
+	public BufferedImage convertPixelDataToImage(PixelCounter counter) {
+		counter.pixels += pixels.length;
+
+		return processor.convertPixelDataToImage(pixels, image, result);
+	}
+
+	/**
+	 * Filters the source image into an image of the same type, reading and
+	 * writing the rasters directly.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The filtered image.
+	 */
+	@Benchmark
+	public BufferedImage filterRaster(PixelCounter counter) {
+		counter.pixels += pixels.length;
+
+		processor.filter("Sepia", source, destination);
+
+		return destination;
+	}
+}
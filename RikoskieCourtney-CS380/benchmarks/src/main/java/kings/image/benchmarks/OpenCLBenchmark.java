@@ -0,0 +1,108 @@
+package kings.image.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kings.image.ParallelImageProcessor;
+
+/**
+ * Benchmarks the OpenCL kernels, including the transfers to and from the
+ * device. On a machine without a GPU, a CPU runtime such as POCL can be used.
+ * The device is the first one whose name contains the kings.benchmark.device
+ * system property, or the first device if the property is not set; pass it
+ * with <code>-jvmArgsAppend -Dkings.benchmark.device=pthread</code>.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-18-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class OpenCLBenchmark {
+	/** The system property that picks the device. */
+	public static final String DEVICE_PROPERTY = "kings.benchmark.device";
+
+	/** The width and height of the image. */
+	@Param({ "256", "1024", "4096", "8192" })
+	public int size;
+
+	/** The algorithm to run. */
+	@Param({ "Grayscale", "Sepia" })
+	public String algorithm;
+
+	/** The OpenCL processor. */
+	private ParallelImageProcessor processor;
+	/** The pixels of the image. */
+	private int[] input;
+	/** The array the result is written into. */
+	private int[] output;
+
+	/**
+	 * Picks the device and creates the pixels. One run is made here so the
+	 * kernel is built before the warmup starts.
+	 */
+	@Setup
+	public void setUp() {
+		processor = new ParallelImageProcessor();
+
+		String wanted = System.getProperty(DEVICE_PROPERTY);
+		String[] names = processor.getDeviceNames();
+
+		if (wanted != null) {
+			int index = 0;
+
+			while (index < names.length && !names[index].contains(wanted)) {
+				index += 1;
+			}
+
+			if (index == names.length) {
+				throw new IllegalStateException("No OpenCL device matches " + wanted);
+			}
+
+			processor.setDeviceID(index);
+		}
+
+		input = BenchmarkImages.createPixels(size, size);
+		output = new int[input.length];
+
+		processor.runAlgorithm(algorithm, input, output);
+	}
+
+	/**
+	 * Releases the OpenCL resources.
+	 */
+	@TearDown
+	public void tearDown() {
+		processor.release();
+	}
+
+	/**
+	 * Runs the algorithm on the device.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result pixels.
+	 */
+	@Benchmark
+	public int[] runAlgorithm(PixelCounter counter) {
+		counter.pixels += input.length;
+		processor.runAlgorithm(algorithm, input, output);
+
+		return output;
+	}
+}
@@ -0,0 +1,140 @@
+package kings.image.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kings.image.Pixel;
+
+/**
+ * Benchmarks the Pixel accessors against the same work done with masks and
+ * shifts on the packed int. Run with the GC profiler to see whether the Pixel
+ * objects are allocated or removed by escape analysis.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-18-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelBenchmark {
+	/** The width and height of the image. */
+	@Param({ "256", "1024" })
+	public int size;
+
+	/** The pixels. */
+	private int[] input;
+	/** The array the write benchmarks store into. */
+	private int[] output;
+
+	/**
+	 * Creates the pixels.
+	 */
+	@Setup
+	public void setUp() {
+		input = BenchmarkImages.createPixels(size, size);
+		output = new int[input.length];
+	}
+
+	/**
+	 * Reads every channel through Pixel.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The sum of the channels.
+	 */
+	@Benchmark
+	public long readPixel(PixelCounter counter) {
+		long sum = 0;
+
+		for (int index = 0; index < input.length; index += 1) {
+			Pixel pixel = new Pixel(input[index]);
+			sum += pixel.getRed() + pixel.getGreen() + pixel.getBlue();
+		}
+
+		counter.pixels += input.length;
+
+		return sum;
+	}
+
+	/**
+	 * Reads every channel with masks and shifts.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The sum of the channels.
+	 */
+	@Benchmark
+	public long readPacked(PixelCounter counter) {
+		long sum = 0;
+
+		for (int index = 0; index < input.length; index += 1) {
+			int data = input[index];
+			sum += ((data & Pixel.RED_MASK) >>> Pixel.RED_OFFSET) + ((data & Pixel.GREEN_MASK) >>> Pixel.GREEN_OFFSET)
+					+ (data & Pixel.BLUE_MASK);
+		}
+
+		counter.pixels += input.length;
+
+		return sum;
+	}
+
+	/**
+	 * Swaps the red and blue channels through Pixel.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result pixels.
+	 */
+	@Benchmark
+	public int[] writePixel(PixelCounter counter) {
+		for (int index = 0; index < input.length; index += 1) {
+			Pixel pixel = new Pixel(input[index]);
+			int red = pixel.getRed();
+
+			pixel.setRed(pixel.getBlue());
+			pixel.setGreen(pixel.getGreen());
+			pixel.setBlue(red);
+			output[index] = pixel.getData();
+		}
+
+		counter.pixels += input.length;
+
+		return output;
+	}
+
+	/**
+	 * Swaps the red and blue channels with masks and shifts.
+	 * 
+	 * @param counter
+	 *            The pixel counter.
+	 * @return The result pixels.
+	 */
+	@Benchmark
+	public int[] writePacked(PixelCounter counter) {
+		for (int index = 0; index < input.length; index += 1) {
+			int data = input[index];
+			int red = (data & Pixel.RED_MASK) >>> Pixel.RED_OFFSET;
+			int blue = data & Pixel.BLUE_MASK;
+
+			output[index] = (data & (Pixel.ALPHA_MASK | Pixel.GREEN_MASK)) | (blue << Pixel.RED_OFFSET) | red;
+		}
+
+		counter.pixels += input.length;
+
+		return output;
+	}
+}
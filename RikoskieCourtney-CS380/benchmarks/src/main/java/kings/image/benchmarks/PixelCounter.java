@@ -0,0 +1,30 @@
+package kings.image.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the pixels a benchmark processed. JMH reports the count as a rate in
+ * the benchmark's time unit, so with microseconds the "pixels" column is in
+ * megapixels per second.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-18-19
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PixelCounter {
+	/** The number of pixels processed in this iteration. */
+	public long pixels;
+
+	/**
+	 * Starts each iteration from zero.
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+		pixels = 0;
+	}
+}
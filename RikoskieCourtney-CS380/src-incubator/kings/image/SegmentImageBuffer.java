@@ -0,0 +1,105 @@
+package kings.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * An image buffer held in a native memory segment of the JDK foreign memory
+ * API. The segment is indexed with longs, so it can hold more than 2^31
+ * pixels, and its memory is freed as soon as the buffer is closed rather than
+ * when the garbage collector gets to it. OpenCL reads and writes it in place
+ * through direct views of up to 2^31 bytes at a time.
+ * 
+ * This class needs JDK 17 with <code>--add-modules jdk.incubator.foreign</code>.
+ * Use {@link ImageBuffers#allocateNative(long)} instead of constructing it
+ * directly.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-28-19
+ */
+public class SegmentImageBuffer implements ImageBuffer {
+	/** The alignment of the segment, one cache line. */
+	private static final long ALIGNMENT = 64;
+
+	/** The scope that owns the memory. */
+	private final ResourceScope scope;
+	/** The pixels. */
+	private final MemorySegment segment;
+	/** The number of pixels. */
+	private final long size;
+
+	/**
+	 * Constructs a SegmentImageBuffer with newly allocated native memory.
+	 * 
+	 * @param size
+	 *            The number of pixels.
+	 */
+	public SegmentImageBuffer(long size) {
+		this.size = size;
+
+		scope = ResourceScope.newSharedScope();
+		segment = MemorySegment.allocateNative(Math.multiplyExact(size, Integer.BYTES), ALIGNMENT, scope);
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int get(long index) {
+		return MemoryAccess.getIntAtIndex(segment, index);
+	}
+
+	@Override
+	public void set(long index, int pixel) {
+		MemoryAccess.setIntAtIndex(segment, index, pixel);
+	}
+
+	@Override
+	public void get(long index, int[] destination, int offset, int length) {
+		MemorySegment.ofArray(destination).asSlice((long) offset * Integer.BYTES, (long) length * Integer.BYTES)
+				.copyFrom(slice(index, length));
+	}
+
+	@Override
+	public void put(long index, int[] source, int offset, int length) {
+		slice(index, length).copyFrom(
+				MemorySegment.ofArray(source).asSlice((long) offset * Integer.BYTES, (long) length * Integer.BYTES));
+	}
+
+	@Override
+	public int[] array() {
+		return null;
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(long index, int length) {
+		return slice(index, length).asByteBuffer().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Frees the native memory at once.
+	 */
+	@Override
+	public void close() {
+		scope.close();
+	}
+
+	/**
+	 * Gets a range of the pixels.
+	 * 
+	 * @param index
+	 *            The index of the first pixel.
+	 * @param length
+	 *            The number of pixels.
+	 * @return The slice of the segment.
+	 */
+	private MemorySegment slice(long index, int length) {
+		return segment.asSlice(index * Integer.BYTES, (long) length * Integer.BYTES);
+	}
+}
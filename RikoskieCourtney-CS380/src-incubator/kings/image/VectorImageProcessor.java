@@ -0,0 +1,179 @@
+package kings.image;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Algorithms for processing images with SIMD instructions through the JDK
+ * Vector API. Each loop step handles as many pixels as the CPU has int lanes
+ * (8 with AVX2, 16 with AVX-512), and the pixels left over at the end are
+ * handled by the scalar PixelOps loop. The results are identical to the serial
+ * image processor.
+ * 
+ * This class needs JDK 16 or newer with
+ * <code>--add-modules jdk.incubator.vector</code>. Use
+ * {@link VectorSupport#createProcessor()} instead of constructing it directly.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-14-19
+ */
+public class VectorImageProcessor extends ImageProcessor {
+	/** The widest vector shape the CPU supports. */
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	/** The multiplier that divides a channel sum by three. */
+	private static final int THIRD_MULTIPLIER = 21846;
+	/** The shift that divides a channel sum by three. */
+	private static final int THIRD_SHIFT = 16;
+
+	/**
+	 * Runs the given algorithm over a range of the pixel data.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(String algorithm, int[] input, int[] output, int start, int end) {
+		switch (algorithm) {
+		case "Grayscale":
+			grayscale(input, output, start, end);
+			break;
+		case "Sepia":
+			int[] sepia = getSepia();
+
+			sepia(input, output, start, end, sepia[0], sepia[1]);
+			break;
+		default:
+			super.process(algorithm, input, output, start, end);
+		}
+	}
+
+	/**
+	 * Gets the name of the device the algorithms run on, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	@Override
+	public String getDeviceName() {
+		return "CPU SIMD";
+	}
+
+	/**
+	 * Gets the number of pixels handled by one vector instruction.
+	 * 
+	 * @return The number of int lanes.
+	 */
+	public static int getLanes() {
+		return SPECIES.length();
+	}
+
+	/**
+	 * Grayscales a range of pixels.
+	 * 
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	private static void grayscale(int[] input, int[] output, int start, int end) {
+		int index = start;
+		int upper = start + SPECIES.loopBound(end - start);
+
+		for (; index < upper; index += SPECIES.length()) {
+			IntVector pixel = IntVector.fromArray(SPECIES, input, index);
+
+			IntVector red = pixel.lanewise(VectorOperators.LSHR, Pixel.RED_OFFSET).and(PixelOps.CHANNEL_MAX);
+			IntVector green = pixel.lanewise(VectorOperators.LSHR, Pixel.GREEN_OFFSET).and(PixelOps.CHANNEL_MAX);
+			IntVector blue = pixel.and(PixelOps.CHANNEL_MAX);
+
+			IntVector gray = red.mul(PixelOps.LUMA_RED).add(green.mul(PixelOps.LUMA_GREEN))
+					.add(blue.mul(PixelOps.LUMA_BLUE)).lanewise(VectorOperators.LSHR, PixelOps.LUMA_SHIFT);
+
+			pack(pixel, gray, gray, gray).intoArray(output, index);
+		}
+
+		PixelOps.grayscale(input, output, index, end);
+	}
+
+	/**
+	 * Applies sepia to a range of pixels.
+	 * 
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @param depth
+	 *            The sepia depth.
+	 * @param intensity
+	 *            The sepia intensity.
+	 */
+	private static void sepia(int[] input, int[] output, int start, int end, int depth, int intensity) {
+		int index = start;
+		int upper = start + SPECIES.loopBound(end - start);
+
+		for (; index < upper; index += SPECIES.length()) {
+			IntVector pixel = IntVector.fromArray(SPECIES, input, index);
+
+			IntVector sum = pixel.lanewise(VectorOperators.LSHR, Pixel.RED_OFFSET).and(PixelOps.CHANNEL_MAX)
+					.add(pixel.lanewise(VectorOperators.LSHR, Pixel.GREEN_OFFSET).and(PixelOps.CHANNEL_MAX))
+					.add(pixel.and(PixelOps.CHANNEL_MAX));
+
+			// Channel sums are at most 765, where this multiply and shift is exact
+			IntVector average = sum.mul(THIRD_MULTIPLIER).lanewise(VectorOperators.LSHR, THIRD_SHIFT);
+
+			IntVector red = clamp(average.add(depth * 2));
+			IntVector green = clamp(average.add(depth));
+			IntVector blue = clamp(average.sub(intensity));
+
+			pack(pixel, red, green, blue).intoArray(output, index);
+		}
+
+		PixelOps.sepia(input, output, index, end, depth, intensity);
+	}
+
+	/**
+	 * Clamps every lane into the range of a color channel.
+	 * 
+	 * @param value
+	 *            The values.
+	 * @return The values limited to 0 through 255.
+	 */
+	private static IntVector clamp(IntVector value) {
+		return value.max(0).min(PixelOps.CHANNEL_MAX);
+	}
+
+	/**
+	 * Packs the color values into pixels, keeping the alpha of the given pixels.
+	 * 
+	 * @param pixel
+	 *            The pixels whose alpha values are kept.
+	 * @param red
+	 *            The red values.
+	 * @param green
+	 *            The green values.
+	 * @param blue
+	 *            The blue values.
+	 * @return The new pixel color information.
+	 */
+	private static IntVector pack(IntVector pixel, IntVector red, IntVector green, IntVector blue) {
+		return pixel.and(Pixel.ALPHA_MASK).or(red.lanewise(VectorOperators.LSHL, Pixel.RED_OFFSET))
+				.or(green.lanewise(VectorOperators.LSHL, Pixel.GREEN_OFFSET)).or(blue);
+	}
+}
@@ -0,0 +1,633 @@
+package kings.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends each job to the backend that is predicted to finish it first. Every
+ * backend has a cost model for each filter, a fixed cost plus a cost per
+ * pixel, fitted to measured run times. The models start from a short
+ * calibration on test images, which is kept in a properties file so later
+ * runs skip it, and every job's measured time is fed back into the model of
+ * the backend that ran it. Older measurements count for less, so the models
+ * follow changes such as a busy GPU. Every so often a job is sent to one of
+ * the other backends in turn instead, if it is predicted to take at most a
+ * few times as long, so a backend that has become faster is noticed and its
+ * model does not go stale. The backends bypass any result cache, so a cached
+ * result never passes for a fast run.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-20-19
+ */
+public class AdaptiveScheduler {
+	/** The name of the device that uses this scheduler. */
+	public static final String DEVICE_NAME = "Auto";
+
+	/** The sizes of the calibration images, in pixels. */
+	private static final int[] CALIBRATION_PIXELS = { 64 * 64, 512 * 512, 2048 * 2048 };
+	/** The number of timed runs at each calibration size. */
+	private static final int CALIBRATION_RUNS = 3;
+	/** The weight each older measurement keeps when a new one is added. */
+	private static final double DECAY = 0.99;
+	/** The weight of measurements a model needs before it is trusted. */
+	private static final double MIN_WEIGHT = 2;
+	/** The number of jobs in each of which one is run on a backend other than the chosen one. */
+	private static final int EXPLORE_PERIOD = 32;
+	/** How many times the best predicted time another backend may take to be run instead. */
+	private static final double EXPLORE_FACTOR = 2;
+
+	/** The backends to choose from. */
+	private final List<Backend> backends;
+	/** The file that holds the models. */
+	private final File file;
+	/** The cost models, by backend and filter. */
+	private final Map<String, CostModel> models;
+	/** The number of jobs run. */
+	private final AtomicLong jobs;
+
+	/**
+	 * Constructs an AdaptiveScheduler that keeps its models in the user's home
+	 * folder.
+	 * 
+	 * @param backends
+	 *            The backends to choose from. The first one is used for filters
+	 *            that have not been calibrated.
+	 */
+	public AdaptiveScheduler(List<Backend> backends) {
+		this(backends, new File(System.getProperty("user.home"), ".kings-image" + File.separator
+				+ "scheduler.properties"));
+	}
+
+	/**
+	 * Constructs an AdaptiveScheduler.
+	 * 
+	 * @param backends
+	 *            The backends to choose from. The first one is used for filters
+	 *            that have not been calibrated.
+	 * @param file
+	 *            The file that holds the models.
+	 */
+	public AdaptiveScheduler(List<Backend> backends, File file) {
+		if (backends.isEmpty()) {
+			throw new IllegalArgumentException("No backends to schedule on");
+		}
+
+		this.backends = new ArrayList<Backend>(backends);
+		this.file = file;
+
+		models = new ConcurrentHashMap<String, CostModel>();
+		jobs = new AtomicLong();
+
+		if (file.isFile()) {
+			Properties saved = new Properties();
+
+			try (InputStream in = new FileInputStream(file)) {
+				saved.load(in);
+			} catch (IOException e) {
+				// start with no models; the filters are calibrated again
+			}
+
+			for (String key : saved.stringPropertyNames()) {
+				CostModel model = CostModel.parse(saved.getProperty(key));
+
+				if (model != null) {
+					models.put(key, model);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes a backend that runs on a CPU image processor.
+	 * 
+	 * @param processor
+	 *            The image processor.
+	 * @return The backend.
+	 */
+	public static Backend forProcessor(ImageProcessor processor) {
+		return new ProcessorBackend(processor);
+	}
+
+	/**
+	 * Makes a backend that runs on one OpenCL device. Backends that share the
+	 * ParallelImageProcessor take turns using it.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor.
+	 * @param deviceIndex
+	 *            The index of the device.
+	 * @return The backend.
+	 */
+	public static Backend forDevice(ParallelImageProcessor parallel, int deviceIndex) {
+		return new DeviceBackend(parallel, deviceIndex);
+	}
+
+	/**
+	 * Gets the backends.
+	 * 
+	 * @return The backends, in the order they were given.
+	 */
+	public List<Backend> getBackends() {
+		return Collections.unmodifiableList(backends);
+	}
+
+	/**
+	 * Times an algorithm on every backend that has no model for it yet.
+	 * 
+	 * @param algorithm
+	 *            The algorithm, such as "Sepia".
+	 */
+	public void calibrate(String algorithm) {
+		calibrate(algorithm, (backend, input, output) -> backend.process(algorithm, input, output));
+	}
+
+	/**
+	 * Times a filter chain on every backend that has no model for it yet.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 */
+	public void calibrate(FilterChain chain) {
+		calibrate(getFilter(chain), (backend, input, output) -> backend.process(chain, input, output));
+	}
+
+	/**
+	 * Runs an algorithm on the backend predicted to be fastest.
+	 * 
+	 * @param algorithm
+	 *            The algorithm, such as "Sepia".
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(String algorithm, int[] input, int[] output) {
+		run(algorithm, input, output, (backend, in, out) -> backend.process(algorithm, in, out));
+	}
+
+	/**
+	 * Runs a filter chain on the backend predicted to be fastest.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, int[] input, int[] output) {
+		run(getFilter(chain), input, output, (backend, in, out) -> backend.process(chain, in, out));
+	}
+
+	/**
+	 * Chooses the backend with the lowest predicted time for a job.
+	 * 
+	 * @param filter
+	 *            The algorithm name, or the filter name of a chain.
+	 * @param pixels
+	 *            The number of pixels in the image.
+	 * @return The backend, or the first backend if none has a model yet.
+	 */
+	public Backend choose(String filter, long pixels) {
+		Backend best = backends.get(0);
+		double bestNanos = Double.MAX_VALUE;
+
+		for (Backend backend : backends) {
+			CostModel model = models.get(getKey(backend, filter));
+
+			if (model != null && model.isTrusted()) {
+				double nanos = model.predict(pixels);
+
+				if (nanos < bestNanos) {
+					best = backend;
+					bestNanos = nanos;
+				}
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Gets the predicted time of a job on a backend.
+	 * 
+	 * @param backend
+	 *            The backend.
+	 * @param filter
+	 *            The algorithm name, or the filter name of a chain.
+	 * @param pixels
+	 *            The number of pixels in the image.
+	 * @return The predicted time in nanoseconds, or -1 if the backend has no
+	 *         model for the filter yet.
+	 */
+	public double predict(Backend backend, String filter, long pixels) {
+		CostModel model = models.get(getKey(backend, filter));
+
+		return model != null && model.isTrusted() ? model.predict(pixels) : -1;
+	}
+
+	/**
+	 * Writes the models to the file, so the next run does not calibrate again.
+	 */
+	public void save() {
+		Properties saved = new Properties();
+
+		for (Map.Entry<String, CostModel> entry : models.entrySet()) {
+			saved.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+
+		try {
+			File parent = file.getParentFile();
+
+			if (parent != null) {
+				parent.mkdirs();
+			}
+
+			try (OutputStream out = new FileOutputStream(file)) {
+				saved.store(out, "Cost models: weight, sum of pixels, sum of nanoseconds, sum of pixels squared,"
+						+ " sum of pixels times nanoseconds");
+			}
+		} catch (IOException e) {
+			// the models are still kept in memory
+		}
+	}
+
+	/**
+	 * Gets the filter name that a chain's times are kept under, made from the
+	 * kinds of its steps in order, such as "Filter chain (Grayscale, Table)".
+	 * Steps of the same kind cost the same whatever their tables hold.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @return The filter name.
+	 */
+	public static String getFilter(FilterChain chain) {
+		StringBuilder filter = new StringBuilder(FilterChain.ALGORITHM).append(" (");
+		List<PixelOperation> operations = chain.getOperations();
+
+		for (int step = 0; step < operations.size(); step += 1) {
+			String name = operations.get(step).getClass().getSimpleName();
+
+			if (step > 0) {
+				filter.append(", ");
+			}
+
+			filter.append(name.endsWith("Operation") ? name.substring(0, name.length() - "Operation".length()) : name);
+		}
+
+		return filter.append(")").toString();
+	}
+
+	/**
+	 * Times a filter on every backend that has no model for it yet, then saves
+	 * the models. The test images hold random opaque colors, so paths that
+	 * depend on the pixels run as they would on a photo. Each size is run once
+	 * untimed first, so class loading, the JIT and kernel builds are not
+	 * counted.
+	 * 
+	 * @param filter
+	 *            The algorithm name, or the filter name of a chain.
+	 * @param job
+	 *            Runs the filter on a backend.
+	 */
+	private void calibrate(String filter, Job job) {
+		boolean changed = false;
+
+		for (Backend backend : backends) {
+			String key = getKey(backend, filter);
+			CostModel model = models.get(key);
+
+			if (model != null && model.isTrusted()) {
+				continue;
+			}
+
+			model = new CostModel();
+
+			for (int size = 0; size < CALIBRATION_PIXELS.length; size += 1) {
+				int[] input = createCalibrationPixels(CALIBRATION_PIXELS[size]);
+				int[] output = new int[input.length];
+
+				job.run(backend, input, output);
+
+				for (int run = 0; run < CALIBRATION_RUNS; run += 1) {
+					long start = System.nanoTime();
+					job.run(backend, input, output);
+					model.record(input.length, System.nanoTime() - start);
+				}
+			}
+
+			models.put(key, model);
+			changed = true;
+		}
+
+		if (changed) {
+			save();
+		}
+	}
+
+	/**
+	 * Makes the pixels of a calibration image, the same each time.
+	 * 
+	 * @param count
+	 *            The number of pixels.
+	 * @return The pixel data.
+	 */
+	private static int[] createCalibrationPixels(int count) {
+		Random random = new Random(count);
+		int[] pixels = new int[count];
+
+		for (int index = 0; index < count; index += 1) {
+			pixels[index] = 0xFF000000 | random.nextInt(0x1000000);
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Runs a job on the chosen backend, or every EXPLORE_PERIOD jobs on the
+	 * next of the others if it is predicted to take at most EXPLORE_FACTOR
+	 * times as long, and feeds its time back into the backend's model.
+	 * 
+	 * @param filter
+	 *            The algorithm name, or the filter name of a chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param job
+	 *            Runs the filter on a backend.
+	 */
+	private void run(String filter, int[] input, int[] output, Job job) {
+		Backend backend = choose(filter, input.length);
+		long count = jobs.incrementAndGet();
+
+		if (backends.size() > 1 && count % EXPLORE_PERIOD == 0) {
+			int chosen = backends.indexOf(backend);
+			int other = (int) (count / EXPLORE_PERIOD % (backends.size() - 1));
+			Backend alternative = backends.get(other < chosen ? other : other + 1);
+			double best = predict(backend, filter, input.length);
+			double cost = predict(alternative, filter, input.length);
+
+			if (best >= 0 && cost >= 0 && cost <= EXPLORE_FACTOR * best) {
+				backend = alternative;
+			}
+		}
+
+		long start = System.nanoTime();
+		job.run(backend, input, output);
+		long nanos = System.nanoTime() - start;
+
+		models.computeIfAbsent(getKey(backend, filter), key -> new CostModel()).record(input.length, nanos);
+	}
+
+	/**
+	 * Makes the key for a filter on a backend.
+	 * 
+	 * @param backend
+	 *            The backend.
+	 * @param filter
+	 *            The algorithm name, or the filter name of a chain.
+	 * @return The key.
+	 */
+	private static String getKey(Backend backend, String filter) {
+		return (backend.getName() + "|" + filter).replace(' ', '_');
+	}
+
+	/**
+	 * A place jobs can run.
+	 */
+	public interface Backend {
+		/**
+		 * Gets the name of the backend, which the models are saved under.
+		 * 
+		 * @return The name.
+		 */
+		String getName();
+
+		/**
+		 * Runs an algorithm.
+		 * 
+		 * @param algorithm
+		 *            The algorithm, such as "Sepia".
+		 * @param input
+		 *            The pixel data of the input image.
+		 * @param output
+		 *            The array to store the pixel data of the result image in.
+		 */
+		void process(String algorithm, int[] input, int[] output);
+
+		/**
+		 * Runs a filter chain.
+		 * 
+		 * @param chain
+		 *            The filter chain.
+		 * @param input
+		 *            The pixel data of the input image.
+		 * @param output
+		 *            The array to store the pixel data of the result image in.
+		 */
+		void process(FilterChain chain, int[] input, int[] output);
+	}
+
+	/**
+	 * Runs a filter on a backend.
+	 */
+	private interface Job {
+		/**
+		 * Runs the filter.
+		 * 
+		 * @param backend
+		 *            The backend.
+		 * @param input
+		 *            The pixel data of the input image.
+		 * @param output
+		 *            The array to store the pixel data of the result image in.
+		 */
+		void run(Backend backend, int[] input, int[] output);
+	}
+
+	/**
+	 * A backend that runs on a CPU image processor.
+	 */
+	private static class ProcessorBackend implements Backend {
+		/** The image processor. */
+		private final ImageProcessor processor;
+
+		/**
+		 * Constructs a ProcessorBackend.
+		 * 
+		 * @param processor
+		 *            The image processor.
+		 */
+		ProcessorBackend(ImageProcessor processor) {
+			this.processor = processor;
+		}
+
+		@Override
+		public String getName() {
+			return processor.getDeviceName();
+		}
+
+		@Override
+		public void process(String algorithm, int[] input, int[] output) {
+			processor.compute(algorithm, input, output);
+		}
+
+		@Override
+		public void process(FilterChain chain, int[] input, int[] output) {
+			processor.compute(chain, input, output);
+		}
+	}
+
+	/**
+	 * A backend that runs on one OpenCL device.
+	 */
+	private static class DeviceBackend implements Backend {
+		/** The OpenCL image processor. */
+		private final ParallelImageProcessor parallel;
+		/** The index of the device. */
+		private final int deviceIndex;
+
+		/**
+		 * Constructs a DeviceBackend.
+		 * 
+		 * @param parallel
+		 *            The OpenCL image processor.
+		 * @param deviceIndex
+		 *            The index of the device.
+		 */
+		DeviceBackend(ParallelImageProcessor parallel, int deviceIndex) {
+			this.parallel = parallel;
+			this.deviceIndex = deviceIndex;
+		}
+
+		@Override
+		public String getName() {
+			return "OpenCL " + parallel.getDeviceNames()[deviceIndex];
+		}
+
+		@Override
+		public void process(String algorithm, int[] input, int[] output) {
+			synchronized (parallel) {
+				parallel.setDeviceID(deviceIndex);
+				parallel.compute(algorithm, input, output);
+			}
+		}
+
+		@Override
+		public void process(FilterChain chain, int[] input, int[] output) {
+			synchronized (parallel) {
+				parallel.setDeviceID(deviceIndex);
+				parallel.compute(chain, input, output);
+			}
+		}
+	}
+
+	/**
+	 * A least-squares fit of run time against pixel count, in which older
+	 * measurements count for less.
+	 */
+	private static class CostModel {
+		/** The total weight of the measurements. */
+		private double weight;
+		/** The weighted sum of the pixel counts. */
+		private double sumPixels;
+		/** The weighted sum of the times. */
+		private double sumNanos;
+		/** The weighted sum of the squared pixel counts. */
+		private double sumPixelsSquared;
+		/** The weighted sum of the pixel counts times the times. */
+		private double sumProducts;
+
+		/**
+		 * Adds a measurement.
+		 * 
+		 * @param pixels
+		 *            The number of pixels in the image.
+		 * @param nanos
+		 *            The time the job took, in nanoseconds.
+		 */
+		synchronized void record(long pixels, long nanos) {
+			weight = weight * DECAY + 1;
+			sumPixels = sumPixels * DECAY + pixels;
+			sumNanos = sumNanos * DECAY + nanos;
+			sumPixelsSquared = sumPixelsSquared * DECAY + (double) pixels * pixels;
+			sumProducts = sumProducts * DECAY + (double) pixels * nanos;
+		}
+
+		/**
+		 * Checks whether there are enough measurements to predict from.
+		 * 
+		 * @return True if the model can be trusted.
+		 */
+		synchronized boolean isTrusted() {
+			return weight >= MIN_WEIGHT;
+		}
+
+		/**
+		 * Predicts the time of a job. If every measurement was at the same size,
+		 * the time is taken to grow in proportion to the pixel count.
+		 * 
+		 * @param pixels
+		 *            The number of pixels in the image.
+		 * @return The predicted time in nanoseconds.
+		 */
+		synchronized double predict(long pixels) {
+			double spread = weight * sumPixelsSquared - sumPixels * sumPixels;
+
+			if (spread <= 1e-9 * weight * sumPixelsSquared) {
+				return sumPixels > 0 ? sumNanos / sumPixels * pixels : sumNanos / weight;
+			}
+
+			double perPixel = Math.max(0, (weight * sumProducts - sumPixels * sumNanos) / spread);
+			double fixed = Math.max(0, (sumNanos - perPixel * sumPixels) / weight);
+
+			return fixed + perPixel * pixels;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return weight + " " + sumPixels + " " + sumNanos + " " + sumPixelsSquared + " " + sumProducts;
+		}
+
+		/**
+		 * Reads a model written by toString.
+		 * 
+		 * @param text
+		 *            The saved model.
+		 * @return The model, or null if the text is not a model.
+		 */
+		static CostModel parse(String text) {
+			String[] parts = text.trim().split(" ");
+
+			if (parts.length != 5) {
+				return null;
+			}
+
+			try {
+				CostModel model = new CostModel();
+				model.weight = Double.parseDouble(parts[0]);
+				model.sumPixels = Double.parseDouble(parts[1]);
+				model.sumNanos = Double.parseDouble(parts[2]);
+				model.sumPixelsSquared = Double.parseDouble(parts[3]);
+				model.sumProducts = Double.parseDouble(parts[4]);
+
+				return model;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package kings.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_event;
+import org.jocl.cl_mem;
+
+/**
+ * An asynchronous OpenCL pipeline for one device. Uploads, kernels and
+ * downloads go to three separate command queues and are chained with events,
+ * so while one image is being computed the next can be uploading and the
+ * previous one downloading. The number of images in flight is bounded, which
+ * also bounds the memory the pipeline uses.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-28-19
+ */
+public class AsyncPipeline {
+	/** The default number of images in flight. */
+	public static final int DEFAULT_DEPTH = 3;
+
+	/** The device the pipeline runs on. */
+	private final DeviceContext deviceContext;
+	/** The queue for uploads. */
+	private final cl_command_queue uploadQueue;
+	/** The queue for kernels. */
+	private final cl_command_queue computeQueue;
+	/** The queue for downloads. */
+	private final cl_command_queue downloadQueue;
+
+	/** The staging slots that are not in use. */
+	private final BlockingQueue<Slot> freeSlots;
+	/** The number of staging slots. */
+	private final int depth;
+	/** The thread that finishes completed images. */
+	private final ExecutorService completer;
+
+	/**
+	 * Constructs an AsyncPipeline.
+	 * 
+	 * @param deviceContext
+	 *            The device the pipeline runs on.
+	 * @param depth
+	 *            The largest number of images in flight.
+	 */
+	public AsyncPipeline(DeviceContext deviceContext, int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Depth must be positive: " + depth);
+		}
+
+		this.deviceContext = deviceContext;
+		this.depth = depth;
+
+		uploadQueue = CL.clCreateCommandQueue(deviceContext.getContext(), deviceContext.getDevice(), 0, null);
+		computeQueue = CL.clCreateCommandQueue(deviceContext.getContext(), deviceContext.getDevice(), 0, null);
+		downloadQueue = CL.clCreateCommandQueue(deviceContext.getContext(), deviceContext.getDevice(), 0, null);
+
+		freeSlots = new ArrayBlockingQueue<Slot>(depth);
+
+		for (int slot = 0; slot < depth; slot += 1) {
+			freeSlots.add(new Slot());
+		}
+
+		completer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "OpenCL pipeline completion");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues one image. This blocks only while the pipeline already holds its
+	 * largest number of images.
+	 * 
+	 * @param launcher
+	 *            The launcher for the algorithm's kernels.
+	 * @param scalarArgs
+	 *            The int arguments that follow the buffers.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @return A future that completes with the output array once the result has
+	 *         been written to it.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting for a slot.
+	 */
+	public CompletableFuture<int[]> submit(KernelLauncher launcher, int[] scalarArgs, int[] input, int[] output)
+			throws InterruptedException {
+		if (output.length < input.length) {
+			throw new IllegalArgumentException("The output holds " + output.length + " pixels, not " + input.length);
+		}
+
+		Slot slot = freeSlots.take();
+		CompletableFuture<int[]> future = new CompletableFuture<int[]>();
+
+		try {
+			enqueue(slot, launcher, scalarArgs, input, output, future);
+		} catch (RuntimeException e) {
+			// The upload may already be running from the slot's buffers
+			try {
+				CL.clFinish(uploadQueue);
+				CL.clFinish(computeQueue);
+				CL.clFinish(downloadQueue);
+			} catch (RuntimeException finishFailure) {
+				e.addSuppressed(finishFailure);
+			}
+
+			slot.releaseBuffers();
+			freeSlots.add(slot);
+			throw e;
+		}
+
+		return future;
+	}
+
+	/**
+	 * Queues the upload, kernel and download for one image and registers the
+	 * completion callback. If any of them cannot be queued, the events already
+	 * set are released before the error is thrown.
+	 * 
+	 * @param slot
+	 *            The staging slot.
+	 * @param launcher
+	 *            The launcher for the algorithm's kernels.
+	 * @param scalarArgs
+	 *            The int arguments that follow the buffers.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param future
+	 *            The future to complete.
+	 */
+	private void enqueue(Slot slot, KernelLauncher launcher, int[] scalarArgs, int[] input, int[] output,
+			CompletableFuture<int[]> future) {
+		int length = input.length;
+		long bytes = (long) Sizeof.cl_int * length;
+
+		slot.prepare(length);
+		slot.input.asIntBuffer().put(input);
+
+		cl_event uploaded = new cl_event();
+		cl_event computed = new cl_event();
+		cl_event downloaded = new cl_event();
+
+		// The number of the events above that have been set by a queued command
+		int queued = 0;
+
+		try {
+			CL.clEnqueueWriteBuffer(uploadQueue, slot.memImage, CL.CL_FALSE, 0, bytes, Pointer.to(slot.input), 0, null,
+					uploaded);
+			queued = 1;
+
+			launcher.launch(computeQueue, slot.memImage, slot.memResult, scalarArgs, length,
+					new cl_event[] { uploaded }, computed);
+			queued = 2;
+
+			CL.clEnqueueReadBuffer(downloadQueue, slot.memResult, CL.CL_FALSE, 0, bytes, Pointer.to(slot.output), 1,
+					new cl_event[] { computed }, downloaded);
+			queued = 3;
+
+			CL.clFlush(uploadQueue);
+			CL.clFlush(computeQueue);
+			CL.clFlush(downloadQueue);
+
+			CL.clSetEventCallback(downloaded, CL.CL_COMPLETE, (event, status, data) -> completer.execute(() -> {
+				try {
+					if (status < 0) {
+						future.completeExceptionally(new IllegalStateException("OpenCL error " + status));
+					} else {
+						slot.output.asIntBuffer().get(output, 0, length);
+						future.complete(output);
+					}
+				} finally {
+					CL.clReleaseEvent(uploaded);
+					CL.clReleaseEvent(computed);
+					CL.clReleaseEvent(downloaded);
+
+					slot.releaseBuffers();
+					freeSlots.add(slot);
+				}
+			}), null);
+		} catch (RuntimeException e) {
+			// The completion callback that releases the events will not run
+			cl_event[] events = { uploaded, computed, downloaded };
+
+			for (int event = 0; event < queued; event += 1) {
+				CL.clReleaseEvent(events[event]);
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the largest number of images in flight.
+	 * 
+	 * @return The pipeline depth.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Waits for every image in flight and releases the command queues.
+	 * 
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting.
+	 */
+	public void release() throws InterruptedException {
+		for (int slot = 0; slot < depth; slot += 1) {
+			freeSlots.take();
+		}
+
+		completer.shutdown();
+
+		CL.clReleaseCommandQueue(uploadQueue);
+		CL.clReleaseCommandQueue(computeQueue);
+		CL.clReleaseCommandQueue(downloadQueue);
+	}
+
+	/**
+	 * The host staging memory and device buffers for one image in flight.
+	 * Non-blocking transfers need direct memory that the garbage collector does
+	 * not move, so the pixels are staged through direct buffers.
+	 */
+	private class Slot {
+		/** The staged input pixels. */
+		private ByteBuffer input;
+		/** The staged result pixels. */
+		private ByteBuffer output;
+		/** The device buffer for the input image. */
+		private cl_mem memImage;
+		/** The device buffer for the result image. */
+		private cl_mem memResult;
+
+		/**
+		 * Makes the staging memory large enough and takes device buffers from the
+		 * pool.
+		 * 
+		 * @param length
+		 *            The number of pixels.
+		 */
+		void prepare(int length) {
+			int bytes = Sizeof.cl_int * length;
+
+			if (input == null || input.capacity() < bytes) {
+				input = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+				output = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+			}
+
+			input.clear();
+			output.clear();
+
+			BufferPool pool = deviceContext.getBufferPool();
+			memImage = pool.acquire(CL.CL_MEM_READ_ONLY, bytes);
+			memResult = pool.acquire(CL.CL_MEM_WRITE_ONLY, bytes);
+		}
+
+		/**
+		 * Gives the device buffers back to the pool.
+		 */
+		void releaseBuffers() {
+			BufferPool pool = deviceContext.getBufferPool();
+
+			if (memImage != null) {
+				pool.release(memImage);
+				memImage = null;
+			}
+
+			if (memResult != null) {
+				pool.release(memResult);
+				memResult = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package kings.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+
+import org.jocl.CLException;
+
+/**
+ * Runs the batch pipeline or the tiled processor from the command line:
+ * 
+ * <pre>
+ * --batch in/ out/ --filter sepia --device auto --threads N
+ * --tiled in.png out.tif --filter sepia --device auto --tile N
+ * </pre>
+ * 
+ * The filter may be a comma-separated chain, such as "gamma=1.4,sepia", which
+ * runs as one fused pass. The chain may end with "autolevels" or "equalize",
+ * which adjust each image by the statistics of the chain's result; the
+ * statistics are counted in the same pass as the chain on the serial, cpu,
+ * simd and opencl:index devices.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-08-19
+ */
+public class BatchCommand {
+	/** The usage message. */
+	public static final String USAGE = "Usage: --batch <input folder> <output folder> [--filter <filter,...>]"
+			+ " [--device auto|serial|cpu|simd|split|opencl[:index]] [--sub-devices N] [--threads N]"
+			+ " [--decode-threads N] [--encode-threads N] [--queue N] [--cache <folder>] [--cache-size MB]"
+			+ " [--result-cache MB] [--result-cache-dir <folder>] [--metrics <file.csv|.json>]\n"
+			+ "       --tiled <input image> <output .tif> [--filter <filter,...>] [--device ...] [--tile N]\n"
+			+ "Filters: grayscale, sepia, invert, brightness=N, contrast=F, gamma=F, threshold=N,"
+			+ " then optionally autolevels or equalize (not with --tiled)";
+
+	/** The number of seconds between metrics snapshots. */
+	private static final long METRICS_PERIOD = 10;
+
+	/**
+	 * Runs a batch or a tiled image from the command line arguments.
+	 * 
+	 * @param args
+	 *            The arguments, starting with "--batch" or "--tiled".
+	 * @return The exit code: 0 if every image was written, 1 if some failed and 2
+	 *         if the arguments are wrong.
+	 */
+	public static int run(String[] args) {
+		if (args.length < 3) {
+			System.err.println(USAGE);
+			return 2;
+		}
+
+		boolean tiled = args[0].equals("--tiled");
+		File input = new File(args[1]);
+		File output = new File(args[2]);
+		String filterNames = "grayscale";
+		String device = "auto";
+		int threads = Runtime.getRuntime().availableProcessors();
+		int decodeThreads = -1;
+		int encodeThreads = -1;
+		int queue = -1;
+		int tile = TiledImageProcessor.DEFAULT_TILE_SIZE;
+		File cacheFolder = null;
+		long cacheBytes = RawImageCache.DEFAULT_MAX_BYTES;
+		int subDevices = 1;
+		File metricsFile = null;
+		long resultBytes = 0;
+		File resultFolder = null;
+
+		try {
+			for (int arg = 3; arg < args.length; arg += 2) {
+				if (arg + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + args[arg]);
+				}
+
+				String value = args[arg + 1];
+
+				switch (args[arg]) {
+				case "--filter":
+					filterNames = value;
+					break;
+				case "--device":
+					device = value.toLowerCase(Locale.ROOT);
+					break;
+				case "--sub-devices":
+					subDevices = Integer.parseInt(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--decode-threads":
+					decodeThreads = Integer.parseInt(value);
+					break;
+				case "--encode-threads":
+					encodeThreads = Integer.parseInt(value);
+					break;
+				case "--queue":
+					queue = Integer.parseInt(value);
+					break;
+				case "--tile":
+					tile = Integer.parseInt(value);
+					break;
+				case "--cache":
+					cacheFolder = new File(value);
+					break;
+				case "--cache-size":
+					cacheBytes = Long.parseLong(value) * 1024 * 1024;
+					break;
+				case "--result-cache":
+					resultBytes = Long.parseLong(value) * 1024 * 1024;
+					break;
+				case "--result-cache-dir":
+					resultFolder = new File(value);
+					break;
+				case "--metrics":
+					metricsFile = new File(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[arg]);
+				}
+			}
+
+			FilterChain chain = parseChain(filterNames);
+			String adjustment = getAdjustment(filterNames);
+
+			if (adjustment != null && tiled) {
+				throw new IllegalArgumentException(adjustment + " needs the whole image, so it cannot run --tiled");
+			}
+
+			if (tiled) {
+				TiledImageProcessor.checkOutput(output);
+			}
+
+			ParallelImageProcessor parallel = null;
+			DeviceDispatcher dispatcher = null;
+			AdaptiveScheduler scheduler = null;
+			BiConsumer<int[], int[]> filter;
+
+			if (device.equals("auto")) {
+				try {
+					parallel = new ParallelImageProcessor(new DeviceManager(subDevices));
+				} catch (CLException | UnsatisfiedLinkError e) {
+					// no OpenCL, so only the CPU backends are scheduled
+				}
+
+				AdaptiveScheduler auto = createScheduler(parallel);
+				auto.calibrate(chain);
+
+				scheduler = auto;
+				filter = adjusted((in, out) -> auto.process(chain, in, out), adjustment);
+			} else if (device.equals("split")) {
+				parallel = new ParallelImageProcessor(new DeviceManager(subDevices));
+
+				ImageProcessor processor = new CoExecutionProcessor(parallel);
+				filter = adjusted((in, out) -> processor.process(chain, in, out), adjustment);
+			} else if (device.equals("opencl")) {
+				parallel = new ParallelImageProcessor(new DeviceManager(subDevices));
+
+				DeviceDispatcher devices = new DeviceDispatcher(parallel);
+				dispatcher = devices;
+				filter = adjusted((in, out) -> devices.process(chain, in, out), adjustment);
+			} else if (device.startsWith("opencl:")) {
+				parallel = new ParallelImageProcessor(new DeviceManager(subDevices));
+				parallel.setDeviceID(Integer.parseInt(device.substring(7)));
+
+				ParallelImageProcessor openCL = parallel;
+
+				if (adjustment == null) {
+					filter = (in, out) -> openCL.process(chain, in, out);
+				} else {
+					filter = (in, out) -> openCL.process(openCL.processWithStatistics(chain, in, out).toChain(
+							adjustment), out, out);
+				}
+			} else {
+				ImageProcessor processor = createProcessor(device);
+
+				if (adjustment == null) {
+					filter = (in, out) -> processor.process(chain, in, out);
+				} else {
+					filter = (in, out) -> processor.process(processor.processWithStatistics(chain, in, out).toChain(
+							adjustment), out, out);
+				}
+			}
+
+			ResultCache results = null;
+
+			if (resultBytes > 0 || resultFolder != null) {
+				long bytes = resultBytes > 0 ? resultBytes : ResultCache.DEFAULT_MAX_BYTES;
+				ResultCache cache = resultFolder == null ? new ResultCache(bytes)
+						: new ResultCache(bytes, resultFolder, RawImageCache.DEFAULT_MAX_BYTES);
+				BiConsumer<int[], int[]> uncached = filter;
+				String parameters = adjustment == null ? chain.toOpenCL() : chain.toOpenCL() + adjustment;
+				String backend = device;
+
+				// Duplicate inputs skip the filter whichever backend would have run it
+				results = cache;
+				filter = (in, out) -> cache.process(FilterChain.ALGORITHM, parameters, backend, in, out, uncached);
+			}
+
+			MetricsExporter exporter = null;
+
+			if (metricsFile != null) {
+				exporter = new MetricsExporter(MetricsRegistry.getDefault(), metricsFile);
+				exporter.start(METRICS_PERIOD);
+			}
+
+			try {
+				if (tiled) {
+					long start = System.nanoTime();
+					int tiles = new TiledImageProcessor(filter, tile, tile).process(input, output);
+
+					System.out.println(tiles + " tiles in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+					return 0;
+				}
+
+				BatchPipeline pipeline = new BatchPipeline(filter, decodeThreads > 0 ? decodeThreads : threads,
+						threads, encodeThreads > 0 ? encodeThreads : threads, queue > 0 ? queue : 2 * threads);
+
+				if (cacheFolder != null) {
+					pipeline.setCache(new RawImageCache(cacheFolder, cacheBytes));
+				}
+
+				BatchPipeline.Summary summary = pipeline.run(input, output);
+
+				for (String failure : summary.getFailures()) {
+					System.err.println("Failed: " + failure);
+				}
+
+				System.out.println(summary);
+
+				if (results != null) {
+					System.out.println("Result cache: " + results.getHits() + " hits, " + results.getMisses()
+							+ " misses");
+				}
+
+				if (dispatcher != null) {
+					System.out.print(dispatcher);
+				}
+
+				return summary.getFailures().isEmpty() ? 0 : 1;
+			} finally {
+				if (scheduler != null) {
+					scheduler.save();
+				}
+
+				if (parallel != null) {
+					parallel.release();
+				}
+
+				if (exporter != null) {
+					exporter.close();
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return 2;
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return 1;
+		} catch (CLException | UnsatisfiedLinkError e) {
+			// the split and opencl devices need OpenCL, which may be missing
+			System.err.println("OpenCL failed: " + e.getMessage());
+			return 1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+	}
+
+	/**
+	 * Makes the scheduler for the "auto" device. Each filter thread works on its
+	 * own image, so the SIMD and serial processors, which add no threads of their
+	 * own, are scheduled alongside the Fork/Join processor, every OpenCL device
+	 * and the CPU and OpenCL devices together.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor, or null if there is no OpenCL.
+	 * @return The scheduler.
+	 */
+	private static AdaptiveScheduler createScheduler(ParallelImageProcessor parallel) {
+		List<AdaptiveScheduler.Backend> backends = new ArrayList<AdaptiveScheduler.Backend>();
+		backends.add(AdaptiveScheduler.forProcessor(VectorSupport.createProcessor()));
+
+		if (VectorSupport.isAvailable()) {
+			backends.add(AdaptiveScheduler.forProcessor(new ImageProcessor()));
+		}
+
+		backends.add(AdaptiveScheduler.forProcessor(new ForkJoinImageProcessor()));
+
+		if (parallel != null) {
+			for (int index = 0; index < parallel.getDeviceNames().length; index += 1) {
+				backends.add(AdaptiveScheduler.forDevice(parallel, index));
+			}
+
+			if (parallel.getDeviceNames().length > 0) {
+				backends.add(AdaptiveScheduler.forProcessor(new CoExecutionProcessor(parallel)));
+			}
+		}
+
+		return new AdaptiveScheduler(backends);
+	}
+
+	/**
+	 * Makes the CPU processor for a device name. "simd" falls back to the serial
+	 * processor when the Vector API is not present.
+	 * 
+	 * @param device
+	 *            The device name.
+	 * @return The processor.
+	 */
+	private static ImageProcessor createProcessor(String device) {
+		switch (device) {
+		case "simd":
+			return VectorSupport.createProcessor();
+		case "serial":
+			return new ImageProcessor();
+		case "cpu":
+			return new ForkJoinImageProcessor();
+		default:
+			throw new IllegalArgumentException("Unknown device " + device);
+		}
+	}
+
+	/**
+	 * Adds an adjustment after a filter that cannot count statistics as it
+	 * runs. The statistics are counted serially, since each image already has
+	 * a filter thread of its own.
+	 * 
+	 * @param filter
+	 *            The filter.
+	 * @param adjustment
+	 *            The adjustment, such as ImageStatistics.AUTO_LEVELS, or null.
+	 * @return The filter followed by the adjustment.
+	 */
+	private static BiConsumer<int[], int[]> adjusted(BiConsumer<int[], int[]> filter, String adjustment) {
+		if (adjustment == null) {
+			return filter;
+		}
+
+		ImageProcessor processor = new ImageProcessor();
+
+		return (in, out) -> {
+			filter.accept(in, out);
+			processor.process(processor.getStatistics(out).toChain(adjustment), out, out);
+		};
+	}
+
+	/**
+	 * Gets the adjustment that ends a comma-separated list of filters.
+	 * 
+	 * @param filterNames
+	 *            The filters, such as "gamma=1.4,autolevels".
+	 * @return ImageStatistics.AUTO_LEVELS, ImageStatistics.EQUALIZE, or null
+	 *         if the last filter is neither.
+	 */
+	private static String getAdjustment(String filterNames) {
+		String[] filters = filterNames.toLowerCase(Locale.ROOT).split(",");
+
+		switch (filters[filters.length - 1].trim()) {
+		case "autolevels":
+			return ImageStatistics.AUTO_LEVELS;
+		case "equalize":
+			return ImageStatistics.EQUALIZE;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Builds a filter chain from a comma-separated list of filters, leaving
+	 * out the adjustment that may end the list.
+	 * 
+	 * @param filterNames
+	 *            The filters, such as "gamma=1.4,sepia".
+	 * @return The chain.
+	 */
+	private static FilterChain parseChain(String filterNames) {
+		FilterChain chain = new FilterChain();
+		String[] filters = filterNames.toLowerCase(Locale.ROOT).split(",");
+		int count = getAdjustment(filterNames) == null ? filters.length : filters.length - 1;
+
+		for (int index = 0; index < count; index += 1) {
+			String filter = filters[index];
+			String[] parts = filter.trim().split("=", 2);
+			String name = parts[0];
+
+			if (parts.length == 1) {
+				switch (name) {
+				case "autolevels":
+				case "equalize":
+					throw new IllegalArgumentException(name + " must be the last filter");
+				case "grayscale":
+					chain.then(PixelOperations.grayscale());
+					break;
+				case "sepia":
+					chain.then(PixelOperations.sepia(ImageProcessor.SEPIA_DEPTH, ImageProcessor.SEPIA_INTENSITY));
+					break;
+				case "invert":
+					chain.then(PixelOperations.table(LookupTable.invert()));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown filter " + filter);
+				}
+			} else {
+				switch (name) {
+				case "brightness":
+					chain.then(PixelOperations.table(LookupTable.brightness(Integer.parseInt(parts[1]))));
+					break;
+				case "contrast":
+					chain.then(PixelOperations.table(LookupTable.contrast(Double.parseDouble(parts[1]))));
+					break;
+				case "gamma":
+					chain.then(PixelOperations.table(LookupTable.gamma(Double.parseDouble(parts[1]))));
+					break;
+				case "threshold":
+					chain.then(PixelOperations.table(LookupTable.threshold(Integer.parseInt(parts[1]))));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown filter " + filter);
+				}
+			}
+		}
+
+		return chain;
+	}
+}
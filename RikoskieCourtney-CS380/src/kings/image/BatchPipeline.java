@@ -0,0 +1,612 @@
+package kings.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Processes a folder of images without a GUI. Decoding, filtering and encoding
+ * are separate stages, each with its own threads, connected by bounded queues
+ * so that a slow stage holds back the others instead of filling memory with
+ * decoded images.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-08-19
+ */
+public class BatchPipeline {
+	/** The marker that tells a worker its stage has no more images. */
+	private static final Job END = new Job(null, 0);
+
+	/** The filter to run on each image. */
+	private final BiConsumer<int[], int[]> filter;
+	/** The number of decode threads. */
+	private final int decodeThreads;
+	/** The number of filter threads. */
+	private final int filterThreads;
+	/** The number of encode threads. */
+	private final int encodeThreads;
+	/** The number of images each queue may hold. */
+	private final int queueCapacity;
+	/** The cache of decoded images, or null. */
+	private RawImageCache cache;
+
+	/**
+	 * Constructs a BatchPipeline.
+	 * 
+	 * @param filter
+	 *            The filter, which reads the input pixels and writes the result
+	 *            pixels.
+	 * @param decodeThreads
+	 *            The number of decode threads.
+	 * @param filterThreads
+	 *            The number of filter threads.
+	 * @param encodeThreads
+	 *            The number of encode threads.
+	 * @param queueCapacity
+	 *            The number of images each queue between stages may hold.
+	 */
+	public BatchPipeline(BiConsumer<int[], int[]> filter, int decodeThreads, int filterThreads, int encodeThreads,
+			int queueCapacity) {
+		if (decodeThreads < 1 || filterThreads < 1 || encodeThreads < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Thread counts and queue capacity must be positive.");
+		}
+
+		this.filter = filter;
+		this.decodeThreads = decodeThreads;
+		this.filterThreads = filterThreads;
+		this.encodeThreads = encodeThreads;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets the cache of decoded images. With a cache, an image that was decoded
+	 * in an earlier run is mapped from the cache instead of being decoded again.
+	 *
+	 * @param cache
+	 *            The cache, or null to always decode.
+	 */
+	public void setCache(RawImageCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Processes every image in a folder and writes the results, with the same
+	 * names, to another folder.
+	 * 
+	 * @param inputFolder
+	 *            The folder of input images.
+	 * @param outputFolder
+	 *            The folder to write the results to.
+	 * @return The summary of the run.
+	 * @throws IOException
+	 *             Thrown if the folders cannot be read or created.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting for the
+	 *             stages.
+	 */
+	public Summary run(File inputFolder, File outputFolder) throws IOException, InterruptedException {
+		File[] files = inputFolder.listFiles();
+
+		if (files == null) {
+			throw new IOException("Cannot read folder " + inputFolder);
+		}
+
+		Files.createDirectories(outputFolder.toPath());
+
+		ConcurrentLinkedQueue<File> pending = new ConcurrentLinkedQueue<File>();
+
+		for (File file : files) {
+			if (file.isFile() && getFormat(file) != null) {
+				pending.add(file);
+			}
+		}
+
+		BlockingQueue<Job> decoded = new ArrayBlockingQueue<Job>(queueCapacity);
+		BlockingQueue<Job> filtered = new ArrayBlockingQueue<Job>(queueCapacity);
+
+		Summary summary = new Summary();
+		long start = System.nanoTime();
+
+		Stage encode = new Stage("encode", encodeThreads, busy -> encodeAll(filtered, outputFolder, summary, busy));
+		Stage filtering = new Stage("filter", filterThreads, busy -> filterAll(decoded, filtered, summary, busy));
+		Stage decode = new Stage("decode", decodeThreads, busy -> decodeAll(pending, decoded, summary, busy));
+
+		// Each stage is told to stop once the stage before it has finished
+		decode.join();
+		filtering.finish(decoded);
+		encode.finish(filtered);
+
+		summary.seconds = (System.nanoTime() - start) / 1e9;
+		summary.decodeUtilization = decode.getUtilization(summary.seconds);
+		summary.filterUtilization = filtering.getUtilization(summary.seconds);
+		summary.encodeUtilization = encode.getUtilization(summary.seconds);
+
+		return summary;
+	}
+
+	/**
+	 * Decodes images until there are none left.
+	 * 
+	 * @param pending
+	 *            The files that have not been decoded.
+	 * @param decoded
+	 *            The queue to put decoded images on.
+	 * @param summary
+	 *            The summary to record failures in.
+	 * @param busyNanos
+	 *            The counter to add the time spent decoding to.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting for room.
+	 */
+	private void decodeAll(ConcurrentLinkedQueue<File> pending, BlockingQueue<Job> decoded, Summary summary,
+			AtomicLong busyNanos) throws InterruptedException {
+		File file;
+
+		while ((file = pending.poll()) != null) {
+			long start = System.nanoTime();
+
+			try {
+				Job job = new Job(file, file.length());
+
+				if (cache != null) {
+					RawImageFile raw = cache.get(file);
+
+					job.width = raw.getWidth();
+					job.height = raw.getHeight();
+					job.alpha = raw.getType() == RawImageFile.TYPE_INT_ARGB;
+					job.pixels = new int[job.width * job.height];
+					raw.getPixels().get(job.pixels);
+				} else {
+					BufferedImage image = ImageIO.read(file);
+
+					if (image == null) {
+						throw new IOException("No reader for this image.");
+					}
+
+					job.width = image.getWidth();
+					job.height = image.getHeight();
+					job.alpha = image.getColorModel().hasAlpha();
+					job.pixels = getPixels(image);
+				}
+
+				busyNanos.addAndGet(System.nanoTime() - start);
+				decoded.put(job);
+			} catch (IOException | RuntimeException e) {
+				summary.fail(file, e);
+			}
+		}
+	}
+
+	/**
+	 * Filters images until the END marker arrives.
+	 * 
+	 * @param decoded
+	 *            The queue of decoded images.
+	 * @param filtered
+	 *            The queue to put filtered images on.
+	 * @param summary
+	 *            The summary to record failures in.
+	 * @param busyNanos
+	 *            The counter to add the time spent filtering to.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting.
+	 */
+	private void filterAll(BlockingQueue<Job> decoded, BlockingQueue<Job> filtered, Summary summary,
+			AtomicLong busyNanos) throws InterruptedException {
+		Job job;
+
+		while ((job = decoded.take()) != END) {
+			long start = System.nanoTime();
+
+			try {
+				boolean alpha = job.alpha && !"jpg".equals(getFormat(job.file)) && !"bmp".equals(getFormat(job.file));
+				job.result = new BufferedImage(job.width, job.height,
+						alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+				// The filter writes straight into the result image
+				int[] output = ((DataBufferInt) job.result.getRaster().getDataBuffer()).getData();
+				filter.accept(job.pixels, output);
+				job.pixels = null;
+
+				busyNanos.addAndGet(System.nanoTime() - start);
+				filtered.put(job);
+			} catch (RuntimeException e) {
+				summary.fail(job.file, e);
+			}
+		}
+	}
+
+	/**
+	 * Encodes images until the END marker arrives.
+	 * 
+	 * @param filtered
+	 *            The queue of filtered images.
+	 * @param outputFolder
+	 *            The folder to write the results to.
+	 * @param summary
+	 *            The summary to record results in.
+	 * @param busyNanos
+	 *            The counter to add the time spent encoding to.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting.
+	 */
+	private static void encodeAll(BlockingQueue<Job> filtered, File outputFolder, Summary summary,
+			AtomicLong busyNanos) throws InterruptedException {
+		Job job;
+
+		while ((job = filtered.take()) != END) {
+			long start = System.nanoTime();
+
+			try {
+				write(job.result, getFormat(job.file), new File(outputFolder, job.file.getName()));
+				summary.succeed(job.bytes);
+			} catch (IOException | RuntimeException e) {
+				summary.fail(job.file, e);
+			}
+
+			busyNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Writes an image to a temporary file and then moves it into place, so a
+	 * reader never sees a half-written image.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @param format
+	 *            The format name, such as "png".
+	 * @param target
+	 *            The file to write.
+	 * @throws IOException
+	 *             Thrown if the image cannot be written.
+	 */
+	private static void write(BufferedImage image, String format, File target) throws IOException {
+		Path folder = target.getAbsoluteFile().getParentFile().toPath();
+		Path temp = createTempFile(folder, target.getName());
+
+		try {
+			if (!ImageIO.write(image, format, temp.toFile())) {
+				throw new IOException("No writer for format " + format);
+			}
+
+			moveIntoPlace(temp, target.toPath());
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Creates an empty file with a unique name in a folder, to be written and
+	 * then moved into place. Unlike Files.createTempFile, which makes the file
+	 * readable by its owner alone, the file gets the default permissions, so
+	 * the finished file follows the umask like any other file written there.
+	 * 
+	 * @param folder
+	 *            The folder, which should be the target's so the move is
+	 *            atomic.
+	 * @param prefix
+	 *            The start of the file name.
+	 * @return The new file.
+	 * @throws IOException
+	 *             Thrown if the file cannot be created.
+	 */
+	static Path createTempFile(Path folder, String prefix) throws IOException {
+		while (true) {
+			String suffix = Long.toHexString(ThreadLocalRandom.current().nextLong());
+			Path temp = folder.resolve(prefix + "." + suffix + ".tmp");
+
+			try {
+				return Files.createFile(temp);
+			} catch (FileAlreadyExistsException e) {
+				// another writer took the name, so another is drawn
+			}
+		}
+	}
+
+	/**
+	 * Moves a finished file over its target, atomically if the file system
+	 * allows it.
+	 *
+	 * @param temp
+	 *            The finished file.
+	 * @param target
+	 *            The file to replace.
+	 * @throws IOException
+	 *             Thrown if the file cannot be moved.
+	 */
+	static void moveIntoPlace(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Gets the pixels of an image as packed ARGB ints. Images that already store
+	 * packed ARGB ints are used as they are instead of being copied, and the
+	 * other common types are read straight from their bytes, with opaque alpha
+	 * if they have none, so every mode that decodes an image sees the same
+	 * samples.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @return The pixel data.
+	 */
+	static int[] getPixels(BufferedImage image) {
+		int[] pixels = RasterPixels.getPackedData(image);
+		RasterPixels raster = RasterPixels.of(image);
+
+		if (pixels != null) {
+			return pixels;
+		} else if (raster == null) {
+			return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+		}
+
+		pixels = new int[raster.getPixelCount()];
+		raster.read(0, pixels.length, pixels, 0);
+
+		return pixels;
+	}
+
+	/**
+	 * Gets the image format of a file from its extension.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The format name, or null if the file is not a supported image.
+	 */
+	private static String getFormat(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		int dot = name.lastIndexOf('.');
+		String extension = dot < 0 ? "" : name.substring(dot + 1);
+
+		switch (extension) {
+		case "png":
+		case "bmp":
+		case "gif":
+			return extension;
+		case "jpg":
+		case "jpeg":
+			return "jpg";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * One image as it moves through the stages.
+	 */
+	private static class Job {
+		/** The input file. */
+		private final File file;
+		/** The size of the input file in bytes. */
+		private final long bytes;
+		/** The width of the image. */
+		private int width;
+		/** The height of the image. */
+		private int height;
+		/** Whether the input image has an alpha channel. */
+		private boolean alpha;
+		/** The decoded pixels. */
+		private int[] pixels;
+		/** The filtered image. */
+		private BufferedImage result;
+
+		/**
+		 * Constructs a Job.
+		 * 
+		 * @param file
+		 *            The input file.
+		 * @param bytes
+		 *            The size of the input file in bytes.
+		 */
+		Job(File file, long bytes) {
+			this.file = file;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * The body of a stage's worker threads.
+	 */
+	private interface StageWork {
+		/**
+		 * Runs the worker until its stage has no more images.
+		 * 
+		 * @param busyNanos
+		 *            The counter to add the time spent working to.
+		 * @throws InterruptedException
+		 *             Thrown if the thread is interrupted while waiting.
+		 */
+		void run(AtomicLong busyNanos) throws InterruptedException;
+	}
+
+	/**
+	 * The worker threads of one stage, along with the time they spent working.
+	 */
+	private static class Stage {
+		/** The worker threads. */
+		private final List<Thread> threads;
+		/** The time the workers spent working, in nanoseconds. */
+		private final AtomicLong busyNanos;
+
+		/**
+		 * Constructs a Stage and starts its workers.
+		 * 
+		 * @param name
+		 *            The name of the stage.
+		 * @param count
+		 *            The number of worker threads.
+		 * @param work
+		 *            The body of each worker.
+		 */
+		Stage(String name, int count, StageWork work) {
+			threads = new ArrayList<Thread>();
+			busyNanos = new AtomicLong();
+
+			for (int index = 0; index < count; index += 1) {
+				Thread thread = new Thread(() -> {
+					try {
+						work.run(busyNanos);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}, "batch " + name + " " + index);
+
+				threads.add(thread);
+				thread.start();
+			}
+		}
+
+		/**
+		 * Sends every worker the END marker and waits for them to finish.
+		 * 
+		 * @param queue
+		 *            The queue the workers take images from.
+		 * @throws InterruptedException
+		 *             Thrown if the thread is interrupted while waiting.
+		 */
+		void finish(BlockingQueue<Job> queue) throws InterruptedException {
+			for (int index = 0; index < threads.size(); index += 1) {
+				queue.put(END);
+			}
+
+			join();
+		}
+
+		/**
+		 * Waits for every worker to finish.
+		 * 
+		 * @throws InterruptedException
+		 *             Thrown if the thread is interrupted while waiting.
+		 */
+		void join() throws InterruptedException {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		/**
+		 * Gets the share of the workers' time that was spent working rather than
+		 * waiting on a queue.
+		 * 
+		 * @param seconds
+		 *            The length of the run in seconds.
+		 * @return The utilization, from 0 to 1.
+		 */
+		double getUtilization(double seconds) {
+			if (seconds <= 0) {
+				return 0;
+			}
+
+			return busyNanos.get() / 1e9 / seconds / threads.size();
+		}
+	}
+
+	/**
+	 * The results of a batch run.
+	 */
+	public static class Summary {
+		/** The number of images written. */
+		private final AtomicLong images = new AtomicLong();
+		/** The number of bytes read from the images written. */
+		private final AtomicLong bytes = new AtomicLong();
+		/** The files that could not be processed. */
+		private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+		/** The length of the run in seconds. */
+		private double seconds;
+		/** The utilization of the decode stage. */
+		private double decodeUtilization;
+		/** The utilization of the filter stage. */
+		private double filterUtilization;
+		/** The utilization of the encode stage. */
+		private double encodeUtilization;
+
+		/**
+		 * Records an image that was written.
+		 * 
+		 * @param inputBytes
+		 *            The size of its input file in bytes.
+		 */
+		void succeed(long inputBytes) {
+			images.incrementAndGet();
+			bytes.addAndGet(inputBytes);
+		}
+
+		/**
+		 * Records a file that could not be processed.
+		 * 
+		 * @param file
+		 *            The file.
+		 * @param e
+		 *            The reason.
+		 */
+		void fail(File file, Exception e) {
+			failures.add(file + ": " + e.getMessage());
+		}
+
+		/**
+		 * Gets the number of images written.
+		 * 
+		 * @return The number of images.
+		 */
+		public long getImages() {
+			return images.get();
+		}
+
+		/**
+		 * Gets the files that could not be processed, with the reasons.
+		 * 
+		 * @return The failures.
+		 */
+		public List<String> getFailures() {
+			return new ArrayList<String>(failures);
+		}
+
+		/**
+		 * Gets the number of images written per second.
+		 * 
+		 * @return The throughput in images per second.
+		 */
+		public double getImagesPerSecond() {
+			return seconds > 0 ? images.get() / seconds : 0;
+		}
+
+		/**
+		 * Gets the number of input megabytes processed per second.
+		 * 
+		 * @return The throughput in MB per second.
+		 */
+		public double getMegabytesPerSecond() {
+			return seconds > 0 ? bytes.get() / (1024.0 * 1024.0) / seconds : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"%d images in %.2f s (%.1f images/s, %.1f MB/s), %d failed%n"
+							+ "Utilization: decode %.0f%%, filter %.0f%%, encode %.0f%%",
+					images.get(), seconds, getImagesPerSecond(), getMegabytesPerSecond(), failures.size(),
+					decodeUtilization * 100, filterUtilization * 100, encodeUtilization * 100);
+		}
+	}
+}
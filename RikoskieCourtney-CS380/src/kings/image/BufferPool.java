@@ -0,0 +1,186 @@
+package kings.image;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jocl.CL;
+import org.jocl.cl_context;
+import org.jocl.cl_mem;
+
+/**
+ * A pool of OpenCL buffers for one context. Buffer sizes are rounded up to a
+ * power of two so that images of similar sizes share buffers, and a buffer
+ * that is given back is kept for the next image instead of being released.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-24-19
+ */
+public class BufferPool {
+	/** The default number of idle bytes the pool may keep (256 MB). */
+	public static final long DEFAULT_MAX_IDLE_BYTES = 256L * 1024 * 1024;
+
+	/** The smallest bucket size in bytes. */
+	private static final long MIN_BUCKET = 4096;
+
+	/** The context the buffers belong to. */
+	private final cl_context context;
+	/** The number of idle bytes the pool may keep. */
+	private final long maxIdleBytes;
+
+	/** The idle buffers, by flags and then by bucket size. */
+	private final Map<Long, Map<Long, ArrayDeque<cl_mem>>> idle;
+	/** The bucket size and flags of every buffer the pool created. */
+	private final Map<cl_mem, long[]> owned;
+	/** The number of bytes in idle buffers. */
+	private long idleBytes;
+
+	/**
+	 * Constructs a BufferPool with the default idle limit.
+	 * 
+	 * @param context
+	 *            The context the buffers belong to.
+	 */
+	public BufferPool(cl_context context) {
+		this(context, DEFAULT_MAX_IDLE_BYTES);
+	}
+
+	/**
+	 * Constructs a BufferPool.
+	 * 
+	 * @param context
+	 *            The context the buffers belong to.
+	 * @param maxIdleBytes
+	 *            The number of idle bytes the pool may keep.
+	 */
+	public BufferPool(cl_context context, long maxIdleBytes) {
+		this.context = context;
+		this.maxIdleBytes = maxIdleBytes;
+
+		idle = new HashMap<Long, Map<Long, ArrayDeque<cl_mem>>>();
+		owned = new IdentityHashMap<cl_mem, long[]>();
+		idleBytes = 0;
+	}
+
+	/**
+	 * Gets a buffer of at least the given size, reusing an idle one if there is
+	 * one.
+	 * 
+	 * @param flags
+	 *            The memory flags, such as CL_MEM_READ_WRITE.
+	 * @param bytes
+	 *            The number of bytes needed.
+	 * @return The buffer.
+	 */
+	public synchronized cl_mem acquire(long flags, long bytes) {
+		long bucket = getBucket(bytes);
+		ArrayDeque<cl_mem> buffers = getIdle(flags, bucket);
+
+		cl_mem buffer = buffers.poll();
+
+		if (buffer != null) {
+			idleBytes -= bucket;
+		} else {
+			buffer = CL.clCreateBuffer(context, flags, bucket, null, null);
+			owned.put(buffer, new long[] { flags, bucket });
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. If the pool already holds too many idle
+	 * bytes, the buffer is released.
+	 * 
+	 * @param buffer
+	 *            A buffer that came from this pool.
+	 */
+	public synchronized void release(cl_mem buffer) {
+		long[] info = owned.get(buffer);
+
+		if (info == null) {
+			throw new IllegalArgumentException("The buffer does not belong to this pool.");
+		}
+
+		long flags = info[0];
+		long bucket = info[1];
+
+		if (idleBytes + bucket > maxIdleBytes) {
+			owned.remove(buffer);
+			CL.clReleaseMemObject(buffer);
+		} else {
+			getIdle(flags, bucket).push(buffer);
+			idleBytes += bucket;
+		}
+	}
+
+	/**
+	 * Releases every idle buffer. Buffers that are still in use are released
+	 * when they are given back.
+	 */
+	public synchronized void clear() {
+		for (Map<Long, ArrayDeque<cl_mem>> buckets : idle.values()) {
+			for (ArrayDeque<cl_mem> buffers : buckets.values()) {
+				for (cl_mem buffer : buffers) {
+					owned.remove(buffer);
+					CL.clReleaseMemObject(buffer);
+				}
+			}
+		}
+
+		idle.clear();
+		idleBytes = 0;
+	}
+
+	/**
+	 * Gets the number of bytes held in idle buffers.
+	 * 
+	 * @return The number of idle bytes.
+	 */
+	public synchronized long getIdleBytes() {
+		return idleBytes;
+	}
+
+	/**
+	 * Gets the list of idle buffers with the given flags and size.
+	 * 
+	 * @param flags
+	 *            The memory flags.
+	 * @param bucket
+	 *            The bucket size.
+	 * @return The idle buffers.
+	 */
+	private ArrayDeque<cl_mem> getIdle(long flags, long bucket) {
+		Map<Long, ArrayDeque<cl_mem>> buckets = idle.get(flags);
+
+		if (buckets == null) {
+			buckets = new HashMap<Long, ArrayDeque<cl_mem>>();
+			idle.put(flags, buckets);
+		}
+
+		ArrayDeque<cl_mem> buffers = buckets.get(bucket);
+
+		if (buffers == null) {
+			buffers = new ArrayDeque<cl_mem>();
+			buckets.put(bucket, buffers);
+		}
+
+		return buffers;
+	}
+
+	/**
+	 * Rounds a size up to its bucket size.
+	 * 
+	 * @param bytes
+	 *            The number of bytes needed.
+	 * @return The next power of two, and at least the smallest bucket.
+	 */
+	private static long getBucket(long bytes) {
+		if (bytes <= MIN_BUCKET) {
+			return MIN_BUCKET;
+		}
+
+		return Long.highestOneBit(bytes - 1) << 1;
+	}
+}
@@ -0,0 +1,453 @@
+package kings.image;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jocl.CLException;
+
+/**
+ * Algorithms for processing one image on the CPU cores and the OpenCL devices
+ * at the same time. The image is cut into chunks, and every worker, a CPU
+ * thread or an OpenCL device, takes the next chunk whenever it finishes one,
+ * so faster workers take more of the image. The devices take several chunks
+ * at a time to spread the cost of a launch, and fewer as the image runs out so
+ * no worker is left with a long tail. Every chunk is written straight into the
+ * shared output array. If a device fails, its chunk is redone on the CPU and
+ * the device sits out the rest of the image.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-22-19
+ */
+public class CoExecutionProcessor extends ImageProcessor {
+	/** The default number of pixels in one chunk (256 KB of input pixels). */
+	public static final int DEFAULT_CHUNK_PIXELS = 65536;
+	/** The most chunks a device takes at once. */
+	private static final int DEVICE_CHUNKS = 16;
+
+	/** The OpenCL image processor. */
+	private final ParallelImageProcessor parallel;
+	/** The indices of the devices to use. */
+	private final int[] deviceIndices;
+	/** The number of CPU worker threads. */
+	private final int cpuThreads;
+	/** The number of pixels in one chunk. */
+	private final int chunkPixels;
+	/** The threads that run the CPU workers and drive the devices. */
+	private final ExecutorService workers;
+	/** The names of the workers, CPU threads first. */
+	private final String[] workerNames;
+	/** The number of pixels each worker processed in the last image. */
+	private volatile long[] lastShares;
+
+	/**
+	 * Constructs a CoExecutionProcessor that uses every core and every device.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor.
+	 */
+	public CoExecutionProcessor(ParallelImageProcessor parallel) {
+		this(parallel, getAllDevices(parallel), Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_PIXELS);
+	}
+
+	/**
+	 * Constructs a CoExecutionProcessor.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor.
+	 * @param deviceIndices
+	 *            The indices of the devices to use.
+	 * @param cpuThreads
+	 *            The number of CPU worker threads.
+	 * @param chunkPixels
+	 *            The number of pixels in one chunk.
+	 */
+	public CoExecutionProcessor(ParallelImageProcessor parallel, int[] deviceIndices, int cpuThreads,
+			int chunkPixels) {
+		if (chunkPixels < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkPixels);
+		}
+
+		if (cpuThreads < 1) {
+			throw new IllegalArgumentException("At least one CPU thread is needed: " + cpuThreads);
+		}
+
+		this.parallel = parallel;
+		this.deviceIndices = deviceIndices.clone();
+		this.cpuThreads = cpuThreads;
+		this.chunkPixels = chunkPixels;
+
+		workerNames = new String[cpuThreads + deviceIndices.length];
+		String[] deviceNames = parallel.getDeviceNames();
+
+		for (int worker = 0; worker < cpuThreads; worker += 1) {
+			workerNames[worker] = "CPU thread " + (worker + 1);
+		}
+
+		for (int device = 0; device < deviceIndices.length; device += 1) {
+			workerNames[cpuThreads + device] = "OpenCL " + deviceNames[deviceIndices[device]];
+		}
+
+		workers = Executors.newFixedThreadPool(workerNames.length, runnable -> {
+			Thread thread = new Thread(runnable, "Co-execution worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		lastShares = new long[workerNames.length];
+	}
+
+	/**
+	 * Runs the given algorithm over a range of the pixel data, shared between
+	 * the CPU threads and the devices.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(String algorithm, int[] input, int[] output, int start, int end) {
+		split(start, end, (from, to) -> super.process(algorithm, input, output, (int) from, (int) to),
+				(index, from, to) -> parallel.runAlgorithm(index, algorithm, input, output, (int) from, (int) to));
+	}
+
+	/**
+	 * Runs the given algorithm over a range of pixels of two images. The
+	 * devices can only copy from arrays, so the images are shared between the
+	 * CPU threads alone.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixels of the input image.
+	 * @param output
+	 *            The pixels of the result image.
+	 * @param start
+	 *            The first pixel to process.
+	 * @param end
+	 *            One past the last pixel to process.
+	 */
+	@Override
+	protected void process(String algorithm, RasterPixels input, RasterPixels output, int start, int end) {
+		split(start, end, (from, to) -> super.process(algorithm, input, output, (int) from, (int) to), null);
+	}
+
+	/**
+	 * Runs a filter chain over a range of the pixel data, shared between the CPU
+	 * threads and the devices.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(FilterChain chain, int[] input, int[] output, int start, int end) {
+		split(start, end, (from, to) -> super.process(chain, input, output, (int) from, (int) to),
+				(index, from, to) -> parallel.process(index, chain, input, output, (int) from, (int) to));
+	}
+
+	/**
+	 * Runs a filter chain over a range of buffered pixel data. The devices can
+	 * only copy from arrays, so buffered images are shared between the CPU
+	 * threads alone.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(FilterChain chain, IntBuffer input, IntBuffer output, int start, int end) {
+		split(start, end, (from, to) -> super.process(chain, input, output, (int) from, (int) to), null);
+	}
+
+	/**
+	 * Runs the given algorithm over a range of an image buffer, shared between
+	 * the CPU threads and the devices.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(String algorithm, ImageBuffer input, ImageBuffer output, long start, long end) {
+		split(start, end, (from, to) -> super.process(algorithm, input, output, from, to),
+				(index, from, to) -> parallel.runAlgorithm(index, algorithm, input, output, from, to));
+	}
+
+	/**
+	 * Runs a filter chain over a range of an image buffer, shared between the
+	 * CPU threads and the devices.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(FilterChain chain, ImageBuffer input, ImageBuffer output, long start, long end) {
+		split(start, end, (from, to) -> super.process(chain, input, output, from, to),
+				(index, from, to) -> parallel.process(index, chain, input, output, from, to));
+	}
+
+	/**
+	 * Changes the sepia depth and intensity on the CPU and on the devices.
+	 * 
+	 * @param depth
+	 *            The new sepia depth.
+	 * @param intensity
+	 *            The new sepia intensity.
+	 */
+	@Override
+	public synchronized void setSepia(int depth, int intensity) {
+		super.setSepia(depth, intensity);
+		parallel.setSepia(depth, intensity);
+	}
+
+	/**
+	 * Gets the name of the device the algorithms run on, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	@Override
+	public String getDeviceName() {
+		return "CPU + OpenCL";
+	}
+
+	/**
+	 * Gets how the last image was shared out.
+	 * 
+	 * @return The number of pixels each worker processed, by worker name.
+	 */
+	public Map<String, Long> getLastShares() {
+		long[] shares = lastShares;
+		Map<String, Long> named = new LinkedHashMap<String, Long>();
+
+		for (int worker = 0; worker < workerNames.length; worker += 1) {
+			named.put(workerNames[worker], shares[worker]);
+		}
+
+		return Collections.unmodifiableMap(named);
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Shares a range of pixels between the workers and waits for all of them.
+	 * 
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @param cpuWork
+	 *            Processes a chunk on the CPU.
+	 * @param deviceWork
+	 *            Processes a chunk on a device, or null to use the CPU alone.
+	 */
+	private void split(long start, long end, ChunkWork cpuWork, DeviceWork deviceWork) {
+		AtomicLong next = new AtomicLong(start);
+		long[] shares = new long[workerNames.length];
+		int devices = deviceWork == null ? 0 : deviceIndices.length;
+		int workerCount = cpuThreads + devices;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		for (int worker = 0; worker < cpuThreads; worker += 1) {
+			int id = worker;
+
+			futures.add(workers.submit(() -> {
+				long[] chunk;
+
+				while ((chunk = claim(next, end, chunkPixels)) != null) {
+					cpuWork.run(chunk[0], chunk[1]);
+					shares[id] += chunk[1] - chunk[0];
+				}
+			}));
+		}
+
+		for (int device = 0; device < devices; device += 1) {
+			int id = cpuThreads + device;
+			int index = deviceIndices[device];
+
+			futures.add(workers.submit(() -> {
+				boolean working = true;
+				long[] chunk = claim(next, end, getDeviceClaim(next, end, workerCount));
+
+				while (chunk != null) {
+					if (working) {
+						try {
+							deviceWork.run(index, chunk[0], chunk[1]);
+						} catch (CLException | IllegalStateException e) {
+							working = false;
+						}
+					}
+
+					if (!working) {
+						cpuWork.run(chunk[0], chunk[1]);
+					}
+
+					shares[id] += chunk[1] - chunk[0];
+					chunk = claim(next, end, working ? getDeviceClaim(next, end, workerCount) : chunkPixels);
+				}
+			}));
+		}
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while processing an image", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new IllegalStateException(e.getCause());
+		}
+
+		lastShares = shares;
+	}
+
+	/**
+	 * Decides how many pixels a device takes next: up to a few chunks, but no
+	 * more than its part of what is left, so the image ends evenly.
+	 * 
+	 * @param next
+	 *            The index of the next pixel to hand out.
+	 * @param end
+	 *            One past the last index to process.
+	 * @param workerCount
+	 *            The number of workers.
+	 * @return The number of pixels.
+	 */
+	private long getDeviceClaim(AtomicLong next, long end, int workerCount) {
+		long remaining = Math.max(0, end - next.get());
+		long share = remaining / (2 * workerCount);
+
+		return Math.max(chunkPixels, Math.min((long) DEVICE_CHUNKS * chunkPixels, share));
+	}
+
+	/**
+	 * Takes the next pixels to process.
+	 * 
+	 * @param next
+	 *            The index of the next pixel to hand out.
+	 * @param end
+	 *            One past the last index to process.
+	 * @param pixels
+	 *            The number of pixels to take.
+	 * @return The first index and one past the last index taken, or null if
+	 *         every pixel has been handed out.
+	 */
+	private static long[] claim(AtomicLong next, long end, long pixels) {
+		long from = next.get();
+
+		while (from < end) {
+			long to = Math.min(end, from + pixels);
+
+			if (next.compareAndSet(from, to)) {
+				return new long[] { from, to };
+			}
+
+			from = next.get();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the indices of every device of an OpenCL image processor.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor.
+	 * @return The indices.
+	 */
+	private static int[] getAllDevices(ParallelImageProcessor parallel) {
+		int[] indices = new int[parallel.getDeviceNames().length];
+
+		for (int index = 0; index < indices.length; index += 1) {
+			indices[index] = index;
+		}
+
+		return indices;
+	}
+
+	/**
+	 * The work done on one chunk on the CPU.
+	 */
+	private interface ChunkWork {
+		/**
+		 * Processes one chunk.
+		 * 
+		 * @param start
+		 *            The first index to process.
+		 * @param end
+		 *            One past the last index to process.
+		 */
+		void run(long start, long end);
+	}
+
+	/**
+	 * The work done on one chunk on a device.
+	 */
+	private interface DeviceWork {
+		/**
+		 * Processes one chunk.
+		 * 
+		 * @param index
+		 *            The index of the device.
+		 * @param start
+		 *            The first index to process.
+		 * @param end
+		 *            One past the last index to process.
+		 */
+		void run(int index, long start, long end);
+	}
+}
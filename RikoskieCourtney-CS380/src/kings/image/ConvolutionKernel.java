@@ -0,0 +1,306 @@
+package kings.image;
+
+import java.util.Arrays;
+
+/**
+ * The weights of a convolution, an odd number of columns wide and rows high,
+ * centered on the pixel being computed. A kernel that is the product of one
+ * column and one row, such as a Gaussian, is separable: it is applied as a
+ * pass along the rows and then a pass down the columns, which takes 2r + 1
+ * multiplications per pixel for each pass instead of (2r + 1) squared.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-09-19
+ */
+public final class ConvolutionKernel {
+	/** The number of standard deviations of a Gaussian that its radius covers. */
+	public static final double GAUSSIAN_SIGMAS = 3;
+
+	/** The relative difference below which a kernel is taken as the product of a row and a column. */
+	private static final double SEPARABLE_TOLERANCE = 1e-6;
+
+	/** The number of columns. */
+	private final int width;
+	/** The number of rows. */
+	private final int height;
+	/** The weights, row by row. */
+	private final float[] weights;
+	/** The row factor, or null if the kernel is not separable. */
+	private final float[] row;
+	/** The column factor, or null if the kernel is not separable. */
+	private final float[] column;
+
+	/**
+	 * Constructs a ConvolutionKernel.
+	 * 
+	 * @param width
+	 *            The number of columns.
+	 * @param height
+	 *            The number of rows.
+	 * @param weights
+	 *            The weights, row by row.
+	 * @param row
+	 *            The row factor, or null if the kernel is not separable.
+	 * @param column
+	 *            The column factor, or null if the kernel is not separable.
+	 */
+	private ConvolutionKernel(int width, int height, float[] weights, float[] row, float[] column) {
+		this.width = width;
+		this.height = height;
+		this.weights = weights;
+		this.row = row;
+		this.column = column;
+	}
+
+	/**
+	 * Makes a kernel from its weights. If the weights are the product of one
+	 * column and one row, the kernel is separable.
+	 * 
+	 * @param width
+	 *            The number of columns, which must be odd.
+	 * @param height
+	 *            The number of rows, which must be odd.
+	 * @param weights
+	 *            The weights, row by row.
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel of(int width, int height, float... weights) {
+		if (width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0) {
+			throw new IllegalArgumentException("A kernel must be an odd size: " + width + " by " + height);
+		}
+
+		if (weights.length != width * height) {
+			throw new IllegalArgumentException("A " + width + " by " + height + " kernel needs " + width * height
+					+ " weights, not " + weights.length);
+		}
+
+		float[] copy = weights.clone();
+		float[][] factors = factor(width, height, copy);
+
+		if (factors == null) {
+			return new ConvolutionKernel(width, height, copy, null, null);
+		}
+
+		return new ConvolutionKernel(width, height, copy, factors[0], factors[1]);
+	}
+
+	/**
+	 * Makes a separable kernel from its row and column factors.
+	 * 
+	 * @param row
+	 *            The row factor, which must be an odd length.
+	 * @param column
+	 *            The column factor, which must be an odd length.
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel separable(float[] row, float[] column) {
+		if (row.length % 2 == 0 || column.length % 2 == 0) {
+			throw new IllegalArgumentException("A kernel must be an odd size: " + row.length + " by " + column.length);
+		}
+
+		float[] weights = new float[row.length * column.length];
+
+		for (int y = 0; y < column.length; y += 1) {
+			for (int x = 0; x < row.length; x += 1) {
+				weights[y * row.length + x] = column[y] * row[x];
+			}
+		}
+
+		return new ConvolutionKernel(row.length, column.length, weights, row.clone(), column.clone());
+	}
+
+	/**
+	 * Makes a Gaussian blur whose radius covers GAUSSIAN_SIGMAS standard
+	 * deviations. The weights add up to one.
+	 * 
+	 * @param radius
+	 *            The radius in pixels, at least 1.
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel gaussian(int radius) {
+		if (radius < 1) {
+			throw new IllegalArgumentException("Radius must be positive: " + radius);
+		}
+
+		double sigma = radius / GAUSSIAN_SIGMAS;
+		float[] weights = new float[2 * radius + 1];
+		double total = 0;
+
+		for (int x = -radius; x <= radius; x += 1) {
+			total += Math.exp(-x * x / (2 * sigma * sigma));
+		}
+
+		for (int x = -radius; x <= radius; x += 1) {
+			weights[x + radius] = (float) (Math.exp(-x * x / (2 * sigma * sigma)) / total);
+		}
+
+		return separable(weights, weights);
+	}
+
+	/**
+	 * Makes a box blur, the average of a square of pixels.
+	 * 
+	 * @param radius
+	 *            The radius in pixels, at least 1.
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel box(int radius) {
+		if (radius < 1) {
+			throw new IllegalArgumentException("Radius must be positive: " + radius);
+		}
+
+		float[] weights = new float[2 * radius + 1];
+		Arrays.fill(weights, 1f / weights.length);
+
+		return separable(weights, weights);
+	}
+
+	/**
+	 * Makes the three by three sharpen kernel, which adds the difference
+	 * between a pixel and its four neighbors to the pixel. It is not separable.
+	 * 
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel sharpen() {
+		return of(3, 3, 0, -1, 0, -1, 5, -1, 0, -1, 0);
+	}
+
+	/**
+	 * Makes the horizontal Sobel kernel, which responds to vertical edges.
+	 * 
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel sobelX() {
+		return separable(new float[] { -1, 0, 1 }, new float[] { 1, 2, 1 });
+	}
+
+	/**
+	 * Makes the vertical Sobel kernel, which responds to horizontal edges.
+	 * 
+	 * @return The kernel.
+	 */
+	public static ConvolutionKernel sobelY() {
+		return separable(new float[] { 1, 2, 1 }, new float[] { -1, 0, 1 });
+	}
+
+	/**
+	 * Gets the number of columns.
+	 * 
+	 * @return The width.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the number of rows.
+	 * 
+	 * @return The height.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the number of columns on each side of the center.
+	 * 
+	 * @return The horizontal radius.
+	 */
+	public int getRadiusX() {
+		return width / 2;
+	}
+
+	/**
+	 * Gets the number of rows on each side of the center.
+	 * 
+	 * @return The vertical radius.
+	 */
+	public int getRadiusY() {
+		return height / 2;
+	}
+
+	/**
+	 * Gets the weights.
+	 * 
+	 * @return A copy of the weights, row by row.
+	 */
+	public float[] getWeights() {
+		return weights.clone();
+	}
+
+	/**
+	 * Tells whether the kernel is the product of a row and a column.
+	 * 
+	 * @return True if the kernel can be applied as two passes.
+	 */
+	public boolean isSeparable() {
+		return row != null;
+	}
+
+	/**
+	 * Gets the row factor of a separable kernel.
+	 * 
+	 * @return A copy of the row factor, or null if the kernel is not separable.
+	 */
+	public float[] getRow() {
+		return row == null ? null : row.clone();
+	}
+
+	/**
+	 * Gets the column factor of a separable kernel.
+	 * 
+	 * @return A copy of the column factor, or null if the kernel is not
+	 *         separable.
+	 */
+	public float[] getColumn() {
+		return column == null ? null : column.clone();
+	}
+
+	/**
+	 * Splits weights into a row and a column whose product they are. The row
+	 * is the row with the largest weight, and each column weight is how many
+	 * times that row the matching row of weights is.
+	 * 
+	 * @param width
+	 *            The number of columns.
+	 * @param height
+	 *            The number of rows.
+	 * @param weights
+	 *            The weights, row by row.
+	 * @return The row and the column, or null if the weights are not their
+	 *         product.
+	 */
+	private static float[][] factor(int width, int height, float[] weights) {
+		int pivot = 0;
+
+		for (int index = 1; index < weights.length; index += 1) {
+			if (Math.abs(weights[index]) > Math.abs(weights[pivot])) {
+				pivot = index;
+			}
+		}
+
+		float largest = Math.abs(weights[pivot]);
+
+		if (largest == 0) {
+			return null;
+		}
+
+		int pivotRow = pivot / width;
+		int pivotColumn = pivot % width;
+		float[] row = Arrays.copyOfRange(weights, pivotRow * width, (pivotRow + 1) * width);
+		float[] column = new float[height];
+
+		for (int y = 0; y < height; y += 1) {
+			column[y] = weights[y * width + pivotColumn] / weights[pivot];
+		}
+
+		for (int index = 0; index < weights.length; index += 1) {
+			if (Math.abs(column[index / width] * row[index % width] - weights[index]) > SEPARABLE_TOLERANCE
+					* largest) {
+				return null;
+			}
+		}
+
+		return new float[][] { row, column };
+	}
+}
@@ -0,0 +1,1034 @@
+package kings.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Neighborhood filters, which compute each pixel from the pixels around it:
+ * blur, sharpen, Sobel edge detection and unsharp mask. The image is split
+ * into tiles small enough that a tile, the halo of pixels around it that the
+ * kernel reaches, and the sums in between all stay in the L2 cache, and the
+ * tiles are run on a fork/join pool. Separable kernels, such as a Gaussian, are
+ * applied as a pass along the rows of the tile and then a pass down its
+ * columns. A blur wider than BOX_BLUR_RADIUS is approximated by repeated box
+ * blurs made of running sums, which cost the same for any radius. Pixels past
+ * the edge of the image repeat the edge pixel, and alpha is kept as it is.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-09-19
+ */
+public class ConvolutionProcessor {
+	/** The names of the algorithms. */
+	public static final String[] ALGORITHMS = { "Blur", "Sharpen", "Edges", "Unsharp Mask" };
+	/** The width of a tile, in pixels. */
+	public static final int TILE_WIDTH = 128;
+	/** The height of a tile, in pixels. */
+	public static final int TILE_HEIGHT = 32;
+	/** The largest blur radius done with a Gaussian kernel; wider blurs use box blurs. */
+	public static final int BOX_BLUR_RADIUS = 16;
+	/** The number of box blurs that approximate one Gaussian blur. */
+	public static final int BOX_PASSES = 3;
+	/** The default blur radius, in pixels. */
+	public static final int DEFAULT_BLUR_RADIUS = 4;
+	/** The default unsharp mask amount, in percent. */
+	public static final int DEFAULT_UNSHARP_AMOUNT = 100;
+	/**
+	 * The largest unsharp mask amount, in percent. At this amount a difference
+	 * of one already moves a channel across its whole range, so larger amounts
+	 * give the same image, and the difference times the amount fits in an int.
+	 */
+	public static final int MAX_UNSHARP_AMOUNT = 256 * 100;
+
+	/** The pool that runs the tiles. */
+	private final ForkJoinPool pool;
+	/** The blur radius currently in use, for blur and unsharp mask. */
+	private int blurRadius;
+	/** The unsharp mask amount currently in use, in percent. */
+	private int unsharpAmount;
+
+	/**
+	 * Constructs a ConvolutionProcessor that uses every available core.
+	 */
+	public ConvolutionProcessor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a ConvolutionProcessor with the given parallelism level.
+	 * 
+	 * @param parallelism
+	 *            The number of worker threads.
+	 */
+	public ConvolutionProcessor(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+		blurRadius = DEFAULT_BLUR_RADIUS;
+		unsharpAmount = DEFAULT_UNSHARP_AMOUNT;
+	}
+
+	/**
+	 * Tells whether an algorithm is one of the neighborhood filters.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm.
+	 * @return True if the algorithm is run by a ConvolutionProcessor.
+	 */
+	public static boolean isConvolution(String algorithm) {
+		for (String name : ALGORITHMS) {
+			if (name.equals(algorithm)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Runs a neighborhood filter over a whole image.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm, one of ALGORITHMS.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in,
+	 *            which must not be the input.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	public void filter(String algorithm, int[] input, int[] output, int width, int height) {
+		checkSize(input, output, width, height);
+
+		long start = System.nanoTime();
+
+		apply(algorithm, input, output, width, height, getBlurRadius());
+
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), (long) width * height,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs a neighborhood filter over part of an image, such as one tile of a
+	 * viewer. The pixels around the part that the filter reaches are read too,
+	 * so the part matches the same part of the whole filtered image.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm, one of ALGORITHMS.
+	 * @param image
+	 *            The whole input image.
+	 * @param bounds
+	 *            The part of the image to filter.
+	 * @param target
+	 *            The image to store the filtered part in, the size of the
+	 *            bounds.
+	 * @param scale
+	 *            The size of the image relative to the full-size image, such as
+	 *            0.25 for a pyramid level, which the blur radius is scaled by so
+	 *            the preview looks like the result.
+	 */
+	public void filter(String algorithm, BufferedImage image, Rectangle bounds, BufferedImage target, double scale) {
+		int radius = (int) Math.round(getBlurRadius() * scale);
+		int halo = getHalo(algorithm, radius);
+		Rectangle region = new Rectangle(bounds.x - halo, bounds.y - halo, bounds.width + 2 * halo,
+				bounds.height + 2 * halo).intersection(new Rectangle(image.getWidth(), image.getHeight()));
+		int[] pixels = read(image, region);
+		int[] result = new int[pixels.length];
+
+		long start = System.nanoTime();
+
+		apply(algorithm, pixels, result, region.width, region.height, radius);
+
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), pixels.length, System.nanoTime() - start);
+
+		target.setRGB(0, 0, bounds.width, bounds.height, result,
+				(bounds.y - region.y) * region.width + bounds.x - region.x, region.width);
+	}
+
+	/**
+	 * Runs a neighborhood filter with the given blur radius.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm, one of ALGORITHMS.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param radius
+	 *            The blur radius for blur and unsharp mask.
+	 */
+	private void apply(String algorithm, int[] input, int[] output, int width, int height, int radius) {
+		switch (algorithm) {
+		case "Blur":
+			blur(input, output, width, height, radius);
+			break;
+		case "Sharpen":
+			convolve(ConvolutionKernel.sharpen(), input, output, width, height);
+			break;
+		case "Edges":
+			detectEdges(input, output, width, height);
+			break;
+		case "Unsharp Mask":
+			unsharpMask(input, output, width, height, radius, getUnsharpAmount());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+		}
+	}
+
+	/**
+	 * Blurs an image. Radii up to BOX_BLUR_RADIUS use a Gaussian kernel; wider
+	 * radii use BOX_PASSES box blurs of about the same spread.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param radius
+	 *            The blur radius in pixels; below 1 the image is copied.
+	 */
+	public void blur(int[] input, int[] output, int width, int height, int radius) {
+		checkSize(input, output, width, height);
+
+		if (radius < 1) {
+			System.arraycopy(input, 0, output, 0, width * height);
+		} else if (radius <= BOX_BLUR_RADIUS) {
+			convolve(ConvolutionKernel.gaussian(radius), input, output, width, height);
+		} else {
+			boxBlur(input, output, width, height, getBoxRadii(radius));
+		}
+	}
+
+	/**
+	 * Convolves an image with a kernel, one tile per task. A separable kernel
+	 * is applied along the rows of the tile and its halo into a scratch area,
+	 * then down the columns of the scratch area.
+	 * 
+	 * @param kernel
+	 *            The kernel.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	public void convolve(ConvolutionKernel kernel, int[] input, int[] output, int width, int height) {
+		checkSize(input, output, width, height);
+
+		if (kernel.isSeparable()) {
+			float[] row = kernel.getRow();
+			float[] column = kernel.getColumn();
+
+			forEachTile(width, height, TILE_WIDTH, TILE_HEIGHT, (x, y, tileWidth, tileHeight) -> convolveSeparable(row,
+					column, input, output, width, height, new Rectangle(x, y, tileWidth, tileHeight)));
+		} else {
+			float[] weights = kernel.getWeights();
+			int kernelWidth = kernel.getWidth();
+			int kernelHeight = kernel.getHeight();
+
+			forEachTile(width, height, TILE_WIDTH, TILE_HEIGHT, (x, y, tileWidth, tileHeight) -> convolveTile(weights,
+					kernelWidth, kernelHeight, input, output, width, height,
+					new Rectangle(x, y, tileWidth, tileHeight)));
+		}
+	}
+
+	/**
+	 * Finds the edges of an image with the Sobel operator on its luma. Each
+	 * pixel becomes a gray level that is the length of the luma gradient.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	public void detectEdges(int[] input, int[] output, int width, int height) {
+		checkSize(input, output, width, height);
+
+		forEachTile(width, height, TILE_WIDTH, TILE_HEIGHT,
+				(x, y, tileWidth, tileHeight) -> sobelTile(input, output, width, height, x, y, tileWidth, tileHeight));
+	}
+
+	/**
+	 * Sharpens an image by adding to each pixel its difference from the
+	 * blurred image, times the amount.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param radius
+	 *            The radius of the blur.
+	 * @param amount
+	 *            The amount, in percent. Amounts above MAX_UNSHARP_AMOUNT are
+	 *            treated as MAX_UNSHARP_AMOUNT.
+	 */
+	public void unsharpMask(int[] input, int[] output, int width, int height, int radius, int amount) {
+		checkSize(input, output, width, height);
+
+		int capped = Math.min(amount, MAX_UNSHARP_AMOUNT);
+
+		int[] blurred = new int[width * height];
+
+		blur(input, blurred, width, height, radius);
+
+		forEachTile(width, height, width, TILE_HEIGHT, (x, y, tileWidth, tileHeight) -> {
+			for (int index = y * width; index < (y + tileHeight) * width; index += 1) {
+				int pixel = input[index];
+				int mask = blurred[index];
+
+				output[index] = PixelOps.withRGB(pixel, sharpen(PixelOps.red(pixel), PixelOps.red(mask), capped),
+						sharpen(PixelOps.green(pixel), PixelOps.green(mask), capped),
+						sharpen(PixelOps.blue(pixel), PixelOps.blue(mask), capped));
+			}
+		});
+	}
+
+	/**
+	 * Applies BOX_PASSES box blurs, each a pass of running sums along the rows
+	 * and then down the columns.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param radii
+	 *            The radius of each box blur.
+	 */
+	private void boxBlur(int[] input, int[] output, int width, int height, int[] radii) {
+		int[] rows = new int[width * height];
+		int[] from = input;
+
+		for (int radius : radii) {
+			int[] source = from;
+
+			forEachTile(width, height, width, TILE_HEIGHT,
+					(x, y, tileWidth, tileHeight) -> boxRows(source, rows, width, y, tileHeight, radius));
+			forEachTile(width, height, TILE_WIDTH, height,
+					(x, y, tileWidth, tileHeight) -> boxColumns(rows, output, width, height, x, tileWidth, radius));
+
+			from = output;
+		}
+	}
+
+	/**
+	 * Box blurs some rows, keeping a running sum of the pixels under the box
+	 * as it moves along each row.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param y
+	 *            The first row.
+	 * @param rows
+	 *            The number of rows.
+	 * @param radius
+	 *            The radius of the box.
+	 */
+	private static void boxRows(int[] input, int[] output, int width, int y, int rows, int radius) {
+		int size = 2 * radius + 1;
+
+		for (int row = y; row < y + rows; row += 1) {
+			int base = row * width;
+			int red = 0;
+			int green = 0;
+			int blue = 0;
+
+			for (int offset = -radius; offset <= radius; offset += 1) {
+				int pixel = input[base + clamp(offset, width)];
+				red += PixelOps.red(pixel);
+				green += PixelOps.green(pixel);
+				blue += PixelOps.blue(pixel);
+			}
+
+			for (int x = 0; x < width; x += 1) {
+				output[base + x] = PixelOps.withRGB(input[base + x], (red + radius) / size, (green + radius) / size,
+						(blue + radius) / size);
+
+				int leaving = input[base + Math.max(x - radius, 0)];
+				int entering = input[base + Math.min(x + radius + 1, width - 1)];
+				red += PixelOps.red(entering) - PixelOps.red(leaving);
+				green += PixelOps.green(entering) - PixelOps.green(leaving);
+				blue += PixelOps.blue(entering) - PixelOps.blue(leaving);
+			}
+		}
+	}
+
+	/**
+	 * Box blurs some columns, keeping a running sum for each column as the box
+	 * moves down. The columns are walked a row at a time, so each step reads
+	 * one short run of memory.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param x
+	 *            The first column.
+	 * @param columns
+	 *            The number of columns.
+	 * @param radius
+	 *            The radius of the box.
+	 */
+	private static void boxColumns(int[] input, int[] output, int width, int height, int x, int columns,
+			int radius) {
+		int size = 2 * radius + 1;
+		int[] red = new int[columns];
+		int[] green = new int[columns];
+		int[] blue = new int[columns];
+
+		for (int offset = -radius; offset <= radius; offset += 1) {
+			int base = clamp(offset, height) * width + x;
+
+			for (int column = 0; column < columns; column += 1) {
+				int pixel = input[base + column];
+				red[column] += PixelOps.red(pixel);
+				green[column] += PixelOps.green(pixel);
+				blue[column] += PixelOps.blue(pixel);
+			}
+		}
+
+		for (int y = 0; y < height; y += 1) {
+			int base = y * width + x;
+			int leaving = Math.max(y - radius, 0) * width + x;
+			int entering = Math.min(y + radius + 1, height - 1) * width + x;
+
+			for (int column = 0; column < columns; column += 1) {
+				output[base + column] = PixelOps.withRGB(input[base + column], (red[column] + radius) / size,
+						(green[column] + radius) / size, (blue[column] + radius) / size);
+
+				int out = input[leaving + column];
+				int in = input[entering + column];
+				red[column] += PixelOps.red(in) - PixelOps.red(out);
+				green[column] += PixelOps.green(in) - PixelOps.green(out);
+				blue[column] += PixelOps.blue(in) - PixelOps.blue(out);
+			}
+		}
+	}
+
+	/**
+	 * Convolves one tile with a separable kernel. The row pass covers the halo
+	 * rows above and below the tile and keeps its sums unrounded, so kernels
+	 * with negative weights are exact.
+	 * 
+	 * @param row
+	 *            The row factor of the kernel.
+	 * @param column
+	 *            The column factor of the kernel.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param tile
+	 *            The tile.
+	 */
+	private static void convolveSeparable(float[] row, float[] column, int[] input, int[] output, int width,
+			int height, Rectangle tile) {
+		int radiusX = row.length / 2;
+		int radiusY = column.length / 2;
+		int windowWidth = tile.width + 2 * radiusX;
+		int scratchHeight = tile.height + 2 * radiusY;
+		float[][] window = unpack(readWindow(input, width, height, tile.x - radiusX, tile.y - radiusY, windowWidth,
+				scratchHeight));
+		float[][] scratch = new float[3][scratchHeight * tile.width];
+
+		for (int y = 0; y < scratchHeight; y += 1) {
+			for (int k = 0; k < row.length; k += 1) {
+				for (int channel = 0; channel < 3; channel += 1) {
+					accumulate(scratch[channel], y * tile.width, window[channel], y * windowWidth + k, row[k],
+							tile.width);
+				}
+			}
+		}
+
+		float[][] sums = new float[3][tile.width];
+
+		for (int y = 0; y < tile.height; y += 1) {
+			for (float[] sum : sums) {
+				Arrays.fill(sum, 0);
+			}
+
+			for (int k = 0; k < column.length; k += 1) {
+				for (int channel = 0; channel < 3; channel += 1) {
+					accumulate(sums[channel], 0, scratch[channel], (y + k) * tile.width, column[k], tile.width);
+				}
+			}
+
+			pack(sums, input, output, (tile.y + y) * width + tile.x);
+		}
+	}
+
+	/**
+	 * Convolves one tile with a kernel that is not separable.
+	 * 
+	 * @param weights
+	 *            The weights of the kernel, row by row.
+	 * @param kernelWidth
+	 *            The width of the kernel.
+	 * @param kernelHeight
+	 *            The height of the kernel.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param tile
+	 *            The tile.
+	 */
+	private static void convolveTile(float[] weights, int kernelWidth, int kernelHeight, int[] input, int[] output,
+			int width, int height, Rectangle tile) {
+		int windowWidth = tile.width + kernelWidth - 1;
+		float[][] window = unpack(readWindow(input, width, height, tile.x - kernelWidth / 2,
+				tile.y - kernelHeight / 2, windowWidth, tile.height + kernelHeight - 1));
+		float[][] sums = new float[3][tile.width];
+
+		for (int y = 0; y < tile.height; y += 1) {
+			for (float[] sum : sums) {
+				Arrays.fill(sum, 0);
+			}
+
+			for (int ky = 0; ky < kernelHeight; ky += 1) {
+				for (int kx = 0; kx < kernelWidth; kx += 1) {
+					for (int channel = 0; channel < 3; channel += 1) {
+						accumulate(sums[channel], 0, window[channel], (y + ky) * windowWidth + kx,
+								weights[ky * kernelWidth + kx], tile.width);
+					}
+				}
+			}
+
+			pack(sums, input, output, (tile.y + y) * width + tile.x);
+		}
+	}
+
+	/**
+	 * Adds a run of values times a weight to a run of sums. The loop has no
+	 * dependence from one value to the next, so the JIT compiles it to SIMD
+	 * instructions, and each sum still adds its terms in kernel order.
+	 * 
+	 * @param sums
+	 *            The sums.
+	 * @param sumsStart
+	 *            The first sum to add to.
+	 * @param values
+	 *            The values.
+	 * @param valuesStart
+	 *            The first value to add.
+	 * @param weight
+	 *            The weight.
+	 * @param length
+	 *            The number of values.
+	 */
+	private static void accumulate(float[] sums, int sumsStart, float[] values, int valuesStart, float weight,
+			int length) {
+		for (int index = 0; index < length; index += 1) {
+			sums[sumsStart + index] += weight * values[valuesStart + index];
+		}
+	}
+
+	/**
+	 * Splits pixels into a plane of floats for each of red, green and blue.
+	 * 
+	 * @param pixels
+	 *            The pixels.
+	 * @return The red, green and blue planes.
+	 */
+	private static float[][] unpack(int[] pixels) {
+		float[][] planes = new float[3][pixels.length];
+
+		for (int index = 0; index < pixels.length; index += 1) {
+			int pixel = pixels[index];
+			planes[0][index] = PixelOps.red(pixel);
+			planes[1][index] = PixelOps.green(pixel);
+			planes[2][index] = PixelOps.blue(pixel);
+		}
+
+		return planes;
+	}
+
+	/**
+	 * Rounds one row of sums to pixels, keeping the alpha of the input pixels.
+	 * 
+	 * @param sums
+	 *            The red, green and blue sums.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixels in.
+	 * @param start
+	 *            The index of the first pixel of the row.
+	 */
+	private static void pack(float[][] sums, int[] input, int[] output, int start) {
+		for (int x = 0; x < sums[0].length; x += 1) {
+			output[start + x] = round(input[start + x], sums[0][x], sums[1][x], sums[2][x]);
+		}
+	}
+
+	/**
+	 * Runs the Sobel operator over one tile.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param x
+	 *            The left column of the tile.
+	 * @param y
+	 *            The top row of the tile.
+	 * @param tileWidth
+	 *            The width of the tile.
+	 * @param tileHeight
+	 *            The height of the tile.
+	 */
+	private static void sobelTile(int[] input, int[] output, int width, int height, int x, int y, int tileWidth,
+			int tileHeight) {
+		int windowWidth = tileWidth + 2;
+		int[] luma = readWindow(input, width, height, x - 1, y - 1, windowWidth, tileHeight + 2);
+
+		for (int index = 0; index < luma.length; index += 1) {
+			int pixel = luma[index];
+			luma[index] = PixelOps.luma(PixelOps.red(pixel), PixelOps.green(pixel), PixelOps.blue(pixel));
+		}
+
+		for (int row = 0; row < tileHeight; row += 1) {
+			int base = (y + row) * width + x;
+
+			for (int column = 0; column < tileWidth; column += 1) {
+				int top = row * windowWidth + column;
+				int middle = top + windowWidth;
+				int bottom = middle + windowWidth;
+
+				int gradientX = luma[top + 2] + 2 * luma[middle + 2] + luma[bottom + 2] - luma[top]
+						- 2 * luma[middle] - luma[bottom];
+				int gradientY = luma[bottom] + 2 * luma[bottom + 1] + luma[bottom + 2] - luma[top]
+						- 2 * luma[top + 1] - luma[top + 2];
+				int edge = Math.min(PixelOps.CHANNEL_MAX,
+						(int) ((float) Math.sqrt(gradientX * gradientX + gradientY * gradientY) + 0.5f));
+
+				output[base + column] = PixelOps.withRGB(input[base + column], edge, edge, edge);
+			}
+		}
+	}
+
+	/**
+	 * Copies a rectangle of an image, repeating the edge pixels for the parts
+	 * of the rectangle outside the image.
+	 * 
+	 * @param input
+	 *            The pixel data of the image, row by row.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param x
+	 *            The left column of the rectangle, which may be negative.
+	 * @param y
+	 *            The top row of the rectangle, which may be negative.
+	 * @param windowWidth
+	 *            The width of the rectangle.
+	 * @param windowHeight
+	 *            The height of the rectangle.
+	 * @return The pixels of the rectangle, row by row.
+	 */
+	private static int[] readWindow(int[] input, int width, int height, int x, int y, int windowWidth,
+			int windowHeight) {
+		int[] window = new int[windowWidth * windowHeight];
+
+		for (int row = 0; row < windowHeight; row += 1) {
+			int base = clamp(y + row, height) * width;
+
+			for (int column = 0; column < windowWidth; column += 1) {
+				window[row * windowWidth + column] = input[base + clamp(x + column, width)];
+			}
+		}
+
+		return window;
+	}
+
+	/**
+	 * Reads part of an image as packed ARGB ints.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @param region
+	 *            The part to read.
+	 * @return The pixels of the part, row by row.
+	 */
+	private static int[] read(BufferedImage image, Rectangle region) {
+		int[] pixels = new int[region.width * region.height];
+		RasterPixels raster = RasterPixels.of(image);
+
+		if (raster == null) {
+			image.getRGB(region.x, region.y, region.width, region.height, pixels, 0, region.width);
+		} else {
+			for (int row = 0; row < region.height; row += 1) {
+				int start = (region.y + row) * image.getWidth() + region.x;
+
+				raster.read(start, start + region.width, pixels, row * region.width);
+			}
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Runs work on every tile of an image, one tile per task.
+	 * 
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param tileWidth
+	 *            The width of a tile.
+	 * @param tileHeight
+	 *            The height of a tile.
+	 * @param work
+	 *            The work done on each tile.
+	 */
+	private void forEachTile(int width, int height, int tileWidth, int tileHeight, TileWork work) {
+		int columns = (width + tileWidth - 1) / tileWidth;
+		int rows = (height + tileHeight - 1) / tileHeight;
+
+		pool.invoke(new TileTask(work, width, height, tileWidth, tileHeight, columns, 0, columns * rows));
+	}
+
+	/**
+	 * Gets the number of pixels around a part of an image that a filter reads.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm.
+	 * @param radius
+	 *            The blur radius.
+	 * @return The width of the halo.
+	 */
+	private static int getHalo(String algorithm, int radius) {
+		if (!algorithm.equals("Blur") && !algorithm.equals("Unsharp Mask")) {
+			return 1;
+		}
+
+		if (radius <= BOX_BLUR_RADIUS) {
+			return Math.max(radius, 0);
+		}
+
+		int halo = 0;
+
+		for (int boxRadius : getBoxRadii(radius)) {
+			halo += boxRadius;
+		}
+
+		return halo;
+	}
+
+	/**
+	 * Gets the radii of BOX_PASSES box blurs whose result is close to a
+	 * Gaussian blur. Each box is an odd width, and the widths differ by at most
+	 * two, chosen so the variances add up to the variance of the Gaussian.
+	 * 
+	 * @param radius
+	 *            The radius of the Gaussian blur.
+	 * @return The radius of each box blur.
+	 */
+	static int[] getBoxRadii(int radius) {
+		double sigma = radius / ConvolutionKernel.GAUSSIAN_SIGMAS;
+		double variance = 12 * sigma * sigma;
+		int lower = (int) Math.sqrt(variance / BOX_PASSES + 1);
+
+		if (lower % 2 == 0) {
+			lower -= 1;
+		}
+
+		long lowerPasses = Math.round((variance - BOX_PASSES * (lower * lower + 4 * lower + 3)) / (-4.0 * lower - 4));
+		int[] radii = new int[BOX_PASSES];
+
+		for (int pass = 0; pass < BOX_PASSES; pass += 1) {
+			radii[pass] = pass < lowerPasses ? (lower - 1) / 2 : (lower + 1) / 2;
+		}
+
+		return radii;
+	}
+
+	/**
+	 * Adds the difference from the blurred value to a channel.
+	 * 
+	 * @param value
+	 *            The channel value.
+	 * @param blurred
+	 *            The blurred channel value.
+	 * @param amount
+	 *            The amount, in percent.
+	 * @return The sharpened value.
+	 */
+	private static int sharpen(int value, int blurred, int amount) {
+		return PixelOps.clamp(value + Math.floorDiv((value - blurred) * amount + 50, 100));
+	}
+
+	/**
+	 * Rounds the sums of a kernel to a pixel, keeping the alpha of the pixel
+	 * at the center.
+	 * 
+	 * @param center
+	 *            The input pixel at the center of the kernel.
+	 * @param red
+	 *            The red sum.
+	 * @param green
+	 *            The green sum.
+	 * @param blue
+	 *            The blue sum.
+	 * @return The pixel.
+	 */
+	private static int round(int center, float red, float green, float blue) {
+		// Truncating after adding one half rounds every value that survives the clamp to nearest
+		return PixelOps.withRGB(center, PixelOps.clamp((int) (red + 0.5f)), PixelOps.clamp((int) (green + 0.5f)),
+				PixelOps.clamp((int) (blue + 0.5f)));
+	}
+
+	/**
+	 * Limits an index to the pixels of a row or column.
+	 * 
+	 * @param index
+	 *            The index, which may be outside.
+	 * @param length
+	 *            The number of pixels.
+	 * @return The nearest index inside.
+	 */
+	private static int clamp(int index, int length) {
+		return Math.max(0, Math.min(index, length - 1));
+	}
+
+	/**
+	 * Checks that the arrays hold an image of the given size.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	static void checkSize(int[] input, int[] output, int width, int height) {
+		if (width < 1 || height < 1 || (long) width * height > input.length || output.length < input.length) {
+			throw new IllegalArgumentException("Arrays of " + input.length + " and " + output.length
+					+ " pixels cannot hold a " + width + " by " + height + " image");
+		}
+
+		if (input == output) {
+			throw new IllegalArgumentException("A neighborhood filter cannot write over its input");
+		}
+	}
+
+	/**
+	 * Changes the blur radius and unsharp mask amount.
+	 * 
+	 * @param radius
+	 *            The new blur radius, in pixels.
+	 * @param amount
+	 *            The new unsharp mask amount, in percent, at most
+	 *            MAX_UNSHARP_AMOUNT; larger amounts are capped.
+	 */
+	public synchronized void setBlur(int radius, int amount) {
+		if (radius < 0 || amount < 0) {
+			throw new IllegalArgumentException("The blur radius and amount cannot be negative");
+		}
+
+		blurRadius = radius;
+		unsharpAmount = Math.min(amount, MAX_UNSHARP_AMOUNT);
+	}
+
+	/**
+	 * Gets the blur radius currently in use.
+	 * 
+	 * @return The blur radius, in pixels.
+	 */
+	public synchronized int getBlurRadius() {
+		return blurRadius;
+	}
+
+	/**
+	 * Gets the unsharp mask amount currently in use.
+	 * 
+	 * @return The amount, in percent.
+	 */
+	public synchronized int getUnsharpAmount() {
+		return unsharpAmount;
+	}
+
+	/**
+	 * Gets the settings an algorithm's result depends on, for cache keys.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm.
+	 * @return The settings, or an empty string if it has none.
+	 */
+	public synchronized String getParameters(String algorithm) {
+		if (algorithm.equals("Blur")) {
+			return "radius=" + blurRadius;
+		}
+
+		if (algorithm.equals("Unsharp Mask")) {
+			return "radius=" + blurRadius + ",amount=" + unsharpAmount;
+		}
+
+		return "";
+	}
+
+	/**
+	 * Gets the name of the device the filters run on, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	public String getDeviceName() {
+		return "CPU Fork/Join";
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 * 
+	 * @return The number of worker threads.
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * The serial work done on one tile.
+	 */
+	private interface TileWork {
+		/**
+		 * Processes one tile.
+		 * 
+		 * @param x
+		 *            The left column of the tile.
+		 * @param y
+		 *            The top row of the tile.
+		 * @param width
+		 *            The width of the tile.
+		 * @param height
+		 *            The height of the tile.
+		 */
+		void run(int x, int y, int width, int height);
+	}
+
+	/**
+	 * Splits a range of tiles in half until one tile is left.
+	 */
+	private static class TileTask extends RecursiveAction {
+		/** Generated unique serial ID. */
+		private static final long serialVersionUID = -2390145773826093118L;
+
+		/** The work done on each tile. */
+		private final transient TileWork work;
+		/** The width of the image. */
+		private final int width;
+		/** The height of the image. */
+		private final int height;
+		/** The width of a tile. */
+		private final int tileWidth;
+		/** The height of a tile. */
+		private final int tileHeight;
+		/** The number of tiles across the image. */
+		private final int columns;
+		/** The first tile to process. */
+		private final int start;
+		/** One past the last tile to process. */
+		private final int end;
+
+		/**
+		 * Constructs a TileTask.
+		 * 
+		 * @param work
+		 *            The work done on each tile.
+		 * @param width
+		 *            The width of the image.
+		 * @param height
+		 *            The height of the image.
+		 * @param tileWidth
+		 *            The width of a tile.
+		 * @param tileHeight
+		 *            The height of a tile.
+		 * @param columns
+		 *            The number of tiles across the image.
+		 * @param start
+		 *            The first tile to process, counting along each row of
+		 *            tiles.
+		 * @param end
+		 *            One past the last tile to process.
+		 */
+		TileTask(TileWork work, int width, int height, int tileWidth, int tileHeight, int columns, int start,
+				int end) {
+			this.work = work;
+			this.width = width;
+			this.height = height;
+			this.tileWidth = tileWidth;
+			this.tileHeight = tileHeight;
+			this.columns = columns;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				int x = start % columns * tileWidth;
+				int y = start / columns * tileHeight;
+
+				work.run(x, y, Math.min(tileWidth, width - x), Math.min(tileHeight, height - y));
+			} else {
+				int middle = (start + end) >>> 1;
+
+				invokeAll(new TileTask(work, width, height, tileWidth, tileHeight, columns, start, middle),
+						new TileTask(work, width, height, tileWidth, tileHeight, columns, middle, end));
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package kings.image;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_context;
+import org.jocl.cl_context_properties;
+import org.jocl.cl_device_id;
+import org.jocl.cl_kernel;
+import org.jocl.cl_platform_id;
+import org.jocl.cl_program;
+
+/**
+ * The long-lived OpenCL state for one device: its context, its command queue
+ * and every kernel that has been built for it. Everything is created once and
+ * reused until the context is released.
+ *
+ * @author Courtney Rikoskie
+ * @version 10-21-19
+ */
+public class DeviceContext {
+	/** The device. */
+	private final cl_device_id device;
+	/** The context. */
+	private final cl_context context;
+	/** The command queue. */
+	private final cl_command_queue commandQueue;
+	/** The cache that builds programs. */
+	private final ProgramCache programCache;
+	/** The pool of reusable buffers. */
+	private final BufferPool bufferPool;
+	/** Whether the device shares memory with the host. */
+	private final boolean hostUnified;
+
+	/** The programs that have been built, by kernel name and build options. */
+	private final Map<String, cl_program> programs;
+	/** The kernels that have been built, by kernel name and build options. */
+	private final Map<String, cl_kernel> kernels;
+
+	/**
+	 * Creates the context and command queue for a device.
+	 *
+	 * @param platform
+	 *            The platform the device belongs to.
+	 * @param device
+	 *            The device.
+	 * @param programCache
+	 *            The cache that builds programs.
+	 */
+	public DeviceContext(cl_platform_id platform, cl_device_id device, ProgramCache programCache) {
+		this.device = device;
+		this.programCache = programCache;
+
+		cl_context_properties contextProperties = new cl_context_properties();
+		contextProperties.addProperty(CL.CL_CONTEXT_PLATFORM, platform);
+
+		context = CL.clCreateContext(contextProperties, 1, new cl_device_id[] { device }, null, null, null);
+		commandQueue = CL.clCreateCommandQueue(context, device, 0, null);
+		bufferPool = new BufferPool(context);
+		hostUnified = queryHostUnified(device);
+
+		programs = new HashMap<String, cl_program>();
+		kernels = new HashMap<String, cl_kernel>();
+	}
+
+	/**
+	 * Gets a kernel, building it the first time it is asked for. The kernel
+	 * source is read from the file with the same name as the kernel.
+	 *
+	 * @param name
+	 *            The kernel name, such as "grayscale_kernel".
+	 * @return The kernel.
+	 */
+	public cl_kernel getKernel(String name) {
+		return getKernel(name, null);
+	}
+
+	/**
+	 * Gets a kernel built with the given options, building it the first time it
+	 * is asked for. Each set of options is a separate program.
+	 *
+	 * @param name
+	 *            The kernel name, such as "grayscale_vec_kernel".
+	 * @param options
+	 *            The build options, such as "-D VECTORS_PER_ITEM=4", or null.
+	 * @return The kernel.
+	 */
+	public synchronized cl_kernel getKernel(String name, String options) {
+		String key = options == null ? name : name + " " + options;
+
+		if (kernels.containsKey(key)) {
+			return kernels.get(key);
+		}
+
+		return buildKernel(key, name, ProgramCache.loadSource(name + ".cl"), options);
+	}
+
+	/**
+	 * Gets a kernel from generated source, building it the first time the same
+	 * source is asked for.
+	 *
+	 * @param name
+	 *            The kernel name.
+	 * @param source
+	 *            The program source.
+	 * @return The kernel.
+	 */
+	public synchronized cl_kernel getGeneratedKernel(String name, String source) {
+		String key = name + "\n" + source;
+
+		if (kernels.containsKey(key)) {
+			return kernels.get(key);
+		}
+
+		return buildKernel(key, name, source, null);
+	}
+
+	/**
+	 * Builds a kernel and keeps it and its program.
+	 *
+	 * @param key
+	 *            The key to keep the kernel under.
+	 * @param name
+	 *            The kernel name.
+	 * @param source
+	 *            The program source.
+	 * @param options
+	 *            The build options, or null.
+	 * @return The kernel.
+	 */
+	private cl_kernel buildKernel(String key, String name, String source, String options) {
+		cl_program program = programCache.build(context, device, source, options);
+		cl_kernel kernel = CL.clCreateKernel(program, name, null);
+
+		programs.put(key, program);
+		kernels.put(key, kernel);
+
+		return kernel;
+	}
+
+	/**
+	 * Gets the device.
+	 *
+	 * @return The device.
+	 */
+	public cl_device_id getDevice() {
+		return device;
+	}
+
+	/**
+	 * Gets the context.
+	 *
+	 * @return The context.
+	 */
+	public cl_context getContext() {
+		return context;
+	}
+
+	/**
+	 * Gets the command queue.
+	 *
+	 * @return The command queue.
+	 */
+	public cl_command_queue getCommandQueue() {
+		return commandQueue;
+	}
+
+	/**
+	 * Gets the pool of reusable buffers.
+	 *
+	 * @return The buffer pool.
+	 */
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Checks whether the device shares memory with the host, as CPUs and
+	 * integrated GPUs do. Mapping a buffer on such a device does not copy it.
+	 *
+	 * @return True if the device shares memory with the host.
+	 */
+	public boolean isHostUnified() {
+		return hostUnified;
+	}
+
+	/**
+	 * Asks the device whether it shares memory with the host.
+	 *
+	 * @param device
+	 *            The device.
+	 * @return True if the device is a CPU or reports unified host memory.
+	 */
+	private static boolean queryHostUnified(cl_device_id device) {
+		long[] type = new long[1];
+		CL.clGetDeviceInfo(device, CL.CL_DEVICE_TYPE, Sizeof.cl_ulong, Pointer.to(type), null);
+
+		if ((type[0] & CL.CL_DEVICE_TYPE_CPU) != 0) {
+			return true;
+		}
+
+		int[] unified = new int[1];
+		CL.clGetDeviceInfo(device, CL.CL_DEVICE_HOST_UNIFIED_MEMORY, Sizeof.cl_int, Pointer.to(unified), null);
+
+		return unified[0] != 0;
+	}
+
+	/**
+	 * Releases every kernel and program, the idle buffers, the command queue and
+	 * the context.
+	 */
+	public synchronized void release() {
+		bufferPool.clear();
+
+		for (cl_kernel kernel : kernels.values()) {
+			CL.clReleaseKernel(kernel);
+		}
+
+		for (cl_program program : programs.values()) {
+			CL.clReleaseProgram(program);
+		}
+
+		kernels.clear();
+		programs.clear();
+
+		CL.clReleaseCommandQueue(commandQueue);
+		CL.clReleaseContext(context);
+	}
+}
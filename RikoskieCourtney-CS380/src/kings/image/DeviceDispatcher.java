@@ -0,0 +1,255 @@
+package kings.image;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jocl.CLException;
+
+/**
+ * Spreads a stream of images across every OpenCL device. Each image goes to
+ * the device that is expected to finish it first, given the pixels already
+ * queued on each device and each device's measured throughput, so a device
+ * twice as fast gets about twice the images. Every device is tried once
+ * before any measurements are trusted, and a device that fails is not used
+ * again; the image it failed on is retried on the next device that is still
+ * working. Callers send images from several threads at once; each device runs
+ * one image at a time.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-25-19
+ */
+public class DeviceDispatcher {
+	/** The weight of the newest measurement in each device's throughput. */
+	private static final double SMOOTHING = 0.2;
+
+	/** The OpenCL image processor. */
+	private final ParallelImageProcessor parallel;
+	/** The names of the devices. */
+	private final String[] names;
+	/** The measured pixels per nanosecond of each device, or 0 before the first image. */
+	private final double[] throughput;
+	/** The pixels sent to each device that are not finished yet. */
+	private final long[] queuedPixels;
+	/** The time each device spent running images. */
+	private final long[] busyNanos;
+	/** The number of images each device finished. */
+	private final long[] images;
+	/** Whether each device has failed. */
+	private final boolean[] failed;
+	/** When the dispatcher was created. */
+	private final long startNanos;
+
+	/**
+	 * Constructs a DeviceDispatcher over every device of a processor.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor.
+	 */
+	public DeviceDispatcher(ParallelImageProcessor parallel) {
+		this.parallel = parallel;
+
+		names = parallel.getDeviceNames();
+		throughput = new double[names.length];
+		queuedPixels = new long[names.length];
+		busyNanos = new long[names.length];
+		images = new long[names.length];
+		failed = new boolean[names.length];
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Runs an algorithm on the device expected to finish it first.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(String algorithm, int[] input, int[] output) {
+		run(algorithm, input.length, device -> parallel.runAlgorithm(device, algorithm, input, output, 0,
+				input.length));
+	}
+
+	/**
+	 * Runs a filter chain on the device expected to finish it first.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, int[] input, int[] output) {
+		run(FilterChain.ALGORITHM, input.length, device -> parallel.process(device, chain, input, output, 0,
+				input.length));
+	}
+
+	/**
+	 * Runs an image on the device expected to finish it first, and again on
+	 * the next one each time a device fails, until one finishes it.
+	 * 
+	 * @param algorithm
+	 *            The algorithm name the run is recorded under.
+	 * @param pixels
+	 *            The number of pixels in the image.
+	 * @param work
+	 *            The run of the image on one device.
+	 * @throws CLException
+	 *             Thrown if every device has failed.
+	 */
+	private void run(String algorithm, long pixels, DeviceWork work) {
+		CLException failure = null;
+
+		while (true) {
+			int device;
+
+			try {
+				device = choose(pixels);
+			} catch (CLException e) {
+				if (failure != null) {
+					e.addSuppressed(failure);
+				}
+
+				throw e;
+			}
+
+			try {
+				long nanos = work.run(device);
+
+				finish(device, pixels, nanos);
+				MetricsRegistry.getDefault().recordRun(algorithm, names[device], pixels, nanos);
+				return;
+			} catch (CLException e) {
+				fail(device, pixels);
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Gets the share of the time since the dispatcher was created that each
+	 * device spent running images.
+	 * 
+	 * @return The utilization of each device, from 0 to 1, by device name.
+	 */
+	public synchronized Map<String, Double> getUtilization() {
+		double elapsed = Math.max(1, System.nanoTime() - startNanos);
+		Map<String, Double> utilization = new LinkedHashMap<String, Double>();
+
+		for (int device = 0; device < names.length; device += 1) {
+			utilization.put(names[device], Math.min(1, busyNanos[device] / elapsed));
+		}
+
+		return Collections.unmodifiableMap(utilization);
+	}
+
+	/**
+	 * Describes how the images were spread: the images, utilization and
+	 * throughput of each device.
+	 * 
+	 * @return One line per device.
+	 */
+	@Override
+	public synchronized String toString() {
+		double elapsed = Math.max(1, System.nanoTime() - startNanos);
+		StringBuilder report = new StringBuilder();
+
+		for (int device = 0; device < names.length; device += 1) {
+			report.append(String.format(Locale.ROOT, "%s: %d images, %.0f%% busy, %.1f MPix/s%s%n", names[device],
+					images[device], 100 * Math.min(1, busyNanos[device] / elapsed), throughput[device] * 1000,
+					failed[device] ? ", failed" : ""));
+		}
+
+		return report.toString();
+	}
+
+	/**
+	 * Chooses the device expected to finish an image first and queues the image
+	 * on it. A device that has not run an image yet is chosen before any other.
+	 * 
+	 * @param pixels
+	 *            The number of pixels in the image.
+	 * @return The index of the device.
+	 * @throws CLException
+	 *             Thrown if every device has failed.
+	 */
+	private synchronized int choose(long pixels) {
+		int best = -1;
+		double bestFinish = Double.MAX_VALUE;
+
+		for (int device = 0; device < names.length; device += 1) {
+			if (failed[device]) {
+				continue;
+			}
+
+			// An untried device counts as finishing at once, after what is queued on it
+			double finish = throughput[device] > 0 ? (queuedPixels[device] + pixels) / throughput[device]
+					: queuedPixels[device] == 0 ? 0 : Double.MAX_VALUE / 2;
+
+			if (finish < bestFinish) {
+				best = device;
+				bestFinish = finish;
+			}
+		}
+
+		if (best < 0) {
+			throw new CLException("Every OpenCL device has failed");
+		}
+
+		queuedPixels[best] += pixels;
+
+		return best;
+	}
+
+	/**
+	 * Records a finished image.
+	 * 
+	 * @param device
+	 *            The index of the device.
+	 * @param pixels
+	 *            The number of pixels in the image.
+	 * @param nanos
+	 *            The time the device spent on the image.
+	 */
+	private synchronized void finish(int device, long pixels, long nanos) {
+		double measured = (double) pixels / Math.max(1, nanos);
+
+		queuedPixels[device] -= pixels;
+		busyNanos[device] += nanos;
+		images[device] += 1;
+		throughput[device] = throughput[device] == 0 ? measured
+				: (1 - SMOOTHING) * throughput[device] + SMOOTHING * measured;
+	}
+
+	/**
+	 * Stops sending images to a device that failed.
+	 * 
+	 * @param device
+	 *            The index of the device.
+	 * @param pixels
+	 *            The number of pixels in the image that failed.
+	 */
+	private synchronized void fail(int device, long pixels) {
+		queuedPixels[device] -= pixels;
+		failed[device] = true;
+	}
+
+	/**
+	 * The run of one image on one device.
+	 */
+	private interface DeviceWork {
+		/**
+		 * Runs the image on a device.
+		 * 
+		 * @param device
+		 *            The index of the device.
+		 * @return The time spent on the device, in nanoseconds.
+		 */
+		long run(int device);
+	}
+}
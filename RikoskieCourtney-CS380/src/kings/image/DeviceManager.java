@@ -0,0 +1,285 @@
+package kings.image;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jocl.CL;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_device_id;
+import org.jocl.cl_device_partition_property;
+import org.jocl.cl_platform_id;
+
+/**
+ * Finds every OpenCL device on every platform. CPU devices can be split into
+ * equal sub-devices with clCreateSubDevices, so that one CPU can run several
+ * images side by side, each on its own command queue, the way separate GPUs
+ * would.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-25-19
+ */
+public class DeviceManager {
+	/** The platform of each device. */
+	private final List<cl_platform_id> platforms;
+	/** The devices. */
+	private final List<cl_device_id> devices;
+	/** The name of each device. */
+	private final List<String> names;
+	/** The sub-devices this manager created, which it must release. */
+	private final List<cl_device_id> subDevices;
+
+	/**
+	 * Constructs a DeviceManager that keeps every device whole.
+	 */
+	public DeviceManager() {
+		this(1);
+	}
+
+	/**
+	 * Constructs a DeviceManager.
+	 * 
+	 * @param cpuSubDevices
+	 *            The number of sub-devices to split each CPU device into, or 1 to
+	 *            keep them whole. A device that cannot be split that way is kept
+	 *            whole.
+	 * @throws CLException
+	 *             Thrown if there is no OpenCL device.
+	 */
+	public DeviceManager(int cpuSubDevices) {
+		if (cpuSubDevices < 1) {
+			throw new IllegalArgumentException("Sub-device count must be positive: " + cpuSubDevices);
+		}
+
+		CL.setExceptionsEnabled(true);
+
+		platforms = new ArrayList<cl_platform_id>();
+		devices = new ArrayList<cl_device_id>();
+		names = new ArrayList<String>();
+		subDevices = new ArrayList<cl_device_id>();
+
+		int[] platformCount = new int[1];
+		CL.clGetPlatformIDs(0, null, platformCount);
+
+		cl_platform_id[] allPlatforms = new cl_platform_id[platformCount[0]];
+
+		if (allPlatforms.length > 0) {
+			CL.clGetPlatformIDs(allPlatforms.length, allPlatforms, null);
+		}
+
+		for (cl_platform_id platform : allPlatforms) {
+			String suffix = allPlatforms.length > 1 ? " [" + getPlatformName(platform) + "]" : "";
+
+			for (cl_device_id device : getDevices(platform)) {
+				String name = ProgramCache.getDeviceString(device, CL.CL_DEVICE_NAME);
+				cl_device_id[] parts = cpuSubDevices > 1 && isCPU(device) ? split(device, cpuSubDevices) : null;
+
+				if (parts == null) {
+					add(platform, device, name + suffix);
+				} else {
+					for (int part = 0; part < parts.length; part += 1) {
+						subDevices.add(parts[part]);
+						add(platform, parts[part], name + " #" + (part + 1) + suffix);
+					}
+				}
+			}
+		}
+
+		if (devices.isEmpty()) {
+			throw new CLException("No OpenCL devices");
+		}
+	}
+
+	/**
+	 * Gets the number of devices.
+	 * 
+	 * @return The number of devices.
+	 */
+	public int getDeviceCount() {
+		return devices.size();
+	}
+
+	/**
+	 * Gets a device.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @return The device.
+	 */
+	public cl_device_id getDevice(int index) {
+		return devices.get(index);
+	}
+
+	/**
+	 * Gets the platform of a device.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @return The platform.
+	 */
+	public cl_platform_id getPlatform(int index) {
+		return platforms.get(index);
+	}
+
+	/**
+	 * Gets the name of a device. Sub-devices are numbered, and when there is
+	 * more than one platform, the platform's name is added.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @return The name.
+	 */
+	public String getName(int index) {
+		return names.get(index);
+	}
+
+	/**
+	 * Releases the sub-devices. Their contexts must be released first.
+	 */
+	public void release() {
+		for (cl_device_id subDevice : subDevices) {
+			CL.clReleaseDevice(subDevice);
+		}
+
+		subDevices.clear();
+	}
+
+	/**
+	 * Adds a device to the lists.
+	 * 
+	 * @param platform
+	 *            The platform of the device.
+	 * @param device
+	 *            The device.
+	 * @param name
+	 *            The name of the device.
+	 */
+	private void add(cl_platform_id platform, cl_device_id device, String name) {
+		platforms.add(platform);
+		devices.add(device);
+		names.add(name);
+	}
+
+	/**
+	 * Gets every device on a platform.
+	 * 
+	 * @param platform
+	 *            The platform.
+	 * @return The devices, or none if the platform has none.
+	 */
+	private static cl_device_id[] getDevices(cl_platform_id platform) {
+		try {
+			int[] deviceCount = new int[1];
+			CL.clGetDeviceIDs(platform, CL.CL_DEVICE_TYPE_ALL, 0, null, deviceCount);
+
+			cl_device_id[] found = new cl_device_id[deviceCount[0]];
+
+			if (found.length > 0) {
+				CL.clGetDeviceIDs(platform, CL.CL_DEVICE_TYPE_ALL, found.length, found, null);
+			}
+
+			return found;
+		} catch (CLException e) {
+			// CL_DEVICE_NOT_FOUND: an installed driver with no hardware behind it
+			return new cl_device_id[0];
+		}
+	}
+
+	/**
+	 * Splits a device into equal sub-devices. When the compute units do not
+	 * divide evenly, the parts are as large as they can be for count of them,
+	 * and the units left over make more parts: 8 units split 3 ways make 4
+	 * sub-devices of 2 units.
+	 * 
+	 * @param device
+	 *            The device.
+	 * @param count
+	 *            The number of sub-devices wanted.
+	 * @return The sub-devices, or null if the device cannot be split that way.
+	 */
+	private static cl_device_id[] split(cl_device_id device, int count) {
+		try {
+			int computeUnits = getDeviceInt(device, CL.CL_DEVICE_MAX_COMPUTE_UNITS);
+
+			if (computeUnits < count) {
+				return null;
+			}
+
+			int partUnits = computeUnits / count;
+			int partCount = computeUnits / partUnits;
+
+			if (getDeviceInt(device, CL.CL_DEVICE_PARTITION_MAX_SUB_DEVICES) < partCount) {
+				return null;
+			}
+
+			cl_device_partition_property properties = new cl_device_partition_property();
+			properties.addProperty(CL.CL_DEVICE_PARTITION_EQUALLY, partUnits);
+
+			cl_device_id[] parts = new cl_device_id[partCount];
+			int[] created = new int[1];
+			CL.clCreateSubDevices(device, properties, partCount, parts, created);
+
+			if (created[0] == partCount) {
+				return parts;
+			}
+
+			for (int part = 0; part < created[0]; part += 1) {
+				CL.clReleaseDevice(parts[part]);
+			}
+
+			return null;
+		} catch (CLException e) {
+			// the driver is older than OpenCL 1.2 or cannot partition the device
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether a device is a CPU.
+	 * 
+	 * @param device
+	 *            The device.
+	 * @return True if the device is a CPU.
+	 */
+	private static boolean isCPU(cl_device_id device) {
+		long[] type = new long[1];
+		CL.clGetDeviceInfo(device, CL.CL_DEVICE_TYPE, Sizeof.cl_ulong, Pointer.to(type), null);
+
+		return (type[0] & CL.CL_DEVICE_TYPE_CPU) != 0;
+	}
+
+	/**
+	 * Gets a cl_uint property of a device.
+	 * 
+	 * @param device
+	 *            The device.
+	 * @param param
+	 *            The property, such as CL_DEVICE_MAX_COMPUTE_UNITS.
+	 * @return The value of the property.
+	 */
+	private static int getDeviceInt(cl_device_id device, int param) {
+		int[] value = new int[1];
+		CL.clGetDeviceInfo(device, param, Sizeof.cl_uint, Pointer.to(value), null);
+
+		return value[0];
+	}
+
+	/**
+	 * Gets the name of a platform.
+	 * 
+	 * @param platform
+	 *            The platform.
+	 * @return The name.
+	 */
+	private static String getPlatformName(cl_platform_id platform) {
+		long[] size = new long[1];
+		CL.clGetPlatformInfo(platform, CL.CL_PLATFORM_NAME, 0, null, size);
+
+		byte[] buffer = new byte[(int) size[0]];
+		CL.clGetPlatformInfo(platform, CL.CL_PLATFORM_NAME, buffer.length, Pointer.to(buffer), null);
+
+		return new String(buffer, 0, Math.max(0, buffer.length - 1), StandardCharsets.UTF_8);
+	}
+}
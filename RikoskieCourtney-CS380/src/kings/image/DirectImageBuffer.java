@@ -0,0 +1,106 @@
+package kings.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * An image buffer held in a direct ByteBuffer in native byte order, such as a
+ * new allocation or a mapped file. OpenCL reads and writes it in place. A
+ * direct buffer holds at most 2^31 bytes, and its memory is only freed once
+ * the buffer is garbage collected; close drops this buffer's reference to it.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-28-19
+ */
+public class DirectImageBuffer implements ImageBuffer {
+	/** The bytes of the pixels, or null once closed. */
+	private ByteBuffer bytes;
+	/** The pixels. */
+	private IntBuffer pixels;
+
+	/**
+	 * Constructs a DirectImageBuffer with newly allocated native memory.
+	 * 
+	 * @param size
+	 *            The number of pixels.
+	 */
+	public DirectImageBuffer(int size) {
+		this(ByteBuffer.allocateDirect(Math.multiplyExact(size, Integer.BYTES)));
+	}
+
+	/**
+	 * Constructs a DirectImageBuffer around an existing direct buffer. Its
+	 * byte order is set to the native order.
+	 * 
+	 * @param bytes
+	 *            The bytes of the pixels, from position 0 to the capacity.
+	 */
+	public DirectImageBuffer(ByteBuffer bytes) {
+		if (!bytes.isDirect()) {
+			throw new IllegalArgumentException("The buffer must be direct");
+		}
+
+		this.bytes = bytes.duplicate().order(ByteOrder.nativeOrder());
+		this.bytes.clear();
+		pixels = this.bytes.asIntBuffer();
+	}
+
+	@Override
+	public long size() {
+		return pixels.capacity();
+	}
+
+	@Override
+	public int get(long index) {
+		return pixels.get(Math.toIntExact(index));
+	}
+
+	@Override
+	public void set(long index, int pixel) {
+		pixels.put(Math.toIntExact(index), pixel);
+	}
+
+	@Override
+	public void get(long index, int[] destination, int offset, int length) {
+		IntBuffer view = pixels.duplicate();
+		view.position(Math.toIntExact(index));
+		view.get(destination, offset, length);
+	}
+
+	@Override
+	public void put(long index, int[] source, int offset, int length) {
+		IntBuffer view = pixels.duplicate();
+		view.position(Math.toIntExact(index));
+		view.put(source, offset, length);
+	}
+
+	@Override
+	public int[] array() {
+		return null;
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(long index, int length) {
+		ByteBuffer view = bytes.duplicate();
+		int start = Math.toIntExact(index * Integer.BYTES);
+
+		view.position(start);
+		view.limit(start + length * Integer.BYTES);
+
+		return view.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Invalidates the buffer by dropping its reference to the native memory.
+	 * This does not free the memory: a direct buffer cannot be freed on
+	 * demand, so the memory is freed when the garbage collector finds no other
+	 * references to it. Use a segment buffer from ImageBuffers.allocateNative
+	 * for memory that is freed on close.
+	 */
+	@Override
+	public void close() {
+		bytes = null;
+		pixels = null;
+	}
+}
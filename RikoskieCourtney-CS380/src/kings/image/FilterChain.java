@@ -0,0 +1,263 @@
+package kings.image;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of pixel operations that runs as a single pass. Neighbouring lookup
+ * tables are composed into one table, and the rest of the chain is applied to
+ * each pixel in turn, so an N-step chain reads and writes the image once
+ * instead of N times. The same chain can be turned into one OpenCL kernel.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-05-19
+ */
+public class FilterChain {
+	/** The name of the generated kernel. */
+	public static final String KERNEL_NAME = "chain_kernel";
+	/** The name of the generated kernel that also counts the histograms of the result. */
+	public static final String HISTOGRAM_KERNEL_NAME = "chain_histogram_kernel";
+	/** The algorithm name that filter chains are recorded under. */
+	public static final String ALGORITHM = "Filter chain";
+
+	/** The fused operations. */
+	private final List<PixelOperation> operations;
+
+	/**
+	 * Constructs an empty FilterChain, which leaves pixels unchanged.
+	 */
+	public FilterChain() {
+		operations = new ArrayList<PixelOperation>();
+	}
+
+	/**
+	 * Adds an operation to the end of the chain.
+	 * 
+	 * @param operation
+	 *            The operation.
+	 * @return This chain.
+	 */
+	public FilterChain then(PixelOperation operation) {
+		if (!operations.isEmpty()) {
+			PixelOperation last = operations.get(operations.size() - 1);
+			PixelOperation combined = PixelOperations.combine(last, operation);
+
+			if (combined != null) {
+				operations.set(operations.size() - 1, combined);
+				return this;
+			}
+		}
+
+		operations.add(operation);
+		return this;
+	}
+
+	/**
+	 * Gets the fused operations.
+	 * 
+	 * @return The operations that remain after neighbouring tables are combined.
+	 */
+	public List<PixelOperation> getOperations() {
+		return Collections.unmodifiableList(operations);
+	}
+
+	/**
+	 * Applies the chain to one pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The new pixel color information.
+	 */
+	public int apply(int pixel) {
+		for (int step = 0; step < operations.size(); step += 1) {
+			pixel = operations.get(step).apply(pixel);
+		}
+
+		return pixel;
+	}
+
+	/**
+	 * Applies the chain to a range of pixels in one pass.
+	 * 
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	public void apply(int[] input, int[] output, int start, int end) {
+		PixelOperation[] steps = operations.toArray(new PixelOperation[operations.size()]);
+
+		for (int index = start; index < end; index += 1) {
+			int pixel = input[index];
+
+			for (PixelOperation step : steps) {
+				pixel = step.apply(pixel);
+			}
+
+			output[index] = pixel;
+		}
+	}
+
+	/**
+	 * Applies the chain to a range of buffered pixels in one pass. The buffers'
+	 * positions are not changed, so several threads may share them.
+	 * 
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The buffer to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	public void apply(IntBuffer input, IntBuffer output, int start, int end) {
+		PixelOperation[] steps = operations.toArray(new PixelOperation[operations.size()]);
+
+		for (int index = start; index < end; index += 1) {
+			int pixel = input.get(index);
+
+			for (PixelOperation step : steps) {
+				pixel = step.apply(pixel);
+			}
+
+			output.put(index, pixel);
+		}
+	}
+
+	/**
+	 * Writes the chain as one OpenCL kernel named {@value #KERNEL_NAME}, which
+	 * takes the input and result buffers and handles one pixel per work-item.
+	 * 
+	 * @return The kernel source.
+	 */
+	public String toOpenCL() {
+		StringBuilder source = new StringBuilder();
+
+		appendDeclarations(source);
+
+		source.append("\n__kernel void\n");
+		source.append(KERNEL_NAME).append("(__global const int * input, __global int * result)\n");
+		source.append("{\n");
+		source.append("\tint i = get_global_id(0);\n");
+		source.append("\tint pixel = input[i];\n");
+
+		appendStatements(source, "\t");
+
+		source.append("\n\tresult[i] = pixel;\n");
+		source.append("}\n");
+
+		return source.toString();
+	}
+
+	/**
+	 * Writes the chain as one OpenCL kernel named
+	 * {@value #HISTOGRAM_KERNEL_NAME}, which also counts the histograms of the
+	 * result while each result pixel is still in a register. It takes the
+	 * input and result buffers, a zeroed buffer of ImageStatistics.COUNTS
+	 * unsigned counts, and the number of pixels. Each work-item handles every
+	 * pixel a global size apart, and each work-group counts into its own
+	 * histograms in local memory, adding them to the global ones once at the
+	 * end, so the global atomics are few however large the image is.
+	 * 
+	 * @return The kernel source.
+	 */
+	public String toOpenCLHistogram() {
+		StringBuilder source = new StringBuilder();
+
+		appendDeclarations(source);
+
+		source.append("#define BINS ").append(ImageStatistics.BINS).append("\n");
+		source.append("#define COUNTS ").append(ImageStatistics.COUNTS).append("\n\n");
+
+		source.append("__kernel void\n");
+		source.append(HISTOGRAM_KERNEL_NAME).append("(__global const int * input, __global int * result, ");
+		source.append("__global uint * histogram, int length)\n");
+		source.append("{\n");
+		source.append("\t__local uint counts[COUNTS];\n\n");
+		source.append("\tfor (int bin = get_local_id(0); bin < COUNTS; bin += get_local_size(0)) {\n");
+		source.append("\t\tcounts[bin] = 0;\n");
+		source.append("\t}\n\n");
+		source.append("\tbarrier(CLK_LOCAL_MEM_FENCE);\n\n");
+		source.append("\tfor (int i = get_global_id(0); i < length; i += get_global_size(0)) {\n");
+		source.append("\t\tint pixel = input[i];\n");
+
+		appendStatements(source, "\t\t");
+
+		source.append("\n\t\tresult[i] = pixel;\n\n");
+		source.append("\t\tint red = RED(pixel);\n");
+		source.append("\t\tint green = GREEN(pixel);\n");
+		source.append("\t\tint blue = BLUE(pixel);\n\n");
+		source.append("\t\tatomic_inc(&counts[red]);\n");
+		source.append("\t\tatomic_inc(&counts[BINS + green]);\n");
+		source.append("\t\tatomic_inc(&counts[2 * BINS + blue]);\n");
+		source.append("\t\tatomic_inc(&counts[3 * BINS + ((red * ").append(PixelOps.LUMA_RED);
+		source.append(" + green * ").append(PixelOps.LUMA_GREEN).append(" + blue * ").append(PixelOps.LUMA_BLUE);
+		source.append(") >> ").append(PixelOps.LUMA_SHIFT).append(")]);\n");
+		source.append("\t}\n\n");
+		source.append("\tbarrier(CLK_LOCAL_MEM_FENCE);\n\n");
+		source.append("\tfor (int bin = get_local_id(0); bin < COUNTS; bin += get_local_size(0)) {\n");
+		source.append("\t\tif (counts[bin] != 0) {\n");
+		source.append("\t\t\tatomic_add(&histogram[bin], counts[bin]);\n");
+		source.append("\t\t}\n");
+		source.append("\t}\n");
+		source.append("}\n");
+
+		return source.toString();
+	}
+
+	/**
+	 * Writes the pixel macros and the declarations of every step.
+	 * 
+	 * @param source
+	 *            The kernel source to add to.
+	 */
+	private void appendDeclarations(StringBuilder source) {
+		source.append("#define RED(p) (((p) >> 16) & 0xff)\n");
+		source.append("#define GREEN(p) (((p) >> 8) & 0xff)\n");
+		source.append("#define BLUE(p) ((p) & 0xff)\n");
+		source.append("#define PACK(p, r, g, b) (((p) & 0xff000000) | ((r) << 16) | ((g) << 8) | (b))\n\n");
+
+		for (int step = 0; step < operations.size(); step += 1) {
+			source.append(operations.get(step).getOpenCLDeclarations(getPrefix(step)));
+		}
+	}
+
+	/**
+	 * Writes the statements of every step, each in its own block, which turn
+	 * the variable pixel into the result pixel.
+	 * 
+	 * @param source
+	 *            The kernel source to add to.
+	 * @param indent
+	 *            The indentation of the blocks.
+	 */
+	private void appendStatements(StringBuilder source, String indent) {
+		for (int step = 0; step < operations.size(); step += 1) {
+			source.append("\n").append(indent).append("{\n");
+
+			for (String line : operations.get(step).getOpenCLStatements(getPrefix(step)).split("\n")) {
+				source.append(indent).append("\t").append(line).append("\n");
+			}
+
+			source.append(indent).append("}\n");
+		}
+	}
+
+	/**
+	 * Gets the prefix that keeps the names of one step unique.
+	 * 
+	 * @param step
+	 *            The index of the step.
+	 * @return The prefix.
+	 */
+	private static String getPrefix(int step) {
+		return "step" + step + "_";
+	}
+}
@@ -0,0 +1,341 @@
+package kings.image;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Algorithms for processing images on every CPU core. The pixel data is split
+ * into strips small enough to stay in the cache, and the strips are run on a
+ * fork/join pool. Histograms are counted by each task into its own partial
+ * histograms, which are added together as the tasks join, so no counter is
+ * ever shared between threads. The results are identical to the serial image
+ * processor.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-10-19
+ */
+public class ForkJoinImageProcessor extends ImageProcessor {
+	/** The default number of pixels in one strip (128 KB of input pixels). */
+	public static final int DEFAULT_STRIP_PIXELS = 32768;
+
+	/** The pool that runs the strips. */
+	private ForkJoinPool pool;
+	/** The number of pixels in one strip. */
+	private int stripPixels;
+
+	/**
+	 * Constructs a ForkJoinImageProcessor that uses every available core.
+	 */
+	public ForkJoinImageProcessor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a ForkJoinImageProcessor with the given parallelism level.
+	 * 
+	 * @param parallelism
+	 *            The number of worker threads.
+	 */
+	public ForkJoinImageProcessor(int parallelism) {
+		this(parallelism, DEFAULT_STRIP_PIXELS);
+	}
+
+	/**
+	 * Constructs a ForkJoinImageProcessor with the given parallelism level and
+	 * strip size.
+	 * 
+	 * @param parallelism
+	 *            The number of worker threads.
+	 * @param stripPixels
+	 *            The number of pixels in one strip.
+	 */
+	public ForkJoinImageProcessor(int parallelism, int stripPixels) {
+		if (stripPixels < 1) {
+			throw new IllegalArgumentException("Strip size must be positive: " + stripPixels);
+		}
+
+		pool = new ForkJoinPool(parallelism);
+		this.stripPixels = stripPixels;
+	}
+
+	/**
+	 * Runs the given algorithm over a range of the pixel data, one strip per
+	 * task.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(String algorithm, int[] input, int[] output, int start, int end) {
+		pool.invoke(new StripTask((from, to) -> super.process(algorithm, input, output, (int) from, (int) to),
+				start, end));
+	}
+
+	/**
+	 * Runs the given algorithm over a range of pixels of two images, one strip
+	 * per task.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixels of the input image.
+	 * @param output
+	 *            The pixels of the result image.
+	 * @param start
+	 *            The first pixel to process.
+	 * @param end
+	 *            One past the last pixel to process.
+	 */
+	@Override
+	protected void process(String algorithm, RasterPixels input, RasterPixels output, int start, int end) {
+		pool.invoke(new StripTask((from, to) -> super.process(algorithm, input, output, (int) from, (int) to),
+				start, end));
+	}
+
+	/**
+	 * Runs a filter chain over a range of the pixel data, one strip per task.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(FilterChain chain, int[] input, int[] output, int start, int end) {
+		pool.invoke(new StripTask((from, to) -> super.process(chain, input, output, (int) from, (int) to),
+				start, end));
+	}
+
+	/**
+	 * Runs a filter chain over a range of buffered pixel data, one strip per
+	 * task.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(FilterChain chain, IntBuffer input, IntBuffer output, int start, int end) {
+		pool.invoke(new StripTask((from, to) -> super.process(chain, input, output, (int) from, (int) to),
+				start, end));
+	}
+
+	/**
+	 * Runs the given algorithm over a range of an image buffer, one strip per
+	 * task.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(String algorithm, ImageBuffer input, ImageBuffer output, long start, long end) {
+		pool.invoke(new StripTask((from, to) -> super.process(algorithm, input, output, from, to), start, end));
+	}
+
+	/**
+	 * Runs a filter chain over a range of an image buffer, one strip per task.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	@Override
+	protected void process(FilterChain chain, ImageBuffer input, ImageBuffer output, long start, long end) {
+		pool.invoke(new StripTask((from, to) -> super.process(chain, input, output, from, to), start, end));
+	}
+
+	/**
+	 * Runs work over a range of the pixel data and counts its histograms, one
+	 * strip per task.
+	 * 
+	 * @param work
+	 *            The work done on each stripe before it is counted.
+	 * @param counted
+	 *            The pixel data to count.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The histograms of the range.
+	 */
+	@Override
+	protected long[] reduce(RangeWork work, int[] counted, int start, int end) {
+		return pool.invoke(new ReduceTask(work, counted, start, end));
+	}
+
+	/**
+	 * Gets the name of the device the algorithms run on, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	@Override
+	public String getDeviceName() {
+		return "CPU Fork/Join";
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 * 
+	 * @return The number of worker threads.
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * The serial work done on one strip.
+	 */
+	private interface StripWork {
+		/**
+		 * Processes one strip.
+		 * 
+		 * @param start
+		 *            The first index to process.
+		 * @param end
+		 *            One past the last index to process.
+		 */
+		void run(long start, long end);
+	}
+
+	/**
+	 * Splits a range of pixels in half until it fits in one strip.
+	 */
+	private class StripTask extends RecursiveAction {
+		/** Generated unique serial ID. */
+		private static final long serialVersionUID = 4170337912485541032L;
+
+		/** The work done on each strip. */
+		private final transient StripWork work;
+		/** The first index to process. */
+		private final long start;
+		/** One past the last index to process. */
+		private final long end;
+
+		/**
+		 * Constructs a StripTask.
+		 * 
+		 * @param work
+		 *            The work done on each strip.
+		 * @param start
+		 *            The first index to process.
+		 * @param end
+		 *            One past the last index to process.
+		 */
+		StripTask(StripWork work, long start, long end) {
+			this.work = work;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= stripPixels) {
+				work.run(start, end);
+			} else {
+				long strips = Math.max(1, (end - start) / stripPixels / 2);
+				long middle = start + strips * stripPixels;
+
+				invokeAll(new StripTask(work, start, middle), new StripTask(work, middle, end));
+			}
+		}
+	}
+
+	/**
+	 * Splits a range of pixels in half until it fits in one strip, counting
+	 * each strip into partial histograms of its own and adding the halves
+	 * together as they join.
+	 */
+	private class ReduceTask extends RecursiveTask<long[]> {
+		/** Generated unique serial ID. */
+		private static final long serialVersionUID = -2268245146329207391L;
+
+		/** The work done on each strip before it is counted. */
+		private final transient RangeWork work;
+		/** The pixel data to count. */
+		private final int[] counted;
+		/** The first index to process. */
+		private final int start;
+		/** One past the last index to process. */
+		private final int end;
+
+		/**
+		 * Constructs a ReduceTask.
+		 * 
+		 * @param work
+		 *            The work done on each strip before it is counted.
+		 * @param counted
+		 *            The pixel data to count.
+		 * @param start
+		 *            The first index to process.
+		 * @param end
+		 *            One past the last index to process.
+		 */
+		ReduceTask(RangeWork work, int[] counted, int start, int end) {
+			this.work = work;
+			this.counted = counted;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (end - start <= stripPixels) {
+				return ForkJoinImageProcessor.super.reduce(work, counted, start, end);
+			}
+
+			int strips = Math.max(1, (end - start) / stripPixels / 2);
+			int middle = start + strips * stripPixels;
+			ReduceTask first = new ReduceTask(work, counted, start, middle);
+
+			first.fork();
+			long[] counts = new ReduceTask(work, counted, middle, end).compute();
+
+			return ImageStatistics.merge(counts, first.join());
+		}
+	}
+}
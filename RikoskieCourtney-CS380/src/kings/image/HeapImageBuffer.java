@@ -0,0 +1,79 @@
+package kings.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An image buffer that wraps an int array on the Java heap. The image
+ * processors filter the array as it is, and OpenCL copies it the way it
+ * copies any array.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-28-19
+ */
+public class HeapImageBuffer implements ImageBuffer {
+	/** The pixels. */
+	private final int[] pixels;
+
+	/**
+	 * Constructs a HeapImageBuffer with a new array.
+	 * 
+	 * @param size
+	 *            The number of pixels.
+	 */
+	public HeapImageBuffer(int size) {
+		this(new int[size]);
+	}
+
+	/**
+	 * Constructs a HeapImageBuffer around an existing array. Changes to the
+	 * array change the buffer.
+	 * 
+	 * @param pixels
+	 *            The pixels.
+	 */
+	public HeapImageBuffer(int[] pixels) {
+		this.pixels = pixels;
+	}
+
+	@Override
+	public long size() {
+		return pixels.length;
+	}
+
+	@Override
+	public int get(long index) {
+		return pixels[Math.toIntExact(index)];
+	}
+
+	@Override
+	public void set(long index, int pixel) {
+		pixels[Math.toIntExact(index)] = pixel;
+	}
+
+	@Override
+	public void get(long index, int[] destination, int offset, int length) {
+		System.arraycopy(pixels, Math.toIntExact(index), destination, offset, length);
+	}
+
+	@Override
+	public void put(long index, int[] source, int offset, int length) {
+		System.arraycopy(source, offset, pixels, Math.toIntExact(index), length);
+	}
+
+	@Override
+	public int[] array() {
+		return pixels;
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(long index, int length) {
+		return null;
+	}
+
+	/**
+	 * Does nothing; the array is freed by the garbage collector.
+	 */
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,97 @@
+package kings.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The pixels of an image as packed ARGB ints, held on the Java heap or in
+ * native memory. Pixels are counted with long indices, so a buffer in native
+ * memory can hold more than 2^31 pixels. Buffers in native memory can be
+ * handed to OpenCL without being copied into an array first, and are freed by
+ * close rather than by the garbage collector where the implementation allows.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-28-19
+ */
+public interface ImageBuffer extends AutoCloseable {
+	/**
+	 * Gets the number of pixels in the buffer.
+	 * 
+	 * @return The number of pixels.
+	 */
+	long size();
+
+	/**
+	 * Gets one pixel.
+	 * 
+	 * @param index
+	 *            The index of the pixel.
+	 * @return The pixel color information.
+	 */
+	int get(long index);
+
+	/**
+	 * Sets one pixel.
+	 * 
+	 * @param index
+	 *            The index of the pixel.
+	 * @param pixel
+	 *            The pixel color information.
+	 */
+	void set(long index, int pixel);
+
+	/**
+	 * Copies pixels out of the buffer.
+	 * 
+	 * @param index
+	 *            The index of the first pixel to copy.
+	 * @param pixels
+	 *            The array to copy the pixels into.
+	 * @param offset
+	 *            The index in the array to copy the first pixel to.
+	 * @param length
+	 *            The number of pixels.
+	 */
+	void get(long index, int[] pixels, int offset, int length);
+
+	/**
+	 * Copies pixels into the buffer.
+	 * 
+	 * @param index
+	 *            The index of the first pixel to replace.
+	 * @param pixels
+	 *            The array that holds the pixels.
+	 * @param offset
+	 *            The index in the array of the first pixel.
+	 * @param length
+	 *            The number of pixels.
+	 */
+	void put(long index, int[] pixels, int offset, int length);
+
+	/**
+	 * Gets the array that holds the pixels, if the buffer is an array on the
+	 * Java heap that starts at the first pixel.
+	 * 
+	 * @return The array, or null if the pixels are held another way.
+	 */
+	int[] array();
+
+	/**
+	 * Gets a range of the pixels as native-order bytes in native memory, for
+	 * passing to OpenCL without a copy. Changes to the view change the buffer.
+	 * 
+	 * @param index
+	 *            The index of the first pixel.
+	 * @param length
+	 *            The number of pixels.
+	 * @return The direct view, or null if the pixels are on the Java heap.
+	 */
+	ByteBuffer asByteBuffer(long index, int length);
+
+	/**
+	 * Ends the use of the buffer, which must not be used afterwards. A native
+	 * segment buffer frees its memory here; a direct buffer's memory is freed
+	 * later, when the garbage collector finds it unused.
+	 */
+	@Override
+	void close();
+}
@@ -0,0 +1,115 @@
+package kings.image;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Creates image buffers. Native segment buffers are built on the JDK foreign
+ * memory API, which is only present on newer JDKs started with
+ * <code>--add-modules jdk.incubator.foreign</code>, so that class is loaded by
+ * name and a direct buffer is used when it cannot be loaded.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-28-19
+ */
+public final class ImageBuffers {
+	/** The name of the segment image buffer class. */
+	private static final String SEGMENT_CLASS = "kings.image.SegmentImageBuffer";
+
+	/** The constructor of the segment image buffer, or null if it cannot be loaded. */
+	private static final Constructor<? extends ImageBuffer> SEGMENT = findSegment();
+
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private ImageBuffers() {
+	}
+
+	/**
+	 * Wraps an array in an image buffer.
+	 * 
+	 * @param pixels
+	 *            The pixels.
+	 * @return The image buffer, which shares the array.
+	 */
+	public static ImageBuffer wrap(int[] pixels) {
+		return new HeapImageBuffer(pixels);
+	}
+
+	/**
+	 * Creates an image buffer on the Java heap.
+	 * 
+	 * @param size
+	 *            The number of pixels.
+	 * @return The image buffer.
+	 */
+	public static ImageBuffer allocateHeap(int size) {
+		return new HeapImageBuffer(size);
+	}
+
+	/**
+	 * Creates an image buffer in a direct ByteBuffer.
+	 * 
+	 * @param size
+	 *            The number of pixels, up to 2^29.
+	 * @return The image buffer.
+	 */
+	public static ImageBuffer allocateDirect(int size) {
+		return new DirectImageBuffer(size);
+	}
+
+	/**
+	 * Checks whether native segment buffers can be created.
+	 * 
+	 * @return True if the foreign memory API is present.
+	 */
+	public static boolean isSegmentAvailable() {
+		return SEGMENT != null;
+	}
+
+	/**
+	 * Creates an image buffer in native memory that is freed when it is closed.
+	 * A direct buffer is used instead if the foreign memory API is not present;
+	 * closing that only invalidates it, and its memory is freed by the garbage
+	 * collector.
+	 * 
+	 * @param size
+	 *            The number of pixels.
+	 * @return The image buffer.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the foreign memory API is not present and the image
+	 *             is too large for a direct buffer.
+	 */
+	public static ImageBuffer allocateNative(long size) {
+		if (SEGMENT != null) {
+			try {
+				return SEGMENT.newInstance(size);
+			} catch (ReflectiveOperationException e) {
+				// fall through to a direct buffer
+			}
+		}
+
+		if (size > Integer.MAX_VALUE / Integer.BYTES) {
+			throw new IllegalArgumentException("Images of " + size + " pixels need the foreign memory API");
+		}
+
+		return new DirectImageBuffer((int) size);
+	}
+
+	/**
+	 * Loads the segment image buffer class and makes sure the foreign memory
+	 * API can allocate.
+	 * 
+	 * @return The constructor, or null if the class cannot be loaded.
+	 */
+	private static Constructor<? extends ImageBuffer> findSegment() {
+		try {
+			Constructor<? extends ImageBuffer> constructor = Class.forName(SEGMENT_CLASS)
+					.asSubclass(ImageBuffer.class).getConstructor(long.class);
+			constructor.newInstance(1L).close();
+
+			return constructor;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+}
@@ -1,13 +1,21 @@
 package kings.image;
 
-import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 import javax.imageio.ImageIO;
 import javax.swing.GroupLayout;
@@ -20,6 +28,10 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 /**
  * The image processor GUI.
@@ -35,8 +47,33 @@ public class ImageGUI extends JFrame implements ActionListener {
 	/** The serial image processor. */
 	private ImageProcessor processor;
 
+	/** The fork/join image processor. */
+	private ForkJoinImageProcessor forkJoin;
+	/** The SIMD image processor. */
+	private ImageProcessor vector;
+
 	/** The parallel image processor. */
 	private ParallelImageProcessor parallel;
+	/** The index of the fork/join device in the device list. */
+	private int forkJoinIndex;
+	/** The index of the SIMD device in the device list. */
+	private int vectorIndex;
+	/** The processor that shares each image between the CPU and OpenCL, or null. */
+	private CoExecutionProcessor coExecution;
+	/** The scheduler that picks a device for each image. */
+	private AdaptiveScheduler scheduler;
+	/** The index of the automatic device in the device list. */
+	private int autoIndex;
+	/** The results of earlier runs, shared by every device. */
+	private transient ResultCache results;
+	/** The neighborhood filters on the CPU cores. */
+	private transient ConvolutionProcessor convolution;
+	/** The neighborhood filters on the OpenCL devices. */
+	private transient OpenCLConvolutionProcessor openCLConvolution;
+	/** The image the statistics were last counted for. */
+	private transient BufferedImage statisticsImage;
+	/** The statistics of that image. */
+	private transient ImageStatistics statistics;
 
 	/** The save menu item. */
 	private JMenuItem saveItem;
@@ -46,15 +83,33 @@ public class ImageGUI extends JFrame implements ActionListener {
 	private JMenuItem openItem;
 	/** The clear menu item. */
 	private JMenuItem clearItem;
-	/** The image input panel. */
-	private JPanel input;
-	/** The image output panel. */
-	private JPanel output;
+	/** The sepia settings menu item. */
+	private JMenuItem sepiaItem;
+	/** The blur settings menu item. */
+	private JMenuItem blurItem;
+	/** The zoom in menu item. */
+	private JMenuItem zoomInItem;
+	/** The zoom out menu item. */
+	private JMenuItem zoomOutItem;
+	/** The actual size menu item. */
+	private JMenuItem actualSizeItem;
+	/** The fit to window menu item. */
+	private JMenuItem fitItem;
+	/** The viewer of the input image. */
+	private TileViewer input;
+	/** The viewer of the filtered image. */
+	private TileViewer output;
+	/** The scroll pane of the input viewer. */
+	private JScrollPane inputScroll;
+	/** The scroll pane of the output viewer. */
+	private JScrollPane outputScroll;
+	/** The filtered tiles of the output viewer. */
+	private transient TileCache tiles;
 	/** The panel that contains the rest of the components. */
 	private JPanel mainPanel;
 	/** The original image. */
 	private BufferedImage inputImage;
-	/** The edited image. */
+	/** The full-size filtered image, made when the image is saved. */
 	private BufferedImage outputImage;
 	/** The panel containing the images. */
 	private JPanel imagesPanel;
@@ -66,13 +121,39 @@ public class ImageGUI extends JFrame implements ActionListener {
 	private JComboBox<String> algorithmList;
 	/** The button to do the selected algorithm. */
 	private JButton go;
+	/** The button to cancel the running job. */
+	private JButton cancel;
+	/** The progress of the running job. */
+	private JProgressBar progressBar;
+	/** The thread that runs filter jobs, one at a time. */
+	private transient ExecutorService jobs;
+	/** The filter job that is running or waiting to run, or null. */
+	private transient FilterJob job;
+	/** The mipmap pyramid of the input image, or null until it is built. */
+	private transient ImagePyramid pyramid;
 
 	/**
 	 * Creates the image processor GUI.
 	 */
 	public ImageGUI() {
 		processor = new ImageProcessor();
+		forkJoin = new ForkJoinImageProcessor();
+		vector = VectorSupport.createProcessor();
 		parallel = new ParallelImageProcessor();
+		convolution = new ConvolutionProcessor();
+		openCLConvolution = new OpenCLConvolutionProcessor(parallel);
+		results = new ResultCache(Math.min(ResultCache.DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 4));
+
+		processor.setResultCache(results);
+		forkJoin.setResultCache(results);
+		vector.setResultCache(results);
+		parallel.setResultCache(results);
+
+		jobs = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Image filter job");
+			thread.setDaemon(true);
+			return thread;
+		});
 
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setLayout(new FlowLayout());
@@ -99,28 +180,53 @@ public class ImageGUI extends JFrame implements ActionListener {
 		exitItem.addActionListener(this);
 		fileMenu.add(exitItem);
 
+		JMenu optionsMenu = new JMenu("Options");
+		menuBar.add(optionsMenu);
+
+		sepiaItem = new JMenuItem("Sepia Settings");
+		sepiaItem.addActionListener(this);
+		optionsMenu.add(sepiaItem);
+
+		blurItem = new JMenuItem("Blur Settings");
+		blurItem.addActionListener(this);
+		optionsMenu.add(blurItem);
+
+		JMenu viewMenu = new JMenu("View");
+		menuBar.add(viewMenu);
+
+		zoomInItem = new JMenuItem("Zoom In");
+		zoomInItem.addActionListener(this);
+		viewMenu.add(zoomInItem);
+
+		zoomOutItem = new JMenuItem("Zoom Out");
+		zoomOutItem.addActionListener(this);
+		viewMenu.add(zoomOutItem);
+
+		actualSizeItem = new JMenuItem("Actual Size");
+		actualSizeItem.addActionListener(this);
+		viewMenu.add(actualSizeItem);
+
+		fitItem = new JMenuItem("Fit to Window");
+		fitItem.addActionListener(this);
+		viewMenu.add(fitItem);
+
 		inputImage = null;
 		outputImage = null;
 
-		input = new JPanel(new FlowLayout()) {
-			private static final long serialVersionUID = 8512292549566217461L;
+		tiles = new TileCache(Math.min(TileCache.DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 8));
+		input = new TileViewer();
+		output = new TileViewer(tiles, jobs);
+		input.link(output);
 
-			@Override
-			protected void paintComponent(Graphics g) {
-				super.paintComponent(g);
-				g.drawImage(inputImage, 0, 0, null);
-			}
-		};
+		output.addPropertyChangeListener(TileViewer.FAILURE_PROPERTY, event -> {
+			output.setFilter(null, null);
+			JOptionPane.showMessageDialog(this,
+					"Could not process image: " + ((Exception) event.getNewValue()).getMessage(), "Error",
+					JOptionPane.ERROR_MESSAGE);
+		});
 
-		output = new JPanel(new FlowLayout()) {
-			private static final long serialVersionUID = 8310832477514305462L;
-
-			@Override
-			protected void paintComponent(Graphics g) {
-				super.paintComponent(g);
-				g.drawImage(outputImage, 0, 0, null);
-			}
-		};
+		inputScroll = new JScrollPane(input);
+		outputScroll = new JScrollPane(output);
 
 		buttonPanel = new JPanel();
 
@@ -128,21 +234,50 @@ public class ImageGUI extends JFrame implements ActionListener {
 		buttonPanel.add(go);
 		go.addActionListener(this);
 
-		String[] algorithms = { "Grayscale" , "Sepia" };
+		String[] pointAlgorithms = { "Grayscale" , "Sepia" };
+		String[] algorithms = new String[pointAlgorithms.length + ImageStatistics.ALGORITHMS.length
+				+ ConvolutionProcessor.ALGORITHMS.length];
+		System.arraycopy(pointAlgorithms, 0, algorithms, 0, pointAlgorithms.length);
+		System.arraycopy(ImageStatistics.ALGORITHMS, 0, algorithms, pointAlgorithms.length,
+				ImageStatistics.ALGORITHMS.length);
+		System.arraycopy(ConvolutionProcessor.ALGORITHMS, 0, algorithms,
+				pointAlgorithms.length + ImageStatistics.ALGORITHMS.length, ConvolutionProcessor.ALGORITHMS.length);
+
 		algorithmList = new JComboBox<String>(algorithms);
 		algorithmList.setSelectedIndex(0);
 		algorithmList.addActionListener(this);
 
 		buttonPanel.add(algorithmList);
 
-		String[] devices = parallel.getDeviceNames();
+		String[] openCLDevices = parallel.getDeviceNames();
+		forkJoinIndex = openCLDevices.length;
+		vectorIndex = forkJoinIndex + 1;
+		autoIndex = vectorIndex + 1;
+
+		String[] devices = new String[openCLDevices.length + 3];
+		System.arraycopy(openCLDevices, 0, devices, 0, openCLDevices.length);
+		devices[forkJoinIndex] = "CPU Fork/Join (" + forkJoin.getParallelism() + " threads)";
+		devices[vectorIndex] = VectorSupport.isAvailable() ? "CPU SIMD (Vector API)" : "CPU SIMD (serial fallback)";
+		devices[autoIndex] = AdaptiveScheduler.DEVICE_NAME;
+
+		scheduler = createScheduler();
 
 		deviceList = new JComboBox<String>(devices);
-		deviceList.setSelectedIndex(parallel.getGPUIndex());
+		deviceList.setSelectedIndex(autoIndex);
 		deviceList.addActionListener(this);
 
 		buttonPanel.add(deviceList);
 
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		progressBar.setVisible(false);
+		buttonPanel.add(progressBar);
+
+		cancel = new JButton("Cancel");
+		cancel.setVisible(false);
+		cancel.addActionListener(this);
+		buttonPanel.add(cancel);
+
 		imagesPanel = new JPanel();
 
 		GroupLayout imagesLayout = new GroupLayout(imagesPanel);
@@ -161,9 +296,11 @@ public class ImageGUI extends JFrame implements ActionListener {
 		mainLayout.setAutoCreateGaps(true);
 		mainLayout.setAutoCreateContainerGaps(true);
 
-		imagesLayout.setHorizontalGroup(imagesLayout.createSequentialGroup().addComponent(input).addComponent(output));
-		imagesLayout.setVerticalGroup(imagesLayout.createSequentialGroup().addGroup(imagesLayout
-				.createParallelGroup(GroupLayout.Alignment.BASELINE).addComponent(input).addComponent(output)));
+		imagesLayout.setHorizontalGroup(
+				imagesLayout.createSequentialGroup().addComponent(inputScroll).addComponent(outputScroll));
+		imagesLayout.setVerticalGroup(imagesLayout.createSequentialGroup()
+				.addGroup(imagesLayout.createParallelGroup(GroupLayout.Alignment.BASELINE).addComponent(inputScroll)
+						.addComponent(outputScroll)));
 
 		mainLayout.setHorizontalGroup(mainLayout.createSequentialGroup()
 				.addGroup(mainLayout.createParallelGroup(GroupLayout.Alignment.LEADING).addComponent(imagesPanel)
@@ -184,77 +321,114 @@ public class ImageGUI extends JFrame implements ActionListener {
 	@Override
 	public void actionPerformed(ActionEvent event) {
 		if (event.getSource() == saveItem) {
-			if (outputImage != null) {
+			if (output.getFilterName() != null) {
 				JFileChooser chooser = new JFileChooser();
 				chooser.showSaveDialog(null);
 
 				File saveFile = chooser.getSelectedFile();
 
-				try {
-					ImageIO.write(outputImage, "png", saveFile);
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(this, "Could not save image.", "Error", JOptionPane.ERROR_MESSAGE);
+				if (saveFile != null) {
+					startJob(saveFile);
 				}
 			} else {
 				JOptionPane.showMessageDialog(this, "No image to save.", "Error", JOptionPane.ERROR_MESSAGE);
 			}
 		} else if (event.getSource() == exitItem) {
 			System.exit(0);
-		} else if (event.getSource() == clearItem) {
-			if (inputImage != null) {
-				inputImage = new BufferedImage(inputImage.getWidth(), inputImage.getHeight(),
-						BufferedImage.TYPE_INT_ARGB);
-				Graphics g = inputImage.getGraphics();
-				g.drawImage(inputImage, 0, 0, null);
-			}
+		} else if (event.getSource() == sepiaItem) {
+			String depth = JOptionPane.showInputDialog(this, "Sepia depth:", processor.getSepiaDepth());
+			String intensity = JOptionPane.showInputDialog(this, "Sepia intensity:", processor.getSepiaIntensity());
+
+			if (depth != null && intensity != null) {
+				try {
+					setSepia(Integer.parseInt(depth.trim()), Integer.parseInt(intensity.trim()));
 
-			if (outputImage != null) {
-				outputImage = new BufferedImage(outputImage.getWidth(), outputImage.getHeight(),
-						BufferedImage.TYPE_INT_ARGB);
-				Graphics g = outputImage.getGraphics();
-				g.drawImage(outputImage, 0, 0, null);
+					if (output.getFilterName() != null) {
+						showFilter();
+					}
+				} catch (NumberFormatException e) {
+					JOptionPane.showMessageDialog(this, "The sepia settings must be whole numbers.", "Error",
+							JOptionPane.ERROR_MESSAGE);
+				}
 			}
+		} else if (event.getSource() == blurItem) {
+			String radius = JOptionPane.showInputDialog(this, "Blur radius:", convolution.getBlurRadius());
+			String amount = JOptionPane.showInputDialog(this, "Unsharp mask amount (percent):",
+					convolution.getUnsharpAmount());
 
-			input.repaint();
-			output.repaint();
+			if (radius != null && amount != null) {
+				try {
+					setBlur(Integer.parseInt(radius.trim()), Integer.parseInt(amount.trim()));
+
+					if (output.getFilterName() != null) {
+						showFilter();
+					}
+				} catch (IllegalArgumentException e) {
+					JOptionPane.showMessageDialog(this, "The blur settings must be whole numbers of at least 0.",
+							"Error", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		} else if (event.getSource() == cancel) {
+			cancelJob();
+		} else if ((event.getSource() == algorithmList || event.getSource() == deviceList)
+				&& output.getFilterName() != null) {
+			showFilter();
+		} else if (event.getSource() == zoomInItem) {
+			input.setZoom(input.getZoom() * 2);
+		} else if (event.getSource() == zoomOutItem) {
+			input.setZoom(input.getZoom() / 2);
+		} else if (event.getSource() == actualSizeItem) {
+			input.setZoom(1);
+		} else if (event.getSource() == fitItem) {
+			input.zoomToFit();
+		} else if (event.getSource() == clearItem) {
+			cancelJob();
 
 			inputImage = null;
 			outputImage = null;
+			pyramid = null;
+			input.setImage(null);
+			output.setImage(null);
 		} else if (event.getSource() == openItem) {
 			JFileChooser chooser = new JFileChooser();
 			chooser.showOpenDialog(null);
 
 			File imageFile = chooser.getSelectedFile();
 
+			cancelJob();
+
 			BufferedImage bi = null;
 
 			try {
 				bi = ImageIO.read(imageFile);
 
 				if (bi != null) {
-					inputImage = new BufferedImage(bi.getWidth(), bi.getHeight(), BufferedImage.TYPE_INT_ARGB);
-					Graphics g = inputImage.getGraphics();
+					inputImage = toSupportedImage(bi);
+					outputImage = null;
+					pyramid = null;
 
-					int width = inputImage.getWidth();
-					int height = inputImage.getHeight();
+					input.setImage(inputImage);
+					output.setImage(inputImage);
 
-					input.setPreferredSize(new Dimension(width + 50, height + 50));
-					output.setPreferredSize(new Dimension(width + 50, height + 50));
-					imagesPanel.setPreferredSize(new Dimension(width * 2 + 50, height + 50));
-					mainPanel.setPreferredSize(new Dimension(width * 2 + 50, height + 75));
-					pack();
+					BufferedImage opened = inputImage;
 
-					g.drawImage(bi, 0, 0, null);
-					input.repaint();
+					jobs.execute(() -> {
+						ImagePyramid built = new ImagePyramid(opened);
 
-					if (outputImage != null) {
-						outputImage = new BufferedImage(outputImage.getWidth(), outputImage.getHeight(),
-								BufferedImage.TYPE_INT_ARGB);
-						g = outputImage.getGraphics();
-						g.drawImage(outputImage, 0, 0, null);
-					}
+						SwingUtilities.invokeLater(() -> {
+							if (inputImage == opened) {
+								pyramid = built;
+								input.setPyramid(built);
+								output.setPyramid(built);
+							}
+						});
+					});
 
-					output.repaint();
+					// Each viewer gets at most half the screen, and the image is zoomed out to fit
+					Rectangle screen = getGraphicsConfiguration().getBounds();
+					input.setZoom(Math.min(1, Math.min((screen.width / 2.0 - 60) / inputImage.getWidth(),
+							(screen.height - 200.0) / inputImage.getHeight())));
+					pack();
 				} else {
 					JOptionPane.showMessageDialog(this, "The file you chose was not an image.", "Error",
 							JOptionPane.ERROR_MESSAGE);
@@ -266,47 +440,433 @@ public class ImageGUI extends JFrame implements ActionListener {
 			}
 		} else if (event.getSource() == go) {
 			if (inputImage != null) {
-				try {
-					String algorithm = (String) algorithmList.getSelectedItem();
-					int device = deviceList.getSelectedIndex();
+				showFilter();
+			}
+		}
+	}
 
-					if (algorithm.equals("Grayscale")) {
-						if (device != parallel.getGPUIndex()) {
-							outputImage = processor.grayscale(inputImage);
-						} else {
-							parallel.setDeviceID(device);
+	/**
+	 * Shows the input image filtered with the selected algorithm and device.
+	 * Only the tiles in view are filtered, on the job thread, as they are
+	 * needed, and tiles already filtered with the same settings are reused.
+	 */
+	private void showFilter() {
+		String algorithm = (String) algorithmList.getSelectedItem();
+		int device = deviceList.getSelectedIndex();
+		String parameters = ConvolutionProcessor.isConvolution(algorithm) ? convolution.getParameters(algorithm)
+				: processor.getParameters(algorithm);
+		BufferedImage full = inputImage;
+
+		output.setFilter(algorithm + "|" + device + "|" + parameters, (image, bounds, target) -> filterTile(algorithm,
+				device, full, image, bounds, target));
+	}
 
-							parallel.runAlgorithm("Grayscale", processor.getPixelData(inputImage));
+	/**
+	 * Starts filtering the whole input image with the selected algorithm and
+	 * device on the job thread and saving it, cancelling the job before it.
+	 * 
+	 * @param file
+	 *            The file to save the image in.
+	 */
+	private void startJob(File file) {
+		cancelJob();
+		prepareOutputImage();
 
-							if (outputImage == null) {
-								outputImage = new BufferedImage(inputImage.getWidth(), inputImage.getHeight(),
-										BufferedImage.TYPE_INT_ARGB);
-							}
+		job = new FilterJob((String) algorithmList.getSelectedItem(), deviceList.getSelectedIndex(), inputImage,
+				outputImage, output.getFilteredTiles(), file);
 
-							processor.convertPixelDataToImage(parallel.getResult(), inputImage, outputImage);
-						}
-					} else if (algorithm.equals("Sepia")) {
-						if (device != parallel.getGPUIndex()) {
-							outputImage = processor.sepia(inputImage);
-						} else {
-							parallel.setDeviceID(device);
+		progressBar.setValue(0);
+		progressBar.setVisible(true);
+		cancel.setVisible(true);
 
-							parallel.runAlgorithm("Sepia", processor.getPixelData(inputImage));
+		jobs.execute(job);
+	}
 
-							if (outputImage == null) {
-								outputImage = new BufferedImage(inputImage.getWidth(), inputImage.getHeight(),
-										BufferedImage.TYPE_INT_ARGB);
-							}
+	/**
+	 * Cancels the running job, if there is one. The job stops after the row of
+	 * tiles it is working on.
+	 */
+	private void cancelJob() {
+		if (job != null) {
+			job.cancel(true);
+			job = null;
+		}
+
+		progressBar.setVisible(false);
+		cancel.setVisible(false);
+	}
+
+	/**
+	 * Filters one tile of the input image, or of a level of its pyramid, into
+	 * an image the size of the tile. Neighborhood filters run on the selected
+	 * OpenCL device, or on the CPU cores for every other device. Auto Levels
+	 * and Equalize build their table from the statistics of the whole input
+	 * image, so every tile and every level gets the same adjustment.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param device
+	 *            The index of the device in the device list.
+	 * @param full
+	 *            The input image.
+	 * @param image
+	 *            The input image or pyramid level.
+	 * @param bounds
+	 *            The tile, in pixels of the image.
+	 * @param target
+	 *            The image to store the filtered tile in.
+	 */
+	private void filterTile(String algorithm, int device, BufferedImage full, BufferedImage image, Rectangle bounds,
+			BufferedImage target) {
+		double scale = (double) image.getWidth() / full.getWidth();
+
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			FilterChain chain = getStatistics(full, device).toChain(algorithm);
+
+			filter(chain, device, image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height), target);
+		} else if (!ConvolutionProcessor.isConvolution(algorithm)) {
+			filter(algorithm, device, image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height), target);
+		} else if (device < forkJoinIndex) {
+			openCLConvolution.setDeviceID(device);
+			openCLConvolution.filter(algorithm, image, bounds, target, scale);
+		} else {
+			convolution.filter(algorithm, image, bounds, target, scale);
+		}
+	}
+
+	/**
+	 * Gets the statistics of the input image, counting them on the selected
+	 * OpenCL device, or on the CPU cores for every other device, the first
+	 * time they are needed for the image.
+	 * 
+	 * @param image
+	 *            The input image.
+	 * @param device
+	 *            The index of the device in the device list.
+	 * @return The statistics of the image.
+	 */
+	private synchronized ImageStatistics getStatistics(BufferedImage image, int device) {
+		if (statisticsImage != image) {
+			int[] pixels = processor.getPixelData(image);
+
+			if (device < forkJoinIndex) {
+				parallel.setDeviceID(device);
+				statistics = parallel.getStatistics(pixels);
+			} else {
+				statistics = forkJoin.getStatistics(pixels);
+			}
+
+			statisticsImage = image;
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Filters part of the input image into the same part of the output image.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param device
+	 *            The index of the device in the device list.
+	 * @param source
+	 *            The part of the input image.
+	 * @param target
+	 *            The part of the output image.
+	 */
+	private void filter(String algorithm, int device, BufferedImage source, BufferedImage target) {
+		if (device == autoIndex) {
+			// The scheduler's backends skip the cache, so it is consulted here
+			BiConsumer<int[], int[]> auto = (in, out) -> scheduler.process(algorithm, in, out);
+			String parameters = processor.getParameters(algorithm);
+
+			filterPixels(source, target,
+					(in, out) -> results.process(algorithm, parameters, AdaptiveScheduler.DEVICE_NAME, in, out, auto));
+		} else if (device == forkJoinIndex) {
+			forkJoin.filter(algorithm, source, target);
+		} else if (device == vectorIndex) {
+			vector.filter(algorithm, source, target);
+		} else if (device != parallel.getGPUIndex()) {
+			processor.filter(algorithm, source, target);
+		} else {
+			parallel.setDeviceID(device);
+
+			filterPixels(source, target, (in, out) -> parallel.runAlgorithm(algorithm, in, out));
+		}
+	}
+
+	/**
+	 * Runs a filter chain over part of the input image into the same part of
+	 * the output image.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param device
+	 *            The index of the device in the device list.
+	 * @param source
+	 *            The part of the input image.
+	 * @param target
+	 *            The part of the output image.
+	 */
+	private void filter(FilterChain chain, int device, BufferedImage source, BufferedImage target) {
+		if (device == autoIndex) {
+			// The scheduler's backends skip the cache, so it is consulted here
+			BiConsumer<int[], int[]> auto = (in, out) -> scheduler.process(chain, in, out);
+
+			filterPixels(source, target, (in, out) -> results.process(FilterChain.ALGORITHM, chain.toOpenCL(),
+					AdaptiveScheduler.DEVICE_NAME, in, out, auto));
+		} else if (device == forkJoinIndex) {
+			filterPixels(source, target, (in, out) -> forkJoin.process(chain, in, out));
+		} else if (device == vectorIndex) {
+			filterPixels(source, target, (in, out) -> vector.process(chain, in, out));
+		} else if (device != parallel.getGPUIndex()) {
+			filterPixels(source, target, (in, out) -> processor.process(chain, in, out));
+		} else {
+			parallel.setDeviceID(device);
+
+			filterPixels(source, target, (in, out) -> parallel.process(chain, in, out));
+		}
+	}
+
+	/**
+	 * Creates the scheduler for the automatic device, with every device in the
+	 * list as a backend. The algorithms are calibrated on the job thread if
+	 * they were not calibrated on an earlier run, so the window opens at once
+	 * and the first job waits for them. The models are saved again on exit so
+	 * what was learned from the user's images is kept.
+	 * 
+	 * @return The scheduler.
+	 */
+	private AdaptiveScheduler createScheduler() {
+		List<AdaptiveScheduler.Backend> backends = new ArrayList<AdaptiveScheduler.Backend>();
+		backends.add(AdaptiveScheduler.forProcessor(forkJoin));
+		backends.add(AdaptiveScheduler.forProcessor(processor));
+
+		if (VectorSupport.isAvailable()) {
+			backends.add(AdaptiveScheduler.forProcessor(vector));
+		}
+
+		for (int index = 0; index < forkJoinIndex; index += 1) {
+			backends.add(AdaptiveScheduler.forDevice(parallel, index));
+		}
+
+		if (forkJoinIndex > 0) {
+			coExecution = new CoExecutionProcessor(parallel);
+			backends.add(AdaptiveScheduler.forProcessor(coExecution));
+		}
+
+		AdaptiveScheduler created = new AdaptiveScheduler(backends);
+
+		jobs.execute(() -> {
+			for (String algorithm : new String[] { "Grayscale", "Sepia" }) {
+				created.calibrate(algorithm);
+			}
+		});
+
+		Runtime.getRuntime().addShutdownHook(new Thread(created::save));
+
+		return created;
+	}
+
+	/**
+	 * Changes the sepia depth and intensity used by every device.
+	 * 
+	 * @param depth
+	 *            The new sepia depth.
+	 * @param intensity
+	 *            The new sepia intensity.
+	 */
+	private void setSepia(int depth, int intensity) {
+		processor.setSepia(depth, intensity);
+		forkJoin.setSepia(depth, intensity);
+		vector.setSepia(depth, intensity);
+		parallel.setSepia(depth, intensity);
+
+		if (coExecution != null) {
+			coExecution.setSepia(depth, intensity);
+		}
+	}
+
+	/**
+	 * Changes the blur radius and unsharp mask amount used by every device.
+	 * 
+	 * @param radius
+	 *            The new blur radius.
+	 * @param amount
+	 *            The new unsharp mask amount, in percent.
+	 */
+	private void setBlur(int radius, int amount) {
+		convolution.setBlur(radius, amount);
+		openCLConvolution.setBlur(radius, amount);
+	}
+
+	/**
+	 * Makes sure the output image exists and matches the size and type of the
+	 * input image, so results can be written straight into its pixel data and
+	 * the same image is reused from one save to the next.
+	 */
+	private void prepareOutputImage() {
+		int type = RasterPixels.getDestinationType(inputImage);
 
-							processor.convertPixelDataToImage(parallel.getResult(), inputImage, outputImage);
-						}
+		if (outputImage == null || outputImage.getType() != type || outputImage.getWidth() != inputImage.getWidth()
+				|| outputImage.getHeight() != inputImage.getHeight()) {
+			outputImage = new BufferedImage(inputImage.getWidth(), inputImage.getHeight(), type);
+		}
+	}
+
+	/**
+	 * Runs a filter that needs packed int arrays, such as an OpenCL device, from
+	 * one image into another. Images that hold packed ints are passed as they
+	 * are; others are converted on the way in and out.
+	 * 
+	 * @param source
+	 *            The input image.
+	 * @param target
+	 *            The image to store the result in.
+	 * @param filter
+	 *            The filter, which reads the input pixels and writes the result
+	 *            pixels.
+	 */
+	private void filterPixels(BufferedImage source, BufferedImage target, BiConsumer<int[], int[]> filter) {
+		int[] inputData = processor.getPixelData(source);
+		int[] outputData = RasterPixels.getPackedData(target);
+
+		if (outputData == null) {
+			outputData = new int[inputData.length];
+		}
+
+		filter.accept(inputData, outputData);
+		processor.convertPixelDataToImage(outputData, source, target);
+	}
+
+	/**
+	 * Gets an image the processors can read straight from its data buffer. A
+	 * supported image is used as it is; any other image is drawn into a new
+	 * TYPE_INT_ARGB image.
+	 * 
+	 * @param image
+	 *            The image that was read.
+	 * @return The image to process.
+	 */
+	private static BufferedImage toSupportedImage(BufferedImage image) {
+		if (RasterPixels.isSupported(image)) {
+			return image;
+		}
+
+		BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics g = converted.getGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		return converted;
+	}
+
+	/**
+	 * Filters a whole image on the job thread, one row of tiles at a time, and
+	 * saves it. Tiles the output viewer has already filtered are copied from
+	 * its cache. The published values are the number of rows of tiles
+	 * finished. A cancelled job stops after the row it is working on and saves
+	 * nothing.
+	 */
+	private class FilterJob extends SwingWorker<Void, Integer> {
+		/** The name of the image processing algorithm to run. */
+		private final String algorithm;
+		/** The index of the device in the device list. */
+		private final int device;
+		/** The input image. */
+		private final BufferedImage source;
+		/** The image to store the result in. */
+		private final BufferedImage target;
+		/** The filtered tiles of the output viewer. */
+		private final BiFunction<Integer, Integer, BufferedImage> filteredTiles;
+		/** The file to save the result in. */
+		private final File file;
+
+		/**
+		 * Constructs a FilterJob.
+		 * 
+		 * @param algorithm
+		 *            The name of the image processing algorithm to run.
+		 * @param device
+		 *            The index of the device in the device list.
+		 * @param source
+		 *            The input image.
+		 * @param target
+		 *            The image to store the result in.
+		 * @param filteredTiles
+		 *            The filtered tiles of the output viewer, by column and row.
+		 * @param file
+		 *            The file to save the result in.
+		 */
+		FilterJob(String algorithm, int device, BufferedImage source, BufferedImage target,
+				BiFunction<Integer, Integer, BufferedImage> filteredTiles, File file) {
+			this.algorithm = algorithm;
+			this.device = device;
+			this.source = source;
+			this.target = target;
+			this.filteredTiles = filteredTiles;
+			this.file = file;
+		}
+
+		@Override
+		protected Void doInBackground() throws IOException {
+			int width = source.getWidth();
+			int height = source.getHeight();
+			int size = TileViewer.TILE_SIZE;
+			int rows = (height + size - 1) / size;
+
+			for (int row = 0; row < rows && !isCancelled(); row += 1) {
+				for (int column = 0; column * size < width; column += 1) {
+					int x = column * size;
+					int y = row * size;
+					int tileWidth = Math.min(size, width - x);
+					int tileHeight = Math.min(size, height - y);
+					BufferedImage tile = filteredTiles.apply(column, row);
+
+					if (tile != null) {
+						target.getRaster().setRect(x, y, tile.getRaster());
+					} else {
+						filterTile(algorithm, device, source, source, new Rectangle(x, y, tileWidth, tileHeight),
+								target.getSubimage(x, y, tileWidth, tileHeight));
 					}
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(this, "Could not write time spent to ReadMe file.", "Error",
-							JOptionPane.ERROR_MESSAGE);
 				}
 
-				output.repaint();
+				publish(row + 1);
+			}
+
+			if (!isCancelled()) {
+				ImageIO.write(target, "png", file);
+			}
+
+			return null;
+		}
+
+		@Override
+		protected void process(List<Integer> finished) {
+			if (job == this) {
+				int rows = (source.getHeight() + TileViewer.TILE_SIZE - 1) / TileViewer.TILE_SIZE;
+
+				progressBar.setValue(100 * finished.get(finished.size() - 1) / rows);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (job != this) {
+				return;
+			}
+
+			job = null;
+			progressBar.setVisible(false);
+			cancel.setVisible(false);
+
+			try {
+				get();
+			} catch (InterruptedException | CancellationException e) {
+				// a cancelled job saves nothing
+			} catch (ExecutionException e) {
+				JOptionPane.showMessageDialog(ImageGUI.this, "Could not save image: " + e.getCause().getMessage(),
+						"Error", JOptionPane.ERROR_MESSAGE);
 			}
 		}
 	}
@@ -1,12 +1,7 @@
 package kings.image;
 
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferInt;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
-import java.io.IOException;
+import java.nio.IntBuffer;
 
 /**
  * Algorithms for processing images.
@@ -19,6 +14,17 @@ public class ImageProcessor {
 	public static final int SEPIA_DEPTH = 20;
 	/** The sepia intensity for the sepia algorithm. */
 	public static final int SEPIA_INTENSITY = 30;
+	/** The algorithm name that counting the statistics of an image is recorded under. */
+	public static final String STATISTICS = "Statistics";
+
+	/** The sepia depth currently in use. */
+	private int sepiaDepth = SEPIA_DEPTH;
+	/** The sepia intensity currently in use. */
+	private int sepiaIntensity = SEPIA_INTENSITY;
+	/** The precomputed sepia colors for the current depth and intensity. */
+	private volatile SumLookupTable sepiaTable = SumLookupTable.sepia(SEPIA_DEPTH, SEPIA_INTENSITY);
+	/** The cache consulted before an algorithm runs, or null. */
+	private volatile ResultCache resultCache;
 
 	/**
 	 * Takes an image and turns it into a grayscaled version of itself.
@@ -26,127 +32,688 @@ public class ImageProcessor {
 	 * @param image
 	 *            The image to edit.
 	 * @return The grayscaled image.
-	 * @throws IOException
-	 *             Thrown if ReadMe file cannot be written to.
 	 */
-	public BufferedImage grayscale(BufferedImage image) throws IOException {
-		long currentTime = System.nanoTime();
+	public BufferedImage grayscale(BufferedImage image) {
+		BufferedImage result = RasterPixels.createDestination(image);
 
-		BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		int width = image.getWidth();
-		int height = image.getHeight();
+		filter("Grayscale", image, result);
 
-		int[] inputData = getPixelData(image);
+		return result;
+	}
 
-		int[] resultData = new int[inputData.length];
+	/**
+	 * Takes an image and turns it into a sepia version of itself.
+	 * 
+	 * @param image
+	 *            The image to edit.
+	 * @return The sepia image.
+	 */
+	public BufferedImage sepia(BufferedImage image) {
+		BufferedImage result = RasterPixels.createDestination(image);
 
-		for (int row = 0; row < height; row += 1) {
-			for (int col = 0; col < width; col += 1) {
-				int index = row * width + col;
-				int pixel = inputData[index];
+		filter("Sepia", image, result);
 
-				Pixel pixelData = new Pixel(pixel);
+		return result;
+	}
 
-				int red = pixelData.getRed();
-				int green = pixelData.getGreen();
-				int blue = pixelData.getBlue();
+	/**
+	 * Runs the given algorithm over the pixel data and records the time it took
+	 * in the default metrics registry. If a result cache is set, a cached result
+	 * is copied instead.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(String algorithm, int[] input, int[] output) {
+		ResultCache cache = resultCache;
+
+		if (cache == null) {
+			compute(algorithm, input, output);
+		} else {
+			cache.process(algorithm, getParameters(algorithm), getDeviceName(), input, output,
+					(in, out) -> compute(algorithm, in, out));
+		}
+	}
+
+	/**
+	 * Runs the given algorithm over the pixel data without the result cache,
+	 * for callers that time the run themselves, and records the time it took in
+	 * the default metrics registry.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	void compute(String algorithm, int[] input, int[] output) {
+		long start = System.nanoTime();
 
-				int gray = (int) (red * 0.299 + green * 0.587 + blue * 0.114);
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			process(getStatistics(input).toChain(algorithm), input, output, 0, input.length);
+		} else {
+			process(algorithm, input, output, 0, input.length);
+		}
 
-				pixelData.setRed(gray);
-				pixelData.setGreen(gray);
-				pixelData.setBlue(gray);
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.length, System.nanoTime() - start);
+	}
 
-				resultData[index] = pixelData.getData();
-			}
+	/**
+	 * Runs the given algorithm from one image into another, reading and writing
+	 * the images' own data buffers. Images that hold packed ints are filtered
+	 * in place; other supported types are converted a stripe at a time on the
+	 * way through, so no full-size copy of either image is made, unless a result
+	 * cache is set, which needs the input as one array, or the algorithm needs
+	 * the statistics of the whole image first. The time it took is recorded in
+	 * the default metrics registry.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param source
+	 *            The input image.
+	 * @param destination
+	 *            The image to store the result in, the same size as the input.
+	 */
+	public void filter(String algorithm, BufferedImage source, BufferedImage destination) {
+		if (source.getWidth() != destination.getWidth() || source.getHeight() != destination.getHeight()) {
+			throw new IllegalArgumentException("The destination must be the same size as the source");
 		}
 
-		result = convertPixelDataToImage(resultData, image, result);
+		RasterPixels input = RasterPixels.of(source);
+		RasterPixels output = RasterPixels.of(destination);
+		int[] inputData = RasterPixels.getPackedData(source);
+		int[] outputData = RasterPixels.getPackedData(destination);
 
-		long finishTime = System.nanoTime();
-		long timeSpent = (finishTime - currentTime) / 1000000;
-		TimeWriter.writeToReadMe("grayscale", timeSpent);
+		if (inputData != null && outputData != null) {
+			process(algorithm, inputData, outputData);
+		} else if (input != null && output != null && resultCache == null
+				&& !ImageStatistics.isAdjustment(algorithm)) {
+			long start = System.nanoTime();
 
-		return result;
+			process(algorithm, input, output, 0, input.getPixelCount());
+
+			MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.getPixelCount(),
+					System.nanoTime() - start);
+		} else {
+			int[] resultData = new int[source.getWidth() * source.getHeight()];
+
+			process(algorithm, getPixelData(source), resultData);
+
+			convertPixelDataToImage(resultData, source, destination);
+		}
 	}
 
-	public BufferedImage sepia(BufferedImage image) throws IOException {
-		long currentTime = System.nanoTime();
+	/**
+	 * Runs the given algorithm over a range of the pixel data.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	protected void process(String algorithm, int[] input, int[] output, int start, int end) {
+		apply(algorithm, input, output, start, end);
+	}
 
-		BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		int width = image.getWidth();
-		int height = image.getHeight();
+	/**
+	 * Runs the given algorithm over a range of pixels of two images. The pixels
+	 * are converted to packed ints and back one stripe at a time, in arrays
+	 * small enough to stay in the cache.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixels of the input image.
+	 * @param output
+	 *            The pixels of the result image.
+	 * @param start
+	 *            The first pixel to process.
+	 * @param end
+	 *            One past the last pixel to process.
+	 */
+	protected void process(String algorithm, RasterPixels input, RasterPixels output, int start, int end) {
+		int stripe = Math.min(RasterPixels.STRIPE_PIXELS, Math.max(0, end - start));
+		int[] inputStripe = new int[stripe];
+		int[] outputStripe = new int[stripe];
 
-		int[] inputData = getPixelData(image);
+		for (int from = start; from < end; from += stripe) {
+			int to = Math.min(end, from + stripe);
 
-		int[] resultData = new int[inputData.length];
+			input.read(from, to, inputStripe, 0);
+			apply(algorithm, inputStripe, outputStripe, 0, to - from);
+			output.write(outputStripe, 0, from, to);
+		}
+	}
 
-		for (int row = 0; row < height; row += 1) {
-			for (int col = 0; col < width; col += 1) {
-				int index = row * width + col;
-				int pixel = inputData[index];
+	/**
+	 * Runs the given algorithm over a range of the pixel data on the calling
+	 * thread.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	private void apply(String algorithm, int[] input, int[] output, int start, int end) {
+		switch (algorithm) {
+		case "Grayscale":
+			PixelOps.grayscale(input, output, start, end);
+			break;
+		case "Sepia":
+			sepiaTable.apply(input, output, start, end);
+			break;
+		default:
+			throw ParallelImageProcessor.unknownAlgorithm(algorithm);
+		}
+	}
 
-				Pixel pixelData = new Pixel(pixel);
+	/**
+	 * Runs a filter chain over the pixel data in a single pass. If a result
+	 * cache is set, a cached result is copied instead.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, int[] input, int[] output) {
+		ResultCache cache = resultCache;
+
+		if (cache == null) {
+			compute(chain, input, output);
+		} else {
+			cache.process(FilterChain.ALGORITHM, chain.toOpenCL(), getDeviceName(), input, output,
+					(in, out) -> compute(chain, in, out));
+		}
+	}
 
-				int red = pixelData.getRed();
-				int green = pixelData.getGreen();
-				int blue = pixelData.getBlue();
+	/**
+	 * Runs a filter chain over the pixel data in a single pass without the
+	 * result cache, for callers that time the run themselves.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	void compute(FilterChain chain, int[] input, int[] output) {
+		long start = System.nanoTime();
 
-				int average = (int) ((red + blue + green) / 3);
+		process(chain, input, output, 0, input.length);
 
-				red = average + (SEPIA_DEPTH * 2);
-				blue = average - SEPIA_INTENSITY;
-				green = average + SEPIA_DEPTH;
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.length,
+				System.nanoTime() - start);
+	}
 
-				if (red > 255) {
-					red = 255;
-				}
+	/**
+	 * Runs a filter chain over a range of the pixel data in a single pass.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	protected void process(FilterChain chain, int[] input, int[] output, int start, int end) {
+		chain.apply(input, output, start, end);
+	}
 
-				if (green > 255) {
-					green = 255;
-				}
+	/**
+	 * Counts the histograms of the pixel data, from which its minimum, maximum,
+	 * mean and percentiles are read, and records the time it took in the
+	 * default metrics registry.
+	 * 
+	 * @param pixels
+	 *            The pixel data.
+	 * @return The statistics of the pixel data.
+	 */
+	public ImageStatistics getStatistics(int[] pixels) {
+		long start = System.nanoTime();
+
+		long[] counts = reduce((from, to) -> {
+		}, pixels, 0, pixels.length);
 
-				if (blue < 0) {
-					blue = 0;
-				}
+		MetricsRegistry.getDefault().recordRun(STATISTICS, getDeviceName(), pixels.length, System.nanoTime() - start);
 
-				pixelData.setRed(red);
-				pixelData.setGreen(green);
-				pixelData.setBlue(blue);
+		return new ImageStatistics(counts);
+	}
 
-				resultData[index] = pixelData.getData();
-			}
+	/**
+	 * Counts the histograms of an image buffer. Buffers in native memory are
+	 * read a stripe at a time on the calling thread.
+	 * 
+	 * @param pixels
+	 *            The pixel data.
+	 * @return The statistics of the pixel data.
+	 */
+	public ImageStatistics getStatistics(ImageBuffer pixels) {
+		if (pixels.array() != null) {
+			return getStatistics(pixels.array());
 		}
 
-		result = convertPixelDataToImage(resultData, image, result);
+		long start = System.nanoTime();
+		long[] counts = new long[ImageStatistics.COUNTS];
+		int[] stripe = new int[(int) Math.min(RasterPixels.STRIPE_PIXELS, pixels.size())];
 
-		long finishTime = System.nanoTime();
-		long timeSpent = (finishTime - currentTime) / 1000000;
-		TimeWriter.writeToReadMe("sepia", timeSpent);
+		for (long from = 0; from < pixels.size(); from += stripe.length) {
+			int length = (int) Math.min(stripe.length, pixels.size() - from);
 
-		return result;
+			pixels.get(from, stripe, 0, length);
+			ImageStatistics.count(stripe, 0, length, counts);
+		}
+
+		MetricsRegistry.getDefault().recordRun(STATISTICS, getDeviceName(), pixels.size(), System.nanoTime() - start);
+
+		return new ImageStatistics(counts);
+	}
+
+	/**
+	 * Runs the given algorithm over the pixel data and counts the histograms of
+	 * the result in the same pass, each stripe while it is still in the cache,
+	 * so the result is not read a second time. The time it took is recorded in
+	 * the default metrics registry.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @return The statistics of the result.
+	 */
+	public ImageStatistics processWithStatistics(String algorithm, int[] input, int[] output) {
+		long start = System.nanoTime();
+
+		long[] counts = reduce((from, to) -> apply(algorithm, input, output, from, to), output, 0, input.length);
+
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.length, System.nanoTime() - start);
+
+		return new ImageStatistics(counts);
+	}
+
+	/**
+	 * Runs a filter chain over the pixel data and counts the histograms of the
+	 * result in the same pass, so an adjustment such as Auto Levels can follow
+	 * the chain without reading the image again. The time it took is recorded
+	 * in the default metrics registry.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @return The statistics of the result.
+	 */
+	public ImageStatistics processWithStatistics(FilterChain chain, int[] input, int[] output) {
+		long start = System.nanoTime();
+
+		long[] counts = reduce((from, to) -> chain.apply(input, output, from, to), output, 0, input.length);
+
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.length,
+				System.nanoTime() - start);
+
+		return new ImageStatistics(counts);
+	}
+
+	/**
+	 * Runs work over a range of the pixel data one stripe at a time, counting
+	 * the histograms of each stripe right after the work writes it.
+	 * 
+	 * @param work
+	 *            The work done on each stripe before it is counted.
+	 * @param counted
+	 *            The pixel data to count.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The histograms of the range, ImageStatistics.BINS counts for each
+	 *         channel in turn.
+	 */
+	protected long[] reduce(RangeWork work, int[] counted, int start, int end) {
+		long[] counts = new long[ImageStatistics.COUNTS];
+
+		for (int from = start; from < end; from += RasterPixels.STRIPE_PIXELS) {
+			int to = Math.min(end, from + RasterPixels.STRIPE_PIXELS);
+
+			work.run(from, to);
+			ImageStatistics.count(counted, from, to, counts);
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Runs a filter chain over pixel data held outside the Java heap, such as a
+	 * mapped raw image file.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, IntBuffer input, IntBuffer output) {
+		long start = System.nanoTime();
+
+		process(chain, input, output, 0, input.limit());
+
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.limit(),
+				System.nanoTime() - start);
 	}
 
 	/**
-	 * Gets the pixel data from the image.
+	 * Runs a filter chain over a range of pixel data held outside the Java heap.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	protected void process(FilterChain chain, IntBuffer input, IntBuffer output, int start, int end) {
+		chain.apply(input, output, start, end);
+	}
+
+	/**
+	 * Runs the given algorithm over an image buffer and records the time it
+	 * took in the default metrics registry. Buffers backed by arrays are
+	 * filtered as arrays; others are filtered a stripe at a time, after the
+	 * statistics of the whole buffer are counted for Auto Levels and Equalize.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 */
+	public void process(String algorithm, ImageBuffer input, ImageBuffer output) {
+		if (input.array() != null && output.array() != null) {
+			process(algorithm, input.array(), output.array());
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			process(getStatistics(input).toChain(algorithm), input, output, 0, input.size());
+		} else {
+			process(algorithm, input, output, 0, input.size());
+		}
+
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.size(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs the given algorithm over a range of an image buffer, through arrays
+	 * one stripe long.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	protected void process(String algorithm, ImageBuffer input, ImageBuffer output, long start, long end) {
+		int stripe = (int) Math.min(RasterPixels.STRIPE_PIXELS, Math.max(0, end - start));
+		int[] inputStripe = new int[stripe];
+		int[] outputStripe = new int[stripe];
+
+		for (long from = start; from < end; from += stripe) {
+			int length = (int) Math.min(stripe, end - from);
+
+			input.get(from, inputStripe, 0, length);
+			apply(algorithm, inputStripe, outputStripe, 0, length);
+			output.put(from, outputStripe, 0, length);
+		}
+	}
+
+	/**
+	 * Runs a filter chain over an image buffer in a single pass and records the
+	 * time it took in the default metrics registry.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, ImageBuffer input, ImageBuffer output) {
+		if (input.array() != null && output.array() != null) {
+			process(chain, input.array(), output.array());
+			return;
+		}
+
+		long start = System.nanoTime();
+
+		process(chain, input, output, 0, input.size());
+
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.size(),
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs a filter chain over a range of an image buffer, through arrays one
+	 * stripe long.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	protected void process(FilterChain chain, ImageBuffer input, ImageBuffer output, long start, long end) {
+		int stripe = (int) Math.min(RasterPixels.STRIPE_PIXELS, Math.max(0, end - start));
+		int[] inputStripe = new int[stripe];
+		int[] outputStripe = new int[stripe];
+
+		for (long from = start; from < end; from += stripe) {
+			int length = (int) Math.min(stripe, end - from);
+
+			input.get(from, inputStripe, 0, length);
+			chain.apply(inputStripe, outputStripe, 0, length);
+			output.put(from, outputStripe, 0, length);
+		}
+	}
+
+	/**
+	 * Gets the name of the device the algorithms run on, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	public String getDeviceName() {
+		return "CPU serial";
+	}
+
+	/**
+	 * Changes the sepia depth and intensity. The sepia table is rebuilt, so the
+	 * change applies to the next sepia run.
+	 * 
+	 * @param depth
+	 *            The new sepia depth.
+	 * @param intensity
+	 *            The new sepia intensity.
+	 */
+	public synchronized void setSepia(int depth, int intensity) {
+		sepiaDepth = depth;
+		sepiaIntensity = intensity;
+		sepiaTable = SumLookupTable.sepia(depth, intensity);
+	}
+
+	/**
+	 * Gets the sepia depth and intensity currently in use, read together so a
+	 * concurrent setSepia cannot give the old depth with the new intensity.
+	 * 
+	 * @return The depth and the intensity.
+	 */
+	public synchronized int[] getSepia() {
+		return new int[] { sepiaDepth, sepiaIntensity };
+	}
+
+	/**
+	 * Gets the sepia depth currently in use.
+	 * 
+	 * @return The sepia depth.
+	 */
+	public synchronized int getSepiaDepth() {
+		return sepiaDepth;
+	}
+
+	/**
+	 * Gets the sepia intensity currently in use.
+	 * 
+	 * @return The sepia intensity.
+	 */
+	public synchronized int getSepiaIntensity() {
+		return sepiaIntensity;
+	}
+
+	/**
+	 * Describes the parameters an algorithm currently runs with, so results
+	 * made with other parameters are not taken from the result cache.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm.
+	 * @return The parameters, or an empty string if the algorithm has none.
+	 */
+	public synchronized String getParameters(String algorithm) {
+		return algorithm.equals("Sepia") ? "depth=" + sepiaDepth + ",intensity=" + sepiaIntensity : "";
+	}
+
+	/**
+	 * Sets the cache consulted before an algorithm or filter chain runs over
+	 * an array. Results are cached under this processor's device name, so
+	 * processors can share a cache.
+	 * 
+	 * @param cache
+	 *            The cache, or null to always run the algorithms.
+	 */
+	public void setResultCache(ResultCache cache) {
+		resultCache = cache;
+	}
+
+	/**
+	 * Gets the cache consulted before an algorithm runs.
+	 * 
+	 * @return The cache, or null if there is none.
+	 */
+	public ResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Gets the pixel data from the image. A TYPE_INT_ARGB image returns its own
+	 * array, so writing to it changes the image; any other image returns a
+	 * converted copy, with opaque alpha if the image has none.
 	 * 
 	 * @param image
 	 *            The image.
 	 * @return The pixel data.
 	 */
 	public int[] getPixelData(BufferedImage image) {
-		WritableRaster inputRaster = image.getRaster();
-		DataBuffer idb = inputRaster.getDataBuffer();
-		DataBufferInt inputBytes = (DataBufferInt) idb;
+		int[] data = RasterPixels.getPackedData(image);
+
+		if (data != null) {
+			return data;
+		}
+
+		RasterPixels pixels = RasterPixels.of(image);
+
+		if (pixels == null) {
+			return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+		}
+
+		data = new int[pixels.getPixelCount()];
+		pixels.read(0, data.length, data, 0);
 
-		return inputBytes.getData();
+		return data;
 	}
 
+	/**
+	 * Stores result pixel data in an image. Nothing is copied if the data is
+	 * already the image's own array.
+	 * 
+	 * @param resultData
+	 *            The pixel data of the result.
+	 * @param image
+	 *            The input image the result was made from.
+	 * @param result
+	 *            The image to store the result in, the same size as the input.
+	 * @return The result image.
+	 */
 	public BufferedImage convertPixelDataToImage(int[] resultData, BufferedImage image, BufferedImage result) {
-		DataBufferInt rdb = new DataBufferInt(resultData, resultData.length);
-		Raster resultRaster = Raster.createRaster(image.getSampleModel(), rdb, new Point(0, 0));
-		result.setData(resultRaster);
+		if (RasterPixels.getPackedData(result) == resultData) {
+			return result;
+		}
+
+		RasterPixels pixels = RasterPixels.of(result);
+
+		if (pixels == null) {
+			result.setRGB(0, 0, image.getWidth(), image.getHeight(), resultData, 0, image.getWidth());
+		} else {
+			pixels.write(resultData, 0, 0, pixels.getPixelCount());
+		}
 
 		return result;
 	}
+
+	/**
+	 * The serial work done on one range of pixels.
+	 */
+	protected interface RangeWork {
+		/**
+		 * Processes one range.
+		 * 
+		 * @param start
+		 *            The first index to process.
+		 * @param end
+		 *            One past the last index to process.
+		 */
+		void run(int start, int end);
+	}
 }
@@ -0,0 +1,156 @@
+package kings.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A mipmap pyramid of an image: the image itself, then copies of half the
+ * width and height, down to a small size. Each pixel of a level is the average
+ * of the two by two pixels above it. The levels are built once, so a filter can
+ * be previewed on a screen-sized level in a fraction of the time the full
+ * image takes.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-02-19
+ */
+public class ImagePyramid {
+	/** The width and height below which no further level is made. */
+	public static final int MIN_SIZE = 64;
+
+	/** The levels, the source image first. */
+	private final List<BufferedImage> levels;
+
+	/**
+	 * Constructs an ImagePyramid, building every level.
+	 * 
+	 * @param source
+	 *            The full-size image.
+	 */
+	public ImagePyramid(BufferedImage source) {
+		List<BufferedImage> built = new ArrayList<BufferedImage>();
+		BufferedImage level = source;
+		int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		built.add(source);
+
+		while (level.getWidth() > MIN_SIZE || level.getHeight() > MIN_SIZE) {
+			level = downsample(level, type);
+			built.add(level);
+		}
+
+		levels = Collections.unmodifiableList(built);
+	}
+
+	/**
+	 * Gets the full-size image.
+	 * 
+	 * @return The source image.
+	 */
+	public BufferedImage getSource() {
+		return levels.get(0);
+	}
+
+	/**
+	 * Gets the number of levels, including the source.
+	 * 
+	 * @return The number of levels.
+	 */
+	public int getLevelCount() {
+		return levels.size();
+	}
+
+	/**
+	 * Gets one level.
+	 * 
+	 * @param level
+	 *            The level, 0 for the source.
+	 * @return The image of that level.
+	 */
+	public BufferedImage getLevel(int level) {
+		return levels.get(level);
+	}
+
+	/**
+	 * Makes the next level of the pyramid. An odd last row or column is
+	 * averaged with itself.
+	 * 
+	 * @param image
+	 *            The level above.
+	 * @param type
+	 *            The BufferedImage type of the new level.
+	 * @return The new level.
+	 */
+	private static BufferedImage downsample(BufferedImage image, int type) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int levelWidth = (width + 1) / 2;
+		int levelHeight = (height + 1) / 2;
+
+		BufferedImage level = new BufferedImage(levelWidth, levelHeight, type);
+		int[] pixels = ((DataBufferInt) level.getRaster().getDataBuffer()).getData();
+		RasterPixels source = RasterPixels.of(image);
+		int[] top = new int[width];
+		int[] bottom = new int[width];
+
+		for (int y = 0; y < levelHeight; y += 1) {
+			readRow(image, source, 2 * y, top);
+			readRow(image, source, Math.min(2 * y + 1, height - 1), bottom);
+
+			for (int x = 0; x < levelWidth; x += 1) {
+				int left = 2 * x;
+				int right = Math.min(left + 1, width - 1);
+
+				pixels[y * levelWidth + x] = average(top[left], top[right], bottom[left], bottom[right]);
+			}
+		}
+
+		return level;
+	}
+
+	/**
+	 * Reads one row of an image as packed ARGB ints.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @param pixels
+	 *            The pixels of the image, or null if its type is not supported.
+	 * @param y
+	 *            The row.
+	 * @param row
+	 *            The array to store the row in.
+	 */
+	private static void readRow(BufferedImage image, RasterPixels pixels, int y, int[] row) {
+		int width = image.getWidth();
+
+		if (pixels == null) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+		} else {
+			pixels.read(y * width, (y + 1) * width, row, 0);
+		}
+	}
+
+	/**
+	 * Averages four pixels, channel by channel, rounding to nearest.
+	 * 
+	 * @param a
+	 *            The first pixel.
+	 * @param b
+	 *            The second pixel.
+	 * @param c
+	 *            The third pixel.
+	 * @param d
+	 *            The fourth pixel.
+	 * @return The average pixel.
+	 */
+	private static int average(int a, int b, int c, int d) {
+		int alpha = (PixelOps.alpha(a) + PixelOps.alpha(b) + PixelOps.alpha(c) + PixelOps.alpha(d) + 2) >> 2;
+		int red = (PixelOps.red(a) + PixelOps.red(b) + PixelOps.red(c) + PixelOps.red(d) + 2) >> 2;
+		int green = (PixelOps.green(a) + PixelOps.green(b) + PixelOps.green(c) + PixelOps.green(d) + 2) >> 2;
+		int blue = (PixelOps.blue(a) + PixelOps.blue(b) + PixelOps.blue(c) + PixelOps.blue(d) + 2) >> 2;
+
+		return alpha << 24 | red << 16 | green << 8 | blue;
+	}
+}
@@ -0,0 +1,365 @@
+package kings.image;
+
+/**
+ * The histograms of an image's red, green, blue and luma values, from which
+ * the minimum, maximum, mean and percentiles of each channel are read. Partial
+ * histograms of parts of an image, counted on different threads or devices,
+ * are added together into the histogram of the whole image. The statistics
+ * drive the adjustments Auto Levels and Equalize.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-11-19
+ */
+public final class ImageStatistics {
+	/** The name of the algorithm that stretches each channel to the full range. */
+	public static final String AUTO_LEVELS = "Auto Levels";
+	/** The name of the algorithm that equalizes the histogram. */
+	public static final String EQUALIZE = "Equalize";
+	/** The names of the algorithms built on the statistics. */
+	public static final String[] ALGORITHMS = { AUTO_LEVELS, EQUALIZE };
+
+	/** The red channel. */
+	public static final int RED = 0;
+	/** The green channel. */
+	public static final int GREEN = 1;
+	/** The blue channel. */
+	public static final int BLUE = 2;
+	/** The luma of the pixel. */
+	public static final int LUMA = 3;
+	/** The number of channels counted. */
+	public static final int CHANNELS = 4;
+	/** The number of values of a channel. */
+	public static final int BINS = PixelOps.CHANNEL_MAX + 1;
+	/** The number of counts in a histogram of every channel. */
+	public static final int COUNTS = CHANNELS * BINS;
+	/** The fraction of the darkest and of the brightest values of a channel that Auto Levels clips. */
+	public static final double AUTO_LEVELS_CLIP = 0.005;
+
+	/** The counts, BINS for each channel in turn. */
+	private final long[] counts;
+	/** The number of pixels counted. */
+	private final long pixelCount;
+
+	/**
+	 * Constructs an ImageStatistics from histogram counts.
+	 * 
+	 * @param counts
+	 *            The counts, BINS for each channel in turn. They are not copied.
+	 */
+	public ImageStatistics(long[] counts) {
+		if (counts.length != COUNTS) {
+			throw new IllegalArgumentException("Histograms need " + COUNTS + " counts, not " + counts.length);
+		}
+
+		long total = 0;
+
+		for (int value = 0; value < BINS; value += 1) {
+			total += counts[LUMA * BINS + value];
+		}
+
+		this.counts = counts;
+		pixelCount = total;
+	}
+
+	/**
+	 * Tells whether an algorithm is one of the adjustments built on the
+	 * statistics.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm.
+	 * @return True if the algorithm needs the statistics of the whole image.
+	 */
+	public static boolean isAdjustment(String algorithm) {
+		return AUTO_LEVELS.equals(algorithm) || EQUALIZE.equals(algorithm);
+	}
+
+	/**
+	 * Counts a range of pixels into histograms.
+	 * 
+	 * @param pixels
+	 *            The pixel data.
+	 * @param start
+	 *            The first index to count.
+	 * @param end
+	 *            One past the last index to count.
+	 * @param counts
+	 *            The histograms to add to, BINS for each channel in turn.
+	 */
+	public static void count(int[] pixels, int start, int end, long[] counts) {
+		for (int index = start; index < end; index += 1) {
+			int pixel = pixels[index];
+			int red = PixelOps.red(pixel);
+			int green = PixelOps.green(pixel);
+			int blue = PixelOps.blue(pixel);
+
+			counts[red] += 1;
+			counts[BINS + green] += 1;
+			counts[2 * BINS + blue] += 1;
+			counts[LUMA * BINS + PixelOps.luma(red, green, blue)] += 1;
+		}
+	}
+
+	/**
+	 * Adds one set of histograms into another.
+	 * 
+	 * @param counts
+	 *            The histograms to add to.
+	 * @param more
+	 *            The histograms to add.
+	 * @return The first histograms, now holding both.
+	 */
+	public static long[] merge(long[] counts, long[] more) {
+		for (int index = 0; index < COUNTS; index += 1) {
+			counts[index] += more[index];
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Combines these statistics with those of another part of the image.
+	 * 
+	 * @param other
+	 *            The statistics of the other part.
+	 * @return The statistics of both parts.
+	 */
+	public ImageStatistics merge(ImageStatistics other) {
+		return new ImageStatistics(merge(counts.clone(), other.counts));
+	}
+
+	/**
+	 * Gets the number of pixels counted.
+	 * 
+	 * @return The number of pixels.
+	 */
+	public long getPixelCount() {
+		return pixelCount;
+	}
+
+	/**
+	 * Gets the histogram of one channel.
+	 * 
+	 * @param channel
+	 *            The channel, such as RED or LUMA.
+	 * @return A copy of the BINS counts.
+	 */
+	public long[] getHistogram(int channel) {
+		long[] histogram = new long[BINS];
+		System.arraycopy(counts, channel * BINS, histogram, 0, BINS);
+
+		return histogram;
+	}
+
+	/**
+	 * Gets the smallest value of a channel.
+	 * 
+	 * @param channel
+	 *            The channel, such as RED or LUMA.
+	 * @return The smallest value, or 0 if no pixels were counted.
+	 */
+	public int getMin(int channel) {
+		for (int value = 0; value < BINS; value += 1) {
+			if (counts[channel * BINS + value] > 0) {
+				return value;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Gets the largest value of a channel.
+	 * 
+	 * @param channel
+	 *            The channel, such as RED or LUMA.
+	 * @return The largest value, or 0 if no pixels were counted.
+	 */
+	public int getMax(int channel) {
+		for (int value = BINS - 1; value >= 0; value -= 1) {
+			if (counts[channel * BINS + value] > 0) {
+				return value;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Gets the mean value of a channel.
+	 * 
+	 * @param channel
+	 *            The channel, such as RED or LUMA.
+	 * @return The mean, or 0 if no pixels were counted.
+	 */
+	public double getMean(int channel) {
+		if (pixelCount == 0) {
+			return 0;
+		}
+
+		double total = 0;
+
+		for (int value = 0; value < BINS; value += 1) {
+			total += (double) value * counts[channel * BINS + value];
+		}
+
+		return total / pixelCount;
+	}
+
+	/**
+	 * Gets the smallest value of a channel that at least the given fraction of
+	 * the pixels are at or below.
+	 * 
+	 * @param channel
+	 *            The channel, such as RED or LUMA.
+	 * @param fraction
+	 *            The fraction, from 0 to 1.
+	 * @return The value.
+	 */
+	public int getPercentile(int channel, double fraction) {
+		long wanted = Math.max(1, (long) Math.ceil(fraction * pixelCount));
+		long seen = 0;
+
+		for (int value = 0; value < BINS; value += 1) {
+			seen += counts[channel * BINS + value];
+
+			if (seen >= wanted) {
+				return value;
+			}
+		}
+
+		return BINS - 1;
+	}
+
+	/**
+	 * Makes the table of an adjustment built on these statistics.
+	 * 
+	 * @param algorithm
+	 *            AUTO_LEVELS or EQUALIZE.
+	 * @return The lookup table.
+	 */
+	public LookupTable getAdjustment(String algorithm) {
+		switch (algorithm) {
+		case AUTO_LEVELS:
+			return autoLevels(AUTO_LEVELS_CLIP);
+		case EQUALIZE:
+			return equalize();
+		default:
+			throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+		}
+	}
+
+	/**
+	 * Makes a filter chain that runs an adjustment built on these statistics,
+	 * so it runs on any device that runs filter chains.
+	 * 
+	 * @param algorithm
+	 *            AUTO_LEVELS or EQUALIZE.
+	 * @return The filter chain.
+	 */
+	public FilterChain toChain(String algorithm) {
+		return new FilterChain().then(PixelOperations.table(getAdjustment(algorithm)));
+	}
+
+	/**
+	 * Makes a table that stretches each channel separately so that its darkest
+	 * and brightest values, after clipping a small fraction of the pixels at
+	 * each end, become 0 and 255. Stretching the channels separately also
+	 * removes a color cast. A channel with a single value is left as it is.
+	 * 
+	 * @param clip
+	 *            The fraction of the pixels clipped at each end of each
+	 *            channel.
+	 * @return The lookup table.
+	 */
+	public LookupTable autoLevels(double clip) {
+		int[][] tables = new int[3][];
+
+		for (int channel = RED; channel <= BLUE; channel += 1) {
+			int low = getPercentile(channel, clip);
+			int high = getPercentile(channel, 1 - clip);
+
+			if (high <= low) {
+				low = getMin(channel);
+				high = getMax(channel);
+			}
+
+			tables[channel] = levels(low, high);
+		}
+
+		return LookupTable.of(tables[RED], tables[GREEN], tables[BLUE]);
+	}
+
+	/**
+	 * Makes a table that spreads the values of the image so that each is used
+	 * about as often as the others, mapping each value through the cumulative
+	 * histogram of the red, green and blue values together. The same table is
+	 * used for every channel, so a gray image stays gray and colors keep their
+	 * order.
+	 * 
+	 * @return The lookup table.
+	 */
+	public LookupTable equalize() {
+		long[] combined = new long[BINS];
+		long total = 3 * pixelCount;
+
+		for (int value = 0; value < BINS; value += 1) {
+			combined[value] = counts[value] + counts[BINS + value] + counts[2 * BINS + value];
+		}
+
+		long first = 0;
+
+		for (int value = 0; value < BINS && first == 0; value += 1) {
+			first = combined[value];
+		}
+
+		if (total == first) {
+			return LookupTable.identity();
+		}
+
+		int[] table = new int[BINS];
+		long seen = 0;
+
+		for (int value = 0; value < BINS; value += 1) {
+			seen += combined[value];
+			table[value] = (int) Math.round(Math.max(0, seen - first) * (double) PixelOps.CHANNEL_MAX
+					/ (total - first));
+		}
+
+		return LookupTable.of(table);
+	}
+
+	/**
+	 * Makes the table of one channel that stretches a range to the full range,
+	 * or that leaves the channel as it is if the range is empty. The values
+	 * outside the range are clamped by LookupTable.
+	 * 
+	 * @param low
+	 *            The value that becomes 0.
+	 * @param high
+	 *            The value that becomes 255.
+	 * @return The 256 channel values.
+	 */
+	private static int[] levels(int low, int high) {
+		int[] table = new int[BINS];
+
+		for (int value = 0; value < BINS; value += 1) {
+			table[value] = high > low ? (int) Math.round((value - low) * PixelOps.CHANNEL_MAX / (double) (high - low))
+					: value;
+		}
+
+		return table;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(pixelCount + " pixels");
+		String[] names = { "red", "green", "blue", "luma" };
+
+		for (int channel = 0; channel < CHANNELS; channel += 1) {
+			text.append(String.format(", %s %d-%d mean %.1f", names[channel], getMin(channel), getMax(channel),
+					getMean(channel)));
+		}
+
+		return text.toString();
+	}
+}
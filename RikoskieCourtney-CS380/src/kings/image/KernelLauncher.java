@@ -0,0 +1,204 @@
+package kings.image;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_event;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+
+/**
+ * Launches one algorithm on one device with a chosen launch shape. The shape
+ * is the number of four-pixel vectors each work-item handles (0 for the
+ * one-pixel-per-work-item kernel) and the local work size (0 to let the driver
+ * choose). Pixels that do not fill a whole vector are handled by the scalar
+ * kernel.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-01-19
+ */
+public class KernelLauncher {
+	/** The number of pixels in one vector. */
+	public static final int VECTOR_WIDTH = 4;
+
+	/** The kernel that handles one pixel per work-item. */
+	private final cl_kernel scalarKernel;
+	/** The kernel that handles vectors of pixels, or null. */
+	private final cl_kernel vectorKernel;
+	/** The number of vectors each work-item handles. */
+	private final int vectorsPerItem;
+	/** The local work size. */
+	private final long localSize;
+
+	/**
+	 * Constructs a KernelLauncher, building its kernels if needed.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param kernelName
+	 *            The name of the scalar kernel, such as "grayscale_kernel".
+	 * @param vectorsPerItem
+	 *            The number of four-pixel vectors each work-item handles, or 0 to
+	 *            use only the scalar kernel.
+	 * @param localSize
+	 *            The local work size, or 0 to let the driver choose.
+	 */
+	public KernelLauncher(DeviceContext deviceContext, String kernelName, int vectorsPerItem, long localSize) {
+		this.vectorsPerItem = vectorsPerItem;
+		this.localSize = localSize;
+
+		scalarKernel = deviceContext.getKernel(kernelName);
+
+		if (vectorsPerItem > 0) {
+			vectorKernel = deviceContext.getKernel(getVectorName(kernelName), getVectorOptions(vectorsPerItem));
+		} else {
+			vectorKernel = null;
+		}
+	}
+
+	/**
+	 * Constructs a KernelLauncher that runs a single scalar kernel, such as a
+	 * generated one, with one pixel per work-item.
+	 * 
+	 * @param scalarKernel
+	 *            The kernel, taking the input and result buffers as its first two
+	 *            arguments.
+	 */
+	public KernelLauncher(cl_kernel scalarKernel) {
+		this.scalarKernel = scalarKernel;
+		vectorKernel = null;
+		vectorsPerItem = 0;
+		localSize = 0;
+	}
+
+	/**
+	 * Queues the kernels for one image.
+	 * 
+	 * @param commandQueue
+	 *            The command queue.
+	 * @param memImage
+	 *            The memory at which the input image is stored.
+	 * @param memResult
+	 *            The memory at which to store the result image.
+	 * @param scalarArgs
+	 *            The int arguments that follow the buffers.
+	 * @param length
+	 *            The number of pixels.
+	 * @param waitList
+	 *            The events to wait for, or null.
+	 * @param done
+	 *            The event to set when the last kernel finishes, or null.
+	 */
+	public void launch(cl_command_queue commandQueue, cl_mem memImage, cl_mem memResult, int[] scalarArgs,
+			int length, cl_event[] waitList, cl_event done) {
+		if (length < 1) {
+			throw new IllegalArgumentException("An image needs at least one pixel.");
+		}
+
+		int vectors = vectorKernel == null ? 0 : length / VECTOR_WIDTH;
+		int tailStart = vectors * VECTOR_WIDTH;
+		int waiting = waitList == null ? 0 : waitList.length;
+
+		if (vectors > 0) {
+			long items = (vectors + vectorsPerItem - 1) / vectorsPerItem;
+			long[] local = null;
+
+			if (localSize > 0) {
+				items = (items + localSize - 1) / localSize * localSize;
+				local = new long[] { localSize };
+			}
+
+			// The kernel may be shared with other threads
+			synchronized (vectorKernel) {
+				setArgs(vectorKernel, memImage, memResult, scalarArgs);
+				CL.clSetKernelArg(vectorKernel, scalarArgs.length + 2, Sizeof.cl_int,
+						Pointer.to(new int[] { vectors }));
+
+				CL.clEnqueueNDRangeKernel(commandQueue, vectorKernel, 1, null, new long[] { items }, local, waiting,
+						waitList, tailStart < length ? null : done);
+			}
+
+			waiting = 0;
+			waitList = null;
+		}
+
+		if (tailStart < length) {
+			long tail = length - tailStart;
+			long[] local = null;
+
+			// The scalar kernel has no bounds check, so a local size is only used if it fits exactly
+			if (vectorKernel == null && localSize > 0 && tail % localSize == 0) {
+				local = new long[] { localSize };
+			}
+
+			synchronized (scalarKernel) {
+				setArgs(scalarKernel, memImage, memResult, scalarArgs);
+
+				CL.clEnqueueNDRangeKernel(commandQueue, scalarKernel, 1, new long[] { tailStart }, new long[] { tail },
+						local, waiting, waitList, done);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of four-pixel vectors each work-item handles.
+	 * 
+	 * @return The number of vectors, or 0 if only the scalar kernel is used.
+	 */
+	public int getVectorsPerItem() {
+		return vectorsPerItem;
+	}
+
+	/**
+	 * Gets the local work size.
+	 * 
+	 * @return The local work size, or 0 if the driver chooses.
+	 */
+	public long getLocalSize() {
+		return localSize;
+	}
+
+	/**
+	 * Gets the name of the vector kernel that goes with a scalar kernel.
+	 * 
+	 * @param kernelName
+	 *            The name of the scalar kernel, such as "grayscale_kernel".
+	 * @return The name of the vector kernel, such as "grayscale_vec_kernel".
+	 */
+	public static String getVectorName(String kernelName) {
+		return kernelName.replace("_kernel", "_vec_kernel");
+	}
+
+	/**
+	 * Gets the build options for a vector kernel.
+	 * 
+	 * @param vectorsPerItem
+	 *            The number of four-pixel vectors each work-item handles.
+	 * @return The build options.
+	 */
+	public static String getVectorOptions(int vectorsPerItem) {
+		return "-D VECTORS_PER_ITEM=" + vectorsPerItem;
+	}
+
+	/**
+	 * Sets the buffer arguments and the int arguments of a kernel.
+	 * 
+	 * @param kernel
+	 *            The kernel.
+	 * @param memImage
+	 *            The memory at which the input image is stored.
+	 * @param memResult
+	 *            The memory at which to store the result image.
+	 * @param scalarArgs
+	 *            The int arguments that follow the buffers.
+	 */
+	private static void setArgs(cl_kernel kernel, cl_mem memImage, cl_mem memResult, int[] scalarArgs) {
+		CL.clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(memImage));
+		CL.clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(memResult));
+
+		for (int arg = 0; arg < scalarArgs.length; arg += 1) {
+			CL.clSetKernelArg(kernel, arg + 2, Sizeof.cl_int, Pointer.to(new int[] { scalarArgs[arg] }));
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package kings.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jocl.CL;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_mem;
+
+/**
+ * Chooses the fastest launch shape for each kernel on each device. The first
+ * time a kernel is used on a device, every combination of vectors per
+ * work-item and local work size is timed on a test image, and the winner is
+ * kept in memory and in a properties file so later runs skip the tuning.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-01-19
+ */
+public class KernelTuner {
+	/** The number of pixels in the test image. */
+	public static final int TUNING_PIXELS = 1 << 22;
+	/** The numbers of vectors per work-item to try, where 0 is the scalar kernel. */
+	private static final int[] VECTORS_PER_ITEM = { 0, 1, 2, 4, 8 };
+	/** The local work sizes to try, where 0 lets the driver choose. */
+	private static final long[] LOCAL_SIZES = { 0, 32, 64, 128, 256 };
+	/** The number of timed runs of each launch shape. */
+	private static final int RUNS = 3;
+
+	/** The file that holds the winners. */
+	private final File file;
+	/** The winners, as "vectors,local" strings, by device and kernel. */
+	private final Properties winners;
+	/** The launchers that have been chosen, by device and kernel. */
+	private final Map<String, KernelLauncher> launchers;
+
+	/**
+	 * Constructs a KernelTuner that keeps its winners in the user's home folder.
+	 */
+	public KernelTuner() {
+		this(new File(System.getProperty("user.home"), ".kings-image" + File.separator + "tuning.properties"));
+	}
+
+	/**
+	 * Constructs a KernelTuner.
+	 * 
+	 * @param file
+	 *            The file that holds the winners.
+	 */
+	public KernelTuner(File file) {
+		this.file = file;
+
+		winners = new Properties();
+		launchers = new HashMap<String, KernelLauncher>();
+
+		if (file.isFile()) {
+			try (InputStream in = new FileInputStream(file)) {
+				winners.load(in);
+			} catch (IOException e) {
+				// start with no winners; the kernels are tuned again
+			}
+		}
+	}
+
+	/**
+	 * Gets the launcher for a kernel on a device, tuning it the first time.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param kernelName
+	 *            The name of the scalar kernel, such as "grayscale_kernel".
+	 * @param scalarArgs
+	 *            The int arguments to pass while tuning.
+	 * @return The launcher.
+	 */
+	public synchronized KernelLauncher getLauncher(DeviceContext deviceContext, String kernelName, int[] scalarArgs) {
+		String key = getKey(deviceContext, kernelName);
+		KernelLauncher launcher = launchers.get(key);
+
+		if (launcher == null) {
+			launcher = load(deviceContext, kernelName, winners.getProperty(key));
+
+			if (launcher == null) {
+				launcher = tune(deviceContext, kernelName, scalarArgs);
+
+				winners.setProperty(key, launcher.getVectorsPerItem() + "," + launcher.getLocalSize());
+				save();
+			}
+
+			launchers.put(key, launcher);
+		}
+
+		return launcher;
+	}
+
+	/**
+	 * Times every launch shape and returns the fastest.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param kernelName
+	 *            The name of the scalar kernel.
+	 * @param scalarArgs
+	 *            The int arguments to pass.
+	 * @return The fastest launcher.
+	 */
+	private KernelLauncher tune(DeviceContext deviceContext, String kernelName, int[] scalarArgs) {
+		long maxLocal = getMaxWorkGroupSize(deviceContext);
+		long bytes = (long) Sizeof.cl_int * TUNING_PIXELS;
+
+		BufferPool pool = deviceContext.getBufferPool();
+		cl_command_queue commandQueue = deviceContext.getCommandQueue();
+
+		cl_mem memImage = pool.acquire(CL.CL_MEM_READ_WRITE, bytes);
+		cl_mem memResult = pool.acquire(CL.CL_MEM_READ_WRITE, bytes);
+
+		KernelLauncher best = new KernelLauncher(deviceContext, kernelName, 0, 0);
+		long bestTime = Long.MAX_VALUE;
+
+		try {
+			// The queue is shared with the device's other work, which would
+			// otherwise land between the timed launches
+			synchronized (deviceContext) {
+				for (int vectors : VECTORS_PER_ITEM) {
+					for (long local : LOCAL_SIZES) {
+						if (local > maxLocal) {
+							continue;
+						}
+
+						try {
+							KernelLauncher candidate = new KernelLauncher(deviceContext, kernelName, vectors, local);
+							long time = time(candidate, commandQueue, memImage, memResult, scalarArgs);
+
+							if (time < bestTime) {
+								best = candidate;
+								bestTime = time;
+							}
+						} catch (CLException e) {
+							// the device cannot run this shape, so it is skipped
+						}
+					}
+				}
+			}
+		} finally {
+			pool.release(memImage);
+			pool.release(memResult);
+		}
+
+		return best;
+	}
+
+	/**
+	 * Times one launch shape.
+	 * 
+	 * @param launcher
+	 *            The launcher.
+	 * @param commandQueue
+	 *            The command queue.
+	 * @param memImage
+	 *            The input buffer.
+	 * @param memResult
+	 *            The result buffer.
+	 * @param scalarArgs
+	 *            The int arguments to pass.
+	 * @return The fastest of the timed runs, in nanoseconds.
+	 */
+	private long time(KernelLauncher launcher, cl_command_queue commandQueue, cl_mem memImage, cl_mem memResult,
+			int[] scalarArgs) {
+		// The first run is a warm-up
+		launcher.launch(commandQueue, memImage, memResult, scalarArgs, TUNING_PIXELS, null, null);
+		CL.clFinish(commandQueue);
+
+		long best = Long.MAX_VALUE;
+
+		for (int run = 0; run < RUNS; run += 1) {
+			long start = System.nanoTime();
+
+			launcher.launch(commandQueue, memImage, memResult, scalarArgs, TUNING_PIXELS, null, null);
+			CL.clFinish(commandQueue);
+
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return best;
+	}
+
+	/**
+	 * Rebuilds a launcher from a saved winner.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param kernelName
+	 *            The name of the scalar kernel.
+	 * @param winner
+	 *            The saved "vectors,local" string, or null.
+	 * @return The launcher, or null if there is no usable saved winner.
+	 */
+	private static KernelLauncher load(DeviceContext deviceContext, String kernelName, String winner) {
+		if (winner == null) {
+			return null;
+		}
+
+		String[] parts = winner.split(",");
+
+		try {
+			return new KernelLauncher(deviceContext, kernelName, Integer.parseInt(parts[0].trim()),
+					Long.parseLong(parts[1].trim()));
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException | CLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the winners to the file.
+	 */
+	private void save() {
+		try {
+			File parent = file.getParentFile();
+
+			if (parent != null) {
+				parent.mkdirs();
+			}
+
+			try (OutputStream out = new FileOutputStream(file)) {
+				winners.store(out, "Fastest OpenCL launch shapes: vectors per work-item, local work size");
+			}
+		} catch (IOException e) {
+			// the winners are still kept in memory
+		}
+	}
+
+	/**
+	 * Gets the largest work-group size of a device.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @return The largest work-group size.
+	 */
+	private static long getMaxWorkGroupSize(DeviceContext deviceContext) {
+		long[] size = new long[1];
+		CL.clGetDeviceInfo(deviceContext.getDevice(), CL.CL_DEVICE_MAX_WORK_GROUP_SIZE, Sizeof.size_t,
+				Pointer.to(size), null);
+
+		return size[0];
+	}
+
+	/**
+	 * Makes the key for a kernel on a device.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param kernelName
+	 *            The name of the scalar kernel.
+	 * @return The key.
+	 */
+	private static String getKey(DeviceContext deviceContext, String kernelName) {
+		String name = ProgramCache.getDeviceString(deviceContext.getDevice(), CL.CL_DEVICE_NAME);
+		String driver = ProgramCache.getDeviceString(deviceContext.getDevice(), CL.CL_DRIVER_VERSION);
+
+		return (name + "|" + driver + "|" + kernelName).replace(' ', '_');
+	}
+}
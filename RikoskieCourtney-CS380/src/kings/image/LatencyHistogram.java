@@ -0,0 +1,209 @@
+package kings.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in microseconds that uses a fixed amount of memory.
+ * Values below 32 get a bucket each, and every power of two above that is split
+ * into 32 buckets, so a percentile is always within about 3% of the true value.
+ * Recording a value is lock-free.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-15-19
+ */
+public class LatencyHistogram {
+	/** The number of bits used to split each power of two. */
+	private static final int SUB_BUCKET_BITS = 5;
+	/** The number of buckets in each power of two. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** The highest power of two that is recorded, about 19 hours in microseconds. */
+	private static final int MAX_EXPONENT = 35;
+	/** The number of buckets. */
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	/** The number of values in each bucket. */
+	private final AtomicLongArray counts;
+	/** The number of values recorded. */
+	private final LongAdder count;
+	/** The sum of the values recorded, in microseconds. */
+	private final LongAdder sum;
+	/** The largest value recorded, in microseconds. */
+	private final AtomicLong max;
+
+	/**
+	 * Constructs an empty LatencyHistogram.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records one latency.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+
+		counts.incrementAndGet(getBucket(micros));
+		count.increment();
+		sum.add(micros);
+
+		long largest = max.get();
+
+		while (micros > largest && !max.compareAndSet(largest, micros)) {
+			largest = max.get();
+		}
+	}
+
+	/**
+	 * Takes a copy of the histogram. Values recorded while the copy is taken may
+	 * or may not be included.
+	 * 
+	 * @return The copy.
+	 */
+	public Snapshot getSnapshot() {
+		long[] copy = new long[BUCKETS];
+
+		for (int bucket = 0; bucket < BUCKETS; bucket += 1) {
+			copy[bucket] = counts.get(bucket);
+		}
+
+		return new Snapshot(copy, count.sum(), sum.sum(), max.get());
+	}
+
+	/**
+	 * Gets the bucket of a value.
+	 * 
+	 * @param micros
+	 *            The value in microseconds.
+	 * @return The index of the bucket.
+	 */
+	private static int getBucket(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+		int sub = (int) (Math.min(micros >>> (exponent - SUB_BUCKET_BITS), 2 * SUB_BUCKETS - 1) & (SUB_BUCKETS - 1));
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Gets the value that stands for a bucket, which is the middle of its range.
+	 * 
+	 * @param bucket
+	 *            The index of the bucket.
+	 * @return The value in microseconds.
+	 */
+	private static long getValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		long low = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+
+		return low + width / 2;
+	}
+
+	/**
+	 * A copy of a histogram at one moment.
+	 */
+	public static class Snapshot {
+		/** The number of values in each bucket. */
+		private final long[] counts;
+		/** The number of values. */
+		private final long count;
+		/** The sum of the values, in microseconds. */
+		private final long sum;
+		/** The largest value, in microseconds. */
+		private final long max;
+
+		/**
+		 * Constructs a Snapshot.
+		 * 
+		 * @param counts
+		 *            The number of values in each bucket.
+		 * @param count
+		 *            The number of values.
+		 * @param sum
+		 *            The sum of the values, in microseconds.
+		 * @param max
+		 *            The largest value, in microseconds.
+		 */
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * Gets the number of values.
+		 * 
+		 * @return The number of values.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the mean of the values.
+		 * 
+		 * @return The mean in microseconds, or 0 if there are no values.
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Gets the largest value.
+		 * 
+		 * @return The largest value in microseconds.
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Gets a percentile of the values.
+		 * 
+		 * @param percentile
+		 *            The percentile, such as 99.9.
+		 * @return The value in microseconds, or 0 if there are no values.
+		 */
+		public long getPercentile(double percentile) {
+			long total = 0;
+
+			for (long bucketCount : counts) {
+				total += bucketCount;
+			}
+
+			if (total == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+			long seen = 0;
+
+			for (int bucket = 0; bucket < counts.length; bucket += 1) {
+				seen += counts[bucket];
+
+				if (seen >= rank) {
+					return Math.min(getValue(bucket), max);
+				}
+			}
+
+			return max;
+		}
+	}
+}
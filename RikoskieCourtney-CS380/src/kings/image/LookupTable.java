@@ -0,0 +1,300 @@
+package kings.image;
+
+/**
+ * A point operation stored as one 256-entry table per color channel. Every
+ * operation that maps each channel value on its own (brightness, contrast,
+ * gamma, levels, invert, threshold) can be precomputed into a table, and a
+ * chain of tables can be composed into a single table so that a chain of any
+ * length costs one lookup per channel. The alpha value is never changed.
+ *
+ * @author Courtney Rikoskie
+ * @version 10-17-19
+ */
+public final class LookupTable {
+	/** The number of entries in one channel table. */
+	public static final int SIZE = PixelOps.CHANNEL_MAX + 1;
+
+	/** The red table. */
+	private final int[] red;
+	/** The green table. */
+	private final int[] green;
+	/** The blue table. */
+	private final int[] blue;
+
+	/**
+	 * Constructs a LookupTable from the channel tables. The tables are not copied.
+	 *
+	 * @param red
+	 *            The red table.
+	 * @param green
+	 *            The green table.
+	 * @param blue
+	 *            The blue table.
+	 */
+	private LookupTable(int[] red, int[] green, int[] blue) {
+		this.red = red;
+		this.green = green;
+		this.blue = blue;
+	}
+
+	/**
+	 * Creates a table that uses the same mapping for every channel.
+	 *
+	 * @param table
+	 *            The 256 channel values. Values outside 0 through 255 are clamped.
+	 * @return The lookup table.
+	 */
+	public static LookupTable of(int[] table) {
+		int[] channel = checked(table);
+
+		return new LookupTable(channel, channel, channel);
+	}
+
+	/**
+	 * Creates a table with a separate mapping for each channel.
+	 *
+	 * @param red
+	 *            The 256 red values.
+	 * @param green
+	 *            The 256 green values.
+	 * @param blue
+	 *            The 256 blue values.
+	 * @return The lookup table.
+	 */
+	public static LookupTable of(int[] red, int[] green, int[] blue) {
+		return new LookupTable(checked(red), checked(green), checked(blue));
+	}
+
+	/**
+	 * Creates a table that leaves every pixel unchanged.
+	 *
+	 * @return The lookup table.
+	 */
+	public static LookupTable identity() {
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			table[value] = value;
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Creates a table that adds an offset to every channel.
+	 *
+	 * @param offset
+	 *            The amount to add, which may be negative.
+	 * @return The lookup table.
+	 */
+	public static LookupTable brightness(int offset) {
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			table[value] = value + offset;
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Creates a table that scales every channel away from or towards the middle
+	 * value.
+	 *
+	 * @param factor
+	 *            The contrast factor. 1 leaves the image unchanged.
+	 * @return The lookup table.
+	 */
+	public static LookupTable contrast(double factor) {
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			table[value] = (int) Math.round((value - 128) * factor + 128);
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Creates a table that applies gamma correction to every channel.
+	 *
+	 * @param gamma
+	 *            The gamma. 1 leaves the image unchanged.
+	 * @return The lookup table.
+	 */
+	public static LookupTable gamma(double gamma) {
+		if (gamma <= 0) {
+			throw new IllegalArgumentException("Gamma must be positive: " + gamma);
+		}
+
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			double normalized = value / (double) PixelOps.CHANNEL_MAX;
+			table[value] = (int) Math.round(Math.pow(normalized, 1 / gamma) * PixelOps.CHANNEL_MAX);
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Creates a table that stretches the given input range to the full range.
+	 *
+	 * @param low
+	 *            The input value that becomes 0.
+	 * @param high
+	 *            The input value that becomes 255.
+	 * @return The lookup table.
+	 */
+	public static LookupTable levels(int low, int high) {
+		if (high <= low) {
+			throw new IllegalArgumentException("Levels need low < high: " + low + ", " + high);
+		}
+
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			table[value] = (int) Math.round((value - low) * PixelOps.CHANNEL_MAX / (double) (high - low));
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Creates a table that inverts every channel.
+	 *
+	 * @return The lookup table.
+	 */
+	public static LookupTable invert() {
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			table[value] = PixelOps.CHANNEL_MAX - value;
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Creates a table that turns every channel fully on or fully off.
+	 *
+	 * @param level
+	 *            The lowest value that is turned on.
+	 * @return The lookup table.
+	 */
+	public static LookupTable threshold(int level) {
+		int[] table = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			table[value] = value >= level ? PixelOps.CHANNEL_MAX : 0;
+		}
+
+		return of(table);
+	}
+
+	/**
+	 * Composes this table with the next one into a single table that has the
+	 * same effect as applying this table and then the next.
+	 *
+	 * @param next
+	 *            The table to apply after this one.
+	 * @return The composed table.
+	 */
+	public LookupTable then(LookupTable next) {
+		int[] newRed = new int[SIZE];
+		int[] newGreen = new int[SIZE];
+		int[] newBlue = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			newRed[value] = next.red[red[value]];
+			newGreen[value] = next.green[green[value]];
+			newBlue[value] = next.blue[blue[value]];
+		}
+
+		return new LookupTable(newRed, newGreen, newBlue);
+	}
+
+	/**
+	 * Maps a red value through the table.
+	 *
+	 * @param value
+	 *            The red value.
+	 * @return The new red value.
+	 */
+	public int red(int value) {
+		return red[value];
+	}
+
+	/**
+	 * Maps a green value through the table.
+	 *
+	 * @param value
+	 *            The green value.
+	 * @return The new green value.
+	 */
+	public int green(int value) {
+		return green[value];
+	}
+
+	/**
+	 * Maps a blue value through the table.
+	 *
+	 * @param value
+	 *            The blue value.
+	 * @return The new blue value.
+	 */
+	public int blue(int value) {
+		return blue[value];
+	}
+
+	/**
+	 * Applies the table to one pixel.
+	 *
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The new pixel color information.
+	 */
+	public int apply(int pixel) {
+		return PixelOps.withRGB(pixel, red[PixelOps.red(pixel)], green[PixelOps.green(pixel)],
+				blue[PixelOps.blue(pixel)]);
+	}
+
+	/**
+	 * Applies the table to a range of pixels.
+	 *
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	public void apply(int[] input, int[] output, int start, int end) {
+		for (int index = start; index < end; index += 1) {
+			output[index] = apply(input[index]);
+		}
+	}
+
+	/**
+	 * Copies a channel table, clamping every entry.
+	 *
+	 * @param table
+	 *            The channel table.
+	 * @return The clamped copy.
+	 */
+	private static int[] checked(int[] table) {
+		if (table.length != SIZE) {
+			throw new IllegalArgumentException("A channel table needs " + SIZE + " entries, not " + table.length);
+		}
+
+		int[] copy = new int[SIZE];
+
+		for (int value = 0; value < SIZE; value += 1) {
+			copy[value] = PixelOps.clamp(table[value]);
+		}
+
+		return copy;
+	}
+}
@@ -1,5 +1,8 @@
 package kings.image;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * An image processing program.
  * 
@@ -7,12 +10,35 @@ package kings.image;
  * @version 09-03-19
  */
 public class Main {
+	/** The number of seconds between metrics snapshots. */
+	private static final long METRICS_PERIOD = 10;
+
 	/**
-	 * An image processing program.
+	 * An image processing program. With "--batch" as the first argument, a folder
+	 * of images is processed without the GUI, and with "--tiled", one large image
+	 * is processed tile by tile.
 	 * 
-	 * @param args Unused.
+	 * @param args
+	 *            Either nothing, to open the GUI, or the batch arguments
+	 *            described by {@link BatchCommand#USAGE}.
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0 && (args[0].equals("--batch") || args[0].equals("--tiled"))) {
+			System.exit(BatchCommand.run(args));
+		}
+
+		MetricsExporter exporter = new MetricsExporter(MetricsRegistry.getDefault(),
+				new File(System.getProperty("user.home"), ".kings-image" + File.separator + "metrics.csv"));
+		exporter.start(METRICS_PERIOD);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				exporter.close();
+			} catch (IOException e) {
+				// the metrics of this run are lost
+			}
+		}));
+
 		new ImageGUI();
 	}
 }
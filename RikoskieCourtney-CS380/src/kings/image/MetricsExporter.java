@@ -0,0 +1,237 @@
+package kings.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes snapshots of a metrics registry to a CSV or JSON file on a
+ * background thread, so the image processors never wait on the disk. The
+ * format comes from the file's extension: .json for JSON and anything else for
+ * CSV. Each snapshot replaces the file.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-15-19
+ */
+public class MetricsExporter {
+	/** The percentiles written for each histogram. */
+	private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+	/** The registry to export. */
+	private final MetricsRegistry registry;
+	/** The file to write. */
+	private final File file;
+	/** The thread that writes the snapshots, or null if not started. */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Constructs a MetricsExporter.
+	 * 
+	 * @param registry
+	 *            The registry to export.
+	 * @param file
+	 *            The file to write.
+	 */
+	public MetricsExporter(MetricsRegistry registry, File file) {
+		this.registry = registry;
+		this.file = file;
+	}
+
+	/**
+	 * Starts writing a snapshot every period.
+	 * 
+	 * @param periodSeconds
+	 *            The number of seconds between snapshots.
+	 */
+	public synchronized void start(long periodSeconds) {
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Metrics exporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				flush();
+			} catch (IOException e) {
+				// the next snapshot tries again
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the background thread and writes a last snapshot.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file cannot be written.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdown();
+				scheduler = null;
+			}
+		}
+
+		flush();
+	}
+
+	/**
+	 * Writes a snapshot now. The snapshot is written to a temporary file first
+	 * so a reader never sees a half-written file.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file cannot be written.
+	 */
+	public synchronized void flush() throws IOException {
+		String text = file.getName().toLowerCase(Locale.ROOT).endsWith(".json") ? toJson() : toCsv();
+
+		Path folder = file.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(folder);
+
+		Path temp = BatchPipeline.createTempFile(folder, "metrics");
+
+		try {
+			Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+			BatchPipeline.moveIntoPlace(temp, file.toPath());
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Writes the registry as CSV, one row per counter or histogram.
+	 * 
+	 * @return The CSV text.
+	 */
+	public String toCsv() {
+		StringBuilder csv = new StringBuilder(
+				"metric,algorithm,device,size,count,mean_us,p50_us,p99_us,p999_us,max_us\n");
+
+		for (Map.Entry<MetricsRegistry.Key, LongAdder> entry : registry.getCounters().entrySet()) {
+			appendCsvKey(csv, entry.getKey());
+			csv.append(entry.getValue().sum()).append(",,,,,\n");
+		}
+
+		for (Map.Entry<MetricsRegistry.Key, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+			LatencyHistogram.Snapshot snapshot = entry.getValue().getSnapshot();
+
+			appendCsvKey(csv, entry.getKey());
+			csv.append(snapshot.getCount()).append(',');
+			csv.append(String.format(Locale.ROOT, "%.1f", snapshot.getMean()));
+
+			for (double percentile : PERCENTILES) {
+				csv.append(',').append(snapshot.getPercentile(percentile));
+			}
+
+			csv.append(',').append(snapshot.getMax()).append('\n');
+		}
+
+		return csv.toString();
+	}
+
+	/**
+	 * Writes the registry as JSON, with a list of counters and a list of
+	 * histograms.
+	 * 
+	 * @return The JSON text.
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n  \"counters\": [");
+		String separator = "\n";
+
+		for (Map.Entry<MetricsRegistry.Key, LongAdder> entry : registry.getCounters().entrySet()) {
+			json.append(separator).append("    {");
+			appendJsonKey(json, entry.getKey());
+			json.append(", \"value\": ").append(entry.getValue().sum()).append('}');
+			separator = ",\n";
+		}
+
+		json.append("\n  ],\n  \"histograms\": [");
+		separator = "\n";
+
+		for (Map.Entry<MetricsRegistry.Key, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+			LatencyHistogram.Snapshot snapshot = entry.getValue().getSnapshot();
+
+			json.append(separator).append("    {");
+			appendJsonKey(json, entry.getKey());
+			json.append(", \"count\": ").append(snapshot.getCount());
+			json.append(String.format(Locale.ROOT, ", \"mean_us\": %.1f", snapshot.getMean()));
+			json.append(", \"p50_us\": ").append(snapshot.getPercentile(50));
+			json.append(", \"p99_us\": ").append(snapshot.getPercentile(99));
+			json.append(", \"p999_us\": ").append(snapshot.getPercentile(99.9));
+			json.append(", \"max_us\": ").append(snapshot.getMax()).append('}');
+			separator = ",\n";
+		}
+
+		return json.append("\n  ]\n}\n").toString();
+	}
+
+	/**
+	 * Writes the name and tags of a key as the first CSV columns.
+	 * 
+	 * @param csv
+	 *            The CSV text.
+	 * @param key
+	 *            The key.
+	 */
+	private static void appendCsvKey(StringBuilder csv, MetricsRegistry.Key key) {
+		for (String value : new String[] { key.getName(), key.getAlgorithm(), key.getDevice(), key.getSize() }) {
+			if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+				value = '"' + value.replace("\"", "\"\"") + '"';
+			}
+
+			csv.append(value).append(',');
+		}
+	}
+
+	/**
+	 * Writes the name and tags of a key as JSON fields.
+	 * 
+	 * @param json
+	 *            The JSON text.
+	 * @param key
+	 *            The key.
+	 */
+	private static void appendJsonKey(StringBuilder json, MetricsRegistry.Key key) {
+		json.append("\"metric\": ").append(quote(key.getName()));
+		json.append(", \"algorithm\": ").append(quote(key.getAlgorithm()));
+		json.append(", \"device\": ").append(quote(key.getDevice()));
+		json.append(", \"size\": ").append(quote(key.getSize()));
+	}
+
+	/**
+	 * Quotes a string for JSON.
+	 * 
+	 * @param value
+	 *            The string.
+	 * @return The quoted string.
+	 */
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+
+		return quoted.append('"').toString();
+	}
+}
@@ -0,0 +1,216 @@
+package kings.image;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the image processors, tagged by
+ * algorithm, device and image size. Recording is lock-free and never touches
+ * the disk; a MetricsExporter writes the values out on its own thread.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-15-19
+ */
+public class MetricsRegistry {
+	/** The name of the latency histograms of whole runs. */
+	public static final String LATENCY = "latency";
+	/** The name of the counters of images processed. */
+	public static final String IMAGES = "images";
+	/** The name of the counters of pixels processed. */
+	public static final String PIXELS = "pixels";
+	/** The name of the counters of results found in a result cache. */
+	public static final String CACHE_HITS = "cache_hits";
+	/** The name of the counters of results not found in a result cache. */
+	public static final String CACHE_MISSES = "cache_misses";
+
+	/** The registry the image processors report to. */
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	/** The counters, by key. */
+	private final Map<Key, LongAdder> counters;
+	/** The histograms, by key. */
+	private final Map<Key, LatencyHistogram> histograms;
+
+	/**
+	 * Constructs an empty MetricsRegistry.
+	 */
+	public MetricsRegistry() {
+		counters = new ConcurrentHashMap<Key, LongAdder>();
+		histograms = new ConcurrentHashMap<Key, LatencyHistogram>();
+	}
+
+	/**
+	 * Gets the registry the image processors report to.
+	 * 
+	 * @return The default registry.
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Records one run of an algorithm.
+	 * 
+	 * @param algorithm
+	 *            The algorithm, such as "Sepia".
+	 * @param device
+	 *            The device it ran on.
+	 * @param pixels
+	 *            The number of pixels in the image.
+	 * @param nanos
+	 *            The time the run took, in nanoseconds.
+	 */
+	public void recordRun(String algorithm, String device, long pixels, long nanos) {
+		Key key = new Key(LATENCY, algorithm, device, getSizeTag(pixels));
+
+		getHistogram(key).record(nanos);
+		getCounter(new Key(IMAGES, algorithm, device, key.size)).increment();
+		getCounter(new Key(PIXELS, algorithm, device, key.size)).add(pixels);
+	}
+
+	/**
+	 * Gets a counter, creating it the first time it is asked for.
+	 * 
+	 * @param key
+	 *            The key of the counter.
+	 * @return The counter.
+	 */
+	public LongAdder getCounter(Key key) {
+		return counters.computeIfAbsent(key, k -> new LongAdder());
+	}
+
+	/**
+	 * Gets a histogram, creating it the first time it is asked for.
+	 * 
+	 * @param key
+	 *            The key of the histogram.
+	 * @return The histogram.
+	 */
+	public LatencyHistogram getHistogram(Key key) {
+		return histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+	}
+
+	/**
+	 * Gets every counter.
+	 * 
+	 * @return The counters, by key.
+	 */
+	public Map<Key, LongAdder> getCounters() {
+		return Collections.unmodifiableMap(counters);
+	}
+
+	/**
+	 * Gets every histogram.
+	 * 
+	 * @return The histograms, by key.
+	 */
+	public Map<Key, LatencyHistogram> getHistograms() {
+		return Collections.unmodifiableMap(histograms);
+	}
+
+	/**
+	 * Gets the size tag for an image, rounded down to a power of two megapixels
+	 * so the number of tags stays small.
+	 * 
+	 * @param pixels
+	 *            The number of pixels.
+	 * @return The tag, such as "<1MP" or "4MP".
+	 */
+	public static String getSizeTag(long pixels) {
+		long megapixels = pixels / 1000000;
+
+		if (megapixels < 1) {
+			return "<1MP";
+		}
+
+		return Long.highestOneBit(megapixels) + "MP";
+	}
+
+	/**
+	 * The name and tags of a counter or histogram.
+	 */
+	public static final class Key {
+		/** The name. */
+		private final String name;
+		/** The algorithm tag. */
+		private final String algorithm;
+		/** The device tag. */
+		private final String device;
+		/** The image size tag. */
+		private final String size;
+
+		/**
+		 * Constructs a Key.
+		 * 
+		 * @param name
+		 *            The name.
+		 * @param algorithm
+		 *            The algorithm tag.
+		 * @param device
+		 *            The device tag.
+		 * @param size
+		 *            The image size tag.
+		 */
+		public Key(String name, String algorithm, String device, String size) {
+			this.name = name;
+			this.algorithm = algorithm;
+			this.device = device;
+			this.size = size;
+		}
+
+		/**
+		 * Gets the name.
+		 * 
+		 * @return The name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the algorithm tag.
+		 * 
+		 * @return The algorithm.
+		 */
+		public String getAlgorithm() {
+			return algorithm;
+		}
+
+		/**
+		 * Gets the device tag.
+		 * 
+		 * @return The device.
+		 */
+		public String getDevice() {
+			return device;
+		}
+
+		/**
+		 * Gets the image size tag.
+		 * 
+		 * @return The size.
+		 */
+		public String getSize() {
+			return size;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+
+			Key key = (Key) other;
+
+			return name.equals(key.name) && algorithm.equals(key.algorithm) && device.equals(key.device)
+					&& size.equals(key.size);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((name.hashCode() * 31 + algorithm.hashCode()) * 31 + device.hashCode()) * 31 + size.hashCode();
+		}
+	}
+}
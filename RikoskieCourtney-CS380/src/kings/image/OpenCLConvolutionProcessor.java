@@ -0,0 +1,272 @@
+package kings.image;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+
+/**
+ * Neighborhood filters on an OpenCL device. Each work-group copies its tile of
+ * the image, and the halo around it, into local memory once, so the many reads
+ * of each pixel by its neighbors never go back to global memory. Separable
+ * blur kernels run as a row pass and a column pass. Kernels wider than
+ * BOX_BLUR_RADIUS and the box blur passes stay on the CPU, where their running
+ * sums cost the same for any radius.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-09-19
+ */
+public class OpenCLConvolutionProcessor extends ConvolutionProcessor {
+	/** The name of the convolution kernel. */
+	public static final String CONVOLUTION_KERNEL = "convolution_kernel";
+	/** The name of the Sobel kernel. */
+	public static final String SOBEL_KERNEL = "sobel_kernel";
+	/** The width of the tile of one work-group. */
+	public static final int TILE_WIDTH = 16;
+	/** The height of the tile of one work-group. */
+	public static final int TILE_HEIGHT = 16;
+
+	/** The OpenCL image processor, which owns the devices. */
+	private final ParallelImageProcessor parallel;
+	/** The index of the device to use. */
+	private volatile int deviceIndex;
+
+	/**
+	 * Constructs an OpenCLConvolutionProcessor on the first device.
+	 * 
+	 * @param parallel
+	 *            The OpenCL image processor, which owns the devices.
+	 */
+	public OpenCLConvolutionProcessor(ParallelImageProcessor parallel) {
+		this.parallel = parallel;
+		deviceIndex = 0;
+	}
+
+	/**
+	 * Convolves an image with a kernel on the device. A separable kernel whose
+	 * factors have no negative weights and add up to at most one runs as two
+	 * passes, with each pass rounded to a pixel; any other kernel runs in one
+	 * pass.
+	 * 
+	 * @param kernel
+	 *            The kernel.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	@Override
+	public void convolve(ConvolutionKernel kernel, int[] input, int[] output, int width, int height) {
+		checkSize(input, output, width, height);
+
+		int radiusX = kernel.getRadiusX();
+		int radiusY = kernel.getRadiusY();
+
+		if (radiusX > BOX_BLUR_RADIUS || radiusY > BOX_BLUR_RADIUS) {
+			super.convolve(kernel, input, output, width, height);
+			return;
+		}
+
+		DeviceContext deviceContext = parallel.getDeviceContext(deviceIndex);
+
+		if (kernel.isSeparable() && isAveraging(kernel.getRow()) && isAveraging(kernel.getColumn())) {
+			run(deviceContext, new cl_kernel[] { getKernel(deviceContext, radiusX, 0), getKernel(deviceContext, 0,
+					radiusY) }, new float[][] { kernel.getRow(), kernel.getColumn() }, input, output, width, height);
+		} else {
+			run(deviceContext, new cl_kernel[] { getKernel(deviceContext, radiusX, radiusY) },
+					new float[][] { kernel.getWeights() }, input, output, width, height);
+		}
+	}
+
+	/**
+	 * Finds the edges of an image with the Sobel operator on the device.
+	 * 
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	@Override
+	public void detectEdges(int[] input, int[] output, int width, int height) {
+		checkSize(input, output, width, height);
+
+		DeviceContext deviceContext = parallel.getDeviceContext(deviceIndex);
+
+		run(deviceContext, new cl_kernel[] { deviceContext.getKernel(SOBEL_KERNEL) }, new float[][] { null }, input,
+				output, width, height);
+	}
+
+	/**
+	 * Runs kernels one after another over an image on the device, each reading
+	 * the result of the one before.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param kernels
+	 *            The kernels.
+	 * @param weights
+	 *            The weights for each kernel, or null for a kernel that takes
+	 *            none.
+	 * @param input
+	 *            The pixel data of the input image, row by row.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	private static void run(DeviceContext deviceContext, cl_kernel[] kernels, float[][] weights, int[] input,
+			int[] output, int width, int height) {
+		long bytes = (long) Sizeof.cl_int * width * height;
+
+		synchronized (deviceContext) {
+			cl_command_queue commandQueue = deviceContext.getCommandQueue();
+			BufferPool pool = deviceContext.getBufferPool();
+
+			cl_mem[] images = { pool.acquire(CL.CL_MEM_READ_WRITE, bytes), pool.acquire(CL.CL_MEM_READ_WRITE, bytes) };
+			cl_mem[] weightBuffers = new cl_mem[kernels.length];
+			try {
+				CL.clEnqueueWriteBuffer(commandQueue, images[0], CL.CL_TRUE, 0, bytes, Pointer.to(input), 0, null,
+						null);
+
+				for (int pass = 0; pass < kernels.length; pass += 1) {
+					if (weights[pass] != null) {
+						long weightBytes = (long) Sizeof.cl_float * weights[pass].length;
+
+						weightBuffers[pass] = pool.acquire(CL.CL_MEM_READ_ONLY, weightBytes);
+						CL.clEnqueueWriteBuffer(commandQueue, weightBuffers[pass], CL.CL_TRUE, 0, weightBytes,
+								Pointer.to(weights[pass]), 0, null, null);
+					}
+
+					enqueue(commandQueue, kernels[pass], images[pass % 2], images[(pass + 1) % 2],
+							weightBuffers[pass], width, height);
+				}
+
+				CL.clEnqueueReadBuffer(commandQueue, images[kernels.length % 2], CL.CL_TRUE, 0, bytes,
+						Pointer.to(output), 0, null, null);
+			} finally {
+				pool.release(images[0]);
+				pool.release(images[1]);
+
+				for (cl_mem buffer : weightBuffers) {
+					if (buffer != null) {
+						pool.release(buffer);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Launches a kernel over every pixel, one work-group per tile.
+	 * 
+	 * @param commandQueue
+	 *            The command queue.
+	 * @param kernel
+	 *            The kernel.
+	 * @param memImage
+	 *            The input pixels.
+	 * @param memResult
+	 *            The buffer to store the result pixels in.
+	 * @param memWeights
+	 *            The weights, or null if the kernel takes none.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 */
+	private static void enqueue(cl_command_queue commandQueue, cl_kernel kernel, cl_mem memImage, cl_mem memResult,
+			cl_mem memWeights, int width, int height) {
+		long[] global = { (width + TILE_WIDTH - 1) / TILE_WIDTH * (long) TILE_WIDTH,
+				(height + TILE_HEIGHT - 1) / TILE_HEIGHT * (long) TILE_HEIGHT };
+		int arg = 0;
+
+		// The kernel may be shared with other threads
+		synchronized (kernel) {
+			CL.clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(memImage));
+			CL.clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(memResult));
+
+			if (memWeights != null) {
+				CL.clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(memWeights));
+			}
+
+			CL.clSetKernelArg(kernel, arg++, Sizeof.cl_int, Pointer.to(new int[] { width }));
+			CL.clSetKernelArg(kernel, arg, Sizeof.cl_int, Pointer.to(new int[] { height }));
+
+			CL.clEnqueueNDRangeKernel(commandQueue, kernel, 2, null, global, new long[] { TILE_WIDTH, TILE_HEIGHT },
+					0, null, null);
+		}
+	}
+
+	/**
+	 * Gets the convolution kernel built for a kernel size. The size is built
+	 * in, so the loops over the weights can be unrolled and the local tile has
+	 * a fixed size.
+	 * 
+	 * @param deviceContext
+	 *            The device.
+	 * @param radiusX
+	 *            The number of columns on each side of the center.
+	 * @param radiusY
+	 *            The number of rows on each side of the center.
+	 * @return The kernel.
+	 */
+	private static cl_kernel getKernel(DeviceContext deviceContext, int radiusX, int radiusY) {
+		return deviceContext.getKernel(CONVOLUTION_KERNEL, "-D RADIUS_X=" + radiusX + " -D RADIUS_Y=" + radiusY
+				+ " -D TILE_WIDTH=" + TILE_WIDTH + " -D TILE_HEIGHT=" + TILE_HEIGHT);
+	}
+
+	/**
+	 * Tells whether a kernel factor keeps every pass within the range of a
+	 * channel, so rounding between the passes loses at most half a level.
+	 * 
+	 * @param factor
+	 *            The row or column factor.
+	 * @return True if no weight is negative and the weights add up to at most
+	 *         one.
+	 */
+	private static boolean isAveraging(float[] factor) {
+		float total = 0;
+
+		for (float weight : factor) {
+			if (weight < 0) {
+				return false;
+			}
+
+			total += weight;
+		}
+
+		return total <= 1.0001f;
+	}
+
+	/**
+	 * Sets the device to use.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 */
+	public void setDeviceID(int index) {
+		deviceIndex = index;
+	}
+
+	/**
+	 * Gets the name of the device the filters run on, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	@Override
+	public String getDeviceName() {
+		return parallel.getDeviceNames()[deviceIndex];
+	}
+}
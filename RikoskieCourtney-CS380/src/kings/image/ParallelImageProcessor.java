@@ -1,54 +1,124 @@
 package kings.image;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.jocl.CL;
+import org.jocl.CLException;
 import org.jocl.Pointer;
 import org.jocl.Sizeof;
 import org.jocl.cl_command_queue;
-import org.jocl.cl_context;
-import org.jocl.cl_context_properties;
 import org.jocl.cl_device_id;
 import org.jocl.cl_kernel;
 import org.jocl.cl_mem;
-import org.jocl.cl_platform_id;
-import org.jocl.cl_program;
 
+/**
+ * Algorithms for processing images with OpenCL. Each device keeps one context,
+ * command queue and set of built kernels for as long as the processor lives,
+ * and every kernel is built in the background as soon as the processor is
+ * created.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-21-19
+ */
 public class ParallelImageProcessor {
-	/** The platform index. */
-	final int platformIndex = 0;
+	/** The names of every kernel, which are also the names of their source files. */
+	private static final String[] KERNELS = { "grayscale_kernel", "sepia_kernel" };
+	/** The vectors per work-item of the vector kernels that are built in the background. */
+	private static final int[] PREBUILT_VECTORS_PER_ITEM = { 1, 2, 4, 8 };
+	/** The most pixels sent to a device at once, 128 MB, the smallest maximum allocation OpenCL allows. */
+	private static final int MAX_TRANSFER_PIXELS = 1 << 25;
+	/** The name of the kernel that counts histograms. */
+	private static final String HISTOGRAM_KERNEL = "histogram_kernel";
+	/** The number of work-items in one work-group of the histogram kernels. */
+	private static final int HISTOGRAM_LOCAL_SIZE = 256;
+	/** The most work-groups the histogram kernels are launched with, each merging its histograms once. */
+	private static final int HISTOGRAM_GROUPS = 64;
+
 	/** The device type. */
 	final long deviceType = CL.CL_DEVICE_TYPE_ALL;
 
 	/** The device index. */
 	private int deviceIndex;
-	/** The platform id. */
-	private cl_platform_id platform;
+	/** The names of the devices. */
+	private String[] deviceNames;
+	/** The devices on every platform. */
+	private DeviceManager deviceManager;
 	/** The pixel data of the result image. */
 	private int[] resultImage;
+	/** The sepia depth and intensity passed to the sepia kernel, replaced together and never changed. */
+	private volatile int[] sepia;
+	/** Whether host-allocated, mapped buffers are used on devices that share host memory. */
+	private boolean zeroCopy;
+	/** The cache consulted before an algorithm runs, or null. */
+	private volatile ResultCache resultCache;
 
-	/** The kernel. */
-	private cl_kernel kernel;
-	/** The program. */
-	private cl_program program;
+	/** The device ids. */
+	private cl_device_id[] devices;
+	/** The long-lived context of each device, created when first needed. */
+	private DeviceContext[] contexts;
+	/** The asynchronous pipeline of each device, created when first needed. */
+	private AsyncPipeline[] pipelines;
+	/** The number of images in flight in each pipeline. */
+	private int pipelineDepth;
+	/** The cache that builds programs. */
+	private ProgramCache programCache;
+	/** The tuner that chooses the launch shape of each kernel. */
+	private KernelTuner tuner;
+	/** The thread that builds the kernels in the background. */
+	private ExecutorService prebuilder;
 
 	/**
-	 * Constructs a ParallelImageProcessor. Sets the platform id, allowing image to
-	 * be edited in parallel.
+	 * Constructs a ParallelImageProcessor that uses every device on every
+	 * platform, allowing image to be edited in parallel.
 	 */
 	public ParallelImageProcessor() {
+		this(new DeviceManager());
+	}
+
+	/**
+	 * Constructs a ParallelImageProcessor that uses the devices of a device
+	 * manager. The processor releases the manager when it is released.
+	 * 
+	 * @param deviceManager
+	 *            The devices to use.
+	 */
+	public ParallelImageProcessor(DeviceManager deviceManager) {
 		CL.setExceptionsEnabled(true);
 
 		deviceIndex = 0;
-		platform = getPlatformID();
+		this.deviceManager = deviceManager;
+		devices = new cl_device_id[deviceManager.getDeviceCount()];
+		deviceNames = new String[devices.length];
+
+		for (int index = 0; index < devices.length; index += 1) {
+			devices[index] = deviceManager.getDevice(index);
+			deviceNames[index] = deviceManager.getName(index);
+		}
 
-		kernel = null;
-		program = null;
+		contexts = new DeviceContext[devices.length];
+		pipelines = new AsyncPipeline[devices.length];
+		pipelineDepth = AsyncPipeline.DEFAULT_DEPTH;
+		programCache = new ProgramCache();
+		tuner = new KernelTuner();
 
 		resultImage = null;
+
+		sepia = new int[] { ImageProcessor.SEPIA_DEPTH, ImageProcessor.SEPIA_INTENSITY };
+		zeroCopy = true;
+
+		prebuilder = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "OpenCL kernel prebuild");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		prebuilder.execute(this::prebuildKernels);
+		prebuilder.shutdown();
 	}
 
 	/**
@@ -58,267 +128,989 @@ public class ParallelImageProcessor {
 	 *            The name of the image processing algorithm to run.
 	 * @param image
 	 *            The pixel data of the input image.
-	 * @throws IOException
-	 *             Thrown if ReadMe file cannot be written to.
 	 */
-	public void runAlgorithm(String algorithm, int[] image) throws IOException {
+	public void runAlgorithm(String algorithm, int[] image) {
 		resultImage = new int[image.length];
 
-		cl_context_properties contextProperties = new cl_context_properties();
-		contextProperties.addProperty(CL.CL_CONTEXT_PLATFORM, platform);
+		runAlgorithm(algorithm, image, resultImage);
+	}
+
+	/**
+	 * Executes the given algorithm in parallel, writing the result straight into
+	 * the given array, such as the data buffer of the result image. The device
+	 * buffers come from the device's buffer pool. On devices that share memory
+	 * with the host, the buffers are allocated in host memory and mapped, so
+	 * the device needs no transfer of its own, though the pixels are still
+	 * copied between the array and the mapped memory. The time the
+	 * transfers and kernels took is recorded in the default metrics registry.
+	 * If a result cache is set, a cached result is copied instead.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void runAlgorithm(String algorithm, int[] input, int[] output) {
+		ResultCache cache = resultCache;
 
-		cl_device_id device = getDeviceID();
+		if (cache == null) {
+			compute(algorithm, input, output);
+		} else {
+			int[] current = sepia;
+			String parameters = algorithm.equals("Sepia") ? "depth=" + current[0] + ",intensity=" + current[1] : "";
 
-		cl_context context = CL.clCreateContext(contextProperties, 1, new cl_device_id[] { device }, null, null, null);
+			cache.process(algorithm, parameters, getBackendVersion(), input, output,
+					(in, out) -> compute(algorithm, in, out));
+		}
+	}
+
+	/**
+	 * Executes the given algorithm on the current device without the result
+	 * cache, for callers that time the run themselves, and records the time it
+	 * took in the default metrics registry.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	void compute(String algorithm, int[] input, int[] output) {
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			long start = System.nanoTime();
+			FilterChain chain = getStatistics(input).toChain(algorithm);
+
+			run(deviceIndex, getChainLauncher(deviceIndex, chain), new int[0], ImageBuffers.wrap(input),
+					ImageBuffers.wrap(output), 0, input.length);
+
+			MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.length, System.nanoTime() - start);
+			return;
+		}
+
+		String kernelName = decideAlgorithm(algorithm);
+		int[] kernelArgs = getKernelArgs(kernelName);
+		KernelLauncher launcher = tuner.getLauncher(getDeviceContext(deviceIndex), kernelName, kernelArgs);
+
+		long nanos = run(deviceIndex, launcher, kernelArgs, ImageBuffers.wrap(input), ImageBuffers.wrap(output), 0,
+				input.length);
+
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.length, nanos);
+	}
+
+	/**
+	 * Runs a filter chain on the current device as one generated kernel, so the
+	 * image is uploaded, read and written once no matter how long the chain is.
+	 * The generated kernel is built once for each distinct chain, and the time
+	 * the transfers and kernel took is recorded in the default metrics registry.
+	 * If a result cache is set, a cached result is copied instead.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, int[] input, int[] output) {
+		ResultCache cache = resultCache;
 
-		cl_command_queue commandQueue = CL.clCreateCommandQueue(context, device, 0, null);
+		if (cache == null) {
+			compute(chain, input, output);
+		} else {
+			cache.process(FilterChain.ALGORITHM, chain.toOpenCL(), getBackendVersion(), input, output,
+					(in, out) -> compute(chain, in, out));
+		}
+	}
 
-		Pointer ptrImage = Pointer.to(image);
+	/**
+	 * Runs a filter chain on the current device without the result cache, for
+	 * callers that time the run themselves.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 */
+	void compute(FilterChain chain, int[] input, int[] output) {
+		long nanos = run(deviceIndex, getChainLauncher(deviceIndex, chain), new int[0], ImageBuffers.wrap(input),
+				ImageBuffers.wrap(output), 0, input.length);
 
-		cl_mem memImage = CL.clCreateBuffer(context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR,
-				Sizeof.cl_int * image.length, ptrImage, null);
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.length, nanos);
+	}
 
-		cl_mem memResult = CL.clCreateBuffer(context, CL.CL_MEM_READ_WRITE, Sizeof.cl_float * image.length, null, null);
+	/**
+	 * Counts the histograms of the pixel data on the current device and
+	 * records the time it took in the default metrics registry. Each
+	 * work-group counts into histograms in local memory, which are added to
+	 * the histograms of the image once at the end.
+	 * 
+	 * @param pixels
+	 *            The pixel data.
+	 * @return The statistics of the pixel data.
+	 */
+	public ImageStatistics getStatistics(int[] pixels) {
+		long start = System.nanoTime();
 
-		decideAlgorithm(algorithm, context);
+		long[] counts = reduce(deviceIndex, null, ImageBuffers.wrap(pixels), null);
 
-		long currentTime = System.nanoTime();
+		MetricsRegistry.getDefault().recordRun(ImageProcessor.STATISTICS, getDeviceName(), pixels.length,
+				System.nanoTime() - start);
 
-		executeKernel(kernel, memImage, memResult, commandQueue, image);
+		return new ImageStatistics(counts);
+	}
 
-		CL.clEnqueueReadBuffer(commandQueue, memResult, CL.CL_TRUE, 0, Sizeof.cl_float * image.length,
-				Pointer.to(resultImage), 0, null, null);
+	/**
+	 * Counts the histograms of an image buffer on the current device, in parts
+	 * no larger than one device buffer, and records the time it took in the
+	 * default metrics registry.
+	 * 
+	 * @param pixels
+	 *            The pixel data.
+	 * @return The statistics of the pixel data.
+	 */
+	public ImageStatistics getStatistics(ImageBuffer pixels) {
+		long start = System.nanoTime();
 
-		long finishTime = System.nanoTime();
-		long timeSpent = (finishTime - currentTime) / 1000000;
+		long[] counts = reduce(deviceIndex, null, pixels, null);
 
-		TimeWriter.writeToReadMe(algorithm, timeSpent);
+		MetricsRegistry.getDefault().recordRun(ImageProcessor.STATISTICS, getDeviceName(), pixels.size(),
+				System.nanoTime() - start);
 
-		CL.clReleaseKernel(kernel);
-		CL.clReleaseProgram(program);
-		CL.clReleaseMemObject(memImage);
-		CL.clReleaseMemObject(memResult);
-		CL.clReleaseCommandQueue(commandQueue);
-		CL.clReleaseContext(context);
+		return new ImageStatistics(counts);
 	}
 
 	/**
-	 * Gets the platform id.
+	 * Runs the given algorithm on the current device and counts the histograms
+	 * of the result in the same kernel, while each result pixel is still in a
+	 * register. The time it took is recorded in the default metrics registry.
 	 * 
-	 * @return The platform id.
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @return The statistics of the result.
 	 */
-	private cl_platform_id getPlatformID() {
-		int[] numPlatformsArray = new int[1];
-		CL.clGetPlatformIDs(0, null, numPlatformsArray);
-		int numPlatforms = numPlatformsArray[0];
+	public ImageStatistics processWithStatistics(String algorithm, int[] input, int[] output) {
+		long start = System.nanoTime();
+
+		long[] counts = reduce(deviceIndex, toChain(algorithm), ImageBuffers.wrap(input), ImageBuffers.wrap(output));
 
-		cl_platform_id[] platforms = new cl_platform_id[numPlatforms];
-		CL.clGetPlatformIDs(platforms.length, platforms, null);
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.length, System.nanoTime() - start);
 
-		return platforms[platformIndex];
+		return new ImageStatistics(counts);
 	}
 
 	/**
-	 * Gets the id of the device to be used for processing.
+	 * Runs a filter chain on the current device and counts the histograms of
+	 * the result in the same generated kernel, so an adjustment such as Auto
+	 * Levels can follow the chain without the image being read again. The time
+	 * it took is recorded in the default metrics registry.
 	 * 
-	 * @return The device id.
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @return The statistics of the result.
 	 */
-	private cl_device_id getDeviceID() {
-		cl_device_id[] devices = getAllDevices();
+	public ImageStatistics processWithStatistics(FilterChain chain, int[] input, int[] output) {
+		long start = System.nanoTime();
+
+		long[] counts = reduce(deviceIndex, chain, ImageBuffers.wrap(input), ImageBuffers.wrap(output));
+
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.length,
+				System.nanoTime() - start);
 
-		return devices[deviceIndex];
+		return new ImageStatistics(counts);
 	}
 
 	/**
-	 * Sets the device id by changing the index used to look for the needed device.
+	 * Runs the given algorithm on part of an image on one device, for callers
+	 * that share an image between several devices. Only the pixels from start
+	 * to end are uploaded, filtered and downloaded. Nothing is recorded in the
+	 * metrics registry; the caller records the whole image.
 	 * 
 	 * @param index
-	 *            The index of the new device.
+	 *            The index of the device.
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The time spent on the device, in nanoseconds.
 	 */
-	public void setDeviceID(int index) {
-		deviceIndex = index;
+	public long runAlgorithm(int index, String algorithm, int[] input, int[] output, int start, int end) {
+		String kernelName = decideAlgorithm(algorithm);
+		int[] kernelArgs = getKernelArgs(kernelName);
+		KernelLauncher launcher = tuner.getLauncher(getDeviceContext(index), kernelName, kernelArgs);
+
+		return run(index, launcher, kernelArgs, ImageBuffers.wrap(input), ImageBuffers.wrap(output), start, end);
+	}
+
+	/**
+	 * Runs a filter chain on part of an image on one device, for callers that
+	 * share an image between several devices. Nothing is recorded in the
+	 * metrics registry; the caller records the whole image.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The time spent on the device, in nanoseconds.
+	 */
+	public long process(int index, FilterChain chain, int[] input, int[] output, int start, int end) {
+		return run(index, getChainLauncher(index, chain), new int[0], ImageBuffers.wrap(input),
+				ImageBuffers.wrap(output), start, end);
+	}
+
+	/**
+	 * Executes the given algorithm on the current device over an image buffer.
+	 * Buffers in native memory are uploaded from and downloaded to in place,
+	 * with no copy on the Java side, and images larger than one device buffer
+	 * are run in several parts. Auto Levels and Equalize count the statistics
+	 * of the whole buffer first and then run their table as a filter chain.
+	 * The time the transfers and kernels took is recorded in the default
+	 * metrics registry.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 */
+	public void runAlgorithm(String algorithm, ImageBuffer input, ImageBuffer output) {
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			long start = System.nanoTime();
+			FilterChain chain = getStatistics(input).toChain(algorithm);
+
+			process(deviceIndex, chain, input, output, 0, input.size());
+
+			MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.size(), System.nanoTime() - start);
+			return;
+		}
+
+		long nanos = runAlgorithm(deviceIndex, algorithm, input, output, 0, input.size());
+
+		MetricsRegistry.getDefault().recordRun(algorithm, getDeviceName(), input.size(), nanos);
+	}
+
+	/**
+	 * Runs a filter chain on the current device over an image buffer, as one
+	 * generated kernel. The time the transfers and kernel took is recorded in
+	 * the default metrics registry.
+	 * 
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 */
+	public void process(FilterChain chain, ImageBuffer input, ImageBuffer output) {
+		long nanos = process(deviceIndex, chain, input, output, 0, input.size());
+
+		MetricsRegistry.getDefault().recordRun(FilterChain.ALGORITHM, getDeviceName(), input.size(), nanos);
+	}
+
+	/**
+	 * Runs the given algorithm on part of an image buffer on one device.
+	 * Nothing is recorded in the metrics registry; the caller records the whole
+	 * image.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The time spent on the device, in nanoseconds.
+	 */
+	public long runAlgorithm(int index, String algorithm, ImageBuffer input, ImageBuffer output, long start,
+			long end) {
+		String kernelName = decideAlgorithm(algorithm);
+		int[] kernelArgs = getKernelArgs(kernelName);
+		KernelLauncher launcher = tuner.getLauncher(getDeviceContext(index), kernelName, kernelArgs);
+
+		return runInParts(index, launcher, kernelArgs, input, output, start, end);
+	}
+
+	/**
+	 * Runs a filter chain on part of an image buffer on one device. Nothing is
+	 * recorded in the metrics registry; the caller records the whole image.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @param chain
+	 *            The filter chain.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The time spent on the device, in nanoseconds.
+	 */
+	public long process(int index, FilterChain chain, ImageBuffer input, ImageBuffer output, long start, long end) {
+		return runInParts(index, getChainLauncher(index, chain), new int[0], input, output, start, end);
 	}
 
 	/**
-	 * Creates the kernel which will run the grayscale algorithm on the image.
+	 * Gets a launcher for the generated kernel of a filter chain on a device.
 	 * 
-	 * @param context
-	 *            The context.
+	 * @param index
+	 *            The index of the device.
+	 * @param chain
+	 *            The filter chain.
+	 * @return The launcher.
 	 */
-	private void grayscale(cl_context context) {
-		String source = readFile("algorithms/grayscale_kernel.cl");
+	private KernelLauncher getChainLauncher(int index, FilterChain chain) {
+		DeviceContext deviceContext = getDeviceContext(index);
+		cl_kernel kernel = deviceContext.getGeneratedKernel(FilterChain.KERNEL_NAME, chain.toOpenCL());
+
+		return new KernelLauncher(kernel);
+	}
+
+	/**
+	 * Counts the histograms of an image on a device, in parts no larger than
+	 * one device buffer, optionally running a filter chain first and counting
+	 * its result instead.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @param chain
+	 *            The filter chain, or null to count the input.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in, or
+	 *            null if there is no chain.
+	 * @return The histograms, ImageStatistics.BINS counts for each channel in
+	 *         turn.
+	 */
+	private long[] reduce(int index, FilterChain chain, ImageBuffer input, ImageBuffer output) {
+		if (output != null && output.size() < input.size()) {
+			throw new IllegalArgumentException("The output holds " + output.size() + " pixels, not " + input.size());
+		}
+
+		DeviceContext deviceContext = getDeviceContext(index);
+		cl_kernel kernel = chain == null ? deviceContext.getKernel(HISTOGRAM_KERNEL)
+				: deviceContext.getGeneratedKernel(FilterChain.HISTOGRAM_KERNEL_NAME, chain.toOpenCLHistogram());
+		long[] counts = new long[ImageStatistics.COUNTS];
+		int[] partCounts = new int[ImageStatistics.COUNTS];
+		long histogramBytes = (long) Sizeof.cl_int * ImageStatistics.COUNTS;
+
+		for (long from = 0; from < input.size(); from += MAX_TRANSFER_PIXELS) {
+			int length = (int) Math.min(input.size() - from, MAX_TRANSFER_PIXELS);
+			long bytes = (long) Sizeof.cl_int * length;
+
+			Arrays.fill(partCounts, 0);
+
+			synchronized (deviceContext) {
+				cl_command_queue commandQueue = deviceContext.getCommandQueue();
+				BufferPool pool = deviceContext.getBufferPool();
+
+				cl_mem memImage = pool.acquire(CL.CL_MEM_READ_WRITE, bytes);
+				cl_mem memResult = chain == null ? null : pool.acquire(CL.CL_MEM_READ_WRITE, bytes);
+				cl_mem memHistogram = pool.acquire(CL.CL_MEM_READ_WRITE, histogramBytes);
+				try {
+					CL.clEnqueueWriteBuffer(commandQueue, memImage, CL.CL_TRUE, 0, bytes,
+							getHostPointer(input, from, length), 0, null, null);
+					CL.clEnqueueWriteBuffer(commandQueue, memHistogram, CL.CL_TRUE, 0, histogramBytes,
+							Pointer.to(partCounts), 0, null, null);
+
+					long groups = Math.min(HISTOGRAM_GROUPS,
+							(length + HISTOGRAM_LOCAL_SIZE - 1) / HISTOGRAM_LOCAL_SIZE);
+					int arg = 0;
+
+					// The kernel may be shared with other threads
+					synchronized (kernel) {
+						CL.clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(memImage));
 
-		program = CL.clCreateProgramWithSource(context, 1, new String[] { source }, null, null);
-		CL.clBuildProgram(program, 0, null, null, null, null);
+						if (memResult != null) {
+							CL.clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(memResult));
+						}
 
-		kernel = CL.clCreateKernel(program, "grayscale_kernel", null);
+						CL.clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(memHistogram));
+						CL.clSetKernelArg(kernel, arg, Sizeof.cl_int, Pointer.to(new int[] { length }));
+
+						CL.clEnqueueNDRangeKernel(commandQueue, kernel, 1, null,
+								new long[] { groups * HISTOGRAM_LOCAL_SIZE }, new long[] { HISTOGRAM_LOCAL_SIZE }, 0,
+								null, null);
+					}
+
+					if (memResult != null) {
+						CL.clEnqueueReadBuffer(commandQueue, memResult, CL.CL_TRUE, 0, bytes,
+								getHostPointer(output, from, length), 0, null, null);
+					}
+
+					CL.clEnqueueReadBuffer(commandQueue, memHistogram, CL.CL_TRUE, 0, histogramBytes,
+							Pointer.to(partCounts), 0, null, null);
+				} finally {
+					pool.release(memImage);
+					pool.release(memHistogram);
+
+					if (memResult != null) {
+						pool.release(memResult);
+					}
+				}
+			}
+
+			// The device counts in unsigned ints
+			for (int bin = 0; bin < ImageStatistics.COUNTS; bin += 1) {
+				counts[bin] += partCounts[bin] & 0xffffffffL;
+			}
+		}
+
+		return counts;
 	}
 
 	/**
-	 * Creates the kernel that will run the sepia algorithm on the image.
+	 * Runs the kernels over a range of an image buffer in parts no larger than
+	 * one device buffer.
 	 * 
-	 * @param context
-	 *            The context.
+	 * @param index
+	 *            The index of the device.
+	 * @param launcher
+	 *            The launcher for the kernels.
+	 * @param kernelArgs
+	 *            The int arguments that follow the buffers.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The time spent, in nanoseconds.
 	 */
-	private void sepia(cl_context context) {
-		String source = readFile("algorithms/sepia_kernel.cl");
+	private long runInParts(int index, KernelLauncher launcher, int[] kernelArgs, ImageBuffer input,
+			ImageBuffer output, long start, long end) {
+		long nanos = 0;
 
-		program = CL.clCreateProgramWithSource(context, 1, new String[] { source }, null, null);
-		CL.clBuildProgram(program, 0, null, null, null, null);
+		for (long from = start; from < end; from += MAX_TRANSFER_PIXELS) {
+			nanos += run(index, launcher, kernelArgs, input, output, from, Math.min(end, from + MAX_TRANSFER_PIXELS));
+		}
 
-		kernel = CL.clCreateKernel(program, "sepia_kernel", null);
+		return nanos;
 	}
 
 	/**
-	 * Executes the kernel.
+	 * Uploads part of the input, runs the kernels and downloads the result on a
+	 * device. On devices that share memory with the host, arrays are copied
+	 * into and out of mapped host-allocated buffers rather than transferred;
+	 * native memory is always transferred straight from where it is.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @param launcher
+	 *            The launcher for the kernels.
+	 * @param kernelArgs
+	 *            The int arguments that follow the buffers.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The buffer to store the pixel data of the result image in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @return The time spent, in nanoseconds.
+	 */
+	private long run(int index, KernelLauncher launcher, int[] kernelArgs, ImageBuffer input, ImageBuffer output,
+			long start, long end) {
+		if (output.size() < input.size()) {
+			throw new IllegalArgumentException("The output holds " + output.size() + " pixels, not " + input.size());
+		}
+
+		if (start < 0 || end > input.size() || start >= end || end - start > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bad pixel range " + start + " to " + end);
+		}
+
+		DeviceContext deviceContext = getDeviceContext(index);
+
+		synchronized (deviceContext) {
+			cl_command_queue commandQueue = deviceContext.getCommandQueue();
+			BufferPool pool = deviceContext.getBufferPool();
+
+			boolean mapped = zeroCopy && deviceContext.isHostUnified() && input.array() != null
+					&& output.array() != null;
+			long flags = mapped ? CL.CL_MEM_READ_WRITE | CL.CL_MEM_ALLOC_HOST_PTR : CL.CL_MEM_READ_WRITE;
+			int length = (int) (end - start);
+			long bytes = (long) Sizeof.cl_int * length;
+
+			cl_mem memImage = pool.acquire(flags, bytes);
+			cl_mem memResult = pool.acquire(flags, bytes);
+			try {
+				long currentTime = System.nanoTime();
+
+				if (mapped) {
+					writeMapped(commandQueue, memImage, input.array(), (int) start, length);
+				} else {
+					CL.clEnqueueWriteBuffer(commandQueue, memImage, CL.CL_TRUE, 0, bytes,
+							getHostPointer(input, start, length), 0, null, null);
+				}
+
+				launcher.launch(commandQueue, memImage, memResult, kernelArgs, length, null, null);
+
+				if (mapped) {
+					readMapped(commandQueue, memResult, output.array(), (int) start, length);
+				} else {
+					CL.clEnqueueReadBuffer(commandQueue, memResult, CL.CL_TRUE, 0, bytes,
+							getHostPointer(output, start, length), 0, null, null);
+				}
+
+				return System.nanoTime() - currentTime;
+			} finally {
+				pool.release(memImage);
+				pool.release(memResult);
+			}
+		}
+	}
+
+	/**
+	 * Gets a pointer to a range of an image buffer for a transfer: into the
+	 * array for buffers on the heap, or straight at the native memory.
+	 * 
+	 * @param buffer
+	 *            The image buffer.
+	 * @param start
+	 *            The first index of the range.
+	 * @param length
+	 *            The number of pixels in the range.
+	 * @return The pointer.
+	 */
+	private static Pointer getHostPointer(ImageBuffer buffer, long start, int length) {
+		if (buffer.array() != null) {
+			return Pointer.to(buffer.array()).withByteOffset(Sizeof.cl_int * start);
+		}
+
+		ByteBuffer view = buffer.asByteBuffer(start, length);
+
+		if (view == null) {
+			throw new IllegalArgumentException("The image buffer is neither an array nor native memory");
+		}
+
+		return Pointer.to(view);
+	}
+
+	/**
+	 * Queues the given algorithm on the current device without waiting for it.
+	 * Uploads, kernels and downloads of consecutive images overlap. If the
+	 * device's pipeline is full, this waits until an image finishes. Auto
+	 * Levels and Equalize count the statistics of the image on the device
+	 * before it is queued.
+	 * 
+	 * @param algorithm
+	 *            The name of the image processing algorithm to run.
+	 * @param input
+	 *            The pixel data of the input image. It must not change until this
+	 *            method returns.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @return A future that completes with the output array once the result has
+	 *         been written to it.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting for room in the
+	 *             pipeline.
+	 */
+	public CompletableFuture<int[]> submit(String algorithm, int[] input, int[] output) throws InterruptedException {
+		int index = deviceIndex;
+		String deviceName = deviceNames[index];
+		long start = System.nanoTime();
+		KernelLauncher launcher;
+		int[] kernelArgs;
+
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			// The statistics are counted before the image joins the pipeline
+			ImageStatistics statistics = new ImageStatistics(reduce(index, null, ImageBuffers.wrap(input), null));
+
+			launcher = getChainLauncher(index, statistics.toChain(algorithm));
+			kernelArgs = new int[0];
+		} else {
+			String kernelName = decideAlgorithm(algorithm);
+
+			kernelArgs = getKernelArgs(kernelName);
+			launcher = tuner.getLauncher(getDeviceContext(index), kernelName, kernelArgs);
+		}
+
+		CompletableFuture<int[]> future = getPipeline(index).submit(launcher, kernelArgs, input, output);
+
+		// Includes the time spent waiting behind earlier images in the pipeline
+		return future.whenComplete((result, error) -> MetricsRegistry.getDefault().recordRun(algorithm, deviceName,
+				input.length, System.nanoTime() - start));
+	}
+
+	/**
+	 * Gets the asynchronous pipeline of a device, creating it the first time it
+	 * is asked for.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @return The pipeline.
+	 */
+	private synchronized AsyncPipeline getPipeline(int index) {
+		if (pipelines[index] == null) {
+			pipelines[index] = new AsyncPipeline(getDeviceContext(index), pipelineDepth);
+		}
+
+		return pipelines[index];
+	}
+
+	/**
+	 * Sets the number of images each pipeline keeps in flight. Pipelines that
+	 * already exist keep their depth.
+	 * 
+	 * @param depth
+	 *            The number of images in flight.
+	 */
+	public synchronized void setPipelineDepth(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Depth must be positive: " + depth);
+		}
+
+		pipelineDepth = depth;
+	}
+
+	/**
+	 * Gets the int arguments a kernel takes after its two buffers.
+	 * 
+	 * @param kernelName
+	 *            The name of the kernel.
+	 * @return The arguments.
+	 */
+	private int[] getKernelArgs(String kernelName) {
+		if (kernelName.equals("sepia_kernel")) {
+			return sepia.clone();
+		}
+
+		return new int[0];
+	}
+
+	/**
+	 * Copies pixel data into a buffer by mapping it into host memory. The
+	 * copy is made on the host; on a device that shares memory with the host
+	 * no transfer follows it.
 	 * 
-	 * @param kernel
-	 *            The kernel.
-	 * @param memImage
-	 *            The memory at which the input image is stored.
-	 * @param memResult
-	 *            The memory at which to store the result image.
 	 * @param commandQueue
 	 *            The command queue.
-	 * @param image
-	 *            The input image.
+	 * @param buffer
+	 *            The buffer to fill.
+	 * @param data
+	 *            The pixel data.
+	 * @param start
+	 *            The index of the first pixel to copy.
+	 * @param length
+	 *            The number of pixels to copy.
 	 */
-	private void executeKernel(cl_kernel kernel, cl_mem memImage, cl_mem memResult, cl_command_queue commandQueue,
-			int[] image) {
-		CL.clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(memImage));
-		CL.clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(memResult));
+	private void writeMapped(cl_command_queue commandQueue, cl_mem buffer, int[] data, int start, int length) {
+		long bytes = (long) Sizeof.cl_int * length;
 
-		long[] globalWorkSize = new long[] { image.length };
+		ByteBuffer host = CL.clEnqueueMapBuffer(commandQueue, buffer, CL.CL_TRUE, CL.CL_MAP_WRITE, 0, bytes, 0, null,
+				null, null);
+		host.order(ByteOrder.nativeOrder()).asIntBuffer().put(data, start, length);
 
-		CL.clEnqueueNDRangeKernel(commandQueue, kernel, 1, null, globalWorkSize, null, 0, null, null);
+		CL.clEnqueueUnmapMemObject(commandQueue, buffer, host, 0, null, null);
 	}
 
 	/**
-	 * Gets the names of all the devices on the platform.
+	 * Copies pixel data out of a buffer by mapping it into host memory. The
+	 * copy is made on the host; on a device that shares memory with the host
+	 * no transfer comes before it.
 	 * 
-	 * @return The names of all the devices on the platform.
+	 * @param commandQueue
+	 *            The command queue.
+	 * @param buffer
+	 *            The buffer to read.
+	 * @param data
+	 *            The array to store the pixel data in.
+	 * @param start
+	 *            The index to store the first pixel at.
+	 * @param length
+	 *            The number of pixels to read.
 	 */
-	public String[] getDeviceNames() {
-		cl_device_id[] devices = getAllDevices();
+	private void readMapped(cl_command_queue commandQueue, cl_mem buffer, int[] data, int start, int length) {
+		long bytes = (long) Sizeof.cl_int * length;
 
-		String[] names = new String[devices.length];
+		ByteBuffer host = CL.clEnqueueMapBuffer(commandQueue, buffer, CL.CL_TRUE, CL.CL_MAP_READ, 0, bytes, 0, null,
+				null, null);
+		host.order(ByteOrder.nativeOrder()).asIntBuffer().get(data, start, length);
 
-		for (int index = 0; index < names.length; index += 1) {
-			cl_device_id id = devices[index];
+		CL.clEnqueueUnmapMemObject(commandQueue, buffer, host, 0, null, null);
+		CL.clFinish(commandQueue);
+	}
 
-			// Obtain the length of the string that will be queried
-			long[] size = new long[1];
-			CL.clGetDeviceInfo(id, CL.CL_DEVICE_NAME, 0, null, size);
+	/**
+	 * Chooses whether, on devices that share memory with the host, such as CPUs
+	 * and integrated GPUs, arrays go through mapped host-allocated buffers
+	 * instead of being transferred with reads and writes. Either way the pixels
+	 * are copied once on the way in and once on the way out; mapping only saves
+	 * the driver's own staging copy.
+	 * 
+	 * @param zeroCopy
+	 *            True to map buffers on those devices.
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
 
-			// Create a buffer of the appropriate length and fill it
-			byte[] buffer = new byte[(int) size[0]];
-			CL.clGetDeviceInfo(id, CL.CL_DEVICE_NAME, buffer.length, Pointer.to(buffer), null);
+	/**
+	 * Gets the long-lived context of a device, creating it the first time it is
+	 * asked for.
+	 * 
+	 * @param index
+	 *            The index of the device.
+	 * @return The device context.
+	 */
+	public synchronized DeviceContext getDeviceContext(int index) {
+		if (contexts[index] == null) {
+			contexts[index] = new DeviceContext(deviceManager.getPlatform(index), devices[index], programCache);
+		}
+
+		return contexts[index];
+	}
+
+	/**
+	 * Builds every kernel for every device, so that the first run on a device
+	 * does not have to wait for the compiler. A device that fails to build is
+	 * skipped; the error is reported again when the device is used.
+	 */
+	private void prebuildKernels() {
+		for (int index = 0; index < devices.length; index += 1) {
+			try {
+				DeviceContext deviceContext = getDeviceContext(index);
 
-			// Create a String from the buffer (excluding trailing ’\0’
-			String deviceName = new String(buffer, 0, buffer.length - 1);
+				for (String name : KERNELS) {
+					deviceContext.getKernel(name);
 
-			names[index] = deviceName;
+					for (int vectors : PREBUILT_VECTORS_PER_ITEM) {
+						deviceContext.getKernel(KernelLauncher.getVectorName(name),
+								KernelLauncher.getVectorOptions(vectors));
+					}
+				}
+			} catch (CLException | IllegalStateException e) {
+				// the device is reported when it is used
+			}
 		}
+	}
 
-		return names;
+	/**
+	 * Releases the contexts, command queues and kernels of every device, and the
+	 * sub-devices of the device manager.
+	 */
+	public synchronized void release() {
+		prebuilder.shutdownNow();
+
+		for (int index = 0; index < pipelines.length; index += 1) {
+			if (pipelines[index] != null) {
+				try {
+					pipelines[index].release();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				pipelines[index] = null;
+			}
+		}
+
+		for (int index = 0; index < contexts.length; index += 1) {
+			if (contexts[index] != null) {
+				contexts[index].release();
+				contexts[index] = null;
+			}
+		}
+
+		deviceManager.release();
 	}
 
 	/**
-	 * Gets all the devices on the platform.
+	 * Sets the device id by changing the index used to look for the needed device.
 	 * 
-	 * @return All the devices on the platform.
+	 * @param index
+	 *            The index of the new device.
 	 */
-	private cl_device_id[] getAllDevices() {
-		// Returns the number of available devices associated with platform
-		int[] numDevicesArray = new int[1];
-		CL.clGetDeviceIDs(platform, CL.CL_DEVICE_TYPE_ALL, 0, null, numDevicesArray);
-		int numDevices = numDevicesArray[0];
+	public void setDeviceID(int index) {
+		deviceIndex = index;
+	}
 
-		// Get the list of device ids
-		cl_device_id[] devices = new cl_device_id[numDevices];
-		CL.clGetDeviceIDs(platform, CL.CL_DEVICE_TYPE_ALL, numDevices, devices, null);
+	/**
+	 * Changes the sepia depth and intensity. They are passed to the sepia kernel
+	 * as arguments, so the kernel does not need to be rebuilt. Both change at
+	 * once, so no image runs with the old depth and the new intensity.
+	 * 
+	 * @param depth
+	 *            The new sepia depth.
+	 * @param intensity
+	 *            The new sepia intensity.
+	 */
+	public void setSepia(int depth, int intensity) {
+		sepia = new int[] { depth, intensity };
+	}
 
-		return devices;
+	/**
+	 * Sets the cache consulted before an algorithm or filter chain runs over
+	 * an array on the current device. Results are cached under the device's
+	 * name and driver version.
+	 * 
+	 * @param cache
+	 *            The cache, or null to always run the kernels.
+	 */
+	public void setResultCache(ResultCache cache) {
+		resultCache = cache;
+	}
+
+	/**
+	 * Gets the cache consulted before an algorithm runs.
+	 * 
+	 * @return The cache, or null if there is none.
+	 */
+	public ResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Gets the names of all the devices on every platform.
+	 * 
+	 * @return The names of all the devices.
+	 */
+	public String[] getDeviceNames() {
+		return deviceNames.clone();
+	}
+
+	/**
+	 * Gets the name of the current device, for the metrics.
+	 * 
+	 * @return The device name.
+	 */
+	public String getDeviceName() {
+		return deviceNames[deviceIndex];
+	}
+
+	/**
+	 * Gets the name and driver version of the current device, which results
+	 * are cached under, since another driver may compile the kernels
+	 * differently.
+	 * 
+	 * @return The device name and driver version.
+	 */
+	private String getBackendVersion() {
+		return getDeviceName() + " " + ProgramCache.getDeviceString(devices[deviceIndex], CL.CL_DRIVER_VERSION);
 	}
 
 	/**
 	 * Gets the index at which the GPU is stored.
 	 * 
-	 * @return The index at which the GPU is stored.
+	 * @return The index at which the first GPU is stored, or 0 if there is no GPU.
 	 */
 	public int getGPUIndex() {
 		boolean found = false;
 		int index = 0;
 		int result = 0;
-		cl_device_id[] devices = getAllDevices();
 
 		while (!found && index < devices.length) {
 			cl_device_id current = devices[index];
 
-			long[] size = new long[1];
-			CL.clGetDeviceInfo(current, CL.CL_DEVICE_TYPE, 0, null, size);
+			// The device type is a bit field held in a cl_device_type (a 64-bit value)
+			long[] type = new long[1];
+			CL.clGetDeviceInfo(current, CL.CL_DEVICE_TYPE, Sizeof.cl_ulong, Pointer.to(type), null);
 
-			byte[] buffer = new byte[(int) size[0]];
-			CL.clGetDeviceInfo(current, CL.CL_DEVICE_TYPE, buffer.length, Pointer.to(buffer), null);
-
-			int type = (int) buffer[0];
-
-			if (type == CL.CL_DEVICE_TYPE_GPU) {
+			if ((type[0] & CL.CL_DEVICE_TYPE_GPU) != 0) {
 				found = true;
 				result = index;
 			}
+
+			index += 1;
 		}
 
 		return result;
 	}
 
 	/**
-	 * Decides which algorithm the user wants to run.
+	 * Decides which kernel runs the algorithm the user wants to run.
 	 * 
 	 * @param algorithm
 	 *            The algorithm that the user wants to run.
-	 * @param context
-	 *            The context.
+	 * @return The name of the kernel.
 	 */
-	private void decideAlgorithm(String algorithm, cl_context context) {
+	private String decideAlgorithm(String algorithm) {
 		switch (algorithm) {
 		case "Grayscale":
-			grayscale(context);
-			break;
+			return "grayscale_kernel";
 		case "Sepia":
-			sepia(context);
-			break;
+			return "sepia_kernel";
+		default:
+			throw unknownAlgorithm(algorithm);
 		}
 	}
 
 	/**
-	 * Reads the kernel file.
+	 * Gets the filter chain that does the same as an algorithm, for the
+	 * kernels generated from chains.
 	 * 
-	 * @param fileName
-	 *            The name of the kernel file.
-	 * @return The contents of the file.
+	 * @param algorithm
+	 *            The name of the image processing algorithm.
+	 * @return The filter chain.
 	 */
-	private String readFile(String fileName) {
-		try {
-			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)));
-			StringBuffer sb = new StringBuffer();
-			String line = null;
-			while (true) {
-				line = br.readLine();
-				if (line == null) {
-					break;
-				}
-				sb.append(line).append("\n");
-			}
-			br.close();
-			return sb.toString();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(1);
-			return null;
+	private FilterChain toChain(String algorithm) {
+		switch (algorithm) {
+		case "Grayscale":
+			return new FilterChain().then(PixelOperations.grayscale());
+		case "Sepia":
+			int[] current = sepia;
+
+			return new FilterChain().then(PixelOperations.sepia(current[0], current[1]));
+		default:
+			throw unknownAlgorithm(algorithm);
 		}
 	}
 
+	/**
+	 * Makes the exception for an algorithm that has no kernel, explaining
+	 * that an adjustment cannot run on part of an image.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm.
+	 * @return The exception to throw.
+	 */
+	static IllegalArgumentException unknownAlgorithm(String algorithm) {
+		if (ImageStatistics.isAdjustment(algorithm)) {
+			return new IllegalArgumentException(algorithm + " needs the statistics of the whole image, so it cannot"
+					+ " run on part of one or fused with another pass");
+		}
+
+		return new IllegalArgumentException("Unknown algorithm: " + algorithm);
+	}
+
 	public int[] getResult() {
 		return resultImage;
 	}
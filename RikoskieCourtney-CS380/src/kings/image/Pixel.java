@@ -1,7 +1,9 @@
 package kings.image;
 
 /**
- * Represents a pixel in an image.
+ * Represents a pixel in an image. This is a convenience wrapper around
+ * {@link PixelOps}; the image processing loops use <code>PixelOps</code>
+ * directly so they do not allocate a Pixel for every pixel.
  * 
  * @author Courtney Rikoskie
  * @version 09-04-19
@@ -40,12 +42,7 @@ public class Pixel {
 	 * @return The red value.
 	 */
 	public int getRed() {
-		int red = 0;
-		
-		red = data & RED_MASK;
-		red = red >> RED_OFFSET;
-		
-		return red;
+		return PixelOps.red(data);
 	}
 	
 	/**
@@ -54,12 +51,7 @@ public class Pixel {
 	 * @return The green value.
 	 */
 	public int getGreen() {
-		int green = 0;
-		
-		green = data & GREEN_MASK;
-		green = green >> GREEN_OFFSET;
-		
-		return green;
+		return PixelOps.green(data);
 	}
 	
 	/**
@@ -68,11 +60,7 @@ public class Pixel {
 	 * @return The blue value.
 	 */
 	public int getBlue() {
-		int blue = 0;
-		
-		blue = data & BLUE_MASK;
-		
-		return blue;
+		return PixelOps.blue(data);
 	}
 	
 	/**
@@ -81,10 +69,7 @@ public class Pixel {
 	 * @param newRed The new red value.
 	 */
 	public void setRed(int newRed) {
-		int red = data & 0xff00ffff;
-		newRed = newRed << RED_OFFSET;
-		
-		data = red | newRed;
+		data = PixelOps.withRed(data, newRed);
 	}
 	
 	/**
@@ -93,10 +78,7 @@ public class Pixel {
 	 * @param newGreen The new green value.
 	 */
 	public void setGreen(int newGreen) {
-		int green = data & 0xffff00ff;
-		newGreen = newGreen << GREEN_OFFSET;
-		
-		data = green | newGreen;
+		data = PixelOps.withGreen(data, newGreen);
 	}
 	
 	/**
@@ -105,9 +87,7 @@ public class Pixel {
 	 * @param newBlue The new blue value.
 	 */
 	public void setBlue(int newBlue) {
-		int blue = data & 0xffffff00;
-		
-		data = blue | newBlue;
+		data = PixelOps.withBlue(data, newBlue);
 	}
 	
 	/**
@@ -0,0 +1,41 @@
+package kings.image;
+
+/**
+ * One step of a filter chain that maps each pixel on its own. Every step can
+ * run in Java and can write itself out as OpenCL C, so a whole chain can be
+ * fused into one loop or one generated kernel.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-05-19
+ */
+public interface PixelOperation {
+	/**
+	 * Applies the operation to one pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The new pixel color information.
+	 */
+	int apply(int pixel);
+
+	/**
+	 * Writes the OpenCL declarations the operation needs at program scope, such
+	 * as lookup tables.
+	 * 
+	 * @param prefix
+	 *            A prefix that makes the declared names unique in the program.
+	 * @return The declarations, or an empty string.
+	 */
+	String getOpenCLDeclarations(String prefix);
+
+	/**
+	 * Writes the OpenCL statements that apply the operation. The statements read
+	 * and replace the <code>int pixel</code> variable, and may use the RED,
+	 * GREEN, BLUE and PACK macros of the generated kernel.
+	 * 
+	 * @param prefix
+	 *            The prefix used for the declarations.
+	 * @return The statements.
+	 */
+	String getOpenCLStatements(String prefix);
+}
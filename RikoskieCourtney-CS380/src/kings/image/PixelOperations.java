@@ -0,0 +1,208 @@
+package kings.image;
+
+/**
+ * The pixel operations that can be put in a filter chain.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-05-19
+ */
+public final class PixelOperations {
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private PixelOperations() {
+	}
+
+	/**
+	 * Creates the grayscale operation.
+	 * 
+	 * @return The operation.
+	 */
+	public static PixelOperation grayscale() {
+		return new GrayscaleOperation();
+	}
+
+	/**
+	 * Creates the sepia operation.
+	 * 
+	 * @param depth
+	 *            The sepia depth.
+	 * @param intensity
+	 *            The sepia intensity.
+	 * @return The operation.
+	 */
+	public static PixelOperation sepia(int depth, int intensity) {
+		return new SumTableOperation(SumLookupTable.sepia(depth, intensity));
+	}
+
+	/**
+	 * Creates an operation that applies a per-channel lookup table.
+	 * 
+	 * @param table
+	 *            The lookup table.
+	 * @return The operation.
+	 */
+	public static PixelOperation table(LookupTable table) {
+		return new TableOperation(table);
+	}
+
+	/**
+	 * Combines two neighbouring operations into one if they are both lookup
+	 * tables.
+	 * 
+	 * @param first
+	 *            The operation applied first.
+	 * @param second
+	 *            The operation applied second.
+	 * @return The combined operation, or null if they cannot be combined.
+	 */
+	static PixelOperation combine(PixelOperation first, PixelOperation second) {
+		if (second instanceof TableOperation) {
+			LookupTable next = ((TableOperation) second).table;
+
+			if (first instanceof TableOperation) {
+				return new TableOperation(((TableOperation) first).table.then(next));
+			}
+
+			if (first instanceof SumTableOperation) {
+				return new SumTableOperation(((SumTableOperation) first).table.then(next));
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Writes an OpenCL constant int array.
+	 * 
+	 * @param name
+	 *            The array name.
+	 * @param values
+	 *            The array values.
+	 * @return The declaration.
+	 */
+	private static String constantArray(String name, int[] values) {
+		StringBuilder source = new StringBuilder();
+		source.append("__constant int ").append(name).append("[").append(values.length).append("] = {");
+
+		for (int index = 0; index < values.length; index += 1) {
+			if (index % 16 == 0) {
+				source.append("\n\t");
+			}
+
+			source.append(values[index]);
+
+			if (index < values.length - 1) {
+				source.append(", ");
+			}
+		}
+
+		return source.append("\n};\n").toString();
+	}
+
+	/**
+	 * Turns pixels into their grayscale versions.
+	 */
+	private static class GrayscaleOperation implements PixelOperation {
+		@Override
+		public int apply(int pixel) {
+			return PixelOps.grayscale(pixel);
+		}
+
+		@Override
+		public String getOpenCLDeclarations(String prefix) {
+			return "";
+		}
+
+		@Override
+		public String getOpenCLStatements(String prefix) {
+			return "int " + prefix + "gray = (RED(pixel) * " + PixelOps.LUMA_RED + " + GREEN(pixel) * "
+					+ PixelOps.LUMA_GREEN + " + BLUE(pixel) * " + PixelOps.LUMA_BLUE + ") >> " + PixelOps.LUMA_SHIFT
+					+ ";\n" + "pixel = PACK(pixel, " + prefix + "gray, " + prefix + "gray, " + prefix + "gray);\n";
+		}
+	}
+
+	/**
+	 * Applies a per-channel lookup table.
+	 */
+	private static class TableOperation implements PixelOperation {
+		/** The lookup table. */
+		private final LookupTable table;
+
+		/**
+		 * Constructs a TableOperation.
+		 * 
+		 * @param table
+		 *            The lookup table.
+		 */
+		TableOperation(LookupTable table) {
+			this.table = table;
+		}
+
+		@Override
+		public int apply(int pixel) {
+			return table.apply(pixel);
+		}
+
+		@Override
+		public String getOpenCLDeclarations(String prefix) {
+			int[] red = new int[LookupTable.SIZE];
+			int[] green = new int[LookupTable.SIZE];
+			int[] blue = new int[LookupTable.SIZE];
+
+			for (int value = 0; value < LookupTable.SIZE; value += 1) {
+				red[value] = table.red(value);
+				green[value] = table.green(value);
+				blue[value] = table.blue(value);
+			}
+
+			return constantArray(prefix + "red", red) + constantArray(prefix + "green", green)
+					+ constantArray(prefix + "blue", blue);
+		}
+
+		@Override
+		public String getOpenCLStatements(String prefix) {
+			return "pixel = PACK(pixel, " + prefix + "red[RED(pixel)], " + prefix + "green[GREEN(pixel)], " + prefix
+					+ "blue[BLUE(pixel)]);\n";
+		}
+	}
+
+	/**
+	 * Applies a lookup table indexed by the channel sum.
+	 */
+	private static class SumTableOperation implements PixelOperation {
+		/** The lookup table. */
+		private final SumLookupTable table;
+
+		/**
+		 * Constructs a SumTableOperation.
+		 * 
+		 * @param table
+		 *            The lookup table.
+		 */
+		SumTableOperation(SumLookupTable table) {
+			this.table = table;
+		}
+
+		@Override
+		public int apply(int pixel) {
+			return table.apply(pixel);
+		}
+
+		@Override
+		public String getOpenCLDeclarations(String prefix) {
+			int[] colors = new int[SumLookupTable.SIZE];
+
+			for (int sum = 0; sum < SumLookupTable.SIZE; sum += 1) {
+				colors[sum] = table.get(sum);
+			}
+
+			return constantArray(prefix + "colors", colors);
+		}
+
+		@Override
+		public String getOpenCLStatements(String prefix) {
+			return "pixel = (pixel & 0xff000000) | " + prefix + "colors[RED(pixel) + GREEN(pixel) + BLUE(pixel)];\n";
+		}
+	}
+}
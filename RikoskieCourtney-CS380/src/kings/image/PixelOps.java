@@ -0,0 +1,237 @@
+package kings.image;
+
+/**
+ * Static operations on packed ARGB pixels. Every method works directly on the
+ * <code>int</code> pixel data so that the image processing loops never have to
+ * allocate an object per pixel.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-08-19
+ */
+public final class PixelOps {
+	/** The largest value a color channel can hold. */
+	public static final int CHANNEL_MAX = 255;
+
+	/** The number of fractional bits used by the fixed-point luma weights. */
+	public static final int LUMA_SHIFT = 16;
+	/** The fixed-point red luma weight (0.299). */
+	public static final int LUMA_RED = 19595;
+	/** The fixed-point green luma weight (0.587). */
+	public static final int LUMA_GREEN = 38470;
+	/** The fixed-point blue luma weight (0.114). */
+	public static final int LUMA_BLUE = 7471;
+
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private PixelOps() {
+	}
+
+	/**
+	 * Gets the alpha value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The alpha value.
+	 */
+	public static int alpha(int pixel) {
+		return (pixel & Pixel.ALPHA_MASK) >>> Pixel.ALPHA_OFFSET;
+	}
+
+	/**
+	 * Gets the red value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The red value.
+	 */
+	public static int red(int pixel) {
+		return (pixel & Pixel.RED_MASK) >> Pixel.RED_OFFSET;
+	}
+
+	/**
+	 * Gets the green value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The green value.
+	 */
+	public static int green(int pixel) {
+		return (pixel & Pixel.GREEN_MASK) >> Pixel.GREEN_OFFSET;
+	}
+
+	/**
+	 * Gets the blue value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The blue value.
+	 */
+	public static int blue(int pixel) {
+		return pixel & Pixel.BLUE_MASK;
+	}
+
+	/**
+	 * Replaces the red value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @param red
+	 *            The new red value.
+	 * @return The new pixel color information.
+	 */
+	public static int withRed(int pixel, int red) {
+		return (pixel & ~Pixel.RED_MASK) | (red << Pixel.RED_OFFSET);
+	}
+
+	/**
+	 * Replaces the green value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @param green
+	 *            The new green value.
+	 * @return The new pixel color information.
+	 */
+	public static int withGreen(int pixel, int green) {
+		return (pixel & ~Pixel.GREEN_MASK) | (green << Pixel.GREEN_OFFSET);
+	}
+
+	/**
+	 * Replaces the blue value of the pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @param blue
+	 *            The new blue value.
+	 * @return The new pixel color information.
+	 */
+	public static int withBlue(int pixel, int blue) {
+		return (pixel & ~Pixel.BLUE_MASK) | blue;
+	}
+
+	/**
+	 * Packs the color values into a pixel, keeping the alpha of the given pixel.
+	 * 
+	 * @param pixel
+	 *            The pixel whose alpha value is kept.
+	 * @param red
+	 *            The red value.
+	 * @param green
+	 *            The green value.
+	 * @param blue
+	 *            The blue value.
+	 * @return The new pixel color information.
+	 */
+	public static int withRGB(int pixel, int red, int green, int blue) {
+		return (pixel & Pixel.ALPHA_MASK) | (red << Pixel.RED_OFFSET) | (green << Pixel.GREEN_OFFSET) | blue;
+	}
+
+	/**
+	 * Clamps a value into the range of a color channel.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The value limited to 0 through 255.
+	 */
+	public static int clamp(int value) {
+		if (value < 0) {
+			return 0;
+		}
+
+		if (value > CHANNEL_MAX) {
+			return CHANNEL_MAX;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Computes the luma of the color values using fixed-point weights.
+	 * 
+	 * @param red
+	 *            The red value.
+	 * @param green
+	 *            The green value.
+	 * @param blue
+	 *            The blue value.
+	 * @return The luma, from 0 through 255.
+	 */
+	public static int luma(int red, int green, int blue) {
+		return (red * LUMA_RED + green * LUMA_GREEN + blue * LUMA_BLUE) >> LUMA_SHIFT;
+	}
+
+	/**
+	 * Turns a pixel into its grayscale version.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The grayscaled pixel.
+	 */
+	public static int grayscale(int pixel) {
+		int gray = luma(red(pixel), green(pixel), blue(pixel));
+
+		return withRGB(pixel, gray, gray, gray);
+	}
+
+	/**
+	 * Turns a pixel into its sepia version.
+	 * 
+	 * @param pixel
+	 *            The pixel color information.
+	 * @param depth
+	 *            The sepia depth.
+	 * @param intensity
+	 *            The sepia intensity.
+	 * @return The sepia pixel.
+	 */
+	public static int sepia(int pixel, int depth, int intensity) {
+		int average = (red(pixel) + green(pixel) + blue(pixel)) / 3;
+
+		int red = clamp(average + (depth * 2));
+		int green = clamp(average + depth);
+		int blue = clamp(average - intensity);
+
+		return withRGB(pixel, red, green, blue);
+	}
+
+	/**
+	 * Grayscales a range of pixels.
+	 * 
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	public static void grayscale(int[] input, int[] output, int start, int end) {
+		for (int index = start; index < end; index += 1) {
+			output[index] = grayscale(input[index]);
+		}
+	}
+
+	/**
+	 * Applies sepia to a range of pixels.
+	 * 
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 * @param depth
+	 *            The sepia depth.
+	 * @param intensity
+	 *            The sepia intensity.
+	 */
+	public static void sepia(int[] input, int[] output, int start, int end, int depth, int intensity) {
+		for (int index = start; index < end; index += 1) {
+			output[index] = sepia(input[index], depth, intensity);
+		}
+	}
+}
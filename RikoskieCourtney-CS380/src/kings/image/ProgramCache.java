@@ -0,0 +1,251 @@
+package kings.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.jocl.CL;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_context;
+import org.jocl.cl_device_id;
+import org.jocl.cl_program;
+
+/**
+ * Builds OpenCL programs and keeps the compiled binaries on disk. A binary is
+ * stored under a key made from the device name, device version, driver
+ * version, program source and build options, so a program is only compiled
+ * from source the first time it is used with a given device and driver.
+ *
+ * @author Courtney Rikoskie
+ * @version 10-21-19
+ */
+public class ProgramCache {
+	/** The folder, relative to the class, that holds the kernel sources. */
+	public static final String KERNEL_FOLDER = "kernels/";
+
+	/** The folder that holds the compiled binaries. */
+	private final File directory;
+
+	/**
+	 * Constructs a ProgramCache that keeps binaries in the user's home folder.
+	 */
+	public ProgramCache() {
+		this(new File(System.getProperty("user.home"), ".kings-image" + File.separator + "kernels"));
+	}
+
+	/**
+	 * Constructs a ProgramCache that keeps binaries in the given folder.
+	 *
+	 * @param directory
+	 *            The folder that holds the compiled binaries.
+	 */
+	public ProgramCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Builds a program for one device, loading the binary from disk if it was
+	 * compiled before.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param device
+	 *            The device.
+	 * @param source
+	 *            The program source.
+	 * @param options
+	 *            The build options, or null.
+	 * @return The built program.
+	 */
+	public cl_program build(cl_context context, cl_device_id device, String source, String options) {
+		File binaryFile = new File(directory, getKey(device, source, options) + ".bin");
+
+		if (binaryFile.isFile()) {
+			try {
+				return buildFromBinary(context, device, Files.readAllBytes(binaryFile.toPath()), options);
+			} catch (IOException | CLException e) {
+				// the binary is unreadable or the driver rejected it, so compile from source
+				binaryFile.delete();
+			}
+		}
+
+		cl_program program = CL.clCreateProgramWithSource(context, 1, new String[] { source }, null, null);
+		CL.clBuildProgram(program, 1, new cl_device_id[] { device }, options, null, null);
+
+		try {
+			store(binaryFile, getBinary(program));
+		} catch (IOException e) {
+			// the cache is only an optimization, so the program is still usable
+		}
+
+		return program;
+	}
+
+	/**
+	 * Reads a kernel source file from the classpath.
+	 *
+	 * @param fileName
+	 *            The name of the kernel file.
+	 * @return The contents of the file.
+	 */
+	public static String loadSource(String fileName) {
+		try (InputStream in = ProgramCache.class.getResourceAsStream(KERNEL_FOLDER + fileName)) {
+			if (in == null) {
+				throw new IllegalStateException("Kernel source not found on the classpath: " + fileName);
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read kernel source: " + fileName, e);
+		}
+	}
+
+	/**
+	 * Gets a string property of a device.
+	 *
+	 * @param device
+	 *            The device.
+	 * @param param
+	 *            The property, such as CL_DEVICE_NAME.
+	 * @return The value of the property.
+	 */
+	public static String getDeviceString(cl_device_id device, int param) {
+		// Obtain the length of the string that will be queried
+		long[] size = new long[1];
+		CL.clGetDeviceInfo(device, param, 0, null, size);
+
+		// Create a buffer of the appropriate length and fill it
+		byte[] buffer = new byte[(int) size[0]];
+		CL.clGetDeviceInfo(device, param, buffer.length, Pointer.to(buffer), null);
+
+		// Create a String from the buffer (excluding trailing '\0')
+		return new String(buffer, 0, Math.max(0, buffer.length - 1), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Builds a program from a binary compiled earlier.
+	 *
+	 * @param context
+	 *            The context.
+	 * @param device
+	 *            The device.
+	 * @param binary
+	 *            The compiled binary.
+	 * @param options
+	 *            The build options, or null.
+	 * @return The built program.
+	 */
+	private cl_program buildFromBinary(cl_context context, cl_device_id device, byte[] binary, String options) {
+		cl_program program = CL.clCreateProgramWithBinary(context, 1, new cl_device_id[] { device },
+				new long[] { binary.length }, new byte[][] { binary }, null, null);
+
+		try {
+			CL.clBuildProgram(program, 1, new cl_device_id[] { device }, options, null, null);
+		} catch (CLException e) {
+			CL.clReleaseProgram(program);
+			throw e;
+		}
+
+		return program;
+	}
+
+	/**
+	 * Gets the compiled binary of a program built for one device.
+	 *
+	 * @param program
+	 *            The program.
+	 * @return The compiled binary.
+	 */
+	private static byte[] getBinary(cl_program program) {
+		long[] sizes = new long[1];
+		CL.clGetProgramInfo(program, CL.CL_PROGRAM_BINARY_SIZES, Sizeof.size_t, Pointer.to(sizes), null);
+
+		byte[] binary = new byte[(int) sizes[0]];
+		Pointer binaryPointer = Pointer.to(binary);
+		CL.clGetProgramInfo(program, CL.CL_PROGRAM_BINARIES, Sizeof.POINTER, Pointer.to(binaryPointer), null);
+
+		return binary;
+	}
+
+	/**
+	 * Writes a binary to the cache. The binary is written to a temporary file
+	 * first so another process never sees a half-written binary.
+	 *
+	 * @param binaryFile
+	 *            The file to write.
+	 * @param binary
+	 *            The compiled binary.
+	 * @throws IOException
+	 *             Thrown if the binary cannot be written.
+	 */
+	private void store(File binaryFile, byte[] binary) throws IOException {
+		if (binary.length == 0) {
+			return;
+		}
+
+		Files.createDirectories(directory.toPath());
+
+		Path temp = Files.createTempFile(directory.toPath(), "program", ".tmp");
+
+		try {
+			Files.write(temp, binary);
+			Files.move(temp, binaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Makes the cache key for a program on a device.
+	 *
+	 * @param device
+	 *            The device.
+	 * @param source
+	 *            The program source.
+	 * @param options
+	 *            The build options, or null.
+	 * @return The key, as a hex string.
+	 */
+	private static String getKey(cl_device_id device, String source, String options) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			String[] parts = { getDeviceString(device, CL.CL_DEVICE_NAME),
+					getDeviceString(device, CL.CL_DEVICE_VERSION), getDeviceString(device, CL.CL_DRIVER_VERSION),
+					options == null ? "" : options, source };
+
+			for (String part : parts) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+
+			StringBuilder key = new StringBuilder();
+
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
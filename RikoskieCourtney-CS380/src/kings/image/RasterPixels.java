@@ -0,0 +1,382 @@
+package kings.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the pixels of an image straight from its own data buffer,
+ * as packed ARGB ints, without going through the color model. TYPE_INT_ARGB,
+ * TYPE_INT_RGB, TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and TYPE_BYTE_GRAY images are
+ * supported, including sub-images that share a larger buffer. Gray bytes are
+ * read and written as they are, as levels of an sRGB gray, rather than through
+ * the linear gray color space that Java2D converts them with.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-26-19
+ */
+public final class RasterPixels {
+	/** The number of pixels the image processors convert at a time. */
+	public static final int STRIPE_PIXELS = 4096;
+
+	/** The band offsets of a TYPE_3BYTE_BGR image: red, green, blue. */
+	private static final int[] BGR_OFFSETS = { 2, 1, 0 };
+	/** The band offsets of a TYPE_4BYTE_ABGR image: red, green, blue, alpha. */
+	private static final int[] ABGR_OFFSETS = { 3, 2, 1, 0 };
+	/** The alpha bits of an opaque pixel. */
+	private static final int OPAQUE = 0xFF000000;
+
+	/** The BufferedImage type of the image. */
+	private final int type;
+	/** The width of the image. */
+	private final int width;
+	/** The height of the image. */
+	private final int height;
+	/** The data of an int image, or null. */
+	private final int[] ints;
+	/** The data of a byte image, or null. */
+	private final byte[] bytes;
+	/** The index in the data of the first element of the top left pixel. */
+	private final int offset;
+	/** The number of elements from one row to the next. */
+	private final int scanlineStride;
+	/** The number of elements from one pixel to the next. */
+	private final int pixelStride;
+
+	/**
+	 * Constructs a RasterPixels.
+	 * 
+	 * @param image
+	 *            The image, which must be supported.
+	 * @param data
+	 *            The data buffer of the image.
+	 * @param scanlineStride
+	 *            The number of elements from one row to the next.
+	 * @param pixelStride
+	 *            The number of elements from one pixel to the next.
+	 */
+	private RasterPixels(BufferedImage image, DataBuffer data, int scanlineStride, int pixelStride) {
+		WritableRaster raster = image.getRaster();
+
+		type = image.getType();
+		width = image.getWidth();
+		height = image.getHeight();
+		ints = data instanceof DataBufferInt ? ((DataBufferInt) data).getData() : null;
+		bytes = data instanceof DataBufferByte ? ((DataBufferByte) data).getData() : null;
+		offset = data.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+				- raster.getSampleModelTranslateX() * pixelStride;
+		this.scanlineStride = scanlineStride;
+		this.pixelStride = pixelStride;
+	}
+
+	/**
+	 * Gets the pixels of an image.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @return The pixels, or null if the image's type or layout is not
+	 *         supported.
+	 */
+	public static RasterPixels of(BufferedImage image) {
+		SampleModel model = image.getSampleModel();
+		DataBuffer data = image.getRaster().getDataBuffer();
+
+		if (data.getNumBanks() != 1) {
+			return null;
+		}
+
+		switch (image.getType()) {
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_RGB:
+			return new RasterPixels(image, data, ((SinglePixelPackedSampleModel) model).getScanlineStride(), 1);
+		case BufferedImage.TYPE_3BYTE_BGR:
+			return ofComponents(image, data, BGR_OFFSETS);
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			return ofComponents(image, data, ABGR_OFFSETS);
+		case BufferedImage.TYPE_BYTE_GRAY:
+			return ofComponents(image, data, new int[] { 0 });
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether the pixels of an image can be read and written directly.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @return True if the image's type and layout are supported.
+	 */
+	public static boolean isSupported(BufferedImage image) {
+		return of(image) != null;
+	}
+
+	/**
+	 * Gets the int array that holds the pixels of an image, if the image stores
+	 * them as packed ARGB ints in row order with nothing in between, so the
+	 * array can be filtered as it is. A TYPE_INT_RGB image is not given out
+	 * this way, since its array holds 0 where the alpha belongs and read makes
+	 * its pixels opaque.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @return The array, or null if the image stores its pixels another way.
+	 */
+	public static int[] getPackedData(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+			return null;
+		}
+
+		RasterPixels pixels = of(image);
+
+		if (pixels == null || pixels.ints == null || pixels.offset != 0 || pixels.scanlineStride != pixels.width
+				|| pixels.ints.length != pixels.width * pixels.height) {
+			return null;
+		}
+
+		return pixels.ints;
+	}
+
+	/**
+	 * Creates an image to filter another image into. It has the same type as
+	 * the source so no conversion is needed, except that a gray image gets a
+	 * TYPE_3BYTE_BGR result so filters can add color, and a type that is not
+	 * supported gets a TYPE_INT_ARGB result.
+	 * 
+	 * @param source
+	 *            The image to be filtered.
+	 * @return The new image.
+	 */
+	public static BufferedImage createDestination(BufferedImage source) {
+		return new BufferedImage(source.getWidth(), source.getHeight(), getDestinationType(source));
+	}
+
+	/**
+	 * Gets the type of image that createDestination makes for a source image.
+	 * 
+	 * @param source
+	 *            The image to be filtered.
+	 * @return The BufferedImage type.
+	 */
+	public static int getDestinationType(BufferedImage source) {
+		if (!isSupported(source)) {
+			return BufferedImage.TYPE_INT_ARGB;
+		}
+
+		return source.getType() == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_3BYTE_BGR : source.getType();
+	}
+
+	/**
+	 * Gets the width of the image.
+	 * 
+	 * @return The width.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the image.
+	 * 
+	 * @return The height.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the number of pixels in the image.
+	 * 
+	 * @return The number of pixels.
+	 */
+	public int getPixelCount() {
+		return width * height;
+	}
+
+	/**
+	 * Checks whether the image has an alpha channel.
+	 * 
+	 * @return True if the image stores alpha.
+	 */
+	public boolean hasAlpha() {
+		return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_4BYTE_ABGR;
+	}
+
+	/**
+	 * Reads a range of pixels, counted in row order, as packed ARGB ints. Images
+	 * without alpha read as opaque.
+	 * 
+	 * @param start
+	 *            The first pixel to read.
+	 * @param end
+	 *            One past the last pixel to read.
+	 * @param pixels
+	 *            The array to store the pixels in.
+	 * @param pixelsOffset
+	 *            The index in the array to store the first pixel at.
+	 */
+	public void read(int start, int end, int[] pixels, int pixelsOffset) {
+		int index = start;
+		int at = pixelsOffset;
+
+		while (index < end) {
+			int y = index / width;
+			int x = index - y * width;
+			int count = Math.min(end - index, width - x);
+			int from = offset + y * scanlineStride + x * pixelStride;
+
+			readRow(from, count, pixels, at);
+
+			index += count;
+			at += count;
+		}
+	}
+
+	/**
+	 * Writes a range of pixels, counted in row order, from packed ARGB ints.
+	 * Images without alpha drop it, and gray images keep the luma.
+	 * 
+	 * @param pixels
+	 *            The array that holds the pixels.
+	 * @param pixelsOffset
+	 *            The index in the array of the first pixel.
+	 * @param start
+	 *            The first pixel to write.
+	 * @param end
+	 *            One past the last pixel to write.
+	 */
+	public void write(int[] pixels, int pixelsOffset, int start, int end) {
+		int index = start;
+		int at = pixelsOffset;
+
+		while (index < end) {
+			int y = index / width;
+			int x = index - y * width;
+			int count = Math.min(end - index, width - x);
+			int to = offset + y * scanlineStride + x * pixelStride;
+
+			writeRow(pixels, at, to, count);
+
+			index += count;
+			at += count;
+		}
+	}
+
+	/**
+	 * Reads pixels from one row.
+	 * 
+	 * @param from
+	 *            The index in the data of the first pixel.
+	 * @param count
+	 *            The number of pixels.
+	 * @param pixels
+	 *            The array to store the pixels in.
+	 * @param at
+	 *            The index in the array to store the first pixel at.
+	 */
+	private void readRow(int from, int count, int[] pixels, int at) {
+		switch (type) {
+		case BufferedImage.TYPE_INT_ARGB:
+			System.arraycopy(ints, from, pixels, at, count);
+			break;
+		case BufferedImage.TYPE_INT_RGB:
+			for (int pixel = 0; pixel < count; pixel += 1) {
+				pixels[at + pixel] = OPAQUE | ints[from + pixel];
+			}
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+			for (int pixel = 0, data = from; pixel < count; pixel += 1, data += 3) {
+				pixels[at + pixel] = OPAQUE | (bytes[data + 2] & 0xFF) << 16 | (bytes[data + 1] & 0xFF) << 8
+						| (bytes[data] & 0xFF);
+			}
+			break;
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			for (int pixel = 0, data = from; pixel < count; pixel += 1, data += 4) {
+				pixels[at + pixel] = (bytes[data] & 0xFF) << 24 | (bytes[data + 3] & 0xFF) << 16
+						| (bytes[data + 2] & 0xFF) << 8 | (bytes[data + 1] & 0xFF);
+			}
+			break;
+		default:
+			for (int pixel = 0; pixel < count; pixel += 1) {
+				int gray = bytes[from + pixel] & 0xFF;
+				pixels[at + pixel] = OPAQUE | gray << 16 | gray << 8 | gray;
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Writes pixels to one row.
+	 * 
+	 * @param pixels
+	 *            The array that holds the pixels.
+	 * @param at
+	 *            The index in the array of the first pixel.
+	 * @param to
+	 *            The index in the data of the first pixel.
+	 * @param count
+	 *            The number of pixels.
+	 */
+	private void writeRow(int[] pixels, int at, int to, int count) {
+		switch (type) {
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_RGB:
+			// TYPE_INT_RGB ignores the alpha byte, so it can be copied along
+			System.arraycopy(pixels, at, ints, to, count);
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+			for (int pixel = 0, data = to; pixel < count; pixel += 1, data += 3) {
+				int value = pixels[at + pixel];
+				bytes[data] = (byte) value;
+				bytes[data + 1] = (byte) (value >> 8);
+				bytes[data + 2] = (byte) (value >> 16);
+			}
+			break;
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			for (int pixel = 0, data = to; pixel < count; pixel += 1, data += 4) {
+				int value = pixels[at + pixel];
+				bytes[data] = (byte) (value >>> 24);
+				bytes[data + 1] = (byte) value;
+				bytes[data + 2] = (byte) (value >> 8);
+				bytes[data + 3] = (byte) (value >> 16);
+			}
+			break;
+		default:
+			for (int pixel = 0; pixel < count; pixel += 1) {
+				int value = pixels[at + pixel];
+				bytes[to + pixel] = (byte) PixelOps.luma(PixelOps.red(value), PixelOps.green(value),
+						PixelOps.blue(value));
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Gets the pixels of an image whose samples are interleaved bytes, if the
+	 * bands are in the standard order for its type.
+	 * 
+	 * @param image
+	 *            The image.
+	 * @param data
+	 *            The data buffer of the image.
+	 * @param bandOffsets
+	 *            The expected offset of each band within a pixel.
+	 * @return The pixels, or null if the layout is not the standard one.
+	 */
+	private static RasterPixels ofComponents(BufferedImage image, DataBuffer data, int[] bandOffsets) {
+		ComponentSampleModel model = (ComponentSampleModel) image.getSampleModel();
+
+		if (!(data instanceof DataBufferByte) || model.getPixelStride() != bandOffsets.length
+				|| !Arrays.equals(model.getBandOffsets(), bandOffsets)) {
+			return null;
+		}
+
+		return new RasterPixels(image, data, model.getScanlineStride(), model.getPixelStride());
+	}
+}
@@ -0,0 +1,239 @@
+package kings.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A disk cache of decoded images in the raw format. The first time an image is
+ * requested it is decoded and stored as a raw file; later requests map the
+ * raw file instead of decoding again. A cached image is found by the source's
+ * path, size and modification time, so a changed source is decoded again. The
+ * cache is bounded by its total size on disk, and the least recently used
+ * images are deleted first.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-13-19
+ */
+public class RawImageCache {
+	/** The default largest size of the cache on disk (4 GB). */
+	public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+	/** The folder that holds the raw files. */
+	private final File directory;
+	/** The largest size of the cache on disk. */
+	private final long maxBytes;
+	/** The size of every cached file, from least to most recently used. */
+	private final LinkedHashMap<String, Long> entries;
+	/** The total size of the cached files. */
+	private long totalBytes;
+
+	/**
+	 * Constructs a RawImageCache in the user's home folder with the default size.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the folder cannot be created.
+	 */
+	public RawImageCache() throws IOException {
+		this(new File(System.getProperty("user.home"), ".kings-image" + File.separator + "raw"), DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructs a RawImageCache. Files already in the folder are kept, in the
+	 * order they were last used.
+	 * 
+	 * @param directory
+	 *            The folder that holds the raw files.
+	 * @param maxBytes
+	 *            The largest size of the cache on disk.
+	 * @throws IOException
+	 *             Thrown if the folder cannot be created.
+	 */
+	public RawImageCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		totalBytes = 0;
+
+		Files.createDirectories(directory.toPath());
+
+		File[] files = directory.listFiles((folder, name) -> name.endsWith(RawImageFile.EXTENSION));
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+		for (File file : files) {
+			entries.put(file.getName(), file.length());
+			totalBytes += file.length();
+		}
+	}
+
+	/**
+	 * Gets the decoded pixels of an image, decoding and caching it if it is not
+	 * cached yet.
+	 * 
+	 * @param source
+	 *            The image file.
+	 * @return The mapped raw image.
+	 * @throws IOException
+	 *             Thrown if the image cannot be decoded or cached.
+	 */
+	public RawImageFile get(File source) throws IOException {
+		String name = getKey(source) + RawImageFile.EXTENSION;
+		Path path = new File(directory, name).toPath();
+
+		synchronized (this) {
+			if (entries.get(name) != null) {
+				try {
+					// The modification time keeps the use order across runs
+					Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+
+					return RawImageFile.open(path);
+				} catch (IOException e) {
+					// the file is gone or damaged, so the image is decoded again
+					remove(name);
+				}
+			}
+		}
+
+		BufferedImage image = ImageIO.read(source);
+
+		if (image == null) {
+			throw new IOException("No reader for " + source);
+		}
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Path temp = BatchPipeline.createTempFile(directory.toPath(), "raw");
+
+		try {
+			int type = image.getColorModel().hasAlpha() ? RawImageFile.TYPE_INT_ARGB : RawImageFile.TYPE_INT_RGB;
+			RawImageFile raw = RawImageFile.create(temp, type, width, height);
+			IntBuffer pixels = raw.getPixels();
+			RasterPixels raster = RasterPixels.of(image);
+			int[] row = new int[width];
+
+			// The raster is read as the batch reads it, so a cached image filters the same
+			for (int y = 0; y < height; y += 1) {
+				if (raster == null) {
+					image.getRGB(0, y, width, 1, row, 0, width);
+				} else {
+					raster.read(y * width, (y + 1) * width, row, 0);
+				}
+
+				pixels.put(row);
+			}
+
+			raw.flush();
+			BatchPipeline.moveIntoPlace(temp, path);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		synchronized (this) {
+			Long old = entries.put(name, Files.size(path));
+			totalBytes += entries.get(name) - (old == null ? 0 : old);
+
+			evict(name);
+		}
+
+		return RawImageFile.open(path);
+	}
+
+	/**
+	 * Gets the total size of the cached files.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Deletes the least recently used files until the cache fits its size.
+	 * 
+	 * @param keep
+	 *            The name of a file that must not be deleted.
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+
+		while (totalBytes > maxBytes && oldest.hasNext()) {
+			Map.Entry<String, Long> entry = oldest.next();
+
+			if (entry.getKey().equals(keep)) {
+				continue;
+			}
+
+			try {
+				Files.deleteIfExists(new File(directory, entry.getKey()).toPath());
+			} catch (IOException e) {
+				// the file is still mapped somewhere, so it is tried again later
+				continue;
+			}
+
+			totalBytes -= entry.getValue();
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Forgets a cached file and deletes it if it is still there.
+	 * 
+	 * @param name
+	 *            The name of the file.
+	 */
+	private void remove(String name) {
+		Long bytes = entries.remove(name);
+
+		if (bytes != null) {
+			totalBytes -= bytes;
+		}
+
+		new File(directory, name).delete();
+	}
+
+	/**
+	 * Makes the cache key for a source image.
+	 * 
+	 * @param source
+	 *            The image file.
+	 * @return The key, as a hex string.
+	 */
+	private static String getKey(File source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			String[] parts = { source.getAbsolutePath(), Long.toString(source.length()),
+					Long.toString(source.lastModified()) };
+
+			for (String part : parts) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+
+			StringBuilder key = new StringBuilder();
+
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
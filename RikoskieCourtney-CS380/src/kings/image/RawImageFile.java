@@ -0,0 +1,186 @@
+package kings.image;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An image stored as raw pixels and opened by mapping the file into memory.
+ * The file is a 32-byte header (magic number, version, width, height and pixel
+ * type) followed by the packed ARGB pixels, all as little-endian ints. Since
+ * the pixels are mapped rather than read, opening a file is immediate and the
+ * pixels live in the operating system's page cache instead of the Java heap.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-13-19
+ */
+public class RawImageFile {
+	/** The file extension. */
+	public static final String EXTENSION = ".kir";
+	/** The pixel type for packed ARGB ints. */
+	public static final int TYPE_INT_ARGB = 1;
+	/** The pixel type for packed RGB ints, whose alpha byte is unused. */
+	public static final int TYPE_INT_RGB = 2;
+
+	/** The magic number, "KIRW". */
+	private static final int MAGIC = 0x5752494b;
+	/** The format version. */
+	private static final int VERSION = 1;
+	/** The size of the header in bytes. */
+	private static final int HEADER_BYTES = 32;
+
+	/** The pixel type. */
+	private final int type;
+	/** The width of the image. */
+	private final int width;
+	/** The height of the image. */
+	private final int height;
+	/** The mapped file. */
+	private final MappedByteBuffer map;
+	/** The mapped pixels. */
+	private final IntBuffer pixels;
+
+	/**
+	 * Constructs a RawImageFile from a mapped file.
+	 * 
+	 * @param type
+	 *            The pixel type.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param map
+	 *            The mapped file.
+	 */
+	private RawImageFile(int type, int width, int height, MappedByteBuffer map) {
+		this.type = type;
+		this.width = width;
+		this.height = height;
+		this.map = map;
+
+		map.position(HEADER_BYTES);
+		pixels = map.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+	/**
+	 * Opens a raw image for reading.
+	 * 
+	 * @param path
+	 *            The file.
+	 * @return The image, with read-only pixels.
+	 * @throws IOException
+	 *             Thrown if the file cannot be read or is not a raw image.
+	 */
+	public static RawImageFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a raw image: " + path);
+			}
+
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			int width = map.getInt(8);
+			int height = map.getInt(12);
+			int type = map.getInt(16);
+
+			if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || (type != TYPE_INT_ARGB && type != TYPE_INT_RGB)
+					|| width < 1 || height < 1 || (long) width * height * 4 != size - HEADER_BYTES) {
+				throw new IOException("Not a raw image: " + path);
+			}
+
+			return new RawImageFile(type, width, height, map);
+		}
+	}
+
+	/**
+	 * Creates a raw image file and maps it for writing. The pixels start out as
+	 * zero and reach the file as they are written to the buffer.
+	 * 
+	 * @param path
+	 *            The file to create or replace.
+	 * @param type
+	 *            The pixel type, TYPE_INT_ARGB or TYPE_INT_RGB.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @return The image, with writable pixels.
+	 * @throws IOException
+	 *             Thrown if the file cannot be created or the image is too
+	 *             large to map.
+	 */
+	public static RawImageFile create(Path path, int type, int width, int height) throws IOException {
+		long size = HEADER_BYTES + (long) width * height * 4;
+
+		if (width < 1 || height < 1 || size > Integer.MAX_VALUE) {
+			throw new IOException("Cannot map a " + width + "x" + height + " image; use tiled processing instead.");
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			map.putInt(0, MAGIC);
+			map.putInt(4, VERSION);
+			map.putInt(8, width);
+			map.putInt(12, height);
+			map.putInt(16, type);
+
+			return new RawImageFile(type, width, height, map);
+		}
+	}
+
+	/**
+	 * Gets the pixel type.
+	 * 
+	 * @return TYPE_INT_ARGB, or TYPE_INT_RGB if the alpha byte is unused.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the width of the image.
+	 * 
+	 * @return The width.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the image.
+	 * 
+	 * @return The height.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the mapped pixels, one packed ARGB int per pixel in row order.
+	 * 
+	 * @return The pixels. Each call returns a new view with its own position.
+	 */
+	public IntBuffer getPixels() {
+		return pixels.duplicate();
+	}
+
+	/**
+	 * Writes any changed pixels out to the file.
+	 */
+	public void flush() {
+		if (!map.isReadOnly()) {
+			map.force();
+		}
+	}
+}
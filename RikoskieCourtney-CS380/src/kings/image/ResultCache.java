@@ -0,0 +1,461 @@
+package kings.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A cache of filtered images, found by what went into them: a fast hash of
+ * the input pixels, the algorithm, its parameters and the backend that ran
+ * it. Running the same filter on the same pixels again copies the cached
+ * result instead. The cache holds at most a set number of bytes in memory and
+ * drops the least recently used results first. Given a folder, it writes the
+ * dropped results there instead, up to a second limit, and reads them back on
+ * a later hit, even in a later run. Hits and misses are counted in the default
+ * metrics registry.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-04-19
+ */
+public class ResultCache {
+	/** The default largest size of the results in memory (256 MB). */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	/** The version of the algorithms, which changes whenever any of their results would. */
+	public static final int VERSION = 1;
+	/** The extension of the files results are spilled to. */
+	public static final String EXTENSION = ".kres";
+
+	/** The multiplier of the content hash, an odd 64-bit constant. */
+	private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+	/** The largest size of the results in memory. */
+	private final long maxBytes;
+	/** The results in memory, from least to most recently used. */
+	private final LinkedHashMap<String, int[]> entries;
+	/** The total size of the results in memory. */
+	private long totalBytes;
+	/** The folder results are spilled to, or null if they are dropped. */
+	private final File directory;
+	/** The largest size of the spilled results on disk. */
+	private final long maxSpillBytes;
+	/** The size of every spilled file, from least to most recently used. */
+	private final LinkedHashMap<String, Long> spilled;
+	/** The total size of the spilled files. */
+	private long spillBytes;
+	/** The number of lookups that found a result. */
+	private final LongAdder hits;
+	/** The number of lookups that did not. */
+	private final LongAdder misses;
+
+	/**
+	 * Constructs a ResultCache that only holds results in memory.
+	 * 
+	 * @param maxBytes
+	 *            The largest size of the results in memory.
+	 */
+	public ResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+
+		entries = new LinkedHashMap<String, int[]>(16, 0.75f, true);
+		totalBytes = 0;
+		directory = null;
+		maxSpillBytes = 0;
+		spilled = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		spillBytes = 0;
+		hits = new LongAdder();
+		misses = new LongAdder();
+	}
+
+	/**
+	 * Constructs a ResultCache that spills the results it drops from memory to
+	 * a folder. Files already in the folder are kept, in the order they were
+	 * last used.
+	 * 
+	 * @param maxBytes
+	 *            The largest size of the results in memory.
+	 * @param directory
+	 *            The folder results are spilled to.
+	 * @param maxSpillBytes
+	 *            The largest size of the spilled results on disk.
+	 * @throws IOException
+	 *             Thrown if the folder cannot be created.
+	 */
+	public ResultCache(long maxBytes, File directory, long maxSpillBytes) throws IOException {
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+		this.maxSpillBytes = maxSpillBytes;
+
+		entries = new LinkedHashMap<String, int[]>(16, 0.75f, true);
+		totalBytes = 0;
+		spilled = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		spillBytes = 0;
+		hits = new LongAdder();
+		misses = new LongAdder();
+
+		Files.createDirectories(directory.toPath());
+
+		File[] files = directory.listFiles((folder, name) -> name.endsWith(EXTENSION));
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+		for (File file : files) {
+			spilled.put(file.getName(), file.length());
+			spillBytes += file.length();
+		}
+	}
+
+	/**
+	 * Runs a filter through the cache: a cached result is copied into the
+	 * output, and otherwise the filter runs and its result is cached. Two
+	 * threads that miss on the same input at once both run the filter.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm, which also tags the metrics.
+	 * @param parameters
+	 *            Everything else the result depends on, such as the sepia
+	 *            depth and intensity.
+	 * @param backend
+	 *            The backend and its version, which also tags the metrics.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @param output
+	 *            The array to store the pixel data of the result image in.
+	 * @param filter
+	 *            Runs the filter on a miss.
+	 */
+	public void process(String algorithm, String parameters, String backend, int[] input, int[] output,
+			BiConsumer<int[], int[]> filter) {
+		String key = getKey(algorithm, parameters, backend, input);
+		boolean hit = get(key, output);
+		String size = MetricsRegistry.getSizeTag(input.length);
+
+		(hit ? hits : misses).increment();
+		MetricsRegistry.getDefault().getCounter(new MetricsRegistry.Key(
+				hit ? MetricsRegistry.CACHE_HITS : MetricsRegistry.CACHE_MISSES, algorithm, backend, size))
+				.increment();
+
+		if (!hit) {
+			filter.accept(input, output);
+			put(key, Arrays.copyOf(output, input.length));
+		}
+	}
+
+	/**
+	 * Gets the number of lookups that found a result.
+	 * 
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of lookups that did not find a result.
+	 * 
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the total size of the results in memory.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Gets the total size of the spilled results on disk.
+	 * 
+	 * @return The size in bytes, or 0 if results are not spilled.
+	 */
+	public synchronized long getSpillBytes() {
+		return spillBytes;
+	}
+
+	/**
+	 * Drops every result held in memory. Spilled results are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	/**
+	 * Computes the content hash of pixel data. Four lanes are hashed side by
+	 * side so the multiplications do not wait on each other, and the lanes are
+	 * mixed together at the end.
+	 * 
+	 * @param pixels
+	 *            The pixel data.
+	 * @return The hash.
+	 */
+	public static long hash(int[] pixels) {
+		long lane0 = PRIME;
+		long lane1 = PRIME * 3;
+		long lane2 = PRIME * 5;
+		long lane3 = PRIME * 7;
+		int index = 0;
+
+		for (; index + 4 <= pixels.length; index += 4) {
+			lane0 = (lane0 ^ pixels[index]) * PRIME;
+			lane1 = (lane1 ^ pixels[index + 1]) * PRIME;
+			lane2 = (lane2 ^ pixels[index + 2]) * PRIME;
+			lane3 = (lane3 ^ pixels[index + 3]) * PRIME;
+		}
+
+		for (; index < pixels.length; index += 1) {
+			lane0 = (lane0 ^ pixels[index]) * PRIME;
+		}
+
+		long hash = mix(lane0) ^ Long.rotateLeft(mix(lane1), 16) ^ Long.rotateLeft(mix(lane2), 32)
+				^ Long.rotateLeft(mix(lane3), 48);
+
+		return mix(hash ^ pixels.length);
+	}
+
+	/**
+	 * Looks up a result, first in memory and then on disk. A result read from
+	 * disk is moved back into memory.
+	 * 
+	 * @param key
+	 *            The key of the result.
+	 * @param output
+	 *            The array to copy the result into.
+	 * @return True if the result was found.
+	 */
+	private boolean get(String key, int[] output) {
+		String name = directory == null ? null : getFileName(key);
+
+		synchronized (this) {
+			int[] result = entries.get(key);
+
+			if (result != null) {
+				System.arraycopy(result, 0, output, 0, result.length);
+				return true;
+			}
+
+			if (name == null || spilled.get(name) == null) {
+				return false;
+			}
+		}
+
+		Path path = new File(directory, name).toPath();
+
+		try {
+			byte[] bytes = Files.readAllBytes(path);
+
+			if (bytes.length != 4L * output.length) {
+				throw new IOException("Wrong size for " + path);
+			}
+
+			ByteBuffer.wrap(bytes).asIntBuffer().get(output);
+
+			// The modification time keeps the use order across runs
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the file is gone or damaged, so the result is computed again
+			synchronized (this) {
+				removeSpilled(name);
+			}
+
+			return false;
+		}
+
+		put(key, Arrays.copyOf(output, output.length));
+
+		return true;
+	}
+
+	/**
+	 * Caches a result, then drops or spills the least recently used results
+	 * until the cache fits its size. A result larger than the whole cache is
+	 * not kept.
+	 * 
+	 * @param key
+	 *            The key of the result.
+	 * @param result
+	 *            The result, which the cache now owns.
+	 */
+	private void put(String key, int[] result) {
+		long bytes = 4L * result.length;
+		List<Map.Entry<String, int[]>> dropped = new ArrayList<Map.Entry<String, int[]>>();
+
+		synchronized (this) {
+			if (bytes > maxBytes) {
+				return;
+			}
+
+			int[] old = entries.put(key, result);
+			totalBytes += bytes - (old == null ? 0 : 4L * old.length);
+
+			Iterator<Map.Entry<String, int[]>> oldest = entries.entrySet().iterator();
+
+			while (totalBytes > maxBytes && oldest.hasNext()) {
+				Map.Entry<String, int[]> entry = oldest.next();
+
+				totalBytes -= 4L * entry.getValue().length;
+				dropped.add(entry);
+				oldest.remove();
+			}
+		}
+
+		for (Map.Entry<String, int[]> entry : dropped) {
+			spill(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Writes a result dropped from memory to the folder, then deletes the least
+	 * recently used files until the folder fits its size.
+	 * 
+	 * @param key
+	 *            The key of the result.
+	 * @param result
+	 *            The result.
+	 */
+	private void spill(String key, int[] result) {
+		if (directory == null) {
+			return;
+		}
+
+		String name = getFileName(key);
+		long bytes = 4L * result.length;
+
+		synchronized (this) {
+			if (bytes > Math.min(maxSpillBytes, Integer.MAX_VALUE) || spilled.get(name) != null) {
+				return;
+			}
+		}
+
+		Path path = new File(directory, name).toPath();
+
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+			buffer.asIntBuffer().put(result);
+
+			Path temp = BatchPipeline.createTempFile(directory.toPath(), "result");
+
+			try {
+				Files.write(temp, buffer.array());
+				BatchPipeline.moveIntoPlace(temp, path);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			// a result that cannot be spilled is only dropped
+			return;
+		}
+
+		synchronized (this) {
+			Long old = spilled.put(name, bytes);
+			spillBytes += bytes - (old == null ? 0 : old);
+
+			Iterator<Map.Entry<String, Long>> oldest = spilled.entrySet().iterator();
+
+			while (spillBytes > maxSpillBytes && oldest.hasNext()) {
+				Map.Entry<String, Long> entry = oldest.next();
+
+				if (entry.getKey().equals(name)) {
+					continue;
+				}
+
+				new File(directory, entry.getKey()).delete();
+				spillBytes -= entry.getValue();
+				oldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets a spilled file and deletes it if it is still there.
+	 * 
+	 * @param name
+	 *            The name of the file.
+	 */
+	private void removeSpilled(String name) {
+		Long bytes = spilled.remove(name);
+
+		if (bytes != null) {
+			spillBytes -= bytes;
+		}
+
+		new File(directory, name).delete();
+	}
+
+	/**
+	 * Makes the key of a result.
+	 * 
+	 * @param algorithm
+	 *            The name of the algorithm.
+	 * @param parameters
+	 *            The parameters of the algorithm.
+	 * @param backend
+	 *            The backend and its version.
+	 * @param input
+	 *            The pixel data of the input image.
+	 * @return The key.
+	 */
+	private static String getKey(String algorithm, String parameters, String backend, int[] input) {
+		return VERSION + "|" + algorithm + "|" + parameters + "|" + backend + "|" + input.length + "|"
+				+ Long.toHexString(hash(input));
+	}
+
+	/**
+	 * Makes the name of the file a result is spilled to, so that any key can
+	 * be a file name.
+	 * 
+	 * @param key
+	 *            The key of the result.
+	 * @return The file name.
+	 */
+	private static String getFileName(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder name = new StringBuilder();
+
+			for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+				name.append(String.format("%02x", b));
+			}
+
+			return name.append(EXTENSION).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Mixes the bits of a hash so that every input bit affects every output
+	 * bit.
+	 * 
+	 * @param hash
+	 *            The hash.
+	 * @return The mixed hash.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
@@ -0,0 +1,114 @@
+package kings.image;
+
+/**
+ * A point operation that depends only on the sum of the red, green and blue
+ * values, stored as a 766-entry table of packed colors. Sepia is one of these,
+ * since it only looks at the channel average. A per-channel lookup table can
+ * be composed onto the end so that the whole chain is still one lookup per
+ * pixel. The alpha value is never changed.
+ *
+ * @author Courtney Rikoskie
+ * @version 10-17-19
+ */
+public final class SumLookupTable {
+	/** The number of entries, one for every possible channel sum. */
+	public static final int SIZE = 3 * PixelOps.CHANNEL_MAX + 1;
+
+	/** The packed red, green and blue values for every channel sum. */
+	private final int[] colors;
+
+	/**
+	 * Constructs a SumLookupTable. The table is not copied.
+	 *
+	 * @param colors
+	 *            The packed red, green and blue values for every channel sum.
+	 */
+	private SumLookupTable(int[] colors) {
+		this.colors = colors;
+	}
+
+	/**
+	 * Creates the sepia table.
+	 *
+	 * @param depth
+	 *            The sepia depth.
+	 * @param intensity
+	 *            The sepia intensity.
+	 * @return The lookup table.
+	 */
+	public static SumLookupTable sepia(int depth, int intensity) {
+		int[] colors = new int[SIZE];
+
+		for (int sum = 0; sum < SIZE; sum += 1) {
+			int average = sum / 3;
+
+			int red = PixelOps.clamp(average + (depth * 2));
+			int green = PixelOps.clamp(average + depth);
+			int blue = PixelOps.clamp(average - intensity);
+
+			colors[sum] = PixelOps.withRGB(0, red, green, blue);
+		}
+
+		return new SumLookupTable(colors);
+	}
+
+	/**
+	 * Composes this table with a per-channel table into a single table that has
+	 * the same effect as applying this table and then the next.
+	 *
+	 * @param next
+	 *            The table to apply after this one.
+	 * @return The composed table.
+	 */
+	public SumLookupTable then(LookupTable next) {
+		int[] newColors = new int[SIZE];
+
+		for (int sum = 0; sum < SIZE; sum += 1) {
+			newColors[sum] = next.apply(colors[sum]);
+		}
+
+		return new SumLookupTable(newColors);
+	}
+
+	/**
+	 * Gets the packed red, green and blue values for a channel sum.
+	 * 
+	 * @param sum
+	 *            The sum of the red, green and blue values.
+	 * @return The packed color, with no alpha.
+	 */
+	public int get(int sum) {
+		return colors[sum];
+	}
+
+	/**
+	 * Applies the table to one pixel.
+	 *
+	 * @param pixel
+	 *            The pixel color information.
+	 * @return The new pixel color information.
+	 */
+	public int apply(int pixel) {
+		int sum = PixelOps.red(pixel) + PixelOps.green(pixel) + PixelOps.blue(pixel);
+
+		return (pixel & Pixel.ALPHA_MASK) | colors[sum];
+	}
+
+	/**
+	 * Applies the table to a range of pixels.
+	 *
+	 * @param input
+	 *            The input pixel data.
+	 * @param output
+	 *            The array to store the result in.
+	 * @param start
+	 *            The first index to process.
+	 * @param end
+	 *            One past the last index to process.
+	 */
+	public void apply(int[] input, int[] output, int start, int end) {
+		for (int index = start; index < end; index += 1) {
+			output[index] = apply(input[index]);
+		}
+	}
+}
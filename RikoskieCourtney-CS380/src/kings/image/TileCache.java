@@ -0,0 +1,109 @@
+package kings.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of filtered tiles, bounded by the total size of their pixels. When
+ * the cache is full, the least recently used tiles are dropped first, so the
+ * tiles on screen, which are looked up every time they are painted, are the
+ * last to go.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-06-19
+ */
+public class TileCache {
+	/** The default largest size of the tiles (128 MB). */
+	public static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+	/** The largest size of the tiles. */
+	private final long maxBytes;
+	/** The tiles, from least to most recently used. */
+	private final LinkedHashMap<String, BufferedImage> tiles;
+	/** The total size of the tiles. */
+	private long totalBytes;
+
+	/**
+	 * Constructs a TileCache.
+	 * 
+	 * @param maxBytes
+	 *            The largest size of the tiles.
+	 */
+	public TileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+
+		tiles = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+		totalBytes = 0;
+	}
+
+	/**
+	 * Gets a tile.
+	 * 
+	 * @param key
+	 *            The key of the tile.
+	 * @return The tile, or null if it is not cached.
+	 */
+	public synchronized BufferedImage get(String key) {
+		return tiles.get(key);
+	}
+
+	/**
+	 * Caches a tile, then drops the least recently used tiles until the cache
+	 * fits its size.
+	 * 
+	 * @param key
+	 *            The key of the tile.
+	 * @param tile
+	 *            The tile, which must not be changed afterwards.
+	 */
+	public synchronized void put(String key, BufferedImage tile) {
+		BufferedImage old = tiles.put(key, tile);
+		totalBytes += getBytes(tile) - (old == null ? 0 : getBytes(old));
+
+		Iterator<Map.Entry<String, BufferedImage>> oldest = tiles.entrySet().iterator();
+
+		while (totalBytes > maxBytes && oldest.hasNext()) {
+			Map.Entry<String, BufferedImage> entry = oldest.next();
+
+			if (entry.getKey().equals(key)) {
+				continue;
+			}
+
+			totalBytes -= getBytes(entry.getValue());
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Drops every tile.
+	 */
+	public synchronized void clear() {
+		tiles.clear();
+		totalBytes = 0;
+	}
+
+	/**
+	 * Gets the total size of the tiles.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Gets the size of the pixels of a tile.
+	 * 
+	 * @param tile
+	 *            The tile.
+	 * @return The size in bytes.
+	 */
+	private static long getBytes(BufferedImage tile) {
+		DataBuffer buffer = tile.getRaster().getDataBuffer();
+
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+}
@@ -0,0 +1,850 @@
+package kings.image;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * A zoomable view of an image for a scroll pane. The image is drawn in tiles
+ * from the pyramid level that matches the zoom, so a zoomed-out view of a huge
+ * image only touches a small level. A viewer with a tile cache shows a filtered
+ * image instead: only the tiles in the viewport, and a margin of tiles around
+ * it, are filtered, one at a time on an executor, nearest the middle of the
+ * view first. Every scroll or zoom reorders the tiles still waiting. Filtered
+ * tiles are kept in the cache, so scrolling back over them is free, and until
+ * a tile is done the viewer shows it from a coarser filtered level, or the
+ * unfiltered image. Dragging pans the view and Ctrl with the mouse wheel
+ * zooms it.
+ * 
+ * @author Courtney Rikoskie
+ * @version 12-06-19
+ */
+public class TileViewer extends JComponent implements Scrollable, ChangeListener {
+	/** The width and height of a tile, in pixels of its level. */
+	public static final int TILE_SIZE = 256;
+	/** The number of tiles around the viewport that are filtered ahead of time. */
+	public static final int PREFETCH_TILES = 1;
+	/** The smallest zoom. */
+	public static final double MIN_ZOOM = 1.0 / 64;
+	/** The largest zoom. */
+	public static final double MAX_ZOOM = 16;
+	/** The name of the property fired, with the exception, when a tile cannot be filtered. */
+	public static final String FAILURE_PROPERTY = "failure";
+
+	/** Generated unique serial ID. */
+	private static final long serialVersionUID = 4178529314560193120L;
+	/** The number of pixels the view scrolls for each unit. */
+	private static final int UNIT_INCREMENT = 16;
+
+	/** The cache of filtered tiles, or null if the viewer shows the image itself. */
+	private final transient TileCache cache;
+	/** Runs the tile filters, or null if the viewer shows the image itself. */
+	private final transient Executor executor;
+	/** The tiles waiting to be filtered, the most urgent first. */
+	private final transient PriorityQueue<TileRequest> pending;
+	/** Whether a task is filtering the pending tiles. */
+	private boolean draining;
+
+	/** The image, or null. */
+	private transient BufferedImage image;
+	/** The mipmap pyramid of the image, or null until it is built. */
+	private transient ImagePyramid pyramid;
+	/** The number of images shown so far, which keeps their tiles apart in the cache. */
+	private int imageCount;
+	/** The zoom, in screen pixels per image pixel. */
+	private double zoom;
+	/** The name of the filter and its settings, or null to show nothing. */
+	private String filterName;
+	/** The filter. */
+	private transient TileFilter filter;
+	/** The viewport the viewer is in, or null. */
+	private JViewport viewport;
+	/** The viewer kept at the same zoom and scroll position, or null. */
+	private TileViewer linked;
+
+	/**
+	 * Constructs a TileViewer that shows the image itself.
+	 */
+	public TileViewer() {
+		this(null, null);
+	}
+
+	/**
+	 * Constructs a TileViewer that shows a filtered image.
+	 * 
+	 * @param cache
+	 *            The cache of filtered tiles.
+	 * @param executor
+	 *            Runs the tile filters, such as the single thread that runs
+	 *            every filter job, one tile per task.
+	 */
+	public TileViewer(TileCache cache, Executor executor) {
+		this.cache = cache;
+		this.executor = executor;
+
+		pending = new PriorityQueue<TileRequest>();
+		zoom = 1;
+
+		MouseAdapter mouse = new MouseAdapter() {
+			/** Where the last drag event was, on the screen. */
+			private Point last;
+
+			@Override
+			public void mousePressed(MouseEvent event) {
+				last = event.getLocationOnScreen();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent event) {
+				Point now = event.getLocationOnScreen();
+
+				if (last != null && viewport != null) {
+					Point position = viewport.getViewPosition();
+					scrollTo(position.x - (now.x - last.x), position.y - (now.y - last.y));
+				}
+
+				last = now;
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent event) {
+				if (event.isControlDown()) {
+					setZoom(zoom * Math.pow(2, -event.getPreciseWheelRotation() / 2), event.getPoint());
+				} else {
+					// Scrolling is left to the scroll pane
+					JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class,
+							TileViewer.this);
+
+					if (scrollPane != null) {
+						scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(TileViewer.this, event, scrollPane));
+					}
+				}
+			}
+		};
+
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+	}
+
+	/**
+	 * Shows another image, dropping the pyramid and the filter.
+	 * 
+	 * @param image
+	 *            The image, or null to show nothing.
+	 */
+	public void setImage(BufferedImage image) {
+		this.image = image;
+
+		imageCount += 1;
+		pyramid = null;
+		filterName = null;
+		filter = null;
+
+		if (cache != null) {
+			cache.clear();
+		}
+
+		changed();
+	}
+
+	/**
+	 * Gets the image.
+	 * 
+	 * @return The image, or null.
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Sets the mipmap pyramid the zoomed-out views are drawn and filtered from.
+	 * A pyramid of another image is ignored.
+	 * 
+	 * @param pyramid
+	 *            The pyramid of the image.
+	 */
+	public void setPyramid(ImagePyramid pyramid) {
+		if (pyramid != null && pyramid.getSource() == image) {
+			this.pyramid = pyramid;
+			changed();
+		}
+	}
+
+	/**
+	 * Sets the filter of a viewer with a tile cache. Tiles are cached under the
+	 * filter's name, so the name must change whenever the filter's results
+	 * would, and going back to a filter reuses the tiles still in the cache.
+	 * 
+	 * @param name
+	 *            The name of the filter and its settings, or null to show
+	 *            nothing.
+	 * @param filter
+	 *            The filter.
+	 */
+	public void setFilter(String name, TileFilter filter) {
+		filterName = name;
+		this.filter = name == null ? null : filter;
+
+		changed();
+	}
+
+	/**
+	 * Gets the name of the filter.
+	 * 
+	 * @return The name, or null if there is no filter.
+	 */
+	public String getFilterName() {
+		return filterName;
+	}
+
+	/**
+	 * Gets the filtered tiles of the full-size image that are in the cache. The
+	 * lookup keeps to the image and filter shown when it was made, and can be
+	 * used on any thread.
+	 * 
+	 * @return Gets a tile by column and row, or null if it has not been
+	 *         filtered.
+	 */
+	public BiFunction<Integer, Integer, BufferedImage> getFilteredTiles() {
+		String prefix = imageCount + "|" + filterName + "|0|";
+		TileCache tiles = filterName == null ? null : cache;
+
+		return (column, row) -> tiles == null ? null : tiles.get(prefix + column + "|" + row);
+	}
+
+	/**
+	 * Gets the zoom.
+	 * 
+	 * @return The zoom, in screen pixels per image pixel.
+	 */
+	public double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Changes the zoom, keeping the middle of the view in place.
+	 * 
+	 * @param zoom
+	 *            The new zoom.
+	 */
+	public void setZoom(double zoom) {
+		Rectangle visible = getVisibleRect();
+
+		setZoom(zoom, new Point(visible.x + visible.width / 2, visible.y + visible.height / 2));
+	}
+
+	/**
+	 * Changes the zoom, keeping one point of the view in place.
+	 * 
+	 * @param zoom
+	 *            The new zoom.
+	 * @param anchor
+	 *            The point, in the viewer's coordinates.
+	 */
+	public void setZoom(double zoom, Point anchor) {
+		double old = this.zoom;
+		double ratio = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom)) / old;
+
+		if (ratio == 1) {
+			return;
+		}
+
+		Point position = viewport == null ? null : viewport.getViewPosition();
+
+		// The linked viewer follows the scroll position once this one has moved
+		if (linked != null) {
+			linked.resize(old * ratio);
+		}
+
+		resize(old * ratio);
+
+		if (position != null) {
+			scrollTo((int) Math.round(anchor.x * ratio) - (anchor.x - position.x),
+					(int) Math.round(anchor.y * ratio) - (anchor.y - position.y));
+		}
+	}
+
+	/**
+	 * Keeps two viewers at the same zoom and scroll position, such as the input
+	 * and output images side by side.
+	 * 
+	 * @param other
+	 *            The other viewer.
+	 */
+	public void link(TileViewer other) {
+		linked = other;
+		other.linked = this;
+	}
+
+	/**
+	 * Zooms so the whole image fits in the viewport, but never past full size.
+	 */
+	public void zoomToFit() {
+		if (image != null && viewport != null) {
+			Dimension extent = viewport.getExtentSize();
+
+			setZoom(Math.min(1, Math.min((double) extent.width / image.getWidth(),
+					(double) extent.height / image.getHeight())));
+		}
+	}
+
+	/**
+	 * Gets the size of the image at the current zoom.
+	 * 
+	 * @return The size.
+	 */
+	@Override
+	public Dimension getPreferredSize() {
+		if (image == null) {
+			return new Dimension(0, 0);
+		}
+
+		return new Dimension((int) Math.ceil(image.getWidth() * zoom), (int) Math.ceil(image.getHeight() * zoom));
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return UNIT_INCREMENT;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		int extent = orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+
+		return Math.max(UNIT_INCREMENT, extent - UNIT_INCREMENT);
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return false;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+
+		if (getParent() instanceof JViewport) {
+			viewport = (JViewport) getParent();
+			viewport.addChangeListener(this);
+		}
+	}
+
+	@Override
+	public void removeNotify() {
+		if (viewport != null) {
+			viewport.removeChangeListener(this);
+			viewport = null;
+		}
+
+		super.removeNotify();
+	}
+
+	/**
+	 * Queues the tiles of the new view when the viewport scrolls or resizes.
+	 * 
+	 * @param event
+	 *            The change event.
+	 */
+	@Override
+	public void stateChanged(ChangeEvent event) {
+		if (linked != null && linked.viewport != null
+				&& !linked.viewport.getViewPosition().equals(viewport.getViewPosition())) {
+			linked.viewport.setViewPosition(viewport.getViewPosition());
+		}
+
+		requestTiles();
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		if (image == null || (cache != null && filter == null)) {
+			return;
+		}
+
+		int level = getLevel();
+		BufferedImage levelImage = getLevelImage(level);
+		Rectangle clip = g.getClipBounds() != null ? g.getClipBounds() : new Rectangle(getPreferredSize());
+		Rectangle tiles = getTiles(level, clip);
+
+		for (int row = tiles.y; row < tiles.y + tiles.height; row += 1) {
+			for (int column = tiles.x; column < tiles.x + tiles.width; column += 1) {
+				Rectangle bounds = getTileBounds(level, column, row);
+
+				if (cache == null) {
+					drawRegion(g, levelImage, level, bounds);
+					continue;
+				}
+
+				BufferedImage tile = cache.get(getKey(level, column, row));
+
+				if (tile != null) {
+					drawRegion(g, tile, level, bounds);
+				} else {
+					drawRegion(g, levelImage, level, bounds);
+					drawCoarser(g, level, toView(level, bounds));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the best coarser filtered level over part of the view, where a tile
+	 * is not filtered yet.
+	 * 
+	 * @param g
+	 *            The graphics to draw with.
+	 * @param level
+	 *            The level of the missing tile.
+	 * @param area
+	 *            The part of the view the missing tile covers.
+	 */
+	private void drawCoarser(Graphics g, int level, Rectangle area) {
+		int levels = pyramid == null ? 1 : pyramid.getLevelCount();
+
+		for (int coarser = level + 1; coarser < levels; coarser += 1) {
+			Rectangle tiles = getTiles(coarser, area);
+			BufferedImage[] found = new BufferedImage[tiles.width * tiles.height];
+
+			for (int index = 0; index < found.length; index += 1) {
+				found[index] = cache.get(getKey(coarser, tiles.x + index % tiles.width, tiles.y + index / tiles.width));
+
+				if (found[index] == null) {
+					found = null;
+					break;
+				}
+			}
+
+			if (found != null) {
+				Graphics clipped = g.create();
+				clipped.clipRect(area.x, area.y, area.width, area.height);
+
+				for (int index = 0; index < found.length; index += 1) {
+					drawRegion(clipped, found[index], coarser,
+							getTileBounds(coarser, tiles.x + index % tiles.width, tiles.y + index / tiles.width));
+				}
+
+				clipped.dispose();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Draws a region of a level, scaled to the zoom.
+	 * 
+	 * @param g
+	 *            The graphics to draw with.
+	 * @param source
+	 *            The level image, or a tile of exactly the region's size.
+	 * @param level
+	 *            The level.
+	 * @param bounds
+	 *            The region, in pixels of the level.
+	 */
+	private void drawRegion(Graphics g, BufferedImage source, int level, Rectangle bounds) {
+		Rectangle view = toView(level, bounds);
+		boolean tile = source.getWidth() == bounds.width && source.getHeight() == bounds.height;
+		int x = tile ? 0 : bounds.x;
+		int y = tile ? 0 : bounds.y;
+
+		g.drawImage(source, view.x, view.y, view.x + view.width, view.y + view.height, x, y, x + bounds.width,
+				y + bounds.height, null);
+	}
+
+	/**
+	 * Queues the tiles that the view needs and that are not in the cache: the
+	 * coarsest level first, which is one small tile and makes a preview of the
+	 * whole view, then the tiles in the viewport and last the margin around it,
+	 * each nearest the middle of the view first. Tiles queued for an earlier
+	 * view are dropped.
+	 */
+	private void requestTiles() {
+		synchronized (pending) {
+			pending.clear();
+		}
+
+		if (image == null || filter == null || viewport == null) {
+			return;
+		}
+
+		Rectangle visible = getVisibleRect();
+
+		if (visible.isEmpty()) {
+			return;
+		}
+
+		int level = getLevel();
+		int coarsest = pyramid == null ? 0 : pyramid.getLevelCount() - 1;
+
+		if (coarsest > level) {
+			queue(coarsest, getTiles(coarsest, visible), null, 0);
+		}
+
+		Rectangle tiles = getTiles(level, visible);
+		Rectangle margin = new Rectangle(tiles.x - PREFETCH_TILES, tiles.y - PREFETCH_TILES,
+				tiles.width + 2 * PREFETCH_TILES, tiles.height + 2 * PREFETCH_TILES)
+						.intersection(getTiles(level, new Rectangle(getPreferredSize())));
+		Point middle = new Point(visible.x + visible.width / 2, visible.y + visible.height / 2);
+
+		queue(level, tiles, middle, 1);
+		queue(level, margin, middle, 2);
+
+		synchronized (pending) {
+			if (!draining && !pending.isEmpty()) {
+				draining = true;
+				executor.execute(this::filterNextTile);
+			}
+		}
+	}
+
+	/**
+	 * Queues the tiles of a range that are not in the cache and not in an
+	 * earlier group.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param tiles
+	 *            The columns and rows of the tiles.
+	 * @param middle
+	 *            The middle of the view, which nearer tiles are filtered before,
+	 *            or null for any order.
+	 * @param group
+	 *            The group, lower groups first; the tiles of a range within an
+	 *            earlier group of the same level are skipped.
+	 */
+	private void queue(int level, Rectangle tiles, Point middle, int group) {
+		Rectangle visible = getTiles(level, getVisibleRect());
+
+		for (int row = tiles.y; row < tiles.y + tiles.height; row += 1) {
+			for (int column = tiles.x; column < tiles.x + tiles.width; column += 1) {
+				String key = getKey(level, column, row);
+
+				if ((group == 2 && visible.contains(column, row)) || cache.get(key) != null) {
+					continue;
+				}
+
+				Rectangle bounds = getTileBounds(level, column, row);
+				Rectangle view = toView(level, bounds);
+				double distance = middle == null ? 0 : middle.distance(view.getCenterX(), view.getCenterY());
+
+				synchronized (pending) {
+					pending.add(new TileRequest(key, getLevelImage(level), bounds, filter, group, distance));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Filters the most urgent pending tile on the executor, then queues itself
+	 * again while tiles are pending, so other tasks on the executor run between
+	 * tiles. A tile that fails stops the rest and is reported to the
+	 * FAILURE_PROPERTY listeners; an Error stops the rest too, so the next
+	 * tiles asked for start filtering again.
+	 */
+	private void filterNextTile() {
+		TileRequest request;
+
+		synchronized (pending) {
+			request = pending.poll();
+
+			if (request == null) {
+				draining = false;
+				return;
+			}
+		}
+
+		boolean queued = false;
+
+		try {
+			if (cache.get(request.key) == null) {
+				try {
+					BufferedImage tile = new BufferedImage(request.bounds.width, request.bounds.height,
+							RasterPixels.getDestinationType(request.image));
+					request.filter.filter(request.image, request.bounds, tile);
+					cache.put(request.key, tile);
+
+					SwingUtilities.invokeLater(this::repaint);
+				} catch (RuntimeException e) {
+					SwingUtilities.invokeLater(() -> firePropertyChange(FAILURE_PROPERTY, null, e));
+					return;
+				}
+			}
+
+			executor.execute(this::filterNextTile);
+			queued = true;
+		} finally {
+			if (!queued) {
+				synchronized (pending) {
+					pending.clear();
+					draining = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Changes the zoom without scrolling.
+	 * 
+	 * @param zoom
+	 *            The new zoom.
+	 */
+	private void resize(double zoom) {
+		this.zoom = zoom;
+
+		if (viewport != null) {
+			viewport.setViewSize(getPreferredSize());
+		}
+
+		revalidate();
+		changed();
+	}
+
+	/**
+	 * Repaints the viewer and queues the tiles of the new view.
+	 */
+	private void changed() {
+		repaint();
+		requestTiles();
+	}
+
+	/**
+	 * Scrolls the view, keeping it inside the image.
+	 * 
+	 * @param x
+	 *            The new left edge of the view.
+	 * @param y
+	 *            The new top edge of the view.
+	 */
+	private void scrollTo(int x, int y) {
+		Dimension size = viewport.getViewSize();
+		Dimension extent = viewport.getExtentSize();
+
+		viewport.setViewPosition(new Point(Math.max(0, Math.min(x, size.width - extent.width)),
+				Math.max(0, Math.min(y, size.height - extent.height))));
+	}
+
+	/**
+	 * Gets the pyramid level that matches the zoom: the smallest level that
+	 * still has at least one pixel for every screen pixel.
+	 * 
+	 * @return The level, 0 for the image itself.
+	 */
+	private int getLevel() {
+		if (pyramid == null || zoom >= 1) {
+			return 0;
+		}
+
+		int level = (int) Math.floor(Math.log(1 / zoom) / Math.log(2) + 1e-9);
+
+		return Math.min(level, pyramid.getLevelCount() - 1);
+	}
+
+	/**
+	 * Gets the image of a level.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @return The image.
+	 */
+	private BufferedImage getLevelImage(int level) {
+		return level == 0 ? image : pyramid.getLevel(level);
+	}
+
+	/**
+	 * Gets the tiles of a level that cover part of the view.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param area
+	 *            The part of the view.
+	 * @return The first column and row, and the numbers of columns and rows.
+	 */
+	private Rectangle getTiles(int level, Rectangle area) {
+		BufferedImage levelImage = getLevelImage(level);
+		double scaleX = getScaleX(level);
+		double scaleY = getScaleY(level);
+		int columns = (levelImage.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+		int rows = (levelImage.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+
+		int firstColumn = Math.max(0, (int) Math.floor(area.x / scaleX) / TILE_SIZE);
+		int firstRow = Math.max(0, (int) Math.floor(area.y / scaleY) / TILE_SIZE);
+		int lastColumn = Math.min(columns - 1, (int) Math.ceil((area.x + area.width) / scaleX) / TILE_SIZE);
+		int lastRow = Math.min(rows - 1, (int) Math.ceil((area.y + area.height) / scaleY) / TILE_SIZE);
+
+		return new Rectangle(firstColumn, firstRow, Math.max(0, lastColumn - firstColumn + 1),
+				Math.max(0, lastRow - firstRow + 1));
+	}
+
+	/**
+	 * Gets the pixels of a tile, clipped to its level.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param column
+	 *            The column of the tile.
+	 * @param row
+	 *            The row of the tile.
+	 * @return The tile's region of the level.
+	 */
+	private Rectangle getTileBounds(int level, int column, int row) {
+		BufferedImage levelImage = getLevelImage(level);
+		int x = column * TILE_SIZE;
+		int y = row * TILE_SIZE;
+
+		return new Rectangle(x, y, Math.min(TILE_SIZE, levelImage.getWidth() - x),
+				Math.min(TILE_SIZE, levelImage.getHeight() - y));
+	}
+
+	/**
+	 * Maps a region of a level to the view. Neighboring regions map to
+	 * neighboring rectangles, with no gap between them.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param bounds
+	 *            The region, in pixels of the level.
+	 * @return The region, in pixels of the view.
+	 */
+	private Rectangle toView(int level, Rectangle bounds) {
+		double scaleX = getScaleX(level);
+		double scaleY = getScaleY(level);
+		int left = (int) Math.floor(bounds.x * scaleX);
+		int top = (int) Math.floor(bounds.y * scaleY);
+
+		return new Rectangle(left, top, (int) Math.floor((bounds.x + bounds.width) * scaleX) - left,
+				(int) Math.floor((bounds.y + bounds.height) * scaleY) - top);
+	}
+
+	/**
+	 * Gets the width of a pixel of a level in the view.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @return The number of view pixels per level pixel across.
+	 */
+	private double getScaleX(int level) {
+		return zoom * image.getWidth() / getLevelImage(level).getWidth();
+	}
+
+	/**
+	 * Gets the height of a pixel of a level in the view.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @return The number of view pixels per level pixel down.
+	 */
+	private double getScaleY(int level) {
+		return zoom * image.getHeight() / getLevelImage(level).getHeight();
+	}
+
+	/**
+	 * Makes the cache key of a tile of the current image and filter.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param column
+	 *            The column of the tile.
+	 * @param row
+	 *            The row of the tile.
+	 * @return The key.
+	 */
+	private String getKey(int level, int column, int row) {
+		return imageCount + "|" + filterName + "|" + level + "|" + column + "|" + row;
+	}
+
+	/**
+	 * Filters one tile of an image into a new image the size of the tile.
+	 */
+	public interface TileFilter {
+		/**
+		 * Filters a tile. The whole image is given so a filter that reads the
+		 * pixels around each pixel can read past the edges of the tile.
+		 * 
+		 * @param image
+		 *            The image, or pyramid level, the tile is part of.
+		 * @param bounds
+		 *            The tile, in pixels of the image.
+		 * @param target
+		 *            The image to store the filtered tile in.
+		 */
+		void filter(BufferedImage image, Rectangle bounds, BufferedImage target);
+	}
+
+	/**
+	 * A tile waiting to be filtered.
+	 */
+	private static class TileRequest implements Comparable<TileRequest> {
+		/** The cache key of the tile. */
+		private final String key;
+		/** The image, or pyramid level, the tile is part of. */
+		private final BufferedImage image;
+		/** The tile, in pixels of the image. */
+		private final Rectangle bounds;
+		/** The filter. */
+		private final TileFilter filter;
+		/** The group of the tile, lower groups first. */
+		private final int group;
+		/** The distance of the tile from the middle of the view. */
+		private final double distance;
+
+		/**
+		 * Constructs a TileRequest.
+		 * 
+		 * @param key
+		 *            The cache key of the tile.
+		 * @param image
+		 *            The image, or pyramid level, the tile is part of.
+		 * @param bounds
+		 *            The tile, in pixels of the image.
+		 * @param filter
+		 *            The filter.
+		 * @param group
+		 *            The group of the tile, lower groups first.
+		 * @param distance
+		 *            The distance of the tile from the middle of the view.
+		 */
+		TileRequest(String key, BufferedImage image, Rectangle bounds, TileFilter filter, int group,
+				double distance) {
+			this.key = key;
+			this.image = image;
+			this.bounds = bounds;
+			this.filter = filter;
+			this.group = group;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(TileRequest other) {
+			return group != other.group ? Integer.compare(group, other.group)
+					: Double.compare(distance, other.distance);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package kings.image;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Processes images that are too large to hold in memory. The source is read
+ * one tile at a time, each tile is filtered, and the result is written into
+ * place in the output file before the next tile is read, so memory use depends
+ * on the tile size rather than the image size. The output format must support
+ * writing an empty image and replacing its pixels, which TIFF does.
+ * 
+ * @author Courtney Rikoskie
+ * @version 11-11-19
+ */
+public class TiledImageProcessor {
+	/** The default width and height of a tile in pixels. */
+	public static final int DEFAULT_TILE_SIZE = 2048;
+	/** The number that TIFF tile sizes must be a multiple of. */
+	private static final int TILE_MULTIPLE = 16;
+
+	/** The filter to run on each tile. */
+	private final BiConsumer<int[], int[]> filter;
+	/** The width of a tile. */
+	private final int tileWidth;
+	/** The height of a tile. */
+	private final int tileHeight;
+
+	/**
+	 * Constructs a TiledImageProcessor with the default tile size.
+	 * 
+	 * @param filter
+	 *            The filter, which reads the input pixels and writes the result
+	 *            pixels.
+	 */
+	public TiledImageProcessor(BiConsumer<int[], int[]> filter) {
+		this(filter, DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Constructs a TiledImageProcessor.
+	 * 
+	 * @param filter
+	 *            The filter, which reads the input pixels and writes the result
+	 *            pixels.
+	 * @param tileWidth
+	 *            The width of a tile in pixels. TIFF output rounds it up to a
+	 *            multiple of 16.
+	 * @param tileHeight
+	 *            The height of a tile in pixels. TIFF output rounds it up to a
+	 *            multiple of 16.
+	 */
+	public TiledImageProcessor(BiConsumer<int[], int[]> filter, int tileWidth, int tileHeight) {
+		if (tileWidth < 1 || tileHeight < 1) {
+			throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+		}
+
+		this.filter = filter;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+	}
+
+	/**
+	 * Filters an image tile by tile. The output format comes from the output
+	 * file's extension, and the output is written to a temporary file and moved
+	 * into place at the end.
+	 * 
+	 * @param input
+	 *            The input image file.
+	 * @param output
+	 *            The output image file, such as a .tif file.
+	 * @return The number of tiles processed.
+	 * @throws IOException
+	 *             Thrown if the input cannot be read or the output cannot be
+	 *             written tile by tile.
+	 */
+	public int process(File input, File output) throws IOException {
+		String format = getFormat(output);
+
+		// Fails before anything is read or written if the format cannot be written
+		getWriter(format).dispose();
+
+		Path folder = output.getAbsoluteFile().getParentFile().toPath();
+		Path temp = BatchPipeline.createTempFile(folder, output.getName());
+
+		try {
+			int tiles;
+
+			try (ImageInputStream in = ImageIO.createImageInputStream(input);
+					ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+				if (in == null || out == null) {
+					throw new IOException("Cannot open " + input + " or " + output);
+				}
+
+				ImageReader reader = getReader(in, input);
+				ImageWriter writer = getWriter(format);
+
+				try {
+					reader.setInput(in, true, true);
+					writer.setOutput(out);
+
+					tiles = process(reader, writer);
+				} finally {
+					reader.dispose();
+					writer.dispose();
+				}
+			}
+
+			BatchPipeline.moveIntoPlace(temp, output.toPath());
+
+			return tiles;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads, filters and writes every tile.
+	 * 
+	 * @param reader
+	 *            The reader, with its input set.
+	 * @param writer
+	 *            The writer, with its output set.
+	 * @return The number of tiles processed.
+	 * @throws IOException
+	 *             Thrown if a tile cannot be read or written.
+	 */
+	private int process(ImageReader reader, ImageWriter writer) throws IOException {
+		int width = reader.getWidth(0);
+		int height = reader.getHeight(0);
+		ImageTypeSpecifier sourceType = reader.getRawImageType(0);
+
+		if (sourceType == null) {
+			sourceType = reader.getImageTypes(0).next();
+		}
+
+		boolean alpha = sourceType.getColorModel().hasAlpha();
+		int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		String format = writer.getOriginatingProvider().getFormatNames()[0];
+		ImageWriteParam writeParam = writer.getDefaultWriteParam();
+
+		int tileWidth = this.tileWidth;
+		int tileHeight = this.tileHeight;
+
+		// Replacing pixels in a striped or partly covered TIFF tile can misplace
+		// them, so the file is tiled with the same tiles that are processed
+		if (writeParam.canWriteTiles()) {
+			tileWidth = roundUp(tileWidth);
+			tileHeight = roundUp(tileHeight);
+
+			writeParam.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+			writeParam.setTiling(tileWidth, tileHeight, 0, 0);
+		}
+
+		ImageReadParam readParam = reader.getDefaultReadParam();
+
+		// The JDK TIFF writer cannot replace the pixels of an image that is one
+		// tile, so an image that fits in one tile is written in one go
+		if (width <= tileWidth && height <= tileHeight) {
+			writer.write(null, new IIOImage(filterTile(reader, readParam, new Rectangle(0, 0, width, height), type),
+					null, null), writeParam);
+
+			return 1;
+		}
+
+		writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromBufferedImageType(type), width, height, null,
+				null, writeParam);
+
+		if (!writer.canReplacePixels(0)) {
+			throw new IOException("The " + format + " writer cannot write tile by tile; use a .tif output file.");
+		}
+
+		writer.prepareReplacePixels(0, new Rectangle(0, 0, width, height));
+
+		int tiles = 0;
+
+		for (int y = 0; y < height; y += tileHeight) {
+			for (int x = 0; x < width; x += tileWidth) {
+				Rectangle tile = new Rectangle(x, y, Math.min(tileWidth, width - x), Math.min(tileHeight, height - y));
+
+				writeParam.setDestinationOffset(new Point(x, y));
+				writer.replacePixels(filterTile(reader, readParam, tile, type), writeParam);
+
+				tiles += 1;
+			}
+		}
+
+		writer.endReplacePixels();
+		writer.endWriteEmpty();
+
+		return tiles;
+	}
+
+	/**
+	 * Reads and filters one tile.
+	 * 
+	 * @param reader
+	 *            The reader, with its input set.
+	 * @param readParam
+	 *            The parameters to read with.
+	 * @param tile
+	 *            The tile, in pixels of the image.
+	 * @param type
+	 *            The type of the result tile.
+	 * @return The filtered tile.
+	 * @throws IOException
+	 *             Thrown if the tile cannot be read.
+	 */
+	private BufferedImage filterTile(ImageReader reader, ImageReadParam readParam, Rectangle tile, int type)
+			throws IOException {
+		readParam.setSourceRegion(tile);
+		int[] pixels = BatchPipeline.getPixels(reader.read(0, readParam));
+
+		// The filter writes straight into the result tile
+		BufferedImage result = new BufferedImage(tile.width, tile.height, type);
+		filter.accept(pixels, ((DataBufferInt) result.getRaster().getDataBuffer()).getData());
+
+		return result;
+	}
+
+	/**
+	 * Gets a reader for an image.
+	 * 
+	 * @param in
+	 *            The image stream.
+	 * @param input
+	 *            The image file, for the error message.
+	 * @return The reader.
+	 * @throws IOException
+	 *             Thrown if no reader can read the image.
+	 */
+	private static ImageReader getReader(ImageInputStream in, File input) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+
+		if (!readers.hasNext()) {
+			throw new IOException("No reader for " + input);
+		}
+
+		return readers.next();
+	}
+
+	/**
+	 * Checks that an output file can be written tile by tile, so a run can
+	 * fail before any work is done.
+	 * 
+	 * @param output
+	 *            The output file.
+	 * @throws IOException
+	 *             Thrown if no installed writer can write the file's format
+	 *             tile by tile.
+	 */
+	public static void checkOutput(File output) throws IOException {
+		getWriter(getFormat(output)).dispose();
+	}
+
+	/**
+	 * Gets a writer for a format that can write an empty image and fill it in
+	 * later. Java 8 has no TIFF writer at all; the JDK ships one from Java 9
+	 * on, and a TIFF ImageIO plugin adds one to older runtimes.
+	 * 
+	 * @param format
+	 *            The format name.
+	 * @return The writer.
+	 * @throws IOException
+	 *             Thrown if there is no such writer for the format.
+	 */
+	private static ImageWriter getWriter(String format) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		boolean found = writers.hasNext();
+
+		while (writers.hasNext()) {
+			ImageWriter writer = writers.next();
+
+			// The writer only answers once it has an output, so it is given one that is never written
+			try (ImageOutputStream probe = new MemoryCacheImageOutputStream(new ByteArrayOutputStream())) {
+				writer.setOutput(probe);
+
+				boolean canWriteEmpty = writer.canWriteEmpty();
+				writer.setOutput(null);
+
+				if (canWriteEmpty) {
+					return writer;
+				}
+			}
+
+			writer.dispose();
+		}
+
+		if (format.equals("tif") || format.equals("tiff")) {
+			throw new IOException("No TIFF writer is installed; tiled output needs Java 9 or later, or a TIFF"
+					+ " ImageIO plugin such as jai-imageio on the class path.");
+		}
+
+		throw new IOException((found ? "The " + format + " writer cannot write tile by tile"
+				: "No writer for format " + format) + "; use a .tif output file.");
+	}
+
+	/**
+	 * Rounds a size up to a multiple of the TIFF tile size multiple.
+	 * 
+	 * @param size
+	 *            The size in pixels.
+	 * @return The rounded size.
+	 */
+	private static int roundUp(int size) {
+		return (size + TILE_MULTIPLE - 1) / TILE_MULTIPLE * TILE_MULTIPLE;
+	}
+
+	/**
+	 * Gets the image format of a file from its extension.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The format name.
+	 */
+	private static String getFormat(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		int dot = name.lastIndexOf('.');
+
+		return dot < 0 ? "tif" : name.substring(dot + 1);
+	}
+}
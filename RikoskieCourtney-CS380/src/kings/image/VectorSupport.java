@@ -0,0 +1,68 @@
+package kings.image;
+
+/**
+ * Finds the SIMD image processor. The SIMD processor is built on the JDK
+ * Vector API, which is only present on newer JDKs started with
+ * <code>--add-modules jdk.incubator.vector</code>, so it is loaded by name and
+ * the serial processor is used when it cannot be loaded.
+ * 
+ * @author Courtney Rikoskie
+ * @version 10-14-19
+ */
+public final class VectorSupport {
+	/** The name of the SIMD image processor class. */
+	private static final String PROCESSOR_CLASS = "kings.image.VectorImageProcessor";
+
+	/** The SIMD image processor class, or null if it cannot be loaded. */
+	private static final Class<? extends ImageProcessor> PROCESSOR = findProcessor();
+
+	/**
+	 * Not meant to be instantiated.
+	 */
+	private VectorSupport() {
+	}
+
+	/**
+	 * Checks whether the SIMD image processor can be used.
+	 * 
+	 * @return True if the Vector API is present.
+	 */
+	public static boolean isAvailable() {
+		return PROCESSOR != null;
+	}
+
+	/**
+	 * Creates the SIMD image processor, or a serial image processor if the
+	 * Vector API is not present.
+	 * 
+	 * @return The image processor.
+	 */
+	public static ImageProcessor createProcessor() {
+		if (PROCESSOR != null) {
+			try {
+				return PROCESSOR.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				// fall through to the serial processor
+			}
+		}
+
+		return new ImageProcessor();
+	}
+
+	/**
+	 * Loads the SIMD image processor class and makes sure the Vector API can be
+	 * initialized.
+	 * 
+	 * @return The SIMD image processor class, or null if it cannot be loaded.
+	 */
+	private static Class<? extends ImageProcessor> findProcessor() {
+		try {
+			Class<? extends ImageProcessor> type = Class.forName(PROCESSOR_CLASS).asSubclass(ImageProcessor.class);
+			type.getMethod("getLanes").invoke(null);
+
+			return type;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+#ifndef RADIUS_X
+#define RADIUS_X 1
+#endif
+
+#ifndef RADIUS_Y
+#define RADIUS_Y 1
+#endif
+
+#ifndef TILE_WIDTH
+#define TILE_WIDTH 16
+#endif
+
+#ifndef TILE_HEIGHT
+#define TILE_HEIGHT 16
+#endif
+
+#define WINDOW_WIDTH (TILE_WIDTH + 2 * RADIUS_X)
+#define WINDOW_HEIGHT (TILE_HEIGHT + 2 * RADIUS_Y)
+#define KERNEL_WIDTH (2 * RADIUS_X + 1)
+
+__kernel void
+convolution_kernel(__global const int * input, __global int * result, __constant float * weights, int width,
+		int height)
+{
+	__local int window[WINDOW_WIDTH * WINDOW_HEIGHT];
+
+	int localX = get_local_id(0);
+	int localY = get_local_id(1);
+	int left = get_group_id(0) * TILE_WIDTH - RADIUS_X;
+	int top = get_group_id(1) * TILE_HEIGHT - RADIUS_Y;
+
+	// The work-group copies its tile and the halo around it once, repeating
+	// the edge pixels, so every tap below reads local memory
+	for (int y = localY; y < WINDOW_HEIGHT; y += TILE_HEIGHT) {
+		int row = clamp(top + y, 0, height - 1) * width;
+
+		for (int x = localX; x < WINDOW_WIDTH; x += TILE_WIDTH) {
+			window[y * WINDOW_WIDTH + x] = input[row + clamp(left + x, 0, width - 1)];
+		}
+	}
+
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	int x = get_global_id(0);
+	int y = get_global_id(1);
+
+	if (x >= width || y >= height) {
+		return;
+	}
+
+	float red = 0;
+	float green = 0;
+	float blue = 0;
+
+	for (int ky = 0; ky <= 2 * RADIUS_Y; ky++) {
+		for (int kx = 0; kx <= 2 * RADIUS_X; kx++) {
+			int pixel = window[(localY + ky) * WINDOW_WIDTH + localX + kx];
+			float weight = weights[ky * KERNEL_WIDTH + kx];
+
+			red += weight * ((pixel >> 16) & 0xff);
+			green += weight * ((pixel >> 8) & 0xff);
+			blue += weight * (pixel & 0xff);
+		}
+	}
+
+	int center = window[(localY + RADIUS_Y) * WINDOW_WIDTH + localX + RADIUS_X];
+
+	int newRed = clamp((int) (red + 0.5f), 0, 255);
+	int newGreen = clamp((int) (green + 0.5f), 0, 255);
+	int newBlue = clamp((int) (blue + 0.5f), 0, 255);
+
+	result[y * width + x] = (newRed << 16) | (newGreen << 8) | newBlue | (0xff000000 & center);
+}
\ No newline at end of file
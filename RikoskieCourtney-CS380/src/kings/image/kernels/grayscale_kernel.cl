@@ -14,7 +14,7 @@ grayscale_kernel(__global const int * input, __global int * result)
 
 	int blue = pixel & 0x000000ff;
 		    
-	int gray = (int) (red * 0.299 + green * 0.587 + blue * 0.114);
+	int gray = (red * 19595 + green * 38470 + blue * 7471) >> 16;
 
 	int newPixel = (gray << 16) | (gray << 8) | gray | (0xff000000 & pixel);
         
@@ -0,0 +1,28 @@
+#ifndef VECTORS_PER_ITEM
+#define VECTORS_PER_ITEM 1
+#endif
+
+__kernel void
+grayscale_vec_kernel(__global const int4 * input, __global int4 * result, int count) 
+{ 
+	int first = get_global_id(0);
+	int stride = get_global_size(0);
+
+	// Each work-item handles VECTORS_PER_ITEM groups of four pixels, spaced a
+	// full grid apart so neighbouring work-items still read neighbouring memory
+	for (int k = 0; k < VECTORS_PER_ITEM; k++) {
+		int i = first + k * stride;
+
+		if (i < count) {
+			int4 pixel = input[i];
+
+			int4 red = (pixel >> 16) & 0xff;
+			int4 green = (pixel >> 8) & 0xff;
+			int4 blue = pixel & 0xff;
+
+			int4 gray = (red * 19595 + green * 38470 + blue * 7471) >> 16;
+
+			result[i] = (gray << 16) | (gray << 8) | gray | (pixel & (int4) (0xff000000));
+		}
+	}
+}
\ No newline at end of file
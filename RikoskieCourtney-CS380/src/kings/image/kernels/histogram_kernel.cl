@@ -0,0 +1,37 @@
+#define BINS 256
+#define COUNTS (4 * BINS)
+
+__kernel void
+histogram_kernel(__global const int * input, __global uint * histogram, int length)
+{
+	__local uint counts[COUNTS];
+
+	for (int bin = get_local_id(0); bin < COUNTS; bin += get_local_size(0)) {
+		counts[bin] = 0;
+	}
+
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	// Each work-item counts every pixel a global size apart into the
+	// work-group's own histograms, so the atomics stay in local memory
+	for (int i = get_global_id(0); i < length; i += get_global_size(0)) {
+		int pixel = input[i];
+		int red = (pixel >> 16) & 0xff;
+		int green = (pixel >> 8) & 0xff;
+		int blue = pixel & 0xff;
+
+		atomic_inc(&counts[red]);
+		atomic_inc(&counts[BINS + green]);
+		atomic_inc(&counts[2 * BINS + blue]);
+		atomic_inc(&counts[3 * BINS + ((red * 19595 + green * 38470 + blue * 7471) >> 16)]);
+	}
+
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	// One global atomic per used bin merges the work-group into the image
+	for (int bin = get_local_id(0); bin < COUNTS; bin += get_local_size(0)) {
+		if (counts[bin] != 0) {
+			atomic_add(&histogram[bin], counts[bin]);
+		}
+	}
+}
\ No newline at end of file
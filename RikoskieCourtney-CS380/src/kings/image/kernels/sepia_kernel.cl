@@ -1,5 +1,5 @@
 __kernel void
-sepia_kernel(__global const int * input, __global int * result) 
+sepia_kernel(__global const int * input, __global int * result, int depth, int intensity) 
 { 
     	int i = get_global_id(0);
 
@@ -16,21 +16,14 @@ sepia_kernel(__global const int * input, __global int * result)
 		    
 	int average = (int) ((red + blue + green) / 3);
 			    
-	red = average + (20 * 2);
-	blue = average - 30;
-	green = average + 20;
+	red = average + (depth * 2);
+	blue = average - intensity;
+	green = average + depth;
 			    
-	if (red > 255) {
-		red = 255;
-	}
-			 
-	if (green > 255) {
-	 	green = 255;
-	}
-			    
-	if (blue < 0) {
-	  	blue = 0;
-	}
+	// Runtime depth and intensity can push any channel out of range
+	red = clamp(red, 0, 255);
+	green = clamp(green, 0, 255);
+	blue = clamp(blue, 0, 255);
 
 	int newPixel = (red << 16) | (green << 8) | blue | (0xff000000 & pixel);
         
@@ -0,0 +1,32 @@
+#ifndef VECTORS_PER_ITEM
+#define VECTORS_PER_ITEM 1
+#endif
+
+__kernel void
+sepia_vec_kernel(__global const int4 * input, __global int4 * result, int depth, int intensity, int count) 
+{ 
+	int first = get_global_id(0);
+	int stride = get_global_size(0);
+
+	// Each work-item handles VECTORS_PER_ITEM groups of four pixels, spaced a
+	// full grid apart so neighbouring work-items still read neighbouring memory
+	for (int k = 0; k < VECTORS_PER_ITEM; k++) {
+		int i = first + k * stride;
+
+		if (i < count) {
+			int4 pixel = input[i];
+
+			int4 red = (pixel >> 16) & 0xff;
+			int4 green = (pixel >> 8) & 0xff;
+			int4 blue = pixel & 0xff;
+
+			int4 average = (red + green + blue) / 3;
+
+			red = clamp(average + (depth * 2), 0, 255);
+			green = clamp(average + depth, 0, 255);
+			blue = clamp(average - intensity, 0, 255);
+
+			result[i] = (red << 16) | (green << 8) | blue | (pixel & (int4) (0xff000000));
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,56 @@
+#ifndef TILE_WIDTH
+#define TILE_WIDTH 16
+#endif
+
+#ifndef TILE_HEIGHT
+#define TILE_HEIGHT 16
+#endif
+
+#define WINDOW_WIDTH (TILE_WIDTH + 2)
+#define WINDOW_HEIGHT (TILE_HEIGHT + 2)
+
+__kernel void
+sobel_kernel(__global const int * input, __global int * result, int width, int height)
+{
+	__local int luma[WINDOW_WIDTH * WINDOW_HEIGHT];
+
+	int localX = get_local_id(0);
+	int localY = get_local_id(1);
+	int left = get_group_id(0) * TILE_WIDTH - 1;
+	int top = get_group_id(1) * TILE_HEIGHT - 1;
+
+	// The work-group turns its tile and a one pixel halo into luma once, so
+	// each of the eight neighbours below is a local memory read
+	for (int y = localY; y < WINDOW_HEIGHT; y += TILE_HEIGHT) {
+		int row = clamp(top + y, 0, height - 1) * width;
+
+		for (int x = localX; x < WINDOW_WIDTH; x += TILE_WIDTH) {
+			int pixel = input[row + clamp(left + x, 0, width - 1)];
+
+			luma[y * WINDOW_WIDTH + x] = (((pixel >> 16) & 0xff) * 19595 + ((pixel >> 8) & 0xff) * 38470
+					+ (pixel & 0xff) * 7471) >> 16;
+		}
+	}
+
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	int x = get_global_id(0);
+	int y = get_global_id(1);
+
+	if (x >= width || y >= height) {
+		return;
+	}
+
+	int topRow = localY * WINDOW_WIDTH + localX;
+	int middle = topRow + WINDOW_WIDTH;
+	int bottom = middle + WINDOW_WIDTH;
+
+	int gradientX = luma[topRow + 2] + 2 * luma[middle + 2] + luma[bottom + 2] - luma[topRow] - 2 * luma[middle]
+			- luma[bottom];
+	int gradientY = luma[bottom] + 2 * luma[bottom + 1] + luma[bottom + 2] - luma[topRow] - 2 * luma[topRow + 1]
+			- luma[topRow + 2];
+
+	int edge = min((int) (sqrt((float) (gradientX * gradientX + gradientY * gradientY)) + 0.5f), 255);
+
+	result[y * width + x] = (edge << 16) | (edge << 8) | edge | (0xff000000 & input[y * width + x]);
+}
\ No newline at end of file